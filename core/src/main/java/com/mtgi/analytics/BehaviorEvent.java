@@ -13,11 +13,10 @@
  
 package com.mtgi.analytics;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.Date;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * <i>Applications should generally not have to interact with BehaviorEvent directly.</i>
@@ -35,12 +34,18 @@ import org.apache.commons.logging.LogFactory;
  * may be composed of child events, and so on; an event's parent is
  * accessed with {@link #getParent()}.
  * 
+ * <p>If {@link BehaviorTrackingManagerImpl#setEventPoolSize(int) event pooling} is enabled,
+ * an event instance and its data are reset and reused once the event and all of its
+ * children have been persisted.  References to pooled events must not be retained after they
+ * are handed to a {@link BehaviorEventPersister}.</p>
+ * 
  * @see BehaviorTrackingManager
  */
 public class BehaviorEvent implements Serializable {
 
 	private static final long serialVersionUID = -5341143588240860983L;
-	private static final Log log = LogFactory.getLog(BehaviorEvent.class);
+	private static final AtomicIntegerFieldUpdater<BehaviorEvent> REFERENCES =
+		AtomicIntegerFieldUpdater.newUpdater(BehaviorEvent.class, "references");
 
 	private Serializable id;
 	private BehaviorEvent parent;
@@ -50,12 +55,38 @@ public class BehaviorEvent implements Serializable {
 	private String userId;
 	private String sessionId;
 	private Date start;
-	private Long startNs;
-	private Long duration;
+	private boolean started;
+	private long startNs;
+	private long duration = -1;
+	//if not negative, the duration reported on stop instead of the measured time.
+	private long fixedDuration = -1;
 	private EventDataElement data = DeferredDataElement.INSTANCE;
 	private String error;
+	//false if head sampling did not select the tree containing this event.
+	private boolean sampled = true;
+	
+	//tail sampling only: completed descendants of an unsampled root event, linked through nextHeld,
+	//which are waiting for the root to finish; and whether any of them failed.
+	private transient BehaviorEvent held;
+	private transient BehaviorEvent nextHeld;
+	private transient boolean heldError;
+	private transient int heldCount;
+	
+	//pooled events only: the owning pool, the number of outstanding references
+	//(this event and its unreleased children), and the data element saved for reuse.
+	private transient EventPool pool;
+	private transient volatile int references;
+	private transient EventDataElement spareData;
+	
+	//leak detection only: the reference watching this event until it stops, if it was chosen for watching.
+	private transient EventLeakDetector.Watch leakWatch;
 	
 	protected BehaviorEvent(BehaviorEvent parent, String type, String name, String application, String userId, String sessionId) {
+		init(parent, type, name, application, userId, sessionId);
+	}
+	
+	/** assign the read-only properties of this event, either at construction or when it is reused from a pool */
+	final void init(BehaviorEvent parent, String type, String name, String application, String userId, String sessionId) {
 		this.parent = parent;
 		this.type = type;
 		this.name = name;
@@ -64,12 +95,6 @@ public class BehaviorEvent implements Serializable {
 		this.sessionId = sessionId;
 	}
 
-	@Override
-	protected void finalize() {
-		if (isStarted() && !isEnded())
-			log.warn("Event [" + type + ":" + name + ":" + id + "] was started and then discarded!");
-	}
-	
 	/**
 	 * Notification that this event has started.  {@link #getStart()}
 	 * will return the time at which the event began.
@@ -81,7 +106,13 @@ public class BehaviorEvent implements Serializable {
 	protected void start() {
 		if (isStarted())
 			throw new IllegalStateException("Event has already started");
-		start = new Date();
+		long now = System.currentTimeMillis();
+		//pooled events keep their Date instance across uses.
+		if (start == null)
+			start = new Date(now);
+		else
+			start.setTime(now);
+		started = true;
 		startNs = System.nanoTime();
 	}
 	
@@ -98,17 +129,28 @@ public class BehaviorEvent implements Serializable {
 			throw new IllegalStateException("Event has not started");
 		if (isEnded())
 			throw new IllegalStateException("Event has already ended");
-		duration = System.nanoTime() - startNs;
+		duration = fixedDuration >= 0 ? fixedDuration : System.nanoTime() - startNs;
+	}
+	
+	/**
+	 * Report the given duration for this event when it is stopped, instead of the time elapsed since it
+	 * was started.  Useful for events that summarize time accumulated over several intervals.
+	 * @throws IllegalStateException if this event is already finished
+	 */
+	public void setDurationNs(long durationNs) {
+		if (isEnded())
+			throw new IllegalStateException("Event has already ended");
+		fixedDuration = durationNs;
 	}
 	
 	/** @return true if this event has started already */
 	protected boolean isStarted() {
-		return start != null;
+		return started;
 	}
 
 	/** @return true if this event is finished */
 	protected boolean isEnded() {
-		return duration != null;
+		return duration >= 0;
 	}
 	
 	/** @return true if this event is not nested in some other event */
@@ -137,16 +179,34 @@ public class BehaviorEvent implements Serializable {
 	 * @deprecated to be removed after 1.4.0, use {@link #getDurationNs()} instead
 	 */
 	public Long getDuration() {
-		return duration == null ? null : duration / 1000000;
+		return duration < 0 ? null : duration / 1000000;
 	}
 	
 	/**
 	 * If this event is finished, return its duration (in nanoseconds).  Otherwise return null.
 	 */
 	public Long getDurationNs() {
-		return duration;
+		return duration < 0 ? null : duration;
 	}
 
+	/**
+	 * Returns false if this event belongs to a tree of events that was not selected by
+	 * {@link BehaviorTrackingManagerImpl#setSampleRate(double) sampling}.  Unsampled events
+	 * are only persisted if their tree is retained by tail sampling.
+	 * @see #isCapturingData()
+	 */
+	public boolean isSampled() {
+		return sampled;
+	}
+	
+	/**
+	 * Returns false if data added to this event is discarded, so instrumentation can skip gathering it.
+	 * This is the case for unsampled events, unless tail sampling is enabled and might still record them.
+	 */
+	public boolean isCapturingData() {
+		return data != UnsampledDataElement.INSTANCE;
+	}
+	
 	/** If this event ended in error, return a description of that error (null otherwise) */
 	public String getError() {
 		return error;
@@ -197,7 +257,7 @@ public class BehaviorEvent implements Serializable {
 	 * Otherwise return null.
 	 */
 	public Date getStart() {
-		return start;
+		return started ? start : null;
 	}
 
 	/**
@@ -240,8 +300,8 @@ public class BehaviorEvent implements Serializable {
 		buf.append(" type=\"").append(type).append('"')
 		   .append(" name=\"").append(name).append('"')
 		   .append(" application=\"").append(application).append('"')
-		   .append(" start=\"").append(start).append('"')
-		   .append(" duration-ns=\"").append(duration).append('"')
+		   .append(" start=\"").append(getStart()).append('"')
+		   .append(" duration-ns=\"").append(getDurationNs()).append('"')
 		   .append(" user-id=\"").append(userId).append('"')
 		   .append(" session-id=\"").append(sessionId).append('"')
 		   .append(" error=\"").append(error).append('"');
@@ -249,6 +309,106 @@ public class BehaviorEvent implements Serializable {
 		return buf.toString();
 	}
 	
+	/** 
+	 * exclude this event from sampling.
+	 * @param captureData false to discard any data subsequently added to the event
+	 */
+	void setUnsampled(boolean captureData) {
+		sampled = false;
+		if (!captureData)
+			data = UnsampledDataElement.INSTANCE;
+	}
+	
+	/** 
+	 * hold a completed descendant of this event, which must be the root of an unsampled tree,
+	 * until this event has completed and tail sampling can decide whether to keep the tree.
+	 * An error in the descendant is noted even if it is not held.
+	 * @param limit the maximum number of descendants to hold
+	 * @return false if the limit has been reached, in which case the descendant is not held
+	 */
+	boolean hold(BehaviorEvent descendant, int limit) {
+		if (descendant.error != null)
+			heldError = true;
+		if (heldCount >= limit)
+			return false;
+		descendant.nextHeld = held;
+		held = descendant;
+		++heldCount;
+		return true;
+	}
+	
+	/** @return true if any descendant passed to {@link #hold(BehaviorEvent)} ended in error */
+	boolean isHeldError() {
+		return heldError;
+	}
+	
+	/** remove and return the first of the held events, which are linked by {@link #getNextHeld()} */
+	BehaviorEvent takeHeld() {
+		BehaviorEvent ret = held;
+		held = null;
+		heldError = false;
+		heldCount = 0;
+		return ret;
+	}
+	
+	/** @return the held event following this one, if any */
+	BehaviorEvent getNextHeld() {
+		return nextHeld;
+	}
+	
+	void setLeakWatch(EventLeakDetector.Watch leakWatch) {
+		this.leakWatch = leakWatch;
+	}
+	
+	/** remove and return the leak detection reference watching this event, if any */
+	EventLeakDetector.Watch takeLeakWatch() {
+		EventLeakDetector.Watch ret = leakWatch;
+		leakWatch = null;
+		return ret;
+	}
+	
+	/** mark this event as belonging to the given pool, holding a single reference on behalf of the event itself */
+	void setPool(EventPool pool) {
+		this.pool = pool;
+		this.references = 1;
+	}
+	
+	EventPool getPool() {
+		return pool;
+	}
+	
+	/** add a reference on behalf of a child event, preventing recycling until the child is released */
+	void retain() {
+		REFERENCES.incrementAndGet(this);
+	}
+	
+	/** @return true if this call released the last outstanding reference to this event */
+	boolean release() {
+		return REFERENCES.decrementAndGet(this) == 0;
+	}
+	
+	/**
+	 * Clear all state so that this instance can be reused for a new event.  Event data is cleared
+	 * and kept for reuse by the next call to {@link #addData()}.
+	 */
+	void recycle() {
+		init(null, null, null, null, null, null);
+		id = null;
+		error = null;
+		started = false;
+		startNs = 0;
+		duration = fixedDuration = -1;
+		sampled = true;
+		held = nextHeld = null;
+		heldError = false;
+		heldCount = 0;
+		if (!data.isNull()) {
+			data.recycle();
+			spareData = data;
+		}
+		data = DeferredDataElement.INSTANCE;
+	}
+	
 	/** 
 	 * a singleton empty data element, for events that do not need to define any data.
 	 * Replaces itself with a new, standard EventDataElement instance on the first call
@@ -269,7 +429,56 @@ public class BehaviorEvent implements Serializable {
 
 		@Override
 		protected EventDataElement initialize(BehaviorEvent event) {
-			return event.data = new EventDataElement("event-data");
+			EventDataElement data = event.spareData;
+			if (data == null) {
+				data = new EventDataElement("event-data");
+				if (event.pool != null)
+					data.enablePooling();
+			}
+			return event.data = data;
+		}
+	}
+	
+	/**
+	 * a singleton data element for unsampled events, which silently discards anything
+	 * added to it so that instrumentation code does not need to check {@link BehaviorEvent#isSampled()}.
+	 */
+	private static class UnsampledDataElement extends EventDataElement {
+		private static final long serialVersionUID = 2394712390823717601L;
+		private static final UnsampledDataElement INSTANCE = new UnsampledDataElement();
+		private UnsampledDataElement() {
+			super("event-data");
+		}
+		
+		@Override
+		public boolean isNull() {
+			return true;
+		}
+		
+		@Override
+		public boolean isEmpty() {
+			return true;
+		}
+		
+		@Override
+		public void add(String name, Object value) {
+		}
+		
+		@Override
+		public EventDataElement addElement(String name) {
+			return this;
+		}
+		
+		@Override
+		public void addElement(EventDataElement child) {
+		}
+		
+		@Override
+		public void setText(String text) {
+		}
+		
+		private Object readResolve() throws ObjectStreamException {
+			return INSTANCE;
 		}
 	}
 }
@@ -32,6 +32,13 @@ public interface BehaviorEventPersister {
 	 * <p>Some members of the given collection may have parent events that 
 	 * are not in the collection itself.  These parent events should 
 	 * not be persisted, though they <i>must</i> be assigned IDs.</p>
+	 * 
+	 * <p>The persister owns the given events, including their parents and 
+	 * {@link BehaviorEvent#getData() data}, only until this method returns.  When
+	 * {@link BehaviorTrackingManagerImpl#setEventPoolSize(int) event pooling} is enabled,
+	 * the caller resets and reuses the events afterwards, so persisters must not keep references
+	 * to events, event data, or start dates once this method has returned.  Persisters that
+	 * write asynchronously must not be used with event pooling.</p>
 	 */
 	public void persist(Queue<BehaviorEvent> events);
 }
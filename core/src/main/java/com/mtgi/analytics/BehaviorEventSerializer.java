@@ -13,19 +13,21 @@
  
 package com.mtgi.analytics;
 
-import java.text.SimpleDateFormat;
-
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
-import com.mtgi.xml.XmlDateFormat;
+import com.mtgi.xml.XmlDateFormatter;
 
+/**
+ * Writes behavior events as XML <code>event</code> elements.  Instances are not thread safe; create one
+ * per output stream and reuse it for every event written to that stream.
+ */
 public class BehaviorEventSerializer {
 
 	private static final EventDataElementSerializer dataSerializer = new EventDataElementSerializer(null);
 	
 	/** date output format that conforms with XSD dateTime formatting conventions */
-	private SimpleDateFormat XS_DATE_FORMAT = new XmlDateFormat();
+	private XmlDateFormatter XS_DATE_FORMAT = new XmlDateFormatter();
 	
 	public void serialize(XMLStreamWriter writer, BehaviorEvent event) throws XMLStreamException {
 		writer.writeStartElement("event");
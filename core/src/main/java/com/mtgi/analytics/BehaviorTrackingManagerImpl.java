@@ -14,6 +14,11 @@
 package com.mtgi.analytics;
 
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -21,6 +26,7 @@ import org.springframework.aop.framework.AopInfrastructureBean;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.core.Conventions;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedOperation;
@@ -38,6 +44,28 @@ import com.mtgi.analytics.servlet.SpringSessionContext;
  * or by the Quartz scheduler), or when the queue of uncommitted events exceeds
  * the configured threshold value.  The flush threshold can be configured with
  * {@link #setFlushThreshold(int)}.</p>
+ * 
+ * <p>The flush threshold is only advisory.  To protect the heap when the persister
+ * cannot keep up, a hard limit on the number of completed events held in memory
+ * can be set with {@link #setMaxPendingEvents(int)}; events that arrive when the
+ * limit is reached are handled according to the configured {@link OverflowPolicy}.</p>
+ * 
+ * <p>To reduce garbage collection pressure in heavily instrumented applications, event
+ * instances and their data can be recycled once they have been persisted by enabling
+ * an {@link #setEventPoolSize(int) event pool}.</p>
+ * 
+ * <p>Event volume can be reduced by sampling.  Head sampling selects a fraction of root events,
+ * according to a {@link #setSampleRate(double) default rate} and optional 
+ * {@link #setSampleRates(Map) per-type and per-name rates}; child events belong to the same sample
+ * as their root.  Tail sampling can then retain unsampled trees that
+ * {@link #setTailSampleErrors(boolean) ended in error} or whose root took longer than
+ * a {@link #setTailLatencyThreshold(long) latency threshold}; otherwise unsampled trees are discarded
+ * without being persisted.  Events in unsampled trees discard their data unless tail sampling is enabled,
+ * in which case completed events are held in memory until their root finishes, up to
+ * {@link #setTailMaxHeldEvents(int) a limit} per tree.</p>
+ * 
+ * <p>One in every {@link #setLeakDetectionInterval(int) leakDetectionInterval} root events is watched
+ * for being garbage collected without having been stopped, which is logged as a warning.</p>
  */
 @ManagedResource(objectName="com.mtgi.analytics:name=BeetManager", 
 		 		 description="Monitor and control basic beet behavior")
@@ -63,8 +91,16 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 	 * fairly easy for us.  By definition each BehaviorEvent is tied to exactly one thread,
 	 * so we can leave its implementation completely unsynchronized.  The only place where
 	 * we have contention among threads is as completed events are added to the persistence
-	 * queue, so we must add some synchronization there.  We enter synchronized blocks
-	 * sparingly and leave quickly to avoid creating bottlenecks.
+	 * queue.  Every application thread passes through there at least once per tracked call,
+	 * so we avoid monitors entirely:  completed events go onto a lock-free queue, the pending
+	 * count is an atomic counter, and at most one application thread wins the compare-and-set
+	 * on the 'flushRequested' flag when the threshold is crossed.  The flush job is the only
+	 * consumer that drains the queue.
+	 * 
+	 * Memory is bounded by an optional hard capacity.  Producers reserve a slot by incrementing
+	 * the pending count before offering to the queue; a producer that finds the count over
+	 * capacity consults the OverflowPolicy, which either discards an event or waits for
+	 * the flush job to make room.
 	 * 
 	 * Finally, and perhaps of most concern, we have the issue of event lifecycle contracts.
 	 * Attempting to start or stop created events multiple times or out of sequence, to stop 
@@ -85,21 +121,49 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 	
 	private String name;
 	private SessionContext sessionContext;
+	private boolean inheritSessionContext = false;
 	private BehaviorEventPersister persister;
 	private String application;
 	private int flushThreshold = 100;
+	private int maxPendingEvents = 0;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.dropNewest;
+	private long overflowTimeout = 100;
 	private TaskExecutor executor;
+	private EventIdGenerator idGenerator;
+	private int eventPoolSize = 0;
+	//reusable event instances, or null if pooling is disabled.
+	private EventPool pool;
+	private double sampleRate = 1.0;
+	private Map<String, Double> sampleRates;
+	private long tailLatencyThreshold = 0;
+	private boolean tailSampleErrors = false;
+	private int tailMaxHeldEvents = 1000;
+	//head sampling decisions, or null if all events are sampled.
+	private EventSampler sampler;
+	//number of unsampled event trees discarded, and number retained by tail sampling.
+	private AtomicLong unsampledTrees = new AtomicLong();
+	private AtomicLong tailSampledTrees = new AtomicLong();
+	//number of events in unsampled trees discarded because the tree held too many events.
+	private AtomicLong tailOverflowEvents = new AtomicLong();
+	private int leakDetectionInterval = 100;
+	//watches a sample of root events for being discarded without being stopped, or null if disabled.
+	private EventLeakDetector leakDetector;
 
 	//tracks the currently executing event on the calling thread
 	private ThreadLocal<BehaviorEvent> event = new ThreadLocal<BehaviorEvent>();
 
-	//accumulates completed root-level events waiting to be persisted
-	private LinkedList<BehaviorEvent> writeBuffer = new LinkedList<BehaviorEvent>();
-	private Object bufferSync = new Object();
-	//number of total completed events since the last flush job was queued.
-	private volatile int pendingFlush = 0;
+	//accumulates completed events waiting to be persisted; many producers, drained by flush()
+	private ConcurrentLinkedQueue<BehaviorEvent> writeBuffer = new ConcurrentLinkedQueue<BehaviorEvent>();
+	//number of completed events added to writeBuffer and not yet drained by a flush.
+	private AtomicInteger pendingFlush = new AtomicInteger();
 	//whether a flush has been requested since the last flush was run.
-	private volatile boolean flushRequested = false;
+	private AtomicBoolean flushRequested = new AtomicBoolean();
+	//number of completed events discarded due to buffer overflow.
+	private AtomicLong droppedEvents = new AtomicLong();
+	//largest value of pendingFlush observed since startup or the last statistics reset.
+	private AtomicInteger pendingHighWaterMark = new AtomicInteger();
+	//monitor used by the 'block' overflow policy to wait for a flush to free capacity.
+	private Object capacitySync = new Object();
 	
 	//whether logging has been temporarily suspended.
 	private volatile boolean suspended = false;
@@ -125,9 +189,25 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 	public BehaviorEvent createEvent(String type, String name) {
 		//TODO: stack depth limits.  hand out a singleton dummy event if there are already
 		//too many pending events waiting for closure.
-		return new BehaviorEvent(event.get(), type, name, application, 
-								 sessionContext.getContextUserId(), 
-								 sessionContext.getContextSessionId());
+		BehaviorEvent parent = event.get();
+		String userId, sessionId;
+		if (parent != null && inheritSessionContext) {
+			//the parent is the running event on this thread, so it holds the values resolved for the root.
+			userId = parent.getUserId();
+			sessionId = parent.getSessionId();
+		} else {
+			userId = sessionContext.getContextUserId();
+			sessionId = sessionContext.getContextSessionId();
+		}
+		BehaviorEvent ret = pool == null
+			? new BehaviorEvent(parent, type, name, application, userId, sessionId)
+			: pool.obtain(parent, type, name, application, userId, sessionId);
+		//children share the sampling decision made for their root.
+		if (parent == null ? sampler != null && !sampler.sample(type, name) : !parent.isSampled())
+			ret.setUnsampled(isTailSampling());
+		else if (idGenerator != null)
+			ret.setId(idGenerator.nextId());
+		return ret;
 	}
 
 	public void start(BehaviorEvent evt) {
@@ -138,6 +218,9 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 		evt.start();
 		//push event on stack.
 		event.set(evt);
+		
+		if (leakDetector != null && evt.isRoot())
+			leakDetector.started(evt);
 	}
 	
 	public void stop(BehaviorEvent evt) {
@@ -152,16 +235,38 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 			//pop the event stack
 			event.set(evt.getParent());
 		}
+		
+		if (leakDetector != null && evt.isRoot())
+			leakDetector.stopped(evt);
 
+		if (evt.isSampled())
+			enqueue(evt);
+		else
+			tailSample(evt);
+	}
+	
+	/** add a completed event to the write buffer, subject to suspension and overflow policy */
+	private void enqueue(BehaviorEvent evt) {
 		//if logging has been suspended, we just discard the finished event.
 		if (!suspended) {
+			//reserve space on the write queue, consulting the overflow policy
+			//if we are over capacity.
+			int pending = pendingFlush.incrementAndGet();
+			if (maxPendingEvents > 0 && pending > overflowPolicy.threshold(maxPendingEvents) && !overflowPolicy.admit(this, pending)) {
+				//event rejected; release our reservation.
+				pendingFlush.decrementAndGet();
+				droppedEvents.incrementAndGet();
+				release(evt);
+				return;
+			}
+
 			//put event on the write queue and check if the flush
 			//threshold has been crossed.
-			synchronized (bufferSync) {
-				++pendingFlush;
-				writeBuffer.add(evt);
-			}
-			flushIfNeeded();
+			writeBuffer.offer(evt);
+			updateHighWaterMark(pending);
+			flushIfNeeded(pending);
+		} else {
+			release(evt);
 		}
 	}
 
@@ -192,14 +297,26 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 	@ManagedOperation(description="Immediately flush all completed events to the behavior tracking database.  Returns the number of events written to the database (not counting the flush event that is also logged)")
 	public int flush() {
 		
-		LinkedList<BehaviorEvent> oldList = null;
-		//rotate the buffer.
-		synchronized(bufferSync) {
-			oldList = writeBuffer;
-			pendingFlush -= oldList.size();
-			writeBuffer = new LinkedList<BehaviorEvent>();
-			flushRequested = false;
+		//clear the request flag before draining, so that events completed while we
+		//are persisting can trigger the next flush.
+		flushRequested.set(false);
+
+		//drain only the events counted so far; anything that arrives during the
+		//drain waits for the next flush, so a busy application can't starve us.
+		LinkedList<BehaviorEvent> oldList = new LinkedList<BehaviorEvent>();
+		for (int remaining = pendingFlush.get(); remaining > 0; --remaining) {
+			BehaviorEvent next = writeBuffer.poll();
+			if (next == null)
+				break; //drained by a concurrent call to flush(), or reserved but not yet offered
+			oldList.add(next);
 		}
+		pendingFlush.addAndGet(-oldList.size());
+		
+		//wake up any application threads waiting for capacity.
+		if (overflowPolicy == OverflowPolicy.block && !oldList.isEmpty())
+			synchronized (capacitySync) {
+				capacitySync.notifyAll();
+			}
 		
 		//prevent no-ops from spewing a bunch of noise into the logs.
 		if (oldList.isEmpty())
@@ -221,6 +338,8 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 		flushEvent.start();
 
 		int count = oldList.size();
+		//the persister may modify the list, so keep track of which events to recycle afterwards.
+		BehaviorEvent[] persisted = pool == null ? null : oldList.toArray(new BehaviorEvent[count]);
 		event.set(flushEvent);
 		try {
 			
@@ -233,6 +352,10 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 			//restore stack state
 			event.set(flushEvent.getParent());
 			
+			if (persisted != null)
+				for (BehaviorEvent e : persisted)
+					pool.release(e);
+			
 			data.add("count", count);
 			flushEvent.stop();
 			
@@ -243,22 +366,113 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 		}
 	}
 	
-	private void flushIfNeeded() {
-		boolean requestFlush = false;
-		synchronized (bufferSync) {
-			//avoid queueing up duplicate requests by checking the 'flushRequested' flag.
-			if (flushRequested)
-				return;
-			if (!writeBuffer.isEmpty() && pendingFlush >= flushThreshold) {
-				requestFlush = flushRequested = true;
-				if (log.isDebugEnabled()) 
-					log.debug("requesting autoflush with " + pendingFlush + " events awaiting save");
+	private void flushIfNeeded(int pending) {
+		//avoid queueing up duplicate requests by checking the 'flushRequested' flag.  the plain
+		//read keeps threads from hammering the flag with compare-and-set while a flush is already pending.
+		if (pending >= flushThreshold && !flushRequested.get() && flushRequested.compareAndSet(false, true)) {
+			if (log.isDebugEnabled()) 
+				log.debug("requesting autoflush with " + pending + " events awaiting save");
+			executor.execute(flushJob);
+		}
+	}
+
+	/**
+	 * Handle completion of an event in an unsampled tree.  If tail sampling is enabled, events are held
+	 * on the root until it completes, and then the whole tree is either enqueued or discarded.
+	 */
+	private void tailSample(BehaviorEvent evt) {
+		BehaviorEvent root = evt.getParent();
+		if (root == null) {
+			boolean keep = (tailSampleErrors && (evt.getError() != null || evt.isHeldError()))
+						|| (tailLatencyThreshold > 0 && evt.getDurationNs() >= tailLatencyThreshold * 1000000);
+			(keep ? tailSampledTrees : unsampledTrees).incrementAndGet();
+			BehaviorEvent first = evt.takeHeld();
+			if (keep && idGenerator != null) {
+				//unsampled events are created without IDs.  assign them to the whole tree before any of it is
+				//enqueued, since a persister would otherwise assign IDs of its own to parents without one.
+				evt.setId(idGenerator.nextId());
+				for (BehaviorEvent held = first; held != null; held = held.getNextHeld())
+					held.setId(idGenerator.nextId());
+			}
+			for (BehaviorEvent held = first, next; held != null; held = next) {
+				//read the link first, since an enqueued event may be flushed and recycled at any time.
+				next = held.getNextHeld();
+				if (keep)
+					enqueue(held);
+				else
+					release(held);
+			}
+			if (keep)
+				enqueue(evt);
+			else
+				release(evt);
+		} else if (isTailSampling()) {
+			while (root.getParent() != null)
+				root = root.getParent();
+			if (!root.hold(evt, tailMaxHeldEvents)) {
+				tailOverflowEvents.incrementAndGet();
+				release(evt);
 			}
+		} else {
+			release(evt);
 		}
-		if (requestFlush)
-			executor.execute(flushJob);
 	}
 
+	/** @return true if unsampled trees may be retained by tail sampling */
+	private boolean isTailSampling() {
+		return tailSampleErrors || tailLatencyThreshold > 0;
+	}
+
+	/** return a discarded or persisted event to the event pool, if pooling is enabled */
+	private void release(BehaviorEvent evt) {
+		if (pool != null)
+			pool.release(evt);
+	}
+
+	/** raise {@link #pendingHighWaterMark} to <code>pending</code>, if it is not already higher */
+	private void updateHighWaterMark(int pending) {
+		for (int mark = pendingHighWaterMark.get(); 
+			 pending > mark && !pendingHighWaterMark.compareAndSet(mark, pending); 
+			 mark = pendingHighWaterMark.get())
+			;
+	}
+	
+	/**
+	 * Wait up to {@link #overflowTimeout} milliseconds for a flush to bring the pending event count
+	 * below capacity.  The caller holds a reservation on entry; the reservation is released while we wait,
+	 * so that blocked threads don't prevent each other from ever seeing free capacity.  The caller holds 
+	 * a reservation again on return, regardless of the result.
+	 * @return true if capacity was reserved for the caller's event, false if the timeout elapsed first.
+	 */
+	private boolean awaitCapacity(int pending) {
+		pendingFlush.decrementAndGet();
+		//make sure somebody is working on freeing up space.
+		flushIfNeeded(pending);
+		
+		long deadline = System.currentTimeMillis() + overflowTimeout;
+		synchronized (capacitySync) {
+			for (;;) {
+				int current = pendingFlush.get();
+				if (current < maxPendingEvents) {
+					if (pendingFlush.compareAndSet(current, current + 1))
+						return true;
+					continue;
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					break;
+				try {
+					capacitySync.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		pendingFlush.incrementAndGet();
+		return false;
+	}
+	
 	@ManagedAttribute(description="The application name for events published by this manager")
 	public String getApplication() {
 		return application;
@@ -266,7 +480,74 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 	
 	@ManagedAttribute(description="The number of completed events not yet flushed")
 	public int getEventsPendingFlush() {
-		return pendingFlush;
+		return pendingFlush.get();
+	}
+	
+	@ManagedAttribute(description="The number of completed events discarded because the event buffer was full")
+	public long getEventsDropped() {
+		return droppedEvents.get();
+	}
+	
+	@ManagedAttribute(description="The largest number of completed events awaiting flush at any one time")
+	public int getPendingHighWaterMark() {
+		return pendingHighWaterMark.get();
+	}
+	
+	@ManagedOperation(description="Reset the dropped event count and pending event high-water mark to zero.")
+	public void resetOverflowStatistics() {
+		droppedEvents.set(0);
+		pendingHighWaterMark.set(0);
+	}
+	
+	@ManagedAttribute(description="The maximum number of completed events held in memory awaiting flush, or 0 if unbounded")
+	public int getMaxPendingEvents() {
+		return maxPendingEvents;
+	}
+	
+	/**
+	 * Set a hard limit on the number of completed events held in memory awaiting flush.
+	 * Events completed while the limit is reached are handled according to the 
+	 * {@link #setOverflowPolicy(String) overflow policy}.  The default, 0, means no limit.
+	 * The limit should be comfortably larger than the {@link #setFlushThreshold(int) flush threshold},
+	 * so that events are not discarded merely because an automatic flush has not yet started.
+	 */
+	@ManagedAttribute(description="The maximum number of completed events held in memory awaiting flush, or 0 if unbounded")
+	public void setMaxPendingEvents(int maxPendingEvents) {
+		this.maxPendingEvents = maxPendingEvents;
+	}
+	
+	@ManagedAttribute(description="The policy applied to completed events when the event buffer is full")
+	public String getOverflowPolicy() {
+		return overflowPolicy.name();
+	}
+	
+	/**
+	 * Select how completed events are handled when the number of events awaiting flush
+	 * reaches {@link #setMaxPendingEvents(int)}.  Accepts the name of an {@link OverflowPolicy}
+	 * constant, either as written (<code>dropOldest</code>) or in attribute form (<code>drop-oldest</code>).
+	 * Default is <code>dropNewest</code>.
+	 */
+	@ManagedAttribute(description="The policy applied to completed events when the event buffer is full")
+	public void setOverflowPolicy(String policy) {
+		String name = Conventions.attributeNameToPropertyName(policy.trim());
+		for (OverflowPolicy p : OverflowPolicy.values())
+			if (p.name().equalsIgnoreCase(name)) {
+				this.overflowPolicy = p;
+				return;
+			}
+		throw new IllegalArgumentException("Unrecognized overflow policy " + policy);
+	}
+	
+	public long getOverflowTimeout() {
+		return overflowTimeout;
+	}
+	
+	/**
+	 * Set the maximum time in milliseconds that an application thread will wait for buffer capacity
+	 * under the <code>block</code> {@link OverflowPolicy} before its event is discarded.  Default is 100.
+	 */
+	public void setOverflowTimeout(long overflowTimeout) {
+		this.overflowTimeout = overflowTimeout;
 	}
 	
 	/**
@@ -291,6 +572,22 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 		return sessionContext;
 	}
 
+	/**
+	 * If true, only root events consult the {@link #setSessionContext(SessionContext) session context};
+	 * child events take their user and session id from their parent, so the context is resolved
+	 * once per root event rather than once per event.  Changes to the context made while a root event
+	 * is running (for example, by a login request) are then not seen until the next root event.
+	 * Default is false.
+	 */
+	public void setInheritSessionContext(boolean inheritSessionContext) {
+		this.inheritSessionContext = inheritSessionContext;
+	}
+
+	@ManagedAttribute(description="True if child events inherit user and session id from their parent instead of consulting the session context")
+	public boolean isInheritSessionContext() {
+		return inheritSessionContext;
+	}
+
 	/**
 	 * Provide a persister for saving finished events to the behavior tracking database.
 	 * @param persister
@@ -315,6 +612,153 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 	public TaskExecutor getExecutor() {
 		return executor;
 	}
+
+	/**
+	 * Provide a generator to assign IDs to events as they are created.  Persisters respect
+	 * IDs that are already assigned, so this avoids ID lookups at persistence time.  Default is null,
+	 * meaning IDs are assigned by the persister.
+	 */
+	public void setIdGenerator(EventIdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
+	}
+
+	public EventIdGenerator getIdGenerator() {
+		return idGenerator;
+	}
+	
+	/**
+	 * Enable recycling of event instances and their data, keeping up to the given number of idle
+	 * events for reuse.  An event is reused once it and all of its child events have been persisted or
+	 * discarded.  Pooling must only be used with persisters that do not retain events after
+	 * {@link BehaviorEventPersister#persist(java.util.Queue)} returns, and application code must not
+	 * refer to an event after it is {@link #stop(BehaviorEvent) stopped}.  This rules out
+	 * the asynchronous mode of {@link XmlBehaviorEventPersisterImpl} and the parallel mode of 
+	 * {@link ChainingEventPersisterImpl}, which {@link #afterPropertiesSet()} rejects for any
+	 * {@link EventRetainingPersister}.  Default is 0, meaning events are not pooled.
+	 * Changes take effect on the next call to {@link #afterPropertiesSet()}.
+	 */
+	public void setEventPoolSize(int eventPoolSize) {
+		this.eventPoolSize = eventPoolSize;
+	}
+
+	@ManagedAttribute(description="The maximum number of idle events kept for reuse, or 0 if event pooling is disabled")
+	public int getEventPoolSize() {
+		return eventPoolSize;
+	}
+
+	@ManagedAttribute(description="The number of events created by reusing a pooled instance")
+	public long getEventsReused() {
+		return pool == null ? 0 : pool.getReused();
+	}
+	
+	/**
+	 * Set the fraction of root events, between 0 and 1, that are selected for recording.  Child
+	 * events are recorded if and only if their root is.  Default is 1, meaning all events are recorded.
+	 * Changes take effect on the next call to {@link #afterPropertiesSet()}.
+	 * @see #setSampleRates(Map)
+	 */
+	public void setSampleRate(double sampleRate) {
+		if (sampleRate < 0 || sampleRate > 1)
+			throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + sampleRate);
+		this.sampleRate = sampleRate;
+	}
+
+	@ManagedAttribute(description="The fraction of root events selected for recording")
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Override the {@link #setSampleRate(double) sample rate} for particular kinds of root event.  Keys are
+	 * either an event type (e.g. <code>method</code>), or an event type and name separated by a colon
+	 * (e.g. <code>http-request:/app/health.do</code>); the most specific matching rate is applied.
+	 * Changes take effect on the next call to {@link #afterPropertiesSet()}.
+	 */
+	public void setSampleRates(Map<String, Double> sampleRates) {
+		this.sampleRates = sampleRates;
+	}
+
+	public Map<String, Double> getSampleRates() {
+		return sampleRates;
+	}
+
+	/**
+	 * If greater than zero, unsampled event trees are recorded anyway when their root event takes
+	 * at least this many milliseconds.  Default is 0.
+	 */
+	public void setTailLatencyThreshold(long tailLatencyThreshold) {
+		this.tailLatencyThreshold = tailLatencyThreshold;
+	}
+
+	@ManagedAttribute(description="Duration in milliseconds at which unsampled event trees are recorded anyway, or 0 if disabled")
+	public long getTailLatencyThreshold() {
+		return tailLatencyThreshold;
+	}
+
+	/**
+	 * If true, unsampled event trees are recorded anyway when any event in the tree ends in error.
+	 * Default is false.
+	 */
+	public void setTailSampleErrors(boolean tailSampleErrors) {
+		this.tailSampleErrors = tailSampleErrors;
+	}
+
+	@ManagedAttribute(description="True if unsampled event trees containing errors are recorded anyway")
+	public boolean isTailSampleErrors() {
+		return tailSampleErrors;
+	}
+
+	/**
+	 * Set the maximum number of completed events held for each unsampled tree while waiting for its root to finish,
+	 * when tail sampling is enabled.  Further events in the tree are discarded, so that a long-running root cannot
+	 * accumulate events without limit; an error in a discarded event still causes the rest of the tree to be recorded.
+	 * Default is 1000.
+	 */
+	public void setTailMaxHeldEvents(int tailMaxHeldEvents) {
+		this.tailMaxHeldEvents = tailMaxHeldEvents;
+	}
+
+	@ManagedAttribute(description="The maximum number of completed events held for each unsampled tree awaiting tail sampling")
+	public int getTailMaxHeldEvents() {
+		return tailMaxHeldEvents;
+	}
+
+	@ManagedAttribute(description="The number of events discarded from unsampled trees that exceeded the held event limit")
+	public long getTailOverflowEvents() {
+		return tailOverflowEvents.get();
+	}
+
+	@ManagedAttribute(description="The number of event trees discarded because they were not selected by sampling")
+	public long getUnsampledTrees() {
+		return unsampledTrees.get();
+	}
+
+	@ManagedAttribute(description="The number of unsampled event trees recorded because of an error or high latency")
+	public long getTailSampledTrees() {
+		return tailSampledTrees.get();
+	}
+	
+	/**
+	 * Watch one in every <code>leakDetectionInterval</code> root events, and log a warning if a watched event
+	 * is garbage collected without having been stopped.  Events that are not watched cost nothing extra
+	 * to collect.  Default is 100; 0 disables leak detection.
+	 * Changes take effect on the next call to {@link #afterPropertiesSet()}.
+	 */
+	public void setLeakDetectionInterval(int leakDetectionInterval) {
+		if (leakDetectionInterval < 0)
+			throw new IllegalArgumentException("Leak detection interval must not be negative: " + leakDetectionInterval);
+		this.leakDetectionInterval = leakDetectionInterval;
+	}
+
+	@ManagedAttribute(description="One in this many root events is watched for being discarded without being stopped, or 0 if leak detection is disabled")
+	public int getLeakDetectionInterval() {
+		return leakDetectionInterval;
+	}
+
+	@ManagedAttribute(description="The number of watched events that were garbage collected without being stopped")
+	public long getEventsLeaked() {
+		return leakDetector == null ? 0 : leakDetector.getLeaked();
+	}
 	
 	/**
 	 * Specify the maximum number of completed events to queue in memory before
@@ -326,6 +770,7 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 	 * 
 	 * In other words, persister implementations must not assume that the flush
 	 * threshold is a hard upper limit on the batch size of persistence operations.
+	 * Use {@link #setMaxPendingEvents(int)} to enforce a hard limit on memory usage.
 	 */
 	public void setFlushThreshold(int flushThreshold) {
 		this.flushThreshold = flushThreshold;
@@ -336,6 +781,84 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 			log.info("No sessionContext specified, using default implementation " + SpringSessionContext.class.getName());
 			sessionContext = new SpringSessionContext();
 		}
+		if (eventPoolSize > 0 && persister instanceof EventRetainingPersister && ((EventRetainingPersister)persister).isRetainingEvents())
+			throw new IllegalStateException("Event pooling cannot be used with persister " + persister + ", which may refer to events after persisting them");
+		pool = eventPoolSize > 0 ? new EventPool(eventPoolSize) : null;
+		sampler = sampleRate < 1 || (sampleRates != null && !sampleRates.isEmpty()) ? new EventSampler(sampleRate, sampleRates) : null;
+		leakDetector = leakDetectionInterval > 0 ? new EventLeakDetector(leakDetectionInterval) : null;
+		if (maxPendingEvents > 0 && maxPendingEvents <= flushThreshold)
+			log.warn("maxPendingEvents (" + maxPendingEvents + ") should be larger than flushThreshold (" + flushThreshold + "); events may be discarded before a flush is requested");
+	}
+
+	/**
+	 * Policies for handling completed events when the number of events awaiting flush
+	 * reaches {@link BehaviorTrackingManagerImpl#setMaxPendingEvents(int) capacity}.
+	 */
+	public static enum OverflowPolicy {
+		/** discard the event being completed. */
+		dropNewest {
+			@Override
+			boolean admit(BehaviorTrackingManagerImpl manager, int pending) {
+				return false;
+			}
+		},
+		/** discard the oldest event awaiting flush to make room for the event being completed. */
+		dropOldest {
+			@Override
+			boolean admit(BehaviorTrackingManagerImpl manager, int pending) {
+				BehaviorEvent oldest = manager.writeBuffer.poll();
+				if (oldest != null) {
+					manager.pendingFlush.decrementAndGet();
+					manager.droppedEvents.incrementAndGet();
+					manager.release(oldest);
+				}
+				return true;
+			}
+		},
+		/** 
+		 * once the buffer is more than half full, admit events with decreasing probability
+		 * as it fills up, so that a spike is thinned out rather than truncated.  Events are always discarded
+		 * at capacity.
+		 */
+		sample {
+			@Override
+			boolean admit(BehaviorTrackingManagerImpl manager, int pending) {
+				int capacity = manager.maxPendingEvents;
+				if (pending > capacity)
+					return false;
+				int window = capacity - (capacity >> 1);
+				int headroom = capacity - pending;
+				//cheap per-call pseudo-random value, avoiding a shared Random instance.
+				int roll = (int)((System.nanoTime() * 0x9E3779B97F4A7C15L) >>> 33) % window;
+				return roll < headroom;
+			}
+			@Override
+			int threshold(int capacity) {
+				return capacity >> 1;
+			}
+		},
+		/** 
+		 * wait up to the {@link BehaviorTrackingManagerImpl#setOverflowTimeout(long) overflow timeout}
+		 * for a flush to make room, discarding the event being completed if none becomes available.
+		 */
+		block {
+			@Override
+			boolean admit(BehaviorTrackingManagerImpl manager, int pending) {
+				return manager.awaitCapacity(pending);
+			}
+		};
+		
+		/**
+		 * Decide whether a completed event should be added to the write buffer.  Called when
+		 * the pending event count (including the caller's reserved slot) exceeds {@link #threshold(int)}.
+		 * @return true to enqueue the event, false to discard it
+		 */
+		abstract boolean admit(BehaviorTrackingManagerImpl manager, int pending);
+		
+		/** the pending event count above which {@link #admit(BehaviorTrackingManagerImpl, int)} is consulted */
+		int threshold(int capacity) {
+			return capacity;
+		}
 	}
 
 	protected class FlushEvent extends BehaviorEvent {
@@ -344,6 +867,8 @@ public class BehaviorTrackingManagerImpl implements BehaviorTrackingManager, Ini
 
 		protected FlushEvent(BehaviorEvent parent) {
 			super(parent, "behavior-tracking", "flush", application, sessionContext.getContextUserId(), sessionContext.getContextSessionId());
+			if (idGenerator != null)
+				setId(idGenerator.nextId());
 		}
 		
 	}
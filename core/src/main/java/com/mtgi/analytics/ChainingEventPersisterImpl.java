@@ -1,26 +1,70 @@
 package com.mtgi.analytics;
 
+import static java.util.UUID.randomUUID;
+
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 /**
- * A delegating persister that invokes persistence operations on a group
+ * <p>A delegating persister that invokes persistence operations on a group
  * of other persisters.  Useful for broadcasting events to several different
- * persister operations.
+ * persister operations.</p>
+ *
+ * <p>By default delegates are invoked one after another on the calling thread.  In
+ * {@link #setParallel(boolean) parallel} mode, each delegate is given its own
+ * worker thread, so that a batch is persisted by all delegates concurrently and
+ * a slow delegate does not hold up the others.  Latency and failure statistics
+ * are kept for each delegate in either mode.</p>
+ *
+ * <p>In parallel mode, each delegate receives its own copy of the event queue, and any
+ * event or parent event without an ID is assigned one before the batch is dispatched, so that all
+ * delegates record the same IDs.  IDs are taken from the {@link #setIdGenerator(EventIdGenerator) ID generator}
+ * if one is configured.  Otherwise, if any delegate requires numeric IDs, a {@link TimeOrderedIdGenerator} is used,
+ * and random UUIDs are assigned if not.  Events created by a manager with its own ID generator already have IDs.</p>
  */
-public class ChainingEventPersisterImpl implements BehaviorEventPersister {
+@ManagedResource(description="Monitor the delegates of a behavior tracking persister chain")
+public class ChainingEventPersisterImpl implements EventRetainingPersister, InitializingBean, DisposableBean {
 
 	private static final Log log = LogFactory.getLog(ChainingEventPersisterImpl.class);
 
 	private Collection<BehaviorEventPersister> delegates;
+	private boolean parallel = false;
+	private long timeout = 60000;
+	private int maxQueuedBatches = 16;
+	private EventIdGenerator idGenerator;
+	//in parallel mode, the generator in use: idGenerator, a default numeric generator, or null for random UUIDs.
+	private volatile EventIdGenerator activeIdGenerator;
+
+	//statistics and (in parallel mode) worker thread for each delegate.
+	private ConcurrentHashMap<BehaviorEventPersister, DelegateStatistics> statistics = new ConcurrentHashMap<BehaviorEventPersister, DelegateStatistics>();
+	//in parallel mode, the delegates captured at startup, in iteration order.
+	private volatile DelegateStatistics[] chain;
 
-	/** 
-	 * specify the list of delegate persisters to be invoked.  this collection is iterated in 
-	 * natural order on each call to {@link #persist(Queue)}. 
+	/**
+	 * specify the list of delegate persisters to be invoked.  this collection is iterated in
+	 * natural order on each call to {@link #persist(Queue)}.
 	 */
 	@Required
 	public void setDelegates(Collection<BehaviorEventPersister> delegates) {
@@ -30,15 +74,308 @@ public class ChainingEventPersisterImpl implements BehaviorEventPersister {
 		return delegates;
 	}
 
+	/**
+	 * If true, each delegate is invoked on its own dedicated thread and all delegates receive
+	 * a batch of events concurrently.
+	 * Batches are still delivered to any single delegate one at a time, in order.  Default is false,
+	 * meaning delegates are invoked sequentially on the calling thread.  Changes to this property
+	 * or to the delegate collection do not take effect in parallel mode until {@link #afterPropertiesSet()}.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	@ManagedAttribute(description="True if delegates are invoked concurrently on dedicated threads")
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * In parallel mode, the maximum time in milliseconds that {@link #persist(Queue)} waits for delegates
+	 * to finish with a batch.  A delegate that takes longer is left to finish in the background,
+	 * and the timeout is recorded in its statistics.  Default is 60000.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	@ManagedAttribute(description="In parallel mode, the time in milliseconds to wait for delegates to persist each batch")
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * In parallel mode, the maximum number of batches that may wait for a busy delegate.
+	 * Further batches are discarded for that delegate only, to prevent a stalled delegate from
+	 * accumulating events in memory.  Default is 16.
+	 */
+	public void setMaxQueuedBatches(int maxQueuedBatches) {
+		this.maxQueuedBatches = maxQueuedBatches;
+	}
+
+	public int getMaxQueuedBatches() {
+		return maxQueuedBatches;
+	}
+
+	/**
+	 * In parallel mode, the source of IDs for events that don't have one yet.  If unspecified, a
+	 * {@link TimeOrderedIdGenerator} is used when any delegate requires numeric IDs, such as
+	 * {@link JdbcBehaviorEventPersisterImpl}, and random UUIDs are assigned otherwise.
+	 */
+	public void setIdGenerator(EventIdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
+	}
+
+	public EventIdGenerator getIdGenerator() {
+		return idGenerator;
+	}
+
+	/**
+	 * @return true in parallel mode, where delegates may still be persisting a batch after {@link #persist(Queue)}
+	 * times out, or if any delegate retains events
+	 */
+	public boolean isRetainingEvents() {
+		if (parallel)
+			return true;
+		for (BehaviorEventPersister delegate : delegates)
+			if (delegate instanceof EventRetainingPersister && ((EventRetainingPersister)delegate).isRetainingEvents())
+				return true;
+		return false;
+	}
+
+	/** @return per-delegate statistics, in delegate iteration order */
+	public List<DelegateStatistics> getStatistics() {
+		List<DelegateStatistics> ret = new ArrayList<DelegateStatistics>(delegates.size());
+		for (BehaviorEventPersister delegate : delegates)
+			ret.add(getStatistics(delegate));
+		return ret;
+	}
+
+	@ManagedAttribute(description="Invocation count, failures, and latency for each delegate persister")
+	public String[] getDelegateStatistics() {
+		List<DelegateStatistics> stats = getStatistics();
+		String[] ret = new String[stats.size()];
+		for (int i = 0; i < ret.length; ++i)
+			ret[i] = stats.get(i).toString();
+		return ret;
+	}
+
+	/**
+	 * start worker threads for each delegate if parallel mode is enabled, and select the generator for events without IDs
+	 */
+	public synchronized void afterPropertiesSet() throws InterruptedException {
+		destroy();
+		if (parallel) {
+			if (idGenerator != null)
+				activeIdGenerator = idGenerator;
+			else if (requiresNumericIds(delegates))
+				activeIdGenerator = new TimeOrderedIdGenerator();
+			else
+				activeIdGenerator = null;
+			
+			DelegateStatistics[] chain = getStatistics().toArray(new DelegateStatistics[delegates.size()]);
+			for (int i = 0; i < chain.length; ++i)
+				chain[i].start(i, maxQueuedBatches);
+			this.chain = chain;
+		}
+	}
+
+	/** stop worker threads, waiting up to {@link #getTimeout() timeout} for each to finish queued batches */
+	public synchronized void destroy() throws InterruptedException {
+		DelegateStatistics[] chain = this.chain;
+		if (chain != null) {
+			this.chain = null;
+			for (DelegateStatistics delegate : chain)
+				delegate.executor.shutdown();
+			for (DelegateStatistics delegate : chain)
+				if (!delegate.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+					log.warn("Delegate " + delegate.getPersister() + " did not finish persisting queued events before shutdown");
+		}
+	}
+
 	public void persist(Queue<BehaviorEvent> events) {
-		//TODO: perform invocations through TaskExecutor to allow multi-threading.
-		for (BehaviorEventPersister delegate : delegates) {
+		DelegateStatistics[] chain = this.chain;
+		if (chain != null)
+			persistParallel(chain, events);
+		else
+			for (BehaviorEventPersister delegate : delegates)
+				getStatistics(delegate).persist(events);
+	}
+
+	/** get or create the statistics entry for the given delegate */
+	private DelegateStatistics getStatistics(BehaviorEventPersister delegate) {
+		DelegateStatistics ret = statistics.get(delegate);
+		if (ret == null) {
+			DelegateStatistics created = new DelegateStatistics(delegate);
+			ret = statistics.putIfAbsent(delegate, created);
+			if (ret == null)
+				ret = created;
+		}
+		return ret;
+	}
+
+	private void persistParallel(DelegateStatistics[] chain, Queue<BehaviorEvent> events) {
+
+		//delegates would otherwise race to assign IDs, and could each record different ones.
+		for (BehaviorEvent event : events)
+			assignId(event);
+
+		//dispatch to all delegates before waiting on any of them.  each gets its own queue, since
+		//persisters are free to modify it.
+		Future<?>[] results = new Future<?>[chain.length];
+		for (int i = 0; i < chain.length; ++i) {
+			DelegateStatistics delegate = chain[i];
 			try {
-				delegate.persist(events);
-			} catch (Exception e) {
-				log.error("Error persisting with " + delegate, e);
+				results[i] = delegate.executor.submit(new Invocation(delegate, new LinkedList<BehaviorEvent>(events)));
+			} catch (RejectedExecutionException e) {
+				delegate.rejected.incrementAndGet();
+				log.error("Discarding " + events.size() + " events for " + delegate.getPersister() + ", too many batches are waiting to be persisted");
+			}
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		for (int i = 0; i < results.length; ++i) {
+			if (results[i] == null)
+				continue;
+			try {
+				results[i].get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				chain[i].timeouts.incrementAndGet();
+				log.warn("Delegate " + chain[i].getPersister() + " did not finish within " + timeout + "ms; continuing without it");
+			} catch (ExecutionException e) {
+				//Invocation handles exceptions, so this can only be an Error.
+				log.error("Error persisting with " + chain[i].getPersister(), e.getCause());
+			} catch (InterruptedException e) {
+				log.warn("Interrupted while waiting for delegate persisters; remaining batches will finish in the background");
+				Thread.currentThread().interrupt();
+				return;
 			}
 		}
 	}
 
+	/** assign IDs to the event and its parent, which is referenced in the persisted event */
+	private void assignId(BehaviorEvent event) {
+		if (event.getId() == null)
+			event.setId(nextId());
+		BehaviorEvent parent = event.getParent();
+		if (parent != null && parent.getId() == null)
+			parent.setId(nextId());
+	}
+
+	private Serializable nextId() {
+		EventIdGenerator generator = activeIdGenerator;
+		return generator == null ? randomUUID() : generator.nextId();
+	}
+
+	/** @return true if any of the given persisters, or the delegates of a nested chain, can only store numeric IDs */
+	private static boolean requiresNumericIds(Collection<BehaviorEventPersister> persisters) {
+		for (BehaviorEventPersister persister : persisters) {
+			if (persister instanceof JdbcBehaviorEventPersisterImpl)
+				return true;
+			if (persister instanceof ChainingEventPersisterImpl
+				&& requiresNumericIds(((ChainingEventPersisterImpl)persister).getDelegates()))
+				return true;
+		}
+		return false;
+	}
+
+	/** persistence of a single batch by a single delegate, in parallel mode */
+	private static class Invocation implements Runnable {
+		private DelegateStatistics delegate;
+		private Queue<BehaviorEvent> events;
+
+		Invocation(DelegateStatistics delegate, Queue<BehaviorEvent> events) {
+			this.delegate = delegate;
+			this.events = events;
+		}
+
+		public void run() {
+			delegate.persist(events);
+		}
+	}
+
+	/**
+	 * Latency and error statistics for a single delegate persister.
+	 */
+	public static class DelegateStatistics {
+
+		private BehaviorEventPersister persister;
+		private ThreadPoolExecutor executor;
+
+		private AtomicLong invocations = new AtomicLong();
+		private AtomicLong failures = new AtomicLong();
+		private AtomicLong timeouts = new AtomicLong();
+		private AtomicLong rejected = new AtomicLong();
+		private AtomicLong totalNanos = new AtomicLong();
+		private AtomicLong maxNanos = new AtomicLong();
+
+		DelegateStatistics(BehaviorEventPersister persister) {
+			this.persister = persister;
+		}
+
+		private void start(int index, int queueSize) {
+			final String name = "beet-persister-" + index;
+			executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+											  new ArrayBlockingQueue<Runnable>(queueSize),
+											  new ThreadFactory() {
+												  public Thread newThread(Runnable r) {
+													  Thread t = new Thread(r, name);
+													  t.setDaemon(true);
+													  return t;
+												  }
+											  });
+		}
+
+		private void persist(Queue<BehaviorEvent> events) {
+			long start = System.nanoTime();
+			try {
+				persister.persist(events);
+			} catch (Exception e) {
+				failures.incrementAndGet();
+				log.error("Error persisting with " + persister, e);
+			} finally {
+				long elapsed = System.nanoTime() - start;
+				invocations.incrementAndGet();
+				totalNanos.addAndGet(elapsed);
+				for (long max = maxNanos.get(); elapsed > max && !maxNanos.compareAndSet(max, elapsed); max = maxNanos.get())
+					;
+			}
+		}
+
+		public BehaviorEventPersister getPersister() {
+			return persister;
+		}
+		/** @return the number of batches persisted by the delegate, whether successful or not */
+		public long getInvocations() {
+			return invocations.get();
+		}
+		/** @return the number of batches for which the delegate threw an exception */
+		public long getFailures() {
+			return failures.get();
+		}
+		/** @return the number of batches the delegate did not finish within the chain timeout */
+		public long getTimeouts() {
+			return timeouts.get();
+		}
+		/** @return the number of batches discarded because too many were queued for the delegate */
+		public long getRejected() {
+			return rejected.get();
+		}
+		/** @return the average time taken by the delegate to persist a batch, in milliseconds */
+		public double getAverageTime() {
+			long count = invocations.get();
+			return count == 0 ? 0 : totalNanos.get() / (count * 1000000d);
+		}
+		/** @return the longest time taken by the delegate to persist a batch, in milliseconds */
+		public double getMaxTime() {
+			return maxNanos.get() / 1000000d;
+		}
+
+		@Override
+		public String toString() {
+			return persister + ": invocations=" + getInvocations() + ", failures=" + getFailures()
+				+ ", timeouts=" + getTimeouts() + ", rejected=" + getRejected()
+				+ ", averageTime=" + getAverageTime() + "ms, maxTime=" + getMaxTime() + "ms";
+		}
+	}
 }
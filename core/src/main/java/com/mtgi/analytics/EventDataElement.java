@@ -30,6 +30,9 @@ public class EventDataElement extends DataLink<EventDataElement> implements Seri
 
 	private static final long serialVersionUID = -7479072851562747744L;
 	
+	//upper bound on the number of spare elements, and of spare properties, kept by a pooled data tree.
+	private static final int MAX_SPARES = 256;
+	
 	private String name;
 	private String text;
 
@@ -42,6 +45,14 @@ public class EventDataElement extends DataLink<EventDataElement> implements Seri
 	private Property firstProperty = PropertyListHead.INSTANCE;
 	private Property lastProperty = PropertyListHead.INSTANCE;
 	
+	//for data belonging to a pooled event, the root element of the tree, which keeps
+	//elements and properties recycled from previous uses of the event.  null otherwise.
+	private transient EventDataElement root;
+	private transient EventDataElement spareElements;
+	private transient Property spareProperties;
+	private transient int spareElementCount;
+	private transient int sparePropertyCount;
+	
 	public EventDataElement(String name) {
 		this.name = name;
 	}
@@ -72,14 +83,14 @@ public class EventDataElement extends DataLink<EventDataElement> implements Seri
 	public void add(String name, Object value) {
 		//just append for speed -- we compact to a unique set of names
 		//when iterateProperties() is called.
-		lastProperty.setNext(this, new Property(name, value));
+		lastProperty.setNext(this, root == null ? new Property(name, value) : root.newProperty(name, value));
 	}
 
 	/**
 	 * Add a child element with the given name to this element.
 	 */
 	public EventDataElement addElement(String name) {
-		EventDataElement ret = new EventDataElement(name);
+		EventDataElement ret = root == null ? new EventDataElement(name) : root.newElement(name);
 		lastChild.setNext(this, ret);
 		return ret;
 	}
@@ -130,6 +141,95 @@ public class EventDataElement extends DataLink<EventDataElement> implements Seri
 		return this;
 	}
 	
+	/**
+	 * Enable reuse of child elements and properties in this data tree, which should be the
+	 * root data element of a pooled event.
+	 * @see #recycle()
+	 */
+	void enablePooling() {
+		root = this;
+	}
+	
+	/**
+	 * Clear all text, properties, and children from this element.  If pooling is enabled, the
+	 * cleared children and properties are kept for reuse by subsequent calls to
+	 * {@link #addElement(String)} and {@link #add(String, Object)} on this tree.
+	 */
+	void recycle() {
+		if (root != null)
+			releaseContents(root);
+		text = null;
+		firstChild = lastChild = ChildListHead.INSTANCE;
+		firstProperty = lastProperty = PropertyListHead.INSTANCE;
+	}
+	
+	/** clear all properties and children of this element, moving them into the spare lists of <code>root</code>. */
+	private void releaseContents(EventDataElement root) {
+		if (firstProperty != PropertyListHead.INSTANCE) {
+			for (Property p = firstProperty, next; p != null; p = next) {
+				next = p.next;
+				p.key = null;
+				p.value = null;
+				if (root.sparePropertyCount < MAX_SPARES) {
+					p.next = root.spareProperties;
+					root.spareProperties = p;
+					++root.sparePropertyCount;
+				} else {
+					p.next = null;
+				}
+			}
+		}
+		if (firstChild != ChildListHead.INSTANCE) {
+			for (EventDataElement child = firstChild, next; child != null; child = next) {
+				next = child.next;
+				//subclasses may have special behavior, so only plain elements are reused.
+				if (child.getClass() == EventDataElement.class) {
+					child.releaseContents(root);
+					child.name = null;
+					child.text = null;
+					child.firstChild = child.lastChild = ChildListHead.INSTANCE;
+					child.firstProperty = child.lastProperty = PropertyListHead.INSTANCE;
+					if (root.spareElementCount < MAX_SPARES) {
+						child.root = root;
+						child.next = root.spareElements;
+						root.spareElements = child;
+						++root.spareElementCount;
+						continue;
+					}
+				}
+				child.next = null;
+			}
+		}
+	}
+	
+	/** take a child element from the spare list, or create one if none are available */
+	private EventDataElement newElement(String name) {
+		EventDataElement ret = spareElements;
+		if (ret == null) {
+			ret = new EventDataElement(name);
+			ret.root = this;
+		} else {
+			spareElements = ret.next;
+			ret.next = null;
+			ret.name = name;
+			--spareElementCount;
+		}
+		return ret;
+	}
+	
+	/** take a property from the spare list, or create one if none are available */
+	private Property newProperty(String key, Object value) {
+		Property ret = spareProperties;
+		if (ret == null)
+			return new Property(key, value);
+		spareProperties = ret.next;
+		ret.next = null;
+		ret.key = key;
+		ret.value = value;
+		--sparePropertyCount;
+		return ret;
+	}
+	
 	private static class ChildListHead extends ImmutableEventDataElement {
 		
 		private static final long serialVersionUID = 1511666816688289823L;
@@ -17,21 +17,29 @@ import static java.lang.Character.isLetter;
 import static java.lang.Character.isLetterOrDigit;
 
 import java.io.StringWriter;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
+/**
+ * Serializes {@link EventDataElement} trees to XML.  An instance reuses its output buffer, and where the
+ * StAX implementation allows it the same stream writer, from one call to {@link #serialize(EventDataElement, boolean)}
+ * to the next; instances are therefore not thread safe, and are best kept for the life of the thread that uses them.
+ */
 public class EventDataElementSerializer {
 
 	private static final char[] DUMMY_TEXT = {};
+	private static final int MAX_CACHED_NAMES = 10000;
 	
 	private XMLOutputFactory factory;
 	private StringWriter buffer;
+	/** writer left open on buffer after the last document, for reuse by the next */
+	private XMLStreamWriter writer;
+	private boolean reuseWriter = true;
 	
 	public EventDataElementSerializer(XMLOutputFactory factory) {
 		this.buffer = new StringWriter();
@@ -48,27 +56,45 @@ public class EventDataElementSerializer {
 			return null;
 		
 		try {
-			//serialize the DOM to our string buffer.
-			XMLStreamWriter writer = factory.createXMLStreamWriter(buffer);
 			try {
-				if (includeProlog)
-					writer.writeStartDocument();
-				serializeElement(writer, data);
-				writer.writeEndDocument();
-				writer.flush();
-			} finally {
-				writer.close();
+				return serializeDocument(data, includeProlog);
+			} catch (XMLStreamException xse) {
+				if (writer == null)
+					throw xse;
+				//some StAX implementations refuse to write a second document with the same writer.
+				//retry with a new one, and stop reusing writers from now on.
+				writer = null;
+				reuseWriter = false;
+				return serializeDocument(data, includeProlog);
 			}
-			
-			//return buffer contents.
-			return buffer.toString();
-			
 		} catch (XMLStreamException ioe) {
 			//this shouldn't happen, since the target output stream is a StringWriter, but
 			//the compiler demands that we handle it.
 			throw new RuntimeException("Error serializing XML data", ioe);
-		} finally {
+		}
+	}
+	
+	private String serializeDocument(EventDataElement data, boolean includeProlog) throws XMLStreamException {
+		XMLStreamWriter out = writer;
+		if (out == null)
+			out = factory.createXMLStreamWriter(buffer);
+		try {
+			//serialize the DOM to our string buffer.
+			if (includeProlog)
+				out.writeStartDocument();
+			serializeElement(out, data);
+			out.writeEndDocument();
+			out.flush();
+			
+			if (reuseWriter)
+				writer = out;
+			else
+				out.close();
+			
+			//return buffer contents.
+			return buffer.toString();
 			
+		} finally {
 			//reset the internal buffer for next run.
 			buffer.getBuffer().setLength(0);
 		}
@@ -132,16 +158,14 @@ public class EventDataElementSerializer {
 	 * If the above conversion rules yield an empty string, the static string "data" is
 	 * returned instead.
 	 */
-	private static String getXMLElementName(String name) {
+	static String getXMLElementName(String name) {
 
-		synchronized (nameCache) {
-			String cached = nameCache.get(name);
-			if (cached != null)
-				return cached;
-		}
+		String cached = nameCache.get(name);
+		if (cached != null)
+			return cached;
 		
 		//accumulates return value.
-		StringBuffer buf = new StringBuffer();
+		StringBuilder buf = new StringBuilder();
 
 		//recognizer state machine that chews up an arbitrary string and
 		//spits out a valid XML element name.  recognizer is always in one of three
@@ -199,19 +223,15 @@ public class EventDataElementSerializer {
 		
 		//we have a usable name, return it.
 		String ret = buf.toString();
-		synchronized (nameCache) {
-			nameCache.put(name, ret);
-		}
+		//rather than track access order, start over when the cache fills up.  in practice the set of
+		//names in use is small and stable, so this only happens when names are generated from data.
+		if (nameCache.size() >= MAX_CACHED_NAMES)
+			nameCache.clear();
+		nameCache.put(name, ret);
 		return ret;
 	}
 
-	/** cache computed values to speed up processing */
-	private static HashMap<String,String> nameCache = new LinkedHashMap<String,String>() {
-		private static final long serialVersionUID = 8470335497980720176L;
-		@Override
-		protected boolean removeEldestEntry(Entry<String, String> eldest) {
-			return size() > 10000;
-		}
-	};
+	/** cache computed values to speed up processing.  reads do not lock. */
+	private static final ConcurrentHashMap<String,String> nameCache = new ConcurrentHashMap<String,String>();
 	
 }
\ No newline at end of file
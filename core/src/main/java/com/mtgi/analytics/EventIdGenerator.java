@@ -0,0 +1,33 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+/**
+ * Generates unique 64-bit identifiers for {@link BehaviorEvent} instances.  When a generator is
+ * configured on {@link BehaviorTrackingManagerImpl#setIdGenerator(EventIdGenerator)}, every event
+ * is assigned an ID as soon as it is created, so that persisters need not assign IDs (or
+ * walk up to parent events to assign theirs) at persistence time.
+ *
+ * Implementations must be thread-safe, and should be cheap to call since they are invoked
+ * on application threads.
+ *
+ * @see TimeOrderedIdGenerator
+ * @see SequenceBlockIdGenerator
+ */
+public interface EventIdGenerator {
+
+	/** @return a new ID, distinct from all IDs previously returned by this generator */
+	public long nextId();
+
+}
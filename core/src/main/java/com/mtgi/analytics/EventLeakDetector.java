@@ -0,0 +1,98 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Detects events that are started and then garbage collected without being stopped, for
+ * example because the thread running them died.  Only one in every <code>interval</code> root
+ * events is watched, using a phantom reference, so that event instances are otherwise collected
+ * as cheaply as any other object.  A root event cannot be stopped until all of its children are,
+ * so watching roots is enough to catch abandoned child events as well.
+ *
+ * @see BehaviorTrackingManagerImpl#setLeakDetectionInterval(int)
+ */
+class EventLeakDetector {
+
+	private static final Log log = LogFactory.getLog(EventLeakDetector.class);
+	
+	private final int interval;
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong leaked = new AtomicLong();
+	
+	private final ReferenceQueue<BehaviorEvent> queue = new ReferenceQueue<BehaviorEvent>();
+	//watches for events that are running; references must stay reachable to be enqueued.
+	private final ConcurrentHashMap<Watch, Boolean> watches = new ConcurrentHashMap<Watch, Boolean>();
+	
+	/**
+	 * @param interval watch one in every <code>interval</code> root events
+	 * @throws IllegalArgumentException if interval is less than 1
+	 */
+	public EventLeakDetector(int interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("Leak detection interval must be at least 1: " + interval);
+		this.interval = interval;
+	}
+
+	/** notification that a root event has started */
+	public void started(BehaviorEvent evt) {
+		if (started.incrementAndGet() % interval == 0) {
+			poll();
+			Watch watch = new Watch(evt, queue);
+			watches.put(watch, Boolean.TRUE);
+			evt.setLeakWatch(watch);
+		}
+	}
+
+	/** notification that a root event has stopped; it is no longer watched */
+	public void stopped(BehaviorEvent evt) {
+		Watch watch = evt.takeLeakWatch();
+		if (watch != null) {
+			watches.remove(watch);
+			watch.clear();
+		}
+	}
+
+	/** @return the number of watched events collected without being stopped */
+	public long getLeaked() {
+		poll();
+		return leaked.get();
+	}
+	
+	/** log a warning for each watched event that has been collected since the last call */
+	private void poll() {
+		for (Watch watch; (watch = (Watch)queue.poll()) != null; )
+			if (watches.remove(watch) != null) {
+				leaked.incrementAndGet();
+				log.warn("Event [" + watch.description + "] was started and then discarded!");
+			}
+	}
+	
+	static class Watch extends PhantomReference<BehaviorEvent> {
+		
+		private final String description;
+		
+		Watch(BehaviorEvent evt, ReferenceQueue<BehaviorEvent> queue) {
+			super(evt, queue);
+			description = evt.getType() + ":" + evt.getName() + ":" + evt.getId();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Writes events to one file of the log maintained by {@link XmlBehaviorEventPersisterImpl}.
+ * The log header is written when the writer is created.  Writers are not thread safe.
+ */
+interface EventLogWriter {
+
+	public void write(BehaviorEvent event) throws IOException, XMLStreamException;
+
+	/** write any buffered output to the underlying stream, without flushing the stream itself */
+	public void flush() throws IOException, XMLStreamException;
+
+	/** write the log trailer and flush buffered output.  The underlying stream is not closed. */
+	public void finish() throws IOException, XMLStreamException;
+}
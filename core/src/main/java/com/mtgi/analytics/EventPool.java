@@ -0,0 +1,93 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of reusable {@link BehaviorEvent} instances.  Each pooled event is reference
+ * counted: it holds one reference on its own behalf, and one more for each child event created
+ * from the same pool.  An event is reset and returned to the pool when the last of these is
+ * released, so that a parent is never reused while persisters may still need it to
+ * resolve the parent ID of one of its children.
+ *
+ * @see BehaviorTrackingManagerImpl#setEventPoolSize(int)
+ */
+class EventPool {
+
+	//lock-free, so that application threads obtaining and releasing events do not contend on a lock.
+	//the queue's own size() is linear, so the number of idle events is counted separately.
+	private ConcurrentLinkedQueue<BehaviorEvent> free = new ConcurrentLinkedQueue<BehaviorEvent>();
+	private AtomicInteger idle = new AtomicInteger();
+	private int capacity;
+	private AtomicLong created = new AtomicLong();
+	private AtomicLong reused = new AtomicLong();
+
+	/** @param capacity the maximum number of idle events retained for reuse */
+	public EventPool(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/** take an idle event from the pool and initialize it with the given properties, or create a new event if none are idle */
+	public BehaviorEvent obtain(BehaviorEvent parent, String type, String name, String application, String userId, String sessionId) {
+		BehaviorEvent ret = free.poll();
+		if (ret == null) {
+			ret = new BehaviorEvent(parent, type, name, application, userId, sessionId);
+			created.incrementAndGet();
+		} else {
+			idle.decrementAndGet();
+			ret.init(parent, type, name, application, userId, sessionId);
+			reused.incrementAndGet();
+		}
+		ret.setPool(this);
+		if (parent != null && parent.getPool() == this)
+			parent.retain();
+		return ret;
+	}
+
+	/**
+	 * Release the caller's reference to the given event, which must not be used by the caller afterwards.
+	 * If no other references remain, the event is reset and returned to the pool, releasing its
+	 * reference to its parent in turn.  Events that did not come from this pool are ignored.
+	 */
+	public void release(BehaviorEvent event) {
+		while (event != null && event.getPool() == this && event.release()) {
+			BehaviorEvent parent = event.getParent();
+			event.recycle();
+			//if the pool is full, the event is simply left for the garbage collector.
+			if (idle.incrementAndGet() <= capacity)
+				free.offer(event);
+			else
+				idle.decrementAndGet();
+			event = parent;
+		}
+	}
+
+	/** @return the number of events allocated because no idle event was available */
+	public long getCreated() {
+		return created.get();
+	}
+
+	/** @return the number of requests satisfied by an idle event */
+	public long getReused() {
+		return reused.get();
+	}
+
+	/** @return the number of idle events currently available for reuse */
+	public int getIdle() {
+		return idle.get();
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.Map.Entry;
+
+/**
+ * <p>Writes behavior tracking events in a compact binary record format, an alternative to XML
+ * serialization for {@link XmlBehaviorEventPersisterImpl}.  Element names are not repeated, numbers
+ * are written as variable-length integers rather than text, and strings that tend to repeat are
+ * written once per log file and then referred to by number.</p>
+ *
+ * <p>A log begins with the {@link #HEADER} bytes, followed by a sequence of records.  Each record is the
+ * length of its payload in bytes as a varint, followed by the payload, the first byte of which is the record type:</p>
+ * <ul>
+ * <li>{@link #RECORD_STRING}: the rest of the payload is a modified UTF-8 string, which is added to the string dictionary.
+ *     Dictionary strings are numbered from 1 in the order they are defined.</li>
+ * <li>{@link #RECORD_EVENT}: an event, as described below.</li>
+ * <li>{@link #RECORD_RESET}: the string dictionary is cleared, and numbering starts again from 1.</li>
+ * <li>{@link #RECORD_END}: the log was closed cleanly.  A log without this record was truncated, for example by a crash.</li>
+ * </ul>
+ *
+ * <p>Event records contain, in order: the event id and parent event id; dictionary references to the type, name, and application;
+ * the start time in milliseconds since the epoch, as a signed difference from the start time of the previous event in the log;
+ * the duration in nanoseconds as a signed varint, with -1 for unknown; dictionary references to the user id and session id;
+ * the error as a string; and finally the event data element, or a single 0 byte if there is no event data.</p>
+ *
+ * <p>Encodings used above:</p>
+ * <ul>
+ * <li>varint: an unsigned LEB128 integer, 7 bits per byte, least significant group first.  Signed varints are zigzag
+ *     encoded first, as in Protocol Buffers.</li>
+ * <li>dictionary reference: the varint dictionary number of a string, or 0 for null.</li>
+ * <li>string: varint 0 for null, otherwise the number of bytes plus one, followed by the modified UTF-8 bytes.</li>
+ * <li>id: {@link #ID_NONE}, {@link #ID_UUID} followed by the 16 bytes of the UUID (most significant first),
+ *     {@link #ID_LONG} followed by a signed varint, or {@link #ID_STRING} followed by the string form of the id.</li>
+ * <li>data element: a dictionary reference to the element name; zero or more attributes, each a dictionary reference
+ *     to the attribute name followed by a value; a 0 byte; the element text as a string; zero or more child elements;
+ *     and a final 0 byte.  Values are {@link #VALUE_LONG} followed by a signed varint for integral numbers, or
+ *     {@link #VALUE_STRING} followed by a string.  Element and attribute names are converted to valid XML names,
+ *     as by {@link EventDataElementSerializer}.</li>
+ * </ul>
+ *
+ * <p>Output is buffered in memory until {@link #flush()} is called, or the buffer grows large.  Instances are not thread safe.</p>
+ */
+public class EventRecordWriter implements EventLogWriter {
+
+	/** the first bytes of a record log: the characters "BEVT" followed by the format version */
+	public static final byte[] HEADER = { 'B', 'E', 'V', 'T', 1 };
+
+	public static final int RECORD_STRING = 1;
+	public static final int RECORD_EVENT = 2;
+	public static final int RECORD_RESET = 3;
+	public static final int RECORD_END = 4;
+
+	public static final int ID_NONE = 0;
+	public static final int ID_UUID = 1;
+	public static final int ID_STRING = 2;
+	public static final int ID_LONG = 3;
+
+	public static final int VALUE_STRING = 0;
+	public static final int VALUE_LONG = 1;
+
+	/** the default number of strings in the dictionary, beyond which it is reset */
+	public static final int DEFAULT_MAX_DICTIONARY_SIZE = 16384;
+
+	private static final int FLUSH_THRESHOLD = 65536;
+
+	private final OutputStream out;
+	private final int maxDictionarySize;
+
+	private HashMap<String,Integer> dictionary = new HashMap<String,Integer>();
+	private long lastStart;
+	//complete records waiting to be written to the stream, and the payload of the event being encoded.
+	private Buffer output = new Buffer(8192);
+	private Buffer event = new Buffer(1024);
+
+	public EventRecordWriter(OutputStream out) {
+		this(out, DEFAULT_MAX_DICTIONARY_SIZE);
+	}
+
+	/**
+	 * @param maxDictionarySize when the string dictionary reaches this size, it is reset before the next event is written,
+	 *        which bounds memory use for logs with many distinct user or session ids.
+	 */
+	public EventRecordWriter(OutputStream out, int maxDictionarySize) {
+		this.out = out;
+		this.maxDictionarySize = maxDictionarySize;
+		output.write(HEADER, 0, HEADER.length);
+	}
+
+	/** @return the bytes that end a log, which can be appended to a log truncated at a record boundary */
+	public static byte[] getTrailer() {
+		return new byte[] { 1, RECORD_END };
+	}
+
+	public void write(BehaviorEvent evt) throws IOException {
+		if (dictionary.size() >= maxDictionarySize) {
+			dictionary.clear();
+			output.writeVarint(1);
+			output.write(RECORD_RESET);
+		}
+
+		//strings first seen in this event are written to output as they are encountered, ahead of the event record.
+		Buffer r = event;
+		r.reset();
+		r.write(RECORD_EVENT);
+		writeId(r, evt.getId());
+		BehaviorEvent parent = evt.getParent();
+		writeId(r, parent == null ? null : parent.getId());
+		writeRef(r, evt.getType());
+		writeRef(r, evt.getName());
+		writeRef(r, evt.getApplication());
+
+		long start = evt.getStart().getTime();
+		r.writeVarint(zigzag(start - lastStart));
+		lastStart = start;
+		Long duration = evt.getDurationNs();
+		r.writeVarint(zigzag(duration == null ? -1 : duration));
+
+		writeRef(r, evt.getUserId());
+		writeRef(r, evt.getSessionId());
+		r.writeString(evt.getError());
+
+		EventDataElement data = evt.getData();
+		if (data == null || data.isNull())
+			r.write(0);
+		else
+			writeElement(r, data);
+
+		output.writeVarint(r.size);
+		output.write(r.bytes, 0, r.size);
+		if (output.size >= FLUSH_THRESHOLD)
+			flush();
+	}
+
+	public void flush() throws IOException {
+		out.write(output.bytes, 0, output.size);
+		output.reset();
+	}
+
+	public void finish() throws IOException {
+		byte[] trailer = getTrailer();
+		output.write(trailer, 0, trailer.length);
+		flush();
+	}
+
+	private void writeElement(Buffer r, EventDataElement element) {
+		writeRef(r, EventDataElementSerializer.getXMLElementName(element.getName()));
+
+		Iterator<? extends Entry<String,Object>> props = element.iterateProperties();
+		while (props.hasNext()) {
+			Entry<String,Object> prop = props.next();
+			Object value = prop.getValue();
+			if (value != null) {
+				writeRef(r, EventDataElementSerializer.getXMLElementName(prop.getKey()));
+				if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+					r.write(VALUE_LONG);
+					r.writeVarint(zigzag(((Number)value).longValue()));
+				} else {
+					r.write(VALUE_STRING);
+					r.writeString(value.toString());
+				}
+			}
+		}
+		r.write(0);
+
+		r.writeString(element.getText());
+
+		Iterator<EventDataElement> children = element.iterateChildren();
+		while (children.hasNext()) {
+			EventDataElement child = children.next();
+			if (!child.isNull())
+				writeElement(r, child);
+		}
+		r.write(0);
+	}
+
+	private static void writeId(Buffer r, Serializable id) {
+		if (id == null) {
+			r.write(ID_NONE);
+		} else if (id instanceof UUID) {
+			UUID uuid = (UUID)id;
+			r.write(ID_UUID);
+			r.writeLong(uuid.getMostSignificantBits());
+			r.writeLong(uuid.getLeastSignificantBits());
+		} else if (id instanceof Long) {
+			r.write(ID_LONG);
+			r.writeVarint(zigzag((Long)id));
+		} else {
+			r.write(ID_STRING);
+			r.writeString(id.toString());
+		}
+	}
+
+	/** write the dictionary number of <code>value</code>, adding it to the dictionary if necessary */
+	private void writeRef(Buffer r, String value) {
+		if (value == null) {
+			r.write(0);
+			return;
+		}
+		Integer ref = dictionary.get(value);
+		if (ref == null) {
+			ref = dictionary.size() + 1;
+			dictionary.put(value, ref);
+			output.writeVarint(1 + utfLength(value));
+			output.write(RECORD_STRING);
+			output.writeUTF(value);
+		}
+		r.writeVarint(ref);
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/** @return the number of bytes in the modified UTF-8 encoding of <code>value</code> */
+	private static int utfLength(String value) {
+		int length = 0;
+		for (int i = 0, len = value.length(); i < len; ++i) {
+			char c = value.charAt(i);
+			length += (c >= 0x1 && c <= 0x7f) ? 1 : c <= 0x7ff ? 2 : 3;
+		}
+		return length;
+	}
+
+	/** a growable byte array */
+	private static final class Buffer {
+
+		byte[] bytes;
+		int size;
+
+		Buffer(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void reset() {
+			size = 0;
+		}
+
+		private void ensure(int extra) {
+			if (size + extra > bytes.length) {
+				byte[] grown = new byte[Math.max(bytes.length * 2, size + extra)];
+				System.arraycopy(bytes, 0, grown, 0, size);
+				bytes = grown;
+			}
+		}
+
+		void write(int b) {
+			ensure(1);
+			bytes[size++] = (byte)b;
+		}
+
+		void write(byte[] b, int off, int len) {
+			ensure(len);
+			System.arraycopy(b, off, bytes, size, len);
+			size += len;
+		}
+
+		void writeVarint(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[size++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte)value;
+		}
+
+		void writeLong(long value) {
+			ensure(8);
+			for (int shift = 56; shift >= 0; shift -= 8)
+				bytes[size++] = (byte)(value >>> shift);
+		}
+
+		void writeString(String value) {
+			if (value == null) {
+				write(0);
+			} else {
+				writeVarint(1 + utfLength(value));
+				writeUTF(value);
+			}
+		}
+
+		void writeUTF(String value) {
+			int len = value.length();
+			ensure(len * 3);
+			for (int i = 0; i < len; ++i) {
+				char c = value.charAt(i);
+				if (c >= 0x1 && c <= 0x7f) {
+					bytes[size++] = (byte)c;
+				} else if (c <= 0x7ff) {
+					bytes[size++] = (byte)(0xC0 | (c >> 6));
+					bytes[size++] = (byte)(0x80 | (c & 0x3F));
+				} else {
+					bytes[size++] = (byte)(0xE0 | (c >> 12));
+					bytes[size++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+					bytes[size++] = (byte)(0x80 | (c & 0x3F));
+				}
+			}
+		}
+	}
+}
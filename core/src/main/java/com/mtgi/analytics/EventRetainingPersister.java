@@ -0,0 +1,27 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+/**
+ * Implemented by {@link BehaviorEventPersister persisters} that, depending on their configuration, may
+ * still refer to events after {@link BehaviorEventPersister#persist(java.util.Queue)} returns, for example
+ * because they write on a background thread.  Such persisters cannot be combined with
+ * {@link BehaviorTrackingManagerImpl#setEventPoolSize(int) event pooling}, which the manager checks on startup.
+ */
+public interface EventRetainingPersister extends BehaviorEventPersister {
+
+	/** @return true if this persister, as currently configured, may use events after <code>persist</code> returns */
+	public boolean isRetainingEvents();
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which root events are selected by head sampling, according to a default
+ * sampling rate and optional rates for particular event types or type and name combinations.
+ * Selection is systematic rather than random: a rate of 0.25 keeps exactly every fourth
+ * root event matching the rule.
+ *
+ * @see BehaviorTrackingManagerImpl#setSampleRates(Map)
+ */
+class EventSampler {
+
+	private Rule defaultRule;
+	private HashMap<String, Rule> typeRules = new HashMap<String, Rule>();
+	private HashMap<String, HashMap<String, Rule>> nameRules = new HashMap<String, HashMap<String, Rule>>();
+
+	/**
+	 * @param defaultRate sampling rate for events not matching any other rule
+	 * @param rates sampling rates keyed by event type, or by event type and name separated by a colon
+	 * @throws IllegalArgumentException if any rate is not between 0 and 1
+	 */
+	public EventSampler(double defaultRate, Map<String, Double> rates) {
+		defaultRule = new Rule(defaultRate);
+		if (rates != null)
+			for (Map.Entry<String, Double> entry : rates.entrySet()) {
+				String key = entry.getKey();
+				Rule rule = new Rule(entry.getValue());
+				int sep = key.indexOf(':');
+				if (sep < 0) {
+					typeRules.put(key, rule);
+				} else {
+					String type = key.substring(0, sep);
+					HashMap<String, Rule> names = nameRules.get(type);
+					if (names == null)
+						nameRules.put(type, names = new HashMap<String, Rule>());
+					names.put(key.substring(sep + 1), rule);
+				}
+			}
+	}
+
+	/** @return true if a root event with the given type and name should be recorded */
+	public boolean sample(String type, String name) {
+		Rule rule = null;
+		HashMap<String, Rule> names = nameRules.get(type);
+		if (names != null)
+			rule = names.get(name);
+		if (rule == null)
+			rule = typeRules.get(type);
+		if (rule == null)
+			rule = defaultRule;
+		return rule.sample();
+	}
+
+	private static class Rule {
+
+		private final double rate;
+		private final AtomicLong count = new AtomicLong();
+
+		public Rule(double rate) {
+			if (rate < 0 || rate > 1)
+				throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + rate);
+			this.rate = rate;
+		}
+
+		public boolean sample() {
+			if (rate >= 1)
+				return true;
+			if (rate <= 0)
+				return false;
+			//select the events at which the running total of rate crosses an integer.
+			long n = count.incrementAndGet();
+			return (long)(n * rate) != (long)((n - 1) * rate);
+		}
+	}
+}
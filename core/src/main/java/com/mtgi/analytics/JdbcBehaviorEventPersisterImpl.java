@@ -22,25 +22,26 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Queue;
 
 import javax.xml.stream.XMLOutputFactory;
 
-import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
-import org.springframework.jdbc.datasource.ConnectionProxy;
-
-import com.mtgi.analytics.sql.BehaviorTrackingConnectionProxy;
 
 /**
  * Basic implementation of {@link BehaviorEventPersister}, which uses JDBC
  * batching to persist instances of {@link BehaviorEvent} using configurable
- * insert SQL.  An instance of {@link EventDataElementSerializer} is used
- * to convert event data to XML documents for insertion.
+ * insert SQL.  An instance of {@link EventDataElementSerializer}, kept for the life of
+ * each persisting thread, is used to convert event data to XML documents for insertion.  Optionally, event IDs
+ * can be {@link #setIdPrefetch(int) prefetched} in the background, rows can be inserted
+ * with {@link #setMultiRowInsert(boolean) multi-row insert} statements, and the batch
+ * size can be {@link #setAdaptiveBatchSize(boolean) adjusted} to the measured database round-trip time.
  */
 public class JdbcBehaviorEventPersisterImpl extends JdbcDaoSupport
-	implements BehaviorEventPersister {
+	implements BehaviorEventPersister, DisposableBean {
 
 	private static final String DEFAULT_ID_SQL = 
 		"select SEQ_BEHAVIOR_TRACKING_EVENT.nextval from dual";
@@ -49,16 +50,36 @@ public class JdbcBehaviorEventPersisterImpl extends JdbcDaoSupport
 			"(EVENT_ID, PARENT_EVENT_ID, APPLICATION, EVENT_TYPE, EVENT_NAME, EVENT_START, DURATION_NS, USER_ID, SESSION_ID, ERROR, EVENT_DATA) values " +
 			"(       ?,               ?,           ?,          ?,           ?,          ?,           ?,       ?,          ?,     ?,          ?)";
 	
+	//number of parameters in the insert statement for each row.
+	private static final int INSERT_PARAMS = 11;
+	
 	private int batchSize = 25;
+	private boolean multiRowInsert = false;
+	private boolean adaptiveBatchSize = false;
+	private int maxBatchSize = 1000;
+	private int maxStatementParameters = 2000;
+	private long targetBatchTime = 100;
+	private volatile int currentBatchSize;
 	private String insertSql = DEFAULT_INSERT_SQL;
 	private String idSql = DEFAULT_ID_SQL;
 	
 	//support sequence batching
 	private long idIncrement = 1;
-	private Long currentId = null;
-	private Long nextId = null;
+	private long currentId = 0;
+	private long nextId = 0;
+	private int idPrefetch = 0;
+	private EventIdGenerator idGenerator;
+	//generator created for idPrefetch, which we must stop on shutdown.
+	private PrefetchingIdAllocator idAllocator;
 	
 	private XMLOutputFactory xmlFactory;
+	//serializers reuse their buffers and writers, so each persisting thread keeps its own.
+	private final ThreadLocal<EventDataElementSerializer> dataSerializer = new ThreadLocal<EventDataElementSerializer>() {
+		@Override
+		protected EventDataElementSerializer initialValue() {
+			return new EventDataElementSerializer(xmlFactory);
+		}
+	};
 
 	/**
 	 * Set the JDBC batch size for executing inserts.  Only has effect if the JDBC driver
@@ -68,6 +89,10 @@ public class JdbcBehaviorEventPersisterImpl extends JdbcDaoSupport
 		this.batchSize = batchSize;
 	}
 
+	public int getBatchSize() {
+		return batchSize;
+	}
+
 	/**
 	 * Set the SQL select statement used to retrieve a new primary key value for an event
 	 * prior to insert.  Default is
@@ -120,100 +145,289 @@ public class JdbcBehaviorEventPersisterImpl extends JdbcDaoSupport
 		this.insertSql = insertSql;
 	}
 
+	/**
+	 * Set the number of ID blocks to fetch ahead of demand on a background thread.  Each block contains
+	 * {@link #setIdIncrement(long) idIncrement} values, so this is generally only useful with an increment
+	 * greater than 1.  Default is 0, meaning that IDs are fetched on demand by the persisting thread.
+	 * @see SequenceBlockIdGenerator
+	 */
+	public void setIdPrefetch(int idPrefetch) {
+		this.idPrefetch = idPrefetch;
+	}
+
+	public int getIdPrefetch() {
+		return idPrefetch;
+	}
+
+	/**
+	 * Set a generator used to assign IDs to events that do not already have them, instead of
+	 * executing {@link #setIdSql(String) ID SQL}.  Default is null.
+	 */
+	public void setIdGenerator(EventIdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
+	}
+
+	public EventIdGenerator getIdGenerator() {
+		return idGenerator;
+	}
+
+	/**
+	 * If true, rows are inserted by executing a single multi-row insert statement for each
+	 * batch, of the form <code>insert into ... values (?, ...), (?, ...), ...</code>,
+	 * instead of using JDBC statement batching.  The statement is derived from the
+	 * {@link #setInsertSql(String) insert SQL} by repeating its last parenthesized
+	 * <code>values</code> list, so the target database must support multi-row
+	 * <code>values</code> clauses.  Default is false.
+	 */
+	public void setMultiRowInsert(boolean multiRowInsert) {
+		this.multiRowInsert = multiRowInsert;
+	}
+
+	public boolean isMultiRowInsert() {
+		return multiRowInsert;
+	}
+
+	/**
+	 * If true, the batch size is adjusted after each batch according to the measured time taken to
+	 * execute it: doubled (up to {@link #setMaxBatchSize(int) maxBatchSize}) if the batch took less than half
+	 * of {@link #setTargetBatchTime(long) targetBatchTime}, halved if it took longer.  The configured
+	 * {@link #setBatchSize(int) batchSize} is used as the starting point.  Default is false.
+	 */
+	public void setAdaptiveBatchSize(boolean adaptiveBatchSize) {
+		this.adaptiveBatchSize = adaptiveBatchSize;
+	}
+
+	public boolean isAdaptiveBatchSize() {
+		return adaptiveBatchSize;
+	}
+
+	/** Set the upper limit for adaptive batch sizing.  Default is 1000. */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Set the maximum number of bind parameters in a single multi-row insert statement.  Each row takes
+	 * 11 parameters, so this caps the number of rows per statement regardless of the batch size; many
+	 * databases limit the parameters per statement (SQL Server, for example, to 2100).  Only used if
+	 * {@link #setMultiRowInsert(boolean) multiRowInsert} is enabled.  Default is 2000.
+	 */
+	public void setMaxStatementParameters(int maxStatementParameters) {
+		this.maxStatementParameters = maxStatementParameters;
+	}
+
+	public int getMaxStatementParameters() {
+		return maxStatementParameters;
+	}
+
+	/** Set the target round-trip time for a single batch in milliseconds, for adaptive batch sizing.  Default is 100. */
+	public void setTargetBatchTime(long targetBatchTime) {
+		this.targetBatchTime = targetBatchTime;
+	}
+
+	/** @return the batch size currently in use, which may differ from the configured batch size if adaptive sizing is enabled */
+	public int getCurrentBatchSize() {
+		return adaptiveBatchSize ? currentBatchSize : batchSize;
+	}
+
 	@Override
 	protected void initDao() throws Exception {
 		super.initDao();
 		this.xmlFactory = XMLOutputFactory.newInstance();
+		if (multiRowInsert) {
+			toMultiRowSql(insertSql, 1); //fail fast on unsupported SQL.
+			if (maxStatementParameters < INSERT_PARAMS)
+				throw new IllegalArgumentException("maxStatementParameters must allow at least one row of " + INSERT_PARAMS + " parameters");
+		}
+		this.currentBatchSize = Math.max(1, Math.min(batchSize, getBatchLimit()));
+
+		if (idGenerator == null && idPrefetch > 0)
+			idGenerator = idAllocator = new SequenceBlockIdGenerator(getDataSource(), idSql, idIncrement, idPrefetch);
 	}
 
-	public void persist(final Queue<BehaviorEvent> events) {
+	/** stop the ID prefetch thread, if any */
+	public void destroy() throws Exception {
+		if (idAllocator != null)
+			idAllocator.stop();
+	}
 
-		getJdbcTemplate().execute(new ConnectionCallback() {
+	public void persist(final Queue<BehaviorEvent> events) {
 
-			public Object doInConnection(Connection con) throws SQLException, DataAccessException {
+		getJdbcTemplate().execute(new UntrackedConnectionCallback() {
 
-				//if this connection is behavior tracking, suspend tracking.
-				//we don't generate more events while persisting.
-				BehaviorTrackingConnectionProxy bt = null;
-				for (Connection c = con; 
-					 bt == null && c instanceof ConnectionProxy; 
-					 c = ((ConnectionProxy)c).getTargetConnection()) 
-				{
-					if (c instanceof BehaviorTrackingConnectionProxy) {
-						bt = (BehaviorTrackingConnectionProxy)c;
-						bt.suspendTracking();
-					}
-				}
-				
+			@Override
+			protected Object doInUntrackedConnection(Connection con) throws SQLException {
+				EventDataElementSerializer serializer = dataSerializer.get();
+				PreparedStatement[] idStmt = { null };
 				try {
-					boolean doBatch = supportsBatchUpdates(con);
-					EventDataElementSerializer dataSerializer = new EventDataElementSerializer(xmlFactory);
-
-					PreparedStatement[] idStmt = { null };
-					PreparedStatement insert = con.prepareStatement(insertSql);
-					try {
-						
-						//keep track of statements added to the batch so that we can time our
-						//flushes.
-						int batchCount = 0;
-						
-						for (BehaviorEvent next : events) {
-							
-							//event may already have an ID assigned if any
-							//of its child events has been persisted.
-							assignIds(next, con, idStmt);
-
-							//populate identifying information for the event into the insert statement.
-							insert.setLong(1, (Long)next.getId());
-							
-							BehaviorEvent parent = next.getParent();
-							nullSafeSet(insert, 2, parent == null ? null : parent.getId(), Types.BIGINT);
-
-							insert.setString(3, next.getApplication());
-							insert.setString(4, next.getType());
-							insert.setString(5, next.getName());
-							insert.setTimestamp(6, new java.sql.Timestamp(next.getStart().getTime()));
-							insert.setLong(7, next.getDurationNs());
-
-							//set optional context information on the event.
-							nullSafeSet(insert, 8, next.getUserId(), Types.VARCHAR);
-							nullSafeSet(insert, 9, next.getSessionId(), Types.VARCHAR);
-							nullSafeSet(insert, 10, next.getError(), Types.VARCHAR);
-
-							//convert event data to XML
-							String data = dataSerializer.serialize(next.getData(), true);
-							nullSafeSet(insert, 11, data, Types.VARCHAR);
-
-							if (doBatch) {
-								insert.addBatch();
-								if (++batchCount >= batchSize) {
-									insert.executeBatch();
-									batchCount = 0;
-								}
-							} else {
-								insert.executeUpdate();
-							}
-						}
-
-						//flush any lingering batch inserts through to the server.
-						if (batchCount > 0)
-							insert.executeBatch();
-						
-					} finally {
-						closeStatement(insert);
-						closeStatement(idStmt[0]);
-					}
-					
-					return null;
-					
+					if (multiRowInsert)
+						insertMultiRow(con, events, serializer, idStmt);
+					else
+						insertBatched(con, events, serializer, idStmt);
 				} finally {
-					if (bt != null)
-						bt.resumeTracking();
+					closeStatement(idStmt[0]);
 				}
+				return null;
 			}
 			
 		});
 	}
+
+	/** insert events one row at a time, using JDBC statement batching if the driver supports it. */
+	private void insertBatched(Connection con, Queue<BehaviorEvent> events, EventDataElementSerializer dataSerializer, PreparedStatement[] idStmt) 
+		throws SQLException
+	{
+		boolean doBatch = supportsBatchUpdates(con);
+		PreparedStatement insert = con.prepareStatement(insertSql);
+		try {
+			
+			//keep track of statements added to the batch so that we can time our
+			//flushes.
+			int batchCount = 0;
+			int batchLimit = getCurrentBatchSize();
+			
+			for (BehaviorEvent next : events) {
+				
+				//event may already have an ID assigned if any
+				//of its child events has been persisted.
+				assignIds(next, con, idStmt);
+				bind(insert, 0, next, dataSerializer);
+
+				if (doBatch) {
+					insert.addBatch();
+					if (++batchCount >= batchLimit) {
+						long start = System.nanoTime();
+						insert.executeBatch();
+						batchLimit = adjustBatchSize(batchLimit, System.nanoTime() - start);
+						batchCount = 0;
+					}
+				} else {
+					insert.executeUpdate();
+				}
+			}
+
+			//flush any lingering batch inserts through to the server.
+			if (batchCount > 0)
+				insert.executeBatch();
+			
+		} finally {
+			closeStatement(insert);
+		}
+	}
+
+	/** insert events in chunks, executing one multi-row insert statement per chunk. */
+	private void insertMultiRow(Connection con, Queue<BehaviorEvent> events, EventDataElementSerializer dataSerializer, PreparedStatement[] idStmt) 
+		throws SQLException
+	{
+		//statements prepared so far, by row count.  generally there are at most two:
+		//one for full batches and one for the remainder.
+		Map<Integer, PreparedStatement> statements = new HashMap<Integer, PreparedStatement>();
+		try {
+			int batchLimit = Math.min(getCurrentBatchSize(), getBatchLimit());
+			BehaviorEvent[] rows = new BehaviorEvent[batchLimit];
+			int rowCount = 0;
+			
+			for (BehaviorEvent next : events) {
+				assignIds(next, con, idStmt);
+				rows[rowCount++] = next;
+				if (rowCount == batchLimit) {
+					long start = System.nanoTime();
+					executeMultiRow(con, statements, rows, rowCount, dataSerializer);
+					int newLimit = adjustBatchSize(batchLimit, System.nanoTime() - start);
+					if (newLimit != batchLimit)
+						rows = new BehaviorEvent[batchLimit = newLimit];
+					rowCount = 0;
+				}
+			}
+			
+			if (rowCount > 0)
+				executeMultiRow(con, statements, rows, rowCount, dataSerializer);
+			
+		} finally {
+			for (PreparedStatement stmt : statements.values())
+				closeStatement(stmt);
+		}
+	}
+	
+	private void executeMultiRow(Connection con, Map<Integer, PreparedStatement> statements, BehaviorEvent[] rows, int rowCount, EventDataElementSerializer dataSerializer) 
+		throws SQLException
+	{
+		PreparedStatement insert = statements.get(rowCount);
+		if (insert == null) {
+			insert = con.prepareStatement(toMultiRowSql(insertSql, rowCount));
+			statements.put(rowCount, insert);
+		}
+		for (int i = 0; i < rowCount; ++i)
+			bind(insert, i * INSERT_PARAMS, rows[i], dataSerializer);
+		insert.executeUpdate();
+	}
+
+	/** populate the parameters for a single event into the insert statement, starting after the given parameter offset. */
+	private void bind(PreparedStatement insert, int offset, BehaviorEvent next, EventDataElementSerializer dataSerializer) 
+		throws SQLException
+	{
+		//populate identifying information for the event into the insert statement.
+		insert.setLong(offset + 1, (Long)next.getId());
+		
+		BehaviorEvent parent = next.getParent();
+		nullSafeSet(insert, offset + 2, parent == null ? null : parent.getId(), Types.BIGINT);
+
+		insert.setString(offset + 3, next.getApplication());
+		insert.setString(offset + 4, next.getType());
+		insert.setString(offset + 5, next.getName());
+		insert.setTimestamp(offset + 6, new java.sql.Timestamp(next.getStart().getTime()));
+		insert.setLong(offset + 7, next.getDurationNs());
+
+		//set optional context information on the event.
+		nullSafeSet(insert, offset + 8, next.getUserId(), Types.VARCHAR);
+		nullSafeSet(insert, offset + 9, next.getSessionId(), Types.VARCHAR);
+		nullSafeSet(insert, offset + 10, next.getError(), Types.VARCHAR);
+
+		//convert event data to XML
+		String data = dataSerializer.serialize(next.getData(), true);
+		nullSafeSet(insert, offset + 11, data, Types.VARCHAR);
+	}
+
+	/**
+	 * Compute the next batch size from the time taken to execute a full batch.
+	 * @return the size to use for the next batch
+	 */
+	private int adjustBatchSize(int size, long elapsedNanos) {
+		if (!adaptiveBatchSize)
+			return size;
+		long target = targetBatchTime * 1000000L;
+		if (elapsedNanos < target / 2)
+			size = Math.min(size * 2, getBatchLimit());
+		else if (elapsedNanos > target)
+			size = Math.max(size / 2, 1);
+		currentBatchSize = size;
+		return size;
+	}
+
+	/** @return the largest usable batch size, limited by the bind parameters allowed per statement for multi-row inserts */
+	private int getBatchLimit() {
+		return multiRowInsert ? Math.min(maxBatchSize, maxStatementParameters / INSERT_PARAMS) : maxBatchSize;
+	}
+
+	/**
+	 * Convert a single-row insert statement into one inserting <code>rows</code> rows,
+	 * by repeating the parenthesized list following its last <code>values</code> keyword.
+	 * @throws IllegalArgumentException if the statement does not end with a <code>values</code> list
+	 */
+	static String toMultiRowSql(String insertSql, int rows) {
+		String sql = insertSql.trim();
+		int values = sql.toLowerCase().lastIndexOf("values");
+		int open = values < 0 ? -1 : sql.indexOf('(', values);
+		if (open < 0 || !sql.endsWith(")"))
+			throw new IllegalArgumentException("Cannot convert insert SQL to multi-row insert, no trailing values list found: " + insertSql);
+		
+		String row = sql.substring(open);
+		StringBuffer buf = new StringBuffer(open + rows * (row.length() + 2));
+		buf.append(sql, 0, open).append(row);
+		for (int i = 1; i < rows; ++i)
+			buf.append(", ").append(row);
+		return buf.toString();
+	}
 	
 	private void assignIds(BehaviorEvent event, Connection conn, PreparedStatement[] ptr) throws SQLException {
 		if (event.getId() != null)
@@ -227,20 +441,27 @@ public class JdbcBehaviorEventPersisterImpl extends JdbcDaoSupport
 	}
 	
 	protected synchronized Long nextId(Connection conn, PreparedStatement[] ptr) throws SQLException {
+		if (idGenerator != null)
+			return idGenerator.nextId();
 		if (currentId == nextId) {
-			if (ptr[0] == null)
-				ptr[0] = conn.prepareStatement(idSql);
-			ResultSet rs = ptr[0].executeQuery();
-			try {
-				rs.next();
-				currentId = rs.getLong(1);
-				nextId = currentId + idIncrement;
-			} finally {
-				closeResultSet(rs);
-			}
+			currentId = fetchId(conn, ptr);
+			nextId = currentId + idIncrement;
 		}
 		return currentId++;
 	}
+
+	/** execute the ID SQL, preparing the statement on first use */
+	private long fetchId(Connection conn, PreparedStatement[] ptr) throws SQLException {
+		if (ptr[0] == null)
+			ptr[0] = conn.prepareStatement(idSql);
+		ResultSet rs = ptr[0].executeQuery();
+		try {
+			rs.next();
+			return rs.getLong(1);
+		} finally {
+			closeResultSet(rs);
+		}
+	}
 	
 	protected void nullSafeSet(PreparedStatement stmt, int index, Object value, int sqlType) 
 		throws SQLException
@@ -250,5 +471,4 @@ public class JdbcBehaviorEventPersisterImpl extends JdbcDaoSupport
 		else
 			stmt.setObject(index, value, sqlType);
 	}
-	
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import java.util.HashSet;
+
+/**
+ * <p>One file of an event log, while events are being written to it.  Event data can use the current scope to
+ * include text, such as the full text of a normalized SQL statement, only the first time it appears in each log
+ * rather than in every event.  {@link XmlBehaviorEventPersisterImpl} starts a new scope each time its log is
+ * rotated, and makes it {@link #current() current} on the writing thread while events are serialized.</p>
+ *
+ * <p>A scope remembers a bounded number of keys, beyond which it starts over, in which case text is repeated
+ * in the log rather than omitted.</p>
+ */
+public class LogScope {
+
+	public static final int DEFAULT_MAX_KEYS = 10000;
+
+	private static final ThreadLocal<LogScope> current = new ThreadLocal<LogScope>();
+
+	private final int maxKeys;
+	private final HashSet<String> recorded = new HashSet<String>();
+
+	public LogScope() {
+		this(DEFAULT_MAX_KEYS);
+	}
+
+	/** @param maxKeys the maximum number of recorded keys remembered */
+	public LogScope(int maxKeys) {
+		this.maxKeys = maxKeys;
+	}
+
+	/** @return the scope of the log being written by the calling thread, or null if no log is being written */
+	public static LogScope current() {
+		return current.get();
+	}
+
+	/**
+	 * Make this scope current on the calling thread.
+	 * @return the previously current scope, which must be passed to {@link #exit(LogScope)} when writing is done
+	 */
+	public LogScope enter() {
+		LogScope previous = current.get();
+		current.set(this);
+		return previous;
+	}
+
+	/** restore the scope that was current before {@link #enter()} */
+	public static void exit(LogScope previous) {
+		if (previous == null)
+			current.remove();
+		else
+			current.set(previous);
+	}
+
+	/**
+	 * Mark the text identified by <code>key</code> as written to this log.
+	 * @return true if this is the first call with <code>key</code> in this scope
+	 */
+	public synchronized boolean record(String key) {
+		if (recorded.contains(key))
+			return false;
+		if (recorded.size() >= maxKeys)
+			recorded.clear();
+		recorded.add(key);
+		return true;
+	}
+}
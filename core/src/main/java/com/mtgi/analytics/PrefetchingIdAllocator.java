@@ -0,0 +1,169 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+/**
+ * <p>Hands out numeric IDs from blocks of consecutive values, such as those reserved by
+ * a database sequence with an increment greater than one.  New blocks are fetched by a
+ * background thread, which tries to stay a configurable number of blocks ahead of demand,
+ * so that callers of {@link #nextId()} only wait for a round trip to the database when
+ * IDs are consumed faster than blocks can be fetched.</p>
+ *
+ * <p>Subclasses implement {@link #fetchBlock()} to reserve the next block.  The background
+ * thread is started on the first call to {@link #nextId()}, and should be stopped with
+ * {@link #stop()} when the allocator is no longer needed.  IDs prefetched but not used
+ * before the allocator is stopped are lost, leaving gaps in the ID sequence.  With a
+ * prefetch count of zero, no thread is used and blocks are fetched by the calling thread
+ * as they are needed.</p>
+ */
+public abstract class PrefetchingIdAllocator implements EventIdGenerator {
+
+	private static final Log log = LogFactory.getLog(PrefetchingIdAllocator.class);
+
+	private long blockSize;
+	private long timeout = 30000;
+	private long retryDelay = 1000;
+
+	//first value of each block fetched ahead of demand, or null if prefetch is disabled.
+	private ArrayBlockingQueue<Long> prefetched;
+
+	//the block currently in use, guarded by 'this'.
+	private long next;
+	private long end;
+
+	private Thread fetcher;
+	private volatile boolean running;
+	//most recent error from the fetcher thread, if the last attempt to fetch a block failed.
+	private volatile Exception failure;
+
+	/**
+	 * @param blockSize the number of consecutive IDs in each block returned by {@link #fetchBlock()}
+	 * @param prefetch the number of blocks to fetch ahead of demand, or 0 to fetch blocks only when needed
+	 */
+	public PrefetchingIdAllocator(long blockSize, int prefetch) {
+		if (blockSize < 1 || prefetch < 0)
+			throw new IllegalArgumentException("Block size must be positive and prefetch count must not be negative");
+		this.blockSize = blockSize;
+		if (prefetch > 0)
+			this.prefetched = new ArrayBlockingQueue<Long>(prefetch);
+	}
+
+	/**
+	 * Set the maximum time in milliseconds that {@link #nextId()} will wait for a block to
+	 * become available before failing.  Defaults to 30000.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/** Set the time in milliseconds to wait before retrying after a failure to fetch a block.  Defaults to 1000. */
+	public void setRetryDelay(long retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Reserve a new block of {@link #blockSize} consecutive IDs.
+	 * @return the first ID in the block
+	 */
+	protected abstract long fetchBlock() throws Exception;
+
+	/**
+	 * Get the next available ID, waiting for a new block if the current block has been used up.
+	 * @throws DataAccessResourceFailureException if no block becomes available within the configured timeout
+	 */
+	public synchronized long nextId() {
+		if (next == end) {
+			if (prefetched == null) {
+				next = fetchNow();
+				end = next + blockSize;
+				return next++;
+			}
+			
+			if (fetcher == null)
+				start();
+
+			Long block;
+			try {
+				block = prefetched.poll(timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DataAccessResourceFailureException("Interrupted waiting for event ID block");
+			}
+			if (block == null)
+				throw new DataAccessResourceFailureException("Timed out waiting for event ID block", failure);
+
+			next = block;
+			end = next + blockSize;
+		}
+		return next++;
+	}
+
+	/** fetch a block on the calling thread, when prefetch is disabled */
+	private long fetchNow() {
+		try {
+			return fetchBlock();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new DataAccessResourceFailureException("Error fetching event ID block", e);
+		}
+	}
+
+	/** stop the background thread, discarding any prefetched blocks. */
+	public synchronized void stop() throws InterruptedException {
+		if (fetcher != null) {
+			running = false;
+			fetcher.interrupt();
+			fetcher.join(timeout);
+			fetcher = null;
+			prefetched.clear();
+		}
+	}
+
+	private void start() {
+		running = true;
+		fetcher = new Thread("beet-id-prefetch") {
+			@Override
+			public void run() {
+				while (running) {
+					try {
+						//blocks until there is room for another block in the queue.
+						prefetched.put(fetchBlock());
+						failure = null;
+					} catch (InterruptedException e) {
+						return;
+					} catch (Exception e) {
+						if (failure == null)
+							log.error("Error fetching event ID block; retrying every " + retryDelay + "ms", e);
+						failure = e;
+						try {
+							Thread.sleep(retryDelay);
+						} catch (InterruptedException ie) {
+							return;
+						}
+					}
+				}
+			}
+		};
+		fetcher.setDaemon(true);
+		fetcher.start();
+	}
+}
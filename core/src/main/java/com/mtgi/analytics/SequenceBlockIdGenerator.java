@@ -0,0 +1,78 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import static org.springframework.jdbc.support.JdbcUtils.closeResultSet;
+import static org.springframework.jdbc.support.JdbcUtils.closeStatement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * An {@link EventIdGenerator} that leases blocks of IDs from a database sequence.  The configured
+ * SQL must return a single value, the first of <code>blockSize</code> consecutive IDs reserved for
+ * this generator; typically this is a sequence with an increment equal to the block size.  Blocks
+ * may be prefetched on a background thread, so that application threads rarely wait on the database.
+ *
+ * @see PrefetchingIdAllocator
+ */
+public class SequenceBlockIdGenerator extends PrefetchingIdAllocator implements DisposableBean {
+
+	private JdbcTemplate jdbcTemplate;
+	private String idSql;
+
+	/**
+	 * @param dataSource the database containing the ID sequence
+	 * @param idSql SQL statement returning the first ID in a newly reserved block
+	 * @param blockSize the number of IDs reserved by each execution of <code>idSql</code>
+	 * @param prefetch the number of blocks to fetch ahead of demand, or 0 to fetch only when needed
+	 */
+	public SequenceBlockIdGenerator(DataSource dataSource, String idSql, long blockSize, int prefetch) {
+		super(blockSize, prefetch);
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.idSql = idSql;
+	}
+
+	@Override
+	protected long fetchBlock() {
+		return (Long)jdbcTemplate.execute(new UntrackedConnectionCallback() {
+			@Override
+			protected Object doInUntrackedConnection(Connection con) throws SQLException {
+				PreparedStatement stmt = con.prepareStatement(idSql);
+				try {
+					ResultSet rs = stmt.executeQuery();
+					try {
+						rs.next();
+						return rs.getLong(1);
+					} finally {
+						closeResultSet(rs);
+					}
+				} finally {
+					closeStatement(stmt);
+				}
+			}
+		});
+	}
+
+	public void destroy() throws InterruptedException {
+		stop();
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>An {@link EventIdGenerator} that produces roughly time-ordered 64-bit IDs without any
+ * coordination beyond a configured node number.  Each ID is composed of (from most to
+ * least significant bits):</p>
+ * <ul>
+ * <li>41 bits of milliseconds elapsed since the configured {@link #setEpoch(long) epoch},
+ *     enough for about 69 years</li>
+ * <li>10 bits of {@link #setNodeId(int) node ID}, which must be unique for each application
+ *     instance writing to the same event store</li>
+ * <li>12 bits of sequence number, allowing 4096 IDs per millisecond</li>
+ * </ul>
+ *
+ * <p>IDs are generated with a single compare-and-set, and are strictly increasing for a given
+ * instance.  If more than 4096 IDs are requested in a millisecond, or the system clock is set
+ * backwards, the timestamp component runs ahead of the clock until the clock catches up.</p>
+ */
+public class TimeOrderedIdGenerator implements EventIdGenerator {
+
+	private static final int SEQUENCE_BITS = 12;
+	private static final int NODE_BITS = 10;
+	/** the largest permissible {@link #setNodeId(int) node ID} */
+	public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+	/** default epoch, 2008-01-01T00:00:00Z */
+	public static final long DEFAULT_EPOCH = 1199145600000L;
+
+	private long epoch = DEFAULT_EPOCH;
+	private long node = defaultNodeId();
+
+	//timestamp and sequence of the last ID issued, packed as (timestamp << SEQUENCE_BITS) | sequence.
+	private AtomicLong last = new AtomicLong();
+
+	/**
+	 * Set the node number embedded in each ID, between 0 and {@link #MAX_NODE_ID}.  Applications sharing
+	 * an event database must use distinct node numbers.
+	 * 
+	 * <p>If unspecified, the node number is derived from a hash of the host name and process ID.  This keeps
+	 * instances from colliding by default, but with only 1024 node numbers the chance that two of <i>n</i> instances
+	 * share one grows quickly (about 1 in 2 for 38 instances), so production deployments with several
+	 * instances should assign node numbers explicitly.</p>
+	 */
+	public void setNodeId(int nodeId) {
+		if (nodeId < 0 || nodeId > MAX_NODE_ID)
+			throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+		this.node = nodeId;
+	}
+
+	public int getNodeId() {
+		return (int)node;
+	}
+
+	/**
+	 * Set the time, in milliseconds since 1970, from which ID timestamps are measured.  Must not be changed
+	 * once IDs have been persisted.  Defaults to {@link #DEFAULT_EPOCH}.
+	 */
+	public void setEpoch(long epoch) {
+		this.epoch = epoch;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public long nextId() {
+		long now = (System.currentTimeMillis() - epoch) << SEQUENCE_BITS;
+		long prev, next;
+		do {
+			prev = last.get();
+			//take the next sequence number in the current millisecond, or roll into the next one.
+			next = Math.max(now, prev + 1);
+		} while (!last.compareAndSet(prev, next));
+
+		long timestamp = next >>> SEQUENCE_BITS;
+		long sequence = next & ((1 << SEQUENCE_BITS) - 1);
+		return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+	}
+
+	/**
+	 * @return a node number derived from the JVM's runtime name, which is typically <code>pid@hostname</code>,
+	 * or 0 if it cannot be determined
+	 */
+	static int defaultNodeId() {
+		try {
+			int hash = ManagementFactory.getRuntimeMXBean().getName().hashCode();
+			//spread the higher bits of the hash into the node bits.
+			hash ^= (hash >>> 20) ^ (hash >>> 10);
+			return hash & MAX_NODE_ID;
+		} catch (RuntimeException e) {
+			return 0;
+		}
+	}
+
+	/** @return the time in milliseconds since 1970 at which the given ID was generated */
+	public long getTimestamp(long id) {
+		return (id >>> (NODE_BITS + SEQUENCE_BITS)) + epoch;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+
+import com.mtgi.analytics.sql.BehaviorTrackingConnectionProxy;
+
+/**
+ * Executes JDBC work with behavior tracking suspended on the connection, if it is a behavior tracking
+ * connection.  We don't generate more events while persisting.
+ */
+abstract class UntrackedConnectionCallback implements ConnectionCallback {
+
+	public Object doInConnection(Connection con) throws SQLException, DataAccessException {
+		BehaviorTrackingConnectionProxy bt = null;
+		for (Connection c = con;
+			 bt == null && c instanceof ConnectionProxy;
+			 c = ((ConnectionProxy)c).getTargetConnection())
+		{
+			if (c instanceof BehaviorTrackingConnectionProxy) {
+				bt = (BehaviorTrackingConnectionProxy)c;
+				bt.suspendTracking();
+			}
+		}
+
+		try {
+			return doInUntrackedConnection(con);
+		} finally {
+			if (bt != null)
+				bt.resumeTracking();
+		}
+	}
+
+	protected abstract Object doInUntrackedConnection(Connection con) throws SQLException;
+}
@@ -16,6 +16,7 @@ package com.mtgi.analytics;
 import static java.util.UUID.randomUUID;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
@@ -27,6 +28,10 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
@@ -45,32 +50,72 @@ import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedOperationParameter;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
+import com.mtgi.io.MappedSegmentOutputStream;
 import com.mtgi.io.RelocatableFile;
 import com.sun.xml.fastinfoset.stax.StAXDocumentSerializer;
 
 /**
  * Behavior Tracking persister which writes events to an XML log file,
  * either as plain text or FastInfoset binary XML.  Which format is
- * selected by {@link #setBinary(boolean)}.  Log rotation can be accomplished
+ * selected by {@link #setBinary(boolean)}.  Alternatively, events can be written
+ * in the more compact binary record format of {@link EventRecordWriter}, selected
+ * by {@link #setRecords(boolean)}.  Log rotation can be accomplished
  * by {@link #rotateLog()}.
+ * 
+ * <p>By default events are written on the thread calling {@link #persist(Queue)}.  If
+ * {@link #setAsynchronous(boolean) asynchronous} is set, batches are instead handed
+ * off to a bounded queue and serialized by a single dedicated writer thread, which
+ * commits output to the file after a configurable number of events or interval of time,
+ * whichever comes first.  Whether commits are also synchronized to disk is governed by
+ * the {@link #setFsyncPolicy(String) fsync policy}.</p>
+ * 
+ * <p>If a {@link #setSegmentSize(long) segment size} is specified, the log is written
+ * through a preallocated, memory-mapped {@link MappedSegmentOutputStream} rather than a
+ * buffered file stream, and the log is rotated automatically when the segment is nearly full.
+ * A segment left open by a crash is repaired at startup, discarding any data written after the
+ * last commit and closing the XML document.</p>
  */
 @ManagedResource(objectName="com.mtgi.analytics:name=BeetLog", 
 		 		 description="Perform maintenance on beet XML logfiles")
 public class XmlBehaviorEventPersisterImpl 
-	implements BehaviorEventPersister, InitializingBean, DisposableBean 
+	implements EventRetainingPersister, InitializingBean, DisposableBean 
 {
 	private static final Log log = LogFactory.getLog(XmlBehaviorEventPersisterImpl.class);
 
 	private static final SimpleDateFormat DEFAULT_DATE_FORMAT = new SimpleDateFormat("yyyyMMddHHmmss");
-	private static final Pattern FILE_NAME_PATTERN = Pattern.compile("^(.+)\\.b?xml(?:\\.gz)?");
+	private static final Pattern FILE_NAME_PATTERN = Pattern.compile("^(.+)\\.(?:b?xml|bevt)(?:\\.gz)?");
 	
 	private boolean binary;
+	private boolean records;
 	private boolean compress;
 	private File file;
 	private SimpleDateFormat dateFormat = DEFAULT_DATE_FORMAT;
 
-	private XMLStreamWriter writer;
+	private boolean asynchronous;
+	private int batchQueueSize = 64;
+	private long writerTimeout = 10000;
+	private int commitSize = 1000;
+	private long commitInterval = 1000;
+	private FsyncPolicy fsyncPolicy = FsyncPolicy.none;
+	private long fsyncInterval = 1000;
+	private long segmentSize = 0;
+
+	private EventLogWriter writer;
+	//identifies the current log file to event data written once per log.
+	private LogScope scope;
 	private OutputStream stream;
+	//the underlying file stream, for fsync.
+	private FileOutputStream fileStream;
+	//the underlying segment, if writing to memory-mapped segments.
+	private volatile MappedSegmentOutputStream segment;
+	//time of the most recent fsync, for the 'interval' fsync policy.
+	private long lastSync;
+	
+	//in asynchronous mode, batches waiting for the writer thread.
+	private ArrayBlockingQueue<Batch> batches;
+	private WriterThread writerThread;
+	//in asynchronous mode, events discarded because the writer thread was unavailable.
+	private AtomicLong droppedEvents = new AtomicLong();
 	
 	/** Set to true to log in FastInfoset binary XML format.  Defaults to false. */
 	@ManagedAttribute(description="Can be used to switch between binary and text XML.  Changes take affect after the next log rotation.")
@@ -82,6 +127,21 @@ public class XmlBehaviorEventPersisterImpl
 		return binary;
 	}
 
+	/**
+	 * Set to true to log in the binary record format written by {@link EventRecordWriter} rather than XML, in which
+	 * case {@link #setBinary(boolean) binary} is ignored.  Record logs have the extension <code>.bevt</code>, and can
+	 * be converted to XML with the beet-utils <code>records</code> tool.  Changes take effect after the next log rotation.
+	 * Defaults to false.
+	 */
+	@ManagedAttribute(description="Can be used to switch between XML and binary event records.  Changes take affect after the next log rotation.")
+	public void setRecords(boolean records) {
+		this.records = records;
+	}
+	@ManagedAttribute(description="Can be used to switch between XML and binary event records.  Changes take affect after the next log rotation.")
+	public boolean isRecords() {
+		return records;
+	}
+
 	@ManagedAttribute(description="Can be used to turn on/off log file compression.  Changes take affect after the next log rotation.")
 	public boolean isCompress() {
 		return compress;
@@ -92,6 +152,101 @@ public class XmlBehaviorEventPersisterImpl
 		this.compress = compress;
 	}
 	
+	/**
+	 * Set to true to hand off events to a dedicated writer thread, rather than writing them on
+	 * the thread calling {@link #persist(Queue)}.  {@link #persist(Queue)} blocks if
+	 * the writer falls more than {@link #setBatchQueueSize(int) batchQueueSize} batches behind,
+	 * for at most {@link #setWriterTimeout(long) writerTimeout}.
+	 * Must be set before the persister is initialized.  Defaults to false.
+	 */
+	public void setAsynchronous(boolean asynchronous) {
+		this.asynchronous = asynchronous;
+	}
+	@ManagedAttribute(description="True if events are written to the log by a dedicated writer thread")
+	public boolean isAsynchronous() {
+		return asynchronous;
+	}
+
+	/** @return true in asynchronous mode, where events are written after {@link #persist(Queue)} returns */
+	public boolean isRetainingEvents() {
+		return asynchronous;
+	}
+	
+	/** In asynchronous mode, the maximum number of batches waiting for the writer thread.  Defaults to 64. */
+	public void setBatchQueueSize(int batchQueueSize) {
+		this.batchQueueSize = batchQueueSize;
+	}
+	
+	/**
+	 * In asynchronous mode, the maximum time in milliseconds to wait for room in the batch queue, or for the writer
+	 * thread to complete a {@link #flushLog() flush}.  Batches that can't be queued in time, or that arrive after the
+	 * writer thread has died, are discarded and counted in {@link #getDroppedEvents()}, so that a stalled writer
+	 * (for example, on a full disk) does not block the application or its shutdown.  Defaults to 10000.
+	 */
+	public void setWriterTimeout(long writerTimeout) {
+		this.writerTimeout = writerTimeout;
+	}
+	
+	public long getWriterTimeout() {
+		return writerTimeout;
+	}
+	
+	/** In asynchronous mode, the number of events written before output is committed to the file.  Defaults to 1000. */
+	public void setCommitSize(int commitSize) {
+		this.commitSize = commitSize;
+	}
+	
+	/** 
+	 * In asynchronous mode, the maximum time in milliseconds that written events are held in
+	 * memory buffers before being committed to the file.  Defaults to 1000.
+	 */
+	public void setCommitInterval(long commitInterval) {
+		this.commitInterval = commitInterval;
+	}
+	
+	/**
+	 * Select when committed output is synchronized to disk, one of <code>none</code> (leave it
+	 * to the operating system), <code>batch</code> (on every commit), or <code>interval</code> (at most
+	 * once every {@link #setFsyncInterval(long) fsyncInterval} milliseconds).  Defaults to <code>none</code>.
+	 */
+	public void setFsyncPolicy(String fsyncPolicy) {
+		this.fsyncPolicy = FsyncPolicy.valueOf(fsyncPolicy.trim().toLowerCase());
+	}
+	@ManagedAttribute(description="When log output is synchronized to disk; one of none, batch, or interval")
+	public String getFsyncPolicy() {
+		return fsyncPolicy.name();
+	}
+	
+	/** Minimum time in milliseconds between disk synchronizations for the <code>interval</code> fsync policy.  Defaults to 1000. */
+	public void setFsyncInterval(long fsyncInterval) {
+		this.fsyncInterval = fsyncInterval;
+	}
+	
+	/**
+	 * Set to a positive value to write the log to preallocated, memory-mapped segment files of the given
+	 * size in bytes.  The log is rotated whenever less than 1/8th of the segment remains after a commit, so
+	 * it is normally not necessary to schedule rotation when this option is used.  Compression is not
+	 * supported for segmented logs, and is ignored if enabled.  Changes take effect after the next log rotation.
+	 * Defaults to 0, meaning the log is written through an ordinary buffered stream.
+	 */
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+	@ManagedAttribute(description="Size in bytes of preallocated log segments, or 0 if segments are not used")
+	public long getSegmentSize() {
+		return segmentSize;
+	}
+
+	@ManagedAttribute(description="In asynchronous mode, the number of event batches waiting to be written")
+	public int getPendingBatches() {
+		return batches == null ? 0 : batches.size();
+	}
+
+	@ManagedAttribute(description="In asynchronous mode, the number of events discarded because the writer thread was stalled or stopped")
+	public long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+
 	/** override the default log name date format */
 	public void setDateFormat(String dateFormat) {
 		this.dateFormat = new SimpleDateFormat(dateFormat);
@@ -149,23 +304,51 @@ public class XmlBehaviorEventPersisterImpl
 		if (!dir.isDirectory() && !dir.mkdirs())
 			throw new IOException("Unable to create directories for log file " + file.getAbsolutePath());
 		
+		//repair the tail of a segment left open by an unclean shutdown, so that it is archived as a valid document.
+		if (segmentSize > 0) {
+			File current = getLogFile(file);
+			byte[] trailer = current.getName().contains(".bevt") ? EventRecordWriter.getTrailer()
+							 : getDocumentTrailer(current.getName().contains(".bxml"));
+			if (MappedSegmentOutputStream.recover(current, trailer))
+				log.warn("Recovered unclosed log segment " + current.getAbsolutePath());
+		}
+		
 		//open for business.
 		rotateLog();
+		
+		if (asynchronous) {
+			batches = new ArrayBlockingQueue<Batch>(batchQueueSize);
+			writerThread = new WriterThread();
+			writerThread.start();
+		}
 	}
 
 	public void destroy() throws Exception {
-		closeWriter();
+		WriterThread writerThread = this.writerThread;
+		if (writerThread != null) {
+			//let the writer finish queued batches before closing the log.
+			if (writerThread.isAlive() && batches.offer(Batch.SHUTDOWN, writerTimeout, TimeUnit.MILLISECONDS))
+				writerThread.join(60000);
+			if (writerThread.isAlive()) {
+				log.error("Timed out waiting for XML log writer to finish; " + batches.size() + " batches discarded");
+				writerThread.interrupt();
+			}
+			this.writerThread = null;
+		}
+		synchronized (this) {
+			closeWriter();
+		}
 	}
 	
 	@ManagedAttribute(description="Report the current size of the XML log, in bytes")
 	public long getFileSize() {
-		return file.length();
+		MappedSegmentOutputStream segment = this.segment;
+		return segment == null ? file.length() : segment.getPosition();
 	}
 
 	public void persist(Queue<BehaviorEvent> events) {
 		try {
-			BehaviorEventSerializer serializer = new BehaviorEventSerializer();
-			
+			//assign IDs on the calling thread, so that they are visible to the caller when we return.
 			for (BehaviorEvent event : events) {
 				if (event.getId() == null)
 					event.setId(randomUUID());
@@ -173,16 +356,26 @@ public class XmlBehaviorEventPersisterImpl
 				BehaviorEvent parent = event.getParent();
 				if (parent != null && parent.getId() == null)
 					parent.setId(randomUUID());
-				
-				synchronized (this) {
-					serializer.serialize(writer, event);
-					writer.writeCharacters("\n");
-				}
 			}
 			
-			synchronized (this) {
-				writer.flush();
-				stream.flush();
+			WriterThread writerThread = this.writerThread;
+			if (writerThread != null) {
+				if (!events.isEmpty() && !enqueue(writerThread, new Batch(events.toArray(new BehaviorEvent[events.size()]), null))) {
+					droppedEvents.addAndGet(events.size());
+					log.error("XML log writer is " + (writerThread.isAlive() ? "not keeping up" : "not running") 
+							  + "; discarding " + events.size() + " events without saving");
+				}
+			} else {
+				synchronized (this) {
+					LogScope previous = scope.enter();
+					try {
+						for (BehaviorEvent event : events)
+							writer.write(event);
+					} finally {
+						LogScope.exit(previous);
+					}
+					commitLog();
+				}
 			}
 			
 		} catch (Exception error) {
@@ -190,6 +383,62 @@ public class XmlBehaviorEventPersisterImpl
 			events.clear();
 		}
 	}
+	
+	/**
+	 * Commit all events persisted so far to the log file.  In asynchronous mode, this waits for
+	 * the writer thread to finish with batches that have already been queued.
+	 */
+	@ManagedOperation(description="Write all pending events to the behavior tracking log")
+	public void flushLog() throws IOException, XMLStreamException, InterruptedException {
+		WriterThread writerThread = this.writerThread;
+		if (writerThread != null) {
+			Batch request = new Batch(null, new CountDownLatch(1));
+			if (!enqueue(writerThread, request) || !request.done.await(writerTimeout, TimeUnit.MILLISECONDS))
+				log.warn("XML log writer did not commit pending events within " + writerTimeout + "ms");
+		} else {
+			synchronized (this) {
+				commitLog();
+			}
+		}
+	}
+	
+	/** 
+	 * queue a batch for the writer thread, waiting at most {@link #setWriterTimeout(long) writerTimeout} for room.
+	 * @return false if the writer thread has stopped or the batch could not be queued in time
+	 */
+	private boolean enqueue(WriterThread writerThread, Batch batch) throws InterruptedException {
+		return writerThread.isAlive() && batches.offer(batch, writerTimeout, TimeUnit.MILLISECONDS);
+	}
+	
+	/** 
+	 * flush buffered output to the file, synchronizing to disk if required by the fsync policy.
+	 * caller must hold the monitor on this instance.
+	 */
+	private void commitLog() throws IOException, XMLStreamException {
+		if (writer == null)
+			return;
+		writer.flush();
+		stream.flush();
+		if (segment != null)
+			segment.commit();
+		
+		switch (fsyncPolicy) {
+		case interval:
+			if (System.currentTimeMillis() - lastSync < fsyncInterval)
+				break;
+			//fall through
+		case batch:
+			if (segment != null)
+				segment.sync();
+			else
+				fileStream.getFD().sync();
+			lastSync = System.currentTimeMillis();
+		}
+		
+		//roll over to a new segment before this one fills up.
+		if (segment != null && segment.getRemaining() < segmentSize / 8)
+			rotateLog();
+	}
 
 	/**
 	 * Force a rotation of the log.  The new archive log will be named <code>[logfile].yyyyMMddHHmmss</code>.
@@ -219,27 +468,66 @@ public class XmlBehaviorEventPersisterImpl
 			//this can happen if the system wasn't shut down cleanly the last time.
 			moveToArchive();
 
-			//open a new stream, optionally compressed.
-			if (compress)
-				stream = new GZIPOutputStream(new FileOutputStream(file));
-			else
-				stream = new BufferedOutputStream(new FileOutputStream(file));
+			//open a new stream, optionally compressed or memory-mapped.
+			if (segmentSize > 0) {
+				stream = segment = new MappedSegmentOutputStream(file, segmentSize);
+			} else {
+				fileStream = new FileOutputStream(file);
+				if (isCompressed())
+					stream = new GZIPOutputStream(fileStream);
+				else
+					stream = new BufferedOutputStream(fileStream);
+			}
 			
 			//open a new writer over the stream.
-			if (binary) {
-				StAXDocumentSerializer sds = new StAXDocumentSerializer();
-				sds.setOutputStream(stream);
-				writer = sds;
-			} else {
-				writer = XMLOutputFactory.newInstance().createXMLStreamWriter(stream);
+			if (records)
+				writer = new EventRecordWriter(stream);
+			else
+				writer = new XmlLogWriter(createWriter(stream, binary), segment != null);
+			
+			if (segment != null) {
+				//commit the log header, so that we can recover the segment even if no events are written.
+				writer.flush();
+				segment.commit();
 			}
-
-			writer.writeStartDocument();
-			writer.writeStartElement("event-log");
+			
+			//text written once per log must be written again in the new log.
+			scope = new LogScope();
 		}
 		return msg.toString();
 	}
 	
+	private static XMLStreamWriter createWriter(OutputStream stream, boolean binary) throws XMLStreamException {
+		if (binary) {
+			StAXDocumentSerializer sds = new FlushingDocumentSerializer();
+			sds.setOutputStream(stream);
+			return sds;
+		}
+		return XMLOutputFactory.newInstance().createXMLStreamWriter(stream);
+	}
+	
+	/**
+	 * Compute the bytes needed to end a log document, at a point where the last thing written
+	 * was the newline following an event.  Used to close the document in a recovered segment.
+	 */
+	private static byte[] getDocumentTrailer(boolean binary) throws XMLStreamException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		XMLStreamWriter writer = createWriter(buffer, binary);
+		writer.writeStartDocument();
+		writer.writeStartElement("event-log");
+		writer.writeCharacters("\n");
+		writer.flush();
+		
+		int header = buffer.size();
+		writer.writeEndDocument();
+		writer.flush();
+		
+		byte[] document = buffer.toByteArray();
+		byte[] trailer = new byte[document.length - header];
+		System.arraycopy(document, header, trailer, 0, trailer.length);
+		return trailer;
+	}
+	
 	/** 
 	 * if the current target log location exists, move it to archive location, returning the newly created archive file 
 	 * @return the archive file; or null if the current target location does not yet exist
@@ -257,12 +545,11 @@ public class XmlBehaviorEventPersisterImpl
 	
 	private void closeWriter() {
 		if (writer != null) {
-			//finish writing XML document.
+			//finish writing the log document.
 			try {
-				writer.writeEndDocument();
-				writer.flush();
-			} catch (XMLStreamException xse) {
-				log.error("Error flushing log for rotation", xse);
+				writer.finish();
+			} catch (Exception e) {
+				log.error("Error flushing log for rotation", e);
 			} finally {
 				
 				//finish the compressed stream, if applicable.
@@ -281,6 +568,8 @@ public class XmlBehaviorEventPersisterImpl
 					} finally {
 						writer = null;
 						stream = null;
+						fileStream = null;
+						segment = null;
 					}
 					
 				}
@@ -292,8 +581,8 @@ public class XmlBehaviorEventPersisterImpl
 	public File getLogFile(File file) {
 
 		//generate an extension based on output options.
-		String ext = isBinary() ? ".bxml" : ".xml";
-		if (isCompress())
+		String ext = records ? ".bevt" : isBinary() ? ".bxml" : ".xml";
+		if (isCompressed())
 			ext += ".gz";
 		
 		//strip off current extension if applicable.
@@ -305,6 +594,11 @@ public class XmlBehaviorEventPersisterImpl
 		return new File(file.getParentFile(), baseName + ext);
 	}
 	
+	/** compression is not supported for segmented logs */
+	private boolean isCompressed() {
+		return compress && segmentSize <= 0;
+	}
+	
 	/** get the archive file to which current log data should be moved on rotation */
 	private File getArchiveFile() {
 		String baseName = file.getPath() + "." + dateFormat.format(new Date());
@@ -323,10 +617,161 @@ public class XmlBehaviorEventPersisterImpl
 		Matcher m = FILE_NAME_PATTERN.matcher(filePattern);
 		if (m.matches())
 			filePattern = m.group(1);
-		filePattern += "\\.b?xml\\..+";
+		filePattern += "\\.(?:b?xml|bevt)\\..+";
 		return Pattern.compile(filePattern);
 	}
 	
+	/** writes events as XML elements in an <code>event-log</code> document, one event per line */
+	private static class XmlLogWriter implements EventLogWriter {
+
+		private final XMLStreamWriter writer;
+		private final BehaviorEventSerializer serializer = new BehaviorEventSerializer();
+
+		/**
+		 * @param newline if true, a newline is written after the document header, putting the writer in the
+		 *        same state as after an event is written; see {@link XmlBehaviorEventPersisterImpl#getDocumentTrailer(boolean)}
+		 */
+		public XmlLogWriter(XMLStreamWriter writer, boolean newline) throws XMLStreamException {
+			this.writer = writer;
+			writer.writeStartDocument();
+			writer.writeStartElement("event-log");
+			if (newline)
+				writer.writeCharacters("\n");
+		}
+
+		public void write(BehaviorEvent event) throws XMLStreamException {
+			serializer.serialize(writer, event);
+			writer.writeCharacters("\n");
+		}
+
+		public void flush() throws XMLStreamException {
+			writer.flush();
+		}
+
+		public void finish() throws XMLStreamException {
+			writer.writeEndDocument();
+			writer.flush();
+		}
+	}
+	
+	/**
+	 * The stock FastInfoset serializer holds encoded data in an internal buffer until the buffer fills
+	 * or the document ends, so that {@link #flush()} does not actually commit anything written since
+	 * the last time the buffer filled.  This extension writes the buffer to the output stream on flush.
+	 */
+	private static class FlushingDocumentSerializer extends StAXDocumentSerializer {
+		@Override
+		public void flush() throws XMLStreamException {
+			if (_octetBufferIndex > 0 && !hasMark()) {
+				try {
+					_s.write(_octetBuffer, 0, _octetBufferIndex);
+				} catch (IOException ioe) {
+					throw new XMLStreamException(ioe);
+				}
+				_octetBufferIndex = 0;
+			}
+			super.flush();
+		}
+	}
+	
+	/** policies for synchronizing log output to disk */
+	public static enum FsyncPolicy {
+		/** never explicitly synchronize; leave it to the operating system */
+		none,
+		/** synchronize on every commit */
+		batch,
+		/** synchronize on commit, at most once per fsync interval */
+		interval
+	}
+	
+	/** a unit of work for the asynchronous writer thread */
+	private static class Batch {
+		
+		/** signals the writer thread to commit and exit */
+		static final Batch SHUTDOWN = new Batch(null, null);
+		
+		/** events to write, or null to request a commit */
+		final BehaviorEvent[] events;
+		/** if not null, released once the batch has been committed */
+		final CountDownLatch done;
+		
+		Batch(BehaviorEvent[] events, CountDownLatch done) {
+			this.events = events;
+			this.done = done;
+		}
+	}
+	
+	/**
+	 * Single consumer of the batch queue in asynchronous mode.  Writes batches as they arrive,
+	 * committing output when {@link XmlBehaviorEventPersisterImpl#setCommitSize(int) commitSize} events
+	 * have been written, when {@link XmlBehaviorEventPersisterImpl#setCommitInterval(long) commitInterval}
+	 * has elapsed, or when a commit is explicitly requested.
+	 */
+	private class WriterThread extends Thread {
+		
+		WriterThread() {
+			super("beet-xml-writer[" + file.getName() + "]");
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			int uncommitted = 0;
+			long lastCommit = System.currentTimeMillis();
+			try {
+				for (;;) {
+					//wait indefinitely if there's nothing to commit, otherwise only until the commit interval expires.
+					Batch next = uncommitted == 0 ? batches.take()
+								 : batches.poll(Math.max(0, lastCommit + commitInterval - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+					
+					if (next != null && next.events != null) {
+						uncommitted += write(next.events);
+						if (uncommitted < commitSize && System.currentTimeMillis() - lastCommit < commitInterval)
+							continue;
+					}
+					
+					//commit interval elapsed, commit size reached, or commit requested.
+					synchronized (XmlBehaviorEventPersisterImpl.this) {
+						try {
+							commitLog();
+						} catch (Exception e) {
+							log.error("Error committing XML log", e);
+						}
+					}
+					uncommitted = 0;
+					lastCommit = System.currentTimeMillis();
+					
+					if (next != null) {
+						if (next.done != null)
+							next.done.countDown();
+						if (next == Batch.SHUTDOWN)
+							return;
+					}
+				}
+			} catch (InterruptedException e) {
+				log.warn("XML log writer interrupted; " + batches.size() + " queued batches will not be written");
+			} catch (RuntimeException e) {
+				log.error("XML log writer stopped unexpectedly; further events will be discarded", e);
+			}
+		}
+		
+		private int write(BehaviorEvent[] events) {
+			synchronized (XmlBehaviorEventPersisterImpl.this) {
+				LogScope previous = scope.enter();
+				try {
+					for (BehaviorEvent event : events)
+						writer.write(event);
+					return events.length;
+				} catch (Exception error) {
+					log.error("Error persisting events; discarding " + events.length + " events without saving", error);
+					return 0;
+				} finally {
+					LogScope.exit(previous);
+				}
+			}
+		}
+	}
+	
 	protected static class FileOrder implements Comparator<File> {
 
 		public static final FileOrder INST = new FileOrder();
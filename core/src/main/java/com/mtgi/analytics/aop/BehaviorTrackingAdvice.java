@@ -13,12 +13,17 @@
  
 package com.mtgi.analytics.aop;
 
+import java.io.ObjectStreamException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.springframework.aop.framework.AopInfrastructureBean;
+import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.factory.annotation.Required;
 
 import com.mtgi.analytics.BehaviorEvent;
@@ -31,6 +36,14 @@ import com.mtgi.analytics.EventDataElement;
  * parameters and result value are included in the event data.
  * The eventType attribute of generated events is set to <code>method</code>
  * unless overridden with {@link #setEventType(String)}.
+ * 
+ * <p>By default, event data is built before the method is invoked.  In
+ * {@link #setDeferredCapture(boolean) deferred capture} mode, only references to the argument and
+ * result values are kept, and event data is rendered when the event is persisted.</p>
+ * 
+ * <p>The event name and the way parameters and results are recorded can be customized per method with
+ * the {@link Tracked} and {@link TrackedParam} annotations.  Annotations are resolved once per method
+ * and target class into a capture plan, which is then reused for every call.</p>
  */
 public class BehaviorTrackingAdvice implements MethodInterceptor, AopInfrastructureBean {
 
@@ -38,11 +51,38 @@ public class BehaviorTrackingAdvice implements MethodInterceptor, AopInfrastruct
 	
 	private String eventType = DEFAULT_EVENT_TYPE;
 	private BehaviorTrackingManager trackingManager;
+	private boolean deferredCapture = false;
+	
+	//event name and capture plan for each advised method, computed on first use.  plans are
+	//grouped by target class, since implementations of an interface method may be annotated differently.
+	//ClassValue attaches each group to its class, so redeployed classes and their loaders can still be collected.
+	private final ClassValue<ConcurrentHashMap<Method, TrackedMethod>> methods =
+		new ClassValue<ConcurrentHashMap<Method, TrackedMethod>>() {
+			@Override
+			protected ConcurrentHashMap<Method, TrackedMethod> computeValue(Class<?> type) {
+				return new ConcurrentHashMap<Method, TrackedMethod>();
+			}
+		};
 	
 	public void setEventType(String eventType) {
 		this.eventType = eventType;
 	}
 
+	/**
+	 * If true, parameter and result values are not converted to event data until the event
+	 * is persisted, moving the cost of formatting values off the application thread and skipping
+	 * it entirely for events that are never persisted.  Note that values are then rendered as they
+	 * are at persistence time, so changes to mutable arguments made after the call are reflected
+	 * in the event data.  Default is false.
+	 */
+	public void setDeferredCapture(boolean deferredCapture) {
+		this.deferredCapture = deferredCapture;
+	}
+
+	public boolean isDeferredCapture() {
+		return deferredCapture;
+	}
+
 	@Required
 	public void setTrackingManager(BehaviorTrackingManager manager) {
 		this.trackingManager = manager;
@@ -54,27 +94,37 @@ public class BehaviorTrackingAdvice implements MethodInterceptor, AopInfrastruct
 
 	public Object invoke(MethodInvocation invocation) throws Throwable {
 
-		Method m = invocation.getMethod();
-		String eventName = m.getDeclaringClass().getName() + "." + m.getName();
-
-		BehaviorEvent event = trackingManager.createEvent(eventType, eventName);
+		TrackedMethod m = getTrackedMethod(invocation);
+		BehaviorEvent event = trackingManager.createEvent(eventType, m.eventName);
 
 		//log method parameters.  would be nice if we could figure
-		//out parameter names here.
+		//out parameter names here.  data is discarded for most unsampled events, so don't bother.
+		boolean sampled = event.isCapturingData();
 		EventDataElement data = event.addData();
-		EventDataElement parameters = data.addElement("parameters");
-		Class<?>[] sig = m.getParameterTypes();
-		Object[] args = invocation.getArguments();
-		
-		for (int i = 0; i < sig.length; ++i) {
-			Object val = args[i];
-			logValue(parameters, "param", sig[i], val);
+		if (sampled) {
+			Object[] args = invocation.getArguments();
+			if (deferredCapture) {
+				//copy the argument array, since interceptors are allowed to modify it.
+				Object[] copy = new Object[args.length];
+				System.arraycopy(args, 0, copy, 0, args.length);
+				data.addElement(new DeferredParameters(m, copy));
+			} else {
+				EventDataElement parameters = data.addElement("parameters");
+				TrackedMethod.ValueCapture[] plan = m.parameters;
+				for (int i = 0; i < plan.length; ++i)
+					plan[i].render(parameters.addElement("param"), args[i]);
+			}
 		}
 		
 		trackingManager.start(event);
 		try {
 			Object ret = invocation.proceed();
-			logValue(data, "result", m.getReturnType(), ret);
+			if (sampled) {
+				if (deferredCapture)
+					data.addElement(new DeferredValue("result", m.result, ret));
+				else
+					m.result.render(data.addElement("result"), ret);
+			}
 			return ret;
 		} catch (Throwable error) {
 			event.setError(error);
@@ -84,36 +134,6 @@ public class BehaviorTrackingAdvice implements MethodInterceptor, AopInfrastruct
 		}
 	}
 	
-	/**
-	 * marshal the given value to a String.  Only java builtin types,
-	 * and arrays of those types, are converted; everything else is
-	 * represented as "[qualified.type.name]" to avoid invoking
-	 * costly (or buggy) toString() methods.
-	 */
-	private static final void logValue(EventDataElement parent, String elementName, Class<?> expectedType, Object arg) {
-		EventDataElement element = parent.addElement(elementName);
-		if (arg == null)
-			return;
-		
-		Class<?> type = arg.getClass();
-		//log the concrete type of the argument if it differs from the expected type (i.e. is a subclass)
-		//the primitive type checks avoid logging redundant type info for autoboxed values
-		if (type != expectedType && !(expectedType.isPrimitive() || type.isPrimitive()))
-			element.add("type", type.getName());
-		
-		//TODO: use annotations or some other configuration for custom
-		//parameter logging?
-		String value = "{object}";
-		if (type.isArray()) {
-			if (shouldLog(type.getComponentType()))
-				value = toStringArray(arg);
-		} else {
-			if (shouldLog(type))
-				value = arg.toString();
-		}
-		element.setText(value);
-	}
-
 	protected static final String toStringArray(Object array) {
 		StringBuffer ret = new StringBuffer("[");
 		int len = Array.getLength(array);
@@ -129,8 +149,121 @@ public class BehaviorTrackingAdvice implements MethodInterceptor, AopInfrastruct
 		return ret.toString();
 	}
 	
-	private static final boolean shouldLog(Class<?> type) {
-		return (type.isPrimitive()) || type.isEnum() || type.getName().startsWith("java.lang");
+	/** get or create the cached capture plan for the method called by <code>invocation</code> */
+	private TrackedMethod getTrackedMethod(MethodInvocation invocation) {
+		Method method = invocation.getMethod();
+		Object target = invocation.getThis();
+		Class<?> targetClass = target == null ? method.getDeclaringClass() : AopUtils.getTargetClass(target);
+		
+		//no harm if two threads race to create the same plan.
+		ConcurrentHashMap<Method, TrackedMethod> plans = methods.get(targetClass);
+		TrackedMethod ret = plans.get(method);
+		if (ret == null) {
+			ret = new TrackedMethod(method, AopUtils.getMostSpecificMethod(method, targetClass));
+			plans.put(method, ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * An event data element whose contents are computed on first access, normally when the
+	 * event is persisted.  Contents are rendered before serialization, so that value references
+	 * are not serialized.
+	 */
+	private static abstract class DeferredElement extends EventDataElement {
+
+		private static final long serialVersionUID = -3826001537392045166L;
+		
+		private boolean rendered;
+		
+		protected DeferredElement(String name) {
+			super(name);
+		}
+		
+		/** add data to this element, using only the inherited element methods */
+		protected abstract void render();
+		
+		private synchronized void ensureRendered() {
+			if (!rendered) {
+				rendered = true;
+				render();
+			}
+		}
+		
+		@Override
+		public String getText() {
+			ensureRendered();
+			return super.getText();
+		}
+		
+		@Override
+		public boolean isEmpty() {
+			ensureRendered();
+			return super.isEmpty();
+		}
+		
+		@Override
+		public Iterator<? extends Map.Entry<String, Object>> iterateProperties() {
+			ensureRendered();
+			return super.iterateProperties();
+		}
+		
+		@Override
+		public Iterator<EventDataElement> iterateChildren() {
+			ensureRendered();
+			return super.iterateChildren();
+		}
+		
+		protected Object writeReplace() throws ObjectStreamException {
+			ensureRendered();
+			return this;
+		}
+	}
+	
+	/** deferred rendering of the "parameters" element */
+	private static class DeferredParameters extends DeferredElement {
+
+		private static final long serialVersionUID = 6204395917834001827L;
+
+		private transient TrackedMethod method;
+		private transient Object[] args;
+		
+		public DeferredParameters(TrackedMethod method, Object[] args) {
+			super("parameters");
+			this.method = method;
+			this.args = args;
+		}
+		
+		@Override
+		protected void render() {
+			TrackedMethod.ValueCapture[] plan = method.parameters;
+			for (int i = 0; i < plan.length; ++i)
+				plan[i].render(addElement("param"), args[i]);
+			method = null;
+			args = null;
+		}
+	}
+	
+	/** deferred rendering of a single value, such as a method result */
+	private static class DeferredValue extends DeferredElement {
+
+		private static final long serialVersionUID = -6591279420951883415L;
+
+		private transient TrackedMethod.ValueCapture capture;
+		private transient Object value;
+		
+		public DeferredValue(String name, TrackedMethod.ValueCapture capture, Object value) {
+			super(name);
+			this.capture = capture;
+			this.value = value;
+		}
+		
+		@Override
+		protected void render() {
+			capture.render(this, value);
+			capture = null;
+			value = null;
+		}
 	}
 	
 }
\ No newline at end of file
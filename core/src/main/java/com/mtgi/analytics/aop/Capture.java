@@ -0,0 +1,34 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.aop;
+
+/**
+ * How a method parameter or result is recorded in event data by {@link BehaviorTrackingAdvice}.
+ * @see TrackedParam
+ * @see Tracked
+ */
+public enum Capture {
+	/**
+	 * the default behavior: the value of primitives, enums, <code>java.lang</code> types and arrays of those types
+	 * is recorded, and other values are recorded as <code>{object}</code>.  The actual type of the value is
+	 * recorded if it differs from the declared type.
+	 */
+	DEFAULT,
+	/** nothing is recorded, though an empty element still marks the parameter position */
+	NONE,
+	/** only the actual type of the value is recorded */
+	TYPE,
+	/** the string value is recorded regardless of type, as is the actual type if it differs from the declared type */
+	VALUE
+}
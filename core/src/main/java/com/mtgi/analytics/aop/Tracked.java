@@ -0,0 +1,43 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.aop;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Customizes the event recorded by {@link BehaviorTrackingAdvice} for a method.  The annotation
+ * may be placed on an interface method or its implementation.  It can also be used to select
+ * methods for tracking, for example with
+ * <code>track-method-expression="@annotation(com.mtgi.analytics.aop.Tracked)"</code>.
+ *
+ * @see TrackedParam
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Tracked {
+
+	/** the event name, if other than the default <code>package.Type.method</code> */
+	String name() default "";
+
+	/** how the method result is recorded */
+	Capture result() default Capture.DEFAULT;
+
+	/** if not negative, the maximum number of characters of the result value that are recorded */
+	int resultMaxLength() default -1;
+}
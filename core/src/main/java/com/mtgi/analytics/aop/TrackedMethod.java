@@ -0,0 +1,171 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.aop;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import com.mtgi.analytics.EventDataElement;
+
+/**
+ * The event name and data capture plan for an advised method, compiled from the method
+ * signature and any {@link Tracked} or {@link TrackedParam} annotations the first time the
+ * method is called.  The plan decides up front as much as possible about how each parameter
+ * and result value is recorded, so that tracked calls don't repeat type inspection.
+ */
+class TrackedMethod {
+
+	final String eventName;
+	final ValueCapture[] parameters;
+	final ValueCapture result;
+
+	/**
+	 * @param method the invoked method
+	 * @param specific the implementation of <code>method</code> on the target class, which may declare
+	 *        additional annotations; may be the same as <code>method</code>
+	 */
+	public TrackedMethod(Method method, Method specific) {
+		Tracked tracked = specific.getAnnotation(Tracked.class);
+		if (tracked == null)
+			tracked = method.getAnnotation(Tracked.class);
+
+		eventName = tracked == null || tracked.name().length() == 0
+			? method.getDeclaringClass().getName() + "." + method.getName()
+			: tracked.name();
+
+		Class<?>[] sig = method.getParameterTypes();
+		Annotation[][] annotations = specific.getParameterAnnotations();
+		Annotation[][] inherited = specific == method ? annotations : method.getParameterAnnotations();
+		parameters = new ValueCapture[sig.length];
+		for (int i = 0; i < sig.length; ++i) {
+			TrackedParam param = findParam(annotations[i]);
+			if (param == null)
+				param = findParam(inherited[i]);
+			parameters[i] = param == null
+				? compile(sig[i], Capture.DEFAULT, -1)
+				: compile(sig[i], param.capture(), param.maxLength());
+		}
+
+		result = tracked == null
+			? compile(method.getReturnType(), Capture.DEFAULT, -1)
+			: compile(method.getReturnType(), tracked.result(), tracked.resultMaxLength());
+	}
+
+	private static TrackedParam findParam(Annotation[] annotations) {
+		for (Annotation a : annotations)
+			if (a instanceof TrackedParam)
+				return (TrackedParam)a;
+		return null;
+	}
+
+	/** choose the cheapest strategy that records values of the given declared type according to <code>capture</code> */
+	static ValueCapture compile(Class<?> declaredType, Capture capture, int maxLength) {
+		switch (capture) {
+		case NONE:
+			return IGNORE;
+		case TYPE:
+			return RECORD_TYPE;
+		case VALUE:
+			return new TypeAndValue(declaredType, true, maxLength);
+		default:
+			//values of primitive and final loggable types always have the declared type, so there's
+			//no need to inspect them at runtime.
+			if (declaredType.isPrimitive()
+				|| (declaredType.isArray() && declaredType.getComponentType().isPrimitive())
+				|| (Modifier.isFinal(declaredType.getModifiers()) && shouldLog(declaredType)))
+				return new ValueOnly(maxLength);
+			return new TypeAndValue(declaredType, false, maxLength);
+		}
+	}
+
+	private static boolean shouldLog(Class<?> type) {
+		return (type.isPrimitive()) || type.isEnum() || type.getName().startsWith("java.lang");
+	}
+
+	private static String toString(Object value, int maxLength) {
+		String ret = value.getClass().isArray() ? BehaviorTrackingAdvice.toStringArray(value) : value.toString();
+		return maxLength >= 0 && ret.length() > maxLength ? ret.substring(0, maxLength) : ret;
+	}
+
+	/** a compiled strategy for recording one parameter or result value in event data */
+	static abstract class ValueCapture {
+		/** record <code>value</code>, which may be null, in <code>element</code> */
+		public abstract void render(EventDataElement element, Object value);
+	}
+
+	private static final ValueCapture IGNORE = new ValueCapture() {
+		@Override
+		public void render(EventDataElement element, Object value) {
+		}
+	};
+
+	private static final ValueCapture RECORD_TYPE = new ValueCapture() {
+		@Override
+		public void render(EventDataElement element, Object value) {
+			if (value != null)
+				element.add("type", value.getClass().getName());
+		}
+	};
+
+	/** records the string value only, for types whose runtime type is known in advance */
+	private static class ValueOnly extends ValueCapture {
+
+		private final int maxLength;
+
+		public ValueOnly(int maxLength) {
+			this.maxLength = maxLength;
+		}
+
+		@Override
+		public void render(EventDataElement element, Object value) {
+			if (value != null)
+				element.setText(TrackedMethod.toString(value, maxLength));
+		}
+	}
+
+	/**
+	 * records the type of the value if it is a subclass of the declared type, and its string value
+	 * if it is loggable or <code>always</code> is set.
+	 */
+	private static class TypeAndValue extends ValueCapture {
+
+		private final Class<?> expectedType;
+		private final boolean always;
+		private final int maxLength;
+
+		public TypeAndValue(Class<?> expectedType, boolean always, int maxLength) {
+			this.expectedType = expectedType;
+			this.always = always;
+			this.maxLength = maxLength;
+		}
+
+		@Override
+		public void render(EventDataElement element, Object value) {
+			if (value == null)
+				return;
+
+			Class<?> type = value.getClass();
+			//log the concrete type of the argument if it differs from the expected type (i.e. is a subclass)
+			//the primitive type checks avoid logging redundant type info for autoboxed values
+			if (type != expectedType && !(expectedType.isPrimitive() || type.isPrimitive()))
+				element.add("type", type.getName());
+
+			String text = "{object}";
+			if (always || shouldLog(type.isArray() ? type.getComponentType() : type))
+				text = TrackedMethod.toString(value, maxLength);
+			element.setText(text);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.aop;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Controls how a parameter of a tracked method is recorded in event data, for example
+ * to suppress sensitive values or to record the <code>toString()</code> value of an
+ * application type.  The annotation may be placed on the parameters of either
+ * an interface method or its implementation.
+ *
+ * @see BehaviorTrackingAdvice
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface TrackedParam {
+
+	/** how the parameter value is recorded */
+	Capture capture() default Capture.DEFAULT;
+
+	/** if not negative, the maximum number of characters of the parameter value that are recorded */
+	int maxLength() default -1;
+}
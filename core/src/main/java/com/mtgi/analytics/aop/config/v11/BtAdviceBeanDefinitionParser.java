@@ -29,6 +29,9 @@ public class BtAdviceBeanDefinitionParser extends AbstractSingleBeanDefinitionPa
 
 	@Override
 	protected void doParse(Element element, ParserContext parserContext, BeanDefinitionBuilder builder) {
+		if (element.hasAttribute(BtNamespaceConstants.ATT_DEFERRED_CAPTURE))
+			builder.addPropertyValue(BtNamespaceConstants.PROP_DEFERRED_CAPTURE, element.getAttribute(BtNamespaceConstants.ATT_DEFERRED_CAPTURE));
+		
 		if (element.hasAttribute(BtNamespaceConstants.ATT_TRACKING_MANAGER)) {
 			builder.addPropertyReference(BtNamespaceConstants.PROP_TRACKING_MANAGER, element.getAttribute(BtNamespaceConstants.ATT_TRACKING_MANAGER));
 			//if there is an explicit tracking manager reference, there's no need to register our post-processor.
@@ -19,6 +19,7 @@ import java.util.regex.Pattern;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.xml.AbstractSingleBeanDefinitionParser;
 import org.springframework.beans.factory.xml.ParserContext;
+import org.springframework.core.Conventions;
 import org.springframework.util.StringUtils;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -39,6 +40,14 @@ public class BtHttpRequestsBeanDefinitionParser extends AbstractSingleBeanDefini
 	private static final String ATT_PARAMETERS = "parameters";
 	private static final String ATT_URI_PATTERN = "uri-pattern";
 	private static final String ATT_NAME_PARAMETERS = "name-parameters";
+	private static final String ATT_INCLUDE_URIS = "include-uris";
+	private static final String ATT_EXCLUDE_URIS = "exclude-uris";
+	private static final String ATT_EXCLUDE_URI_PATTERN = "exclude-uri-pattern";
+	private static final String EL_INCLUDE_URI = "include-uri";
+	private static final String EL_EXCLUDE_URI = "exclude-uri";
+	private static final String ATT_URI_TEMPLATES = "uri-templates";
+	private static final String EL_URI_TEMPLATE = "uri-template";
+	private static final String[] PROPS = { "resolve-remote-host", "defer-parameters", "max-parameters", "max-parameter-length", "uri-cache-size", "normalize-uris" };
 
 	@Override
 	protected Class<?> getBeanClass(Element element) {
@@ -70,11 +79,46 @@ public class BtHttpRequestsBeanDefinitionParser extends AbstractSingleBeanDefini
 		builder.addConstructorArg(parseList(nameList));
 
 		//URI patterns, if any.  can be specified as attribute or nested elements.
+		builder.addConstructorArg(parsePatterns(element, ATT_URI_PATTERN, ATT_URI_PATTERN));
+
+		//optional URI include and exclude rules, also as attributes or nested elements.
+		String[] includes = parseUris(element, ATT_INCLUDE_URIS, EL_INCLUDE_URI);
+		if (includes != null)
+			builder.addPropertyValue("includeUris", includes);
+		String[] excludes = parseUris(element, ATT_EXCLUDE_URIS, EL_EXCLUDE_URI);
+		if (excludes != null)
+			builder.addPropertyValue("excludeUris", excludes);
+		Pattern[] excludePatterns = parsePatterns(element, ATT_EXCLUDE_URI_PATTERN, ATT_EXCLUDE_URI_PATTERN);
+		if (excludePatterns != null)
+			builder.addPropertyValue("excludeUriPatterns", excludePatterns);
+
+		//optional URI templates for event names.
+		String[] templates = parseUris(element, ATT_URI_TEMPLATES, EL_URI_TEMPLATE);
+		if (templates != null)
+			builder.addPropertyValue("uriTemplates", templates);
+
+		//optional properties limiting the request data captured.
+		for (String p : PROPS)
+			if (element.hasAttribute(p))
+				builder.addPropertyValue(Conventions.attributeNameToPropertyName(p), element.getAttribute(p));
+
+		if (parserContext.isNested())
+			parserContext.getReaderContext().registerWithGeneratedName(builder.getBeanDefinition());
+	}
+	
+	private static final String[] parseList(String paramList) {
+		if (StringUtils.hasText(paramList))
+			return LIST_SEPARATOR.split(paramList);
+		return null;
+	}
+
+	/** @return regular expressions from the given attribute and nested elements, or null if there are none */
+	private static Pattern[] parsePatterns(Element element, String attName, String elementName) {
 		ArrayList<Pattern> accum = new ArrayList<Pattern>();
-		if (element.hasAttribute(ATT_URI_PATTERN))
-			accum.add(Pattern.compile(element.getAttribute(ATT_URI_PATTERN)));
+		if (element.hasAttribute(attName))
+			accum.add(Pattern.compile(element.getAttribute(attName)));
 		
-		NodeList nl = element.getElementsByTagNameNS("*", ATT_URI_PATTERN);
+		NodeList nl = element.getElementsByTagNameNS("*", elementName);
 		for (int i = 0; i < nl.getLength(); ++i) {
 			Element e = (Element)nl.item(i);
 			String pattern = e.getTextContent();
@@ -82,19 +126,26 @@ public class BtHttpRequestsBeanDefinitionParser extends AbstractSingleBeanDefini
 				accum.add(Pattern.compile(pattern));
 		}
 		
-		if (accum.isEmpty())
-			builder.addConstructorArg(null);
-		else
-			builder.addConstructorArg(accum.toArray(new Pattern[accum.size()]));
-
-		if (parserContext.isNested())
-			parserContext.getReaderContext().registerWithGeneratedName(builder.getBeanDefinition());
+		return accum.isEmpty() ? null : accum.toArray(new Pattern[accum.size()]);
 	}
-	
-	private static final String[] parseList(String paramList) {
-		if (StringUtils.hasText(paramList))
-			return LIST_SEPARATOR.split(paramList);
-		return null;
+
+	/** @return URI rules from the given list attribute and nested elements, or null if there are none */
+	private static String[] parseUris(Element element, String attName, String elementName) {
+		ArrayList<String> accum = new ArrayList<String>();
+		String[] list = parseList(element.getAttribute(attName));
+		if (list != null)
+			for (String uri : list)
+				if (StringUtils.hasText(uri))
+					accum.add(uri.trim());
+
+		NodeList nl = element.getElementsByTagNameNS("*", elementName);
+		for (int i = 0; i < nl.getLength(); ++i) {
+			String uri = nl.item(i).getTextContent();
+			if (StringUtils.hasText(uri))
+				accum.add(uri.trim());
+		}
+
+		return accum.isEmpty() ? null : accum.toArray(new String[accum.size()]);
 	}
 	
 }
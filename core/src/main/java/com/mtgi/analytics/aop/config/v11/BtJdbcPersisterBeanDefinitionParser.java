@@ -21,6 +21,7 @@ import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.support.BeanDefinitionReaderUtils;
 import org.springframework.beans.factory.xml.AbstractSingleBeanDefinitionParser;
 import org.springframework.beans.factory.xml.ParserContext;
+import org.springframework.core.Conventions;
 import org.springframework.util.StringUtils;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -33,7 +34,9 @@ import com.mtgi.analytics.JdbcBehaviorEventPersisterImpl;
  */
 public class BtJdbcPersisterBeanDefinitionParser extends AbstractSingleBeanDefinitionParser {
 
+	private static final String[] PROPS = { "batch-size", "multi-row-insert", "adaptive-batch-size", "max-batch-size", "target-batch-time", "max-statement-parameters" };
 	private static final String ATT_INCREMENT = "increment";
+	private static final String ATT_PREFETCH = "prefetch";
 	private static final String ELT_ID_SQL = "id-sql";
 
 	@Override
@@ -52,7 +55,14 @@ public class BtJdbcPersisterBeanDefinitionParser extends AbstractSingleBeanDefin
 			
 			if (child.hasAttribute(ATT_INCREMENT))
 				props.addPropertyValue("idIncrement", child.getAttribute(ATT_INCREMENT));
+			if (child.hasAttribute(ATT_PREFETCH))
+				props.addPropertyValue("idPrefetch", child.getAttribute(ATT_PREFETCH));
 		}
+
+		//configure insert batching
+		for (String p : PROPS)
+			if (element.hasAttribute(p))
+				builder.addPropertyValue(Conventions.attributeNameToPropertyName(p), element.getAttribute(p));
 		
 		//configure nested dataSource
 		NodeList nodes = element.getElementsByTagNameNS("*", "data-source");
@@ -44,6 +44,7 @@ import org.w3c.dom.NodeList;
 
 import com.mtgi.analytics.BehaviorEventPersister;
 import com.mtgi.analytics.BehaviorTrackingManagerImpl;
+import com.mtgi.analytics.EventIdGenerator;
 import com.mtgi.analytics.SessionContext;
 import com.mtgi.analytics.XmlBehaviorEventPersisterImpl;
 import com.mtgi.analytics.aop.BehaviorTrackingAdvice;
@@ -75,6 +76,26 @@ public class BtManagerBeanDefinitionParser extends TemplateBeanDefinitionParser
 	public static final String ATT_TASK_EXECUTOR = "task-executor";
 	/** @see BehaviorTrackingManagerImpl#setFlushThreshold(int)  */
 	public static final String ATT_FLUSH_THRESHOLD = "flush-threshold";
+	/** @see BehaviorTrackingManagerImpl#setMaxPendingEvents(int)  */
+	public static final String ATT_MAX_PENDING_EVENTS = "max-pending-events";
+	/** @see BehaviorTrackingManagerImpl#setOverflowPolicy(String)  */
+	public static final String ATT_OVERFLOW_POLICY = "overflow-policy";
+	/** @see BehaviorTrackingManagerImpl#setOverflowTimeout(long)  */
+	public static final String ATT_OVERFLOW_TIMEOUT = "overflow-timeout";
+	/** @see BehaviorTrackingManagerImpl#setEventPoolSize(int)  */
+	public static final String ATT_EVENT_POOL_SIZE = "event-pool-size";
+	/** @see BehaviorTrackingManagerImpl#setSampleRate(double)  */
+	public static final String ATT_SAMPLE_RATE = "sample-rate";
+	/** @see BehaviorTrackingManagerImpl#setTailLatencyThreshold(long)  */
+	public static final String ATT_TAIL_LATENCY_THRESHOLD = "tail-latency-threshold";
+	/** @see BehaviorTrackingManagerImpl#setTailSampleErrors(boolean)  */
+	public static final String ATT_TAIL_SAMPLE_ERRORS = "tail-sample-errors";
+	/** @see BehaviorTrackingManagerImpl#setTailMaxHeldEvents(int)  */
+	public static final String ATT_TAIL_MAX_HELD_EVENTS = "tail-max-held-events";
+	/** @see BehaviorTrackingManagerImpl#setLeakDetectionInterval(int)  */
+	public static final String ATT_LEAK_DETECTION_INTERVAL = "leak-detection-interval";
+	/** @see BehaviorTrackingManagerImpl#setInheritSessionContext(boolean)  */
+	public static final String ATT_INHERIT_SESSION_CONTEXT = "inherit-session-context";
 	/** 
 	 * Bean name reference to a Quartz Scheduler used for scheduled operations like event flush and log rotation.
 	 * A private instance is created if one is not specified.
@@ -116,6 +137,12 @@ public class BtManagerBeanDefinitionParser extends TemplateBeanDefinitionParser
 	 * @see BehaviorTrackingManagerImpl#setSessionContext(SessionContext)
 	 */
 	public static final String ATT_SESSION_CONTEXT = "session-context";
+	/**
+	 * Bean name reference to an implementation of {@link EventIdGenerator} defined in the application context.
+	 * If unspecified, event IDs are assigned by the persister.
+	 * @see BehaviorTrackingManagerImpl#setIdGenerator(EventIdGenerator)
+	 */
+	public static final String ATT_ID_GENERATOR = "id-generator";
 	
 	public static final String ATT_ENABLED = "enabled";
 
@@ -167,6 +194,16 @@ public class BtManagerBeanDefinitionParser extends TemplateBeanDefinitionParser
 		
 		overrideProperty(ATT_APPLICATION, template, element, false);
 		overrideProperty(ATT_FLUSH_THRESHOLD, template, element, false);
+		overrideProperty(ATT_MAX_PENDING_EVENTS, template, element, false);
+		overrideProperty(ATT_OVERFLOW_POLICY, template, element, false);
+		overrideProperty(ATT_OVERFLOW_TIMEOUT, template, element, false);
+		overrideProperty(ATT_EVENT_POOL_SIZE, template, element, false);
+		overrideProperty(ATT_SAMPLE_RATE, template, element, false);
+		overrideProperty(ATT_TAIL_LATENCY_THRESHOLD, template, element, false);
+		overrideProperty(ATT_TAIL_SAMPLE_ERRORS, template, element, false);
+		overrideProperty(ATT_TAIL_MAX_HELD_EVENTS, template, element, false);
+		overrideProperty(ATT_LEAK_DETECTION_INTERVAL, template, element, false);
+		overrideProperty(ATT_INHERIT_SESSION_CONTEXT, template, element, false);
 
 		//wake up MBeanExporter if we're going to be doing MBean registration.
 		if ("true".equalsIgnoreCase(element.getAttribute(ATT_REGISTER_MBEANS))) {
@@ -196,6 +233,9 @@ public class BtManagerBeanDefinitionParser extends TemplateBeanDefinitionParser
 			props.addPropertyValue(ATT_PERSISTER, new RuntimeBeanReference(element.getAttribute(ATT_PERSISTER)));
 		}
 		
+		if (element.hasAttribute(ATT_ID_GENERATOR))
+			template.getPropertyValues().addPropertyValue("idGenerator", new RuntimeBeanReference(element.getAttribute(ATT_ID_GENERATOR)));
+		
 		if (element.hasAttribute(ATT_SESSION_CONTEXT)) {
 			//override default session context with reference
 			def.addNestedProperty("sessionContext");
@@ -217,6 +257,8 @@ public class BtManagerBeanDefinitionParser extends TemplateBeanDefinitionParser
 			//create implicit pointcut advice bean.
 			RootBeanDefinition advice = new RootBeanDefinition(BehaviorTrackingAdvice.class);
 			advice.getPropertyValues().addPropertyValue("trackingManager", new RuntimeBeanReference(managerId));
+			if (element.hasAttribute(BtNamespaceConstants.ATT_DEFERRED_CAPTURE))
+				advice.getPropertyValues().addPropertyValue(BtNamespaceConstants.PROP_DEFERRED_CAPTURE, element.getAttribute(BtNamespaceConstants.ATT_DEFERRED_CAPTURE));
 
 			//register advice, pointcut, and advisor entry to bind the two together.
 			XmlReaderContext ctx = parserContext.getReaderContext();
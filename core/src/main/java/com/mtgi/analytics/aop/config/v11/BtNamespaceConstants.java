@@ -18,4 +18,7 @@ import org.springframework.core.Conventions;
 public interface BtNamespaceConstants {
 	public static final String ATT_TRACKING_MANAGER = "tracking-manager";
 	public static final String PROP_TRACKING_MANAGER = Conventions.attributeNameToPropertyName(ATT_TRACKING_MANAGER);
+	/** @see com.mtgi.analytics.aop.BehaviorTrackingAdvice#setDeferredCapture(boolean) */
+	public static final String ATT_DEFERRED_CAPTURE = "deferred-capture";
+	public static final String PROP_DEFERRED_CAPTURE = Conventions.attributeNameToPropertyName(ATT_DEFERRED_CAPTURE);
 }
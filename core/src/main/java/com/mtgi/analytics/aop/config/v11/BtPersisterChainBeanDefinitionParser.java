@@ -64,6 +64,11 @@ public class BtPersisterChainBeanDefinitionParser extends AbstractSingleBeanDefi
 				}
 			}
 			builder.addPropertyValue("delegates", persisters);
+			
+			if (element.hasAttribute("parallel"))
+				builder.addPropertyValue("parallel", element.getAttribute("parallel"));
+			if (element.hasAttribute("timeout"))
+				builder.addPropertyValue("timeout", element.getAttribute("timeout"));
 		} finally {
 			if (template != null)
 				parserContext.popContainingComponent();
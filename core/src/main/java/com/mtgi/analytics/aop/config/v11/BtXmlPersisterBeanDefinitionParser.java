@@ -34,7 +34,7 @@ import com.mtgi.analytics.aop.config.TemplateBeanDefinitionParser;
  */
 public class BtXmlPersisterBeanDefinitionParser extends TemplateBeanDefinitionParser 
 {
-	private static final String[] PROPS = { "file", "binary", "compress" };
+	private static final String[] PROPS = { "file", "binary", "records", "compress", "asynchronous", "writer-timeout", "fsync-policy", "segment-size" };
 	
 	public static final String CONFIG_PERSISTER = CONFIG_NAMESPACE + ".btPersister";
 	public static final String CONFIG_ROTATE_TRIGGER = CONFIG_NAMESPACE + ".btRotateTrigger";
@@ -48,9 +48,9 @@ public class BtXmlPersisterBeanDefinitionParser extends TemplateBeanDefinitionPa
 		String id = overrideAttribute("id", template, element);
 		for (String p : PROPS)
 			overrideProperty(p, template, element, false);
-		//schedule periodic log rotation with Quartz
+		//schedule periodic log rotation with Quartz, unless segments are rotated automatically as they fill.
 		String rotateSchedule = element.getAttribute("rotate-schedule");
-		if (rotateSchedule != null)
+		if (rotateSchedule != null && !element.hasAttribute("segment-size"))
 			configureLogRotation(parserContext, factory, rotateSchedule);
 		if (parserContext.isNested()) {
 			if (id == null)
@@ -3,9 +3,17 @@ package com.mtgi.analytics.jmx;
 import static java.text.MessageFormat.format;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
 
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
 import com.mtgi.analytics.BehaviorEvent;
@@ -13,50 +21,93 @@ import com.mtgi.analytics.BehaviorEvent;
 /**
  * Tracks aggregate statistics for a class of events.  Data points are added
  * with {@link #add(BehaviorEvent)}, after which various statistics can be queried
- * with calls like {@link #getAverageTime()} or {@link #getStandardDeviation()}.
- * Statistics can be reset with {@link #reset()}.
- * 
+ * with calls like {@link #getAverageTime()}, {@link #getPercentile99()} or
+ * {@link #getThroughput1Minute()}.  Statistics can be reset with {@link #reset()}.
+ *
  * @see StatisticsMBeanEventPersisterImpl
  */
 @ManagedResource(description="Aggregate statistics for a single type of behavior tracking event")
 public class StatisticsMBean {
 
+	/*
+	 * Data points may be added from several threads at once, so we avoid monitors altogether:
+	 *
+	 * - count and error count are LongAdders, and min and max are LongAccumulators, which spread
+	 *   contended updates over internal cells that are combined when statistics are read.
+	 * - mean and variance are computed from DoubleAdder sums of durations and squared durations.  To limit
+	 *   rounding error, durations are offset by the first duration recorded, so the sums stay small
+	 *   when variance is small relative to the mean.  Values read while data points are being added may
+	 *   not reflect all of them consistently.
+	 * - durations are counted in a log-linear histogram of atomic counters, giving percentiles
+	 *   to within about 3% of the true value.  Durations below 2^SUB_BITS ns are counted exactly;
+	 *   above that, each power of two is divided into 2^SUB_BITS linear buckets.
+	 * - throughput is counted in a ring of atomic counters, one per THROUGHPUT_SLOT_MS interval
+	 *   of event start time, covering the longest (15 minute) window.  Each counter holds its slot
+	 *   number in the high bits and its count in the low bits, so that a counter is claimed for a new
+	 *   slot and incremented in a single atomic update.
+	 */
+
 	public static enum Units {
-		seconds(1e-9), 
-		milliseconds(1e-6), 
+		seconds(1e-9),
+		milliseconds(1e-6),
 		nanoseconds(1) { public double convertNanos(double identity) { return identity; } };
-		
+
 		private double ratio;
 		private Units(double ratio) {
 			this.ratio = ratio;
 		}
-		
+
 		public double convertNanos(double nanos) {
 			return ratio * nanos;
 		}
 	}
-	
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+	private static final LongBinaryOperator MIN = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.min(left, right);
+		}
+	};
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	//durations are non-negative longs, so the largest exponent is 62.
+	private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private static final long THROUGHPUT_SLOT_MS = 5000;
+	private static final int THROUGHPUT_SLOTS = (int)(15 * 60 * 1000 / THROUGHPUT_SLOT_MS);
+	private static final int COUNT_BITS = 32;
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+	//the offset subtracted from durations before they are summed, if one has been chosen.
+	private static final long NO_OFFSET = Long.MIN_VALUE;
+
 	private Units units = Units.milliseconds;
-	
-	private long count;
-	private long errorCount;
 
-	private double averageTime;
-	private long maxTime;
-	private Long minTime;
-	
-	//the product of sample count and variance, an auxiliary value used to efficiently compute stddev
-	private double nVariance;
-	private double standardDeviation;
+	private LongAdder count = new LongAdder();
+	private LongAdder errors = new LongAdder();
+	private LongAccumulator max = new LongAccumulator(MAX, 0);
+	private LongAccumulator min = new LongAccumulator(MIN, Long.MAX_VALUE);
+	private AtomicLong offset = new AtomicLong(NO_OFFSET);
+	private DoubleAdder sum = new DoubleAdder();
+	private DoubleAdder sumOfSquares = new DoubleAdder();
+	private AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+	//for each throughput slot, the slot number (time / THROUGHPUT_SLOT_MS) it currently holds, shifted left by
+	//COUNT_BITS, plus the number of events counted in that slot.
+	private AtomicLongArray slots = new AtomicLongArray(THROUGHPUT_SLOTS);
 
-	private Date lastInvocation;
-	//TODO: throughput statistics, histogram ?
+	//start time of the most recent event in milliseconds, or 0 if no events have been recorded.
+	private AtomicLong lastInvocation = new AtomicLong();
 
 	@ManagedAttribute(description="The unit of measure for attribute values; supported units are seconds, milliseconds, and nanoseconds")
 	public String getUnits() {
 		return units.toString();
 	}
-	
+
 	public void setUnits(String units) {
 		units = units.toLowerCase();
 		Units v = null;
@@ -69,81 +120,247 @@ public class StatisticsMBean {
 			throw new IllegalArgumentException("Unknown unit '" + units + "'; only seconds, milliseconds, nanoseconds are supported");
 		this.units = v;
 	}
-	
+
 	@ManagedAttribute(description="The number of events received")
 	public long getCount() {
-		return count;
+		return count.sum();
 	}
 
 	@ManagedAttribute(description="The number of received events that ended in error")
 	public long getErrorCount() {
-		return errorCount;
+		return errors.sum();
 	}
 
 	@ManagedAttribute(description="The average event execution time")
 	public double getAverageTime() {
-		return units.convertNanos(averageTime);
+		return units.convertNanos(snapshot().mean);
 	}
 
 	@ManagedAttribute(description="The maximum event execution time")
 	public double getMaxTime() {
-		return units.convertNanos(maxTime);
+		return units.convertNanos(snapshot().max);
 	}
 
 	@ManagedAttribute(description="The minimum event execution time")
 	public Double getMinTime() {
-		return minTime == null ? null : units.convertNanos(minTime);
+		Snapshot s = snapshot();
+		return s.count == 0 ? null : units.convertNanos(s.min);
 	}
 
 	@ManagedAttribute(description="The standard deviation of event execution time")
 	public double getStandardDeviation() {
-		return units.convertNanos(standardDeviation);
+		return units.convertNanos(snapshot().getStandardDeviation());
 	}
 
 	@ManagedAttribute(description="The start time of the last event recorded")
 	public Date getLastInvocation() {
-		return lastInvocation;
+		long last = lastInvocation.get();
+		return last == 0 ? null : new Date(last);
+	}
+
+	@ManagedAttribute(description="The median event execution time")
+	public double getPercentile50() {
+		return getPercentile(50);
+	}
+
+	@ManagedAttribute(description="The 90th percentile event execution time")
+	public double getPercentile90() {
+		return getPercentile(90);
+	}
+
+	@ManagedAttribute(description="The 99th percentile event execution time")
+	public double getPercentile99() {
+		return getPercentile(99);
+	}
+
+	@ManagedAttribute(description="The 99.9th percentile event execution time")
+	public double getPercentile999() {
+		return getPercentile(99.9);
+	}
+
+	/**
+	 * Estimate the event execution time below which the given percentage of events fall.
+	 * The estimate is within about 3% of the true value.
+	 * @param percent a value between 0 and 100
+	 * @return the estimated execution time, or 0 if no events have been recorded
+	 */
+	@ManagedOperation(description="Estimate the event execution time below which the given percentage of events fall")
+	@ManagedOperationParameters(@ManagedOperationParameter(name="percent", description="A percentage between 0 and 100"))
+	public double getPercentile(double percent) {
+		if (percent < 0 || percent > 100)
+			throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percent);
+
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i)
+			total += counts[i] = histogram.get(i);
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long)Math.ceil(total * percent / 100));
+		int bucket = 0;
+		for (long seen = counts[0]; seen < rank && bucket < BUCKETS - 1; seen += counts[++bucket])
+			;
+
+		//report the middle of the bucket, but never outside the observed range.
+		Snapshot s = snapshot();
+		long lower = bucketLowerBound(bucket);
+		long value = lower + (bucketLowerBound(bucket + 1) - lower - 1) / 2;
+		return units.convertNanos(Math.max(s.min, Math.min(s.max, value)));
+	}
+
+	@ManagedAttribute(description="Events per second over the last minute")
+	public double getThroughput1Minute() {
+		return getThroughput(1);
+	}
+
+	@ManagedAttribute(description="Events per second over the last 5 minutes")
+	public double getThroughput5Minutes() {
+		return getThroughput(5);
 	}
-	
+
+	@ManagedAttribute(description="Events per second over the last 15 minutes")
+	public double getThroughput15Minutes() {
+		return getThroughput(15);
+	}
+
+	/**
+	 * Compute the number of events per second that started within the given number of minutes
+	 * of the current time.  Note that events are only counted once they have been persisted, so
+	 * with an infrequent flush schedule the most recent interval will lag.
+	 */
+	protected double getThroughput(int minutes) {
+		long now = System.currentTimeMillis() / THROUGHPUT_SLOT_MS;
+		long oldest = now - minutes * 60000 / THROUGHPUT_SLOT_MS;
+		long count = 0;
+		for (int i = 0; i < THROUGHPUT_SLOTS; ++i) {
+			long slot = slots.get(i);
+			long time = slot >>> COUNT_BITS;
+			if (time > oldest && time <= now)
+				count += slot & COUNT_MASK;
+		}
+		return count / (minutes * 60d);
+	}
+
 	@ManagedOperation(description="Reset all tracked statistics for this type of event to their starting values")
-	public synchronized void reset() {
-		count = errorCount = maxTime = 0;
-		averageTime = standardDeviation = nVariance = 0;
-		minTime = null;
-		lastInvocation = null;
-	}
-	
-	public synchronized void add(BehaviorEvent event) {
-		Date start = event.getStart();
-		if (lastInvocation == null || lastInvocation.before(start))
-			lastInvocation = start;
-		
-		if (event.getError() != null)
-			++errorCount;
-		
-		add(event.getDurationNs());
-	}
-	
-	public synchronized void add(long duration) {
-		maxTime = Math.max(maxTime, duration);
-		if (count == 0) {
-			minTime = duration;
-			averageTime = duration;
-			count = 1;
-		} else {
-			minTime = Math.min(minTime, duration);
-
-			//use running total algorithms for avg and stddev to reduce error
-			double delta = duration - averageTime;
-			nVariance = nVariance + ((double)count * delta * delta) / (double)++count;
-			standardDeviation = Math.sqrt(nVariance / (double)count);
-			averageTime = averageTime + (duration - averageTime) / count;
+	public void reset() {
+		count.reset();
+		errors.reset();
+		max.reset();
+		min.reset();
+		offset.set(NO_OFFSET);
+		sum.reset();
+		sumOfSquares.reset();
+		for (int i = 0; i < BUCKETS; ++i)
+			histogram.set(i, 0);
+		for (int i = 0; i < THROUGHPUT_SLOTS; ++i)
+			slots.set(i, 0);
+		lastInvocation.set(0);
+	}
+
+	public void add(BehaviorEvent event) {
+		long start = event.getStart().getTime();
+		for (long last = lastInvocation.get(); start > last && !lastInvocation.compareAndSet(last, start); last = lastInvocation.get())
+			;
+		add(event.getDurationNs(), event.getError() != null, start);
+	}
+
+	public void add(long duration) {
+		add(duration, false, System.currentTimeMillis());
+	}
+
+	private void add(long duration, boolean error, long time) {
+		if (error)
+			errors.increment();
+		max.accumulate(duration);
+		min.accumulate(duration);
+
+		long base = offset.get();
+		if (base == NO_OFFSET && !offset.compareAndSet(NO_OFFSET, base = duration))
+			base = offset.get();
+		double shifted = duration - base;
+		sum.add(shifted);
+		sumOfSquares.add(shifted * shifted);
+		//count last, so that readers seeing the count also see most of the sums.
+		count.increment();
+
+		histogram.incrementAndGet(bucket(duration));
+		countThroughput(time);
+	}
+
+	private void countThroughput(long time) {
+		long slot = time / THROUGHPUT_SLOT_MS;
+		int index = (int)(slot % THROUGHPUT_SLOTS);
+		for (;;) {
+			long current = slots.get(index);
+			long currentSlot = current >>> COUNT_BITS;
+			long next;
+			if (currentSlot == slot)
+				next = current + 1;
+			else if (currentSlot < slot)
+				next = (slot << COUNT_BITS) | 1; //claim the counter for the newer slot
+			else
+				return; //too old to fall in any window
+			if (slots.compareAndSet(index, current, next))
+				return;
+		}
+	}
+
+	/** @return the histogram bucket index for the given duration */
+	static int bucket(long duration) {
+		if (duration < SUB_BUCKETS)
+			return duration < 0 ? 0 : (int)duration;
+		int exponent = 63 - Long.numberOfLeadingZeros(duration);
+		int sub = (int)(duration >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/** @return the smallest duration counted in the given histogram bucket */
+	static long bucketLowerBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		if (bucket >= BUCKETS)
+			return Long.MAX_VALUE;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+	}
+
+	/** combine the current statistics into a single object */
+	private Snapshot snapshot() {
+		Snapshot ret = new Snapshot();
+		ret.count = count.sum();
+		if (ret.count > 0) {
+			long base = offset.get();
+			double shiftedMean = sum.sum() / ret.count;
+			ret.mean = base + shiftedMean;
+			ret.variance = Math.max(0, sumOfSquares.sum() / ret.count - shiftedMean * shiftedMean);
+			ret.max = max.get();
+			ret.min = min.get();
 		}
+		return ret;
 	}
-	
+
 	@Override
 	public String toString() {
-		return format("[average:\t{0}\n max:\t\t{1}\n min:\t\t{2}\n dev:\t\t{3}\n count:\t\t{4}]", 
-				averageTime, maxTime, minTime, standardDeviation, count);
+		Snapshot s = snapshot();
+		return format("[average:\t{0}\n max:\t\t{1}\n min:\t\t{2}\n dev:\t\t{3}\n count:\t\t{4}]",
+				s.mean, s.max, s.count == 0 ? null : s.min, s.getStandardDeviation(), s.count);
+	}
+
+	/**
+	 * Statistics read at a single point in time.
+	 */
+	private static class Snapshot {
+
+		private long count;
+		private long max;
+		private long min;
+		private double mean;
+		private double variance;
+
+		public double getStandardDeviation() {
+			return Math.sqrt(variance);
+		}
 	}
 }
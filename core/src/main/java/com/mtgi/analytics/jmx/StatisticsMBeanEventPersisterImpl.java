@@ -1,12 +1,12 @@
 package com.mtgi.analytics.jmx;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.JMException;
 import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import javax.management.RuntimeOperationsException;
 import javax.management.modelmbean.InvalidTargetObjectTypeException;
@@ -39,6 +39,14 @@ import com.mtgi.analytics.BehaviorEventPersister;
  * is used by default.  Statistics mbeans are registered in an instance of {@link #setServer(MBeanServer) MBeanServer};
  * {@link JmxUtils#locateMBeanServer()} is used to choose the default platform MBean server
  * if none is specified.</p>
+ * 
+ * <p>Resolving an ObjectName for every event is relatively expensive, so by default the
+ * name for each combination of type, name, and either application (for root events) or parent event name
+ * is cached, and the naming strategy is only consulted the first time a combination is seen.
+ * This assumes that the naming strategy derives names only from those attributes, which is
+ * true of all strategies in this package; caching can be disabled with {@link #setCacheNames(boolean)}
+ * for custom strategies that use other event attributes.  The cache holds at most
+ * {@link #setMaxCachedNames(int) maxCachedNames} entries, beyond which it is cleared.</p>
  */
 public class StatisticsMBeanEventPersisterImpl implements BehaviorEventPersister, InitializingBean, DisposableBean {
 
@@ -47,8 +55,12 @@ public class StatisticsMBeanEventPersisterImpl implements BehaviorEventPersister
 	private ObjectNamingStrategy namingStrategy;
 	private MBeanInfoAssembler assembler;
 	private MBeanServer server;
+	private boolean cacheNames = true;
+	private int maxCachedNames = 10000;
 	
-	private Map<ObjectName,StatisticsMBean> stats;
+	private ConcurrentHashMap<ObjectName,StatisticsMBean> stats;
+	//cache of resolved names, by application or parent name, type and name.
+	private ConcurrentHashMap<NameKey,NameEntry> names;
 	
 	public void setNamingStrategy(ObjectNamingStrategy namingStrategy) {
 		this.namingStrategy = namingStrategy;
@@ -62,6 +74,32 @@ public class StatisticsMBeanEventPersisterImpl implements BehaviorEventPersister
 		this.server = server;
 	}
 
+	/**
+	 * If true (the default), the name for each distinct event type, name, and application or parent
+	 * event name is cached, so that the naming strategy is not consulted again for events with the same
+	 * attributes.  Set to false if the naming strategy depends on other event attributes.
+	 */
+	public void setCacheNames(boolean cacheNames) {
+		this.cacheNames = cacheNames;
+	}
+
+	public boolean isCacheNames() {
+		return cacheNames;
+	}
+
+	/**
+	 * Set the maximum number of cached names.  When the cache is full it is cleared, rather than
+	 * tracking access order, so that events with unbounded names (for example, generated SQL) cannot
+	 * exhaust memory.  Default is 10000.
+	 */
+	public void setMaxCachedNames(int maxCachedNames) {
+		this.maxCachedNames = maxCachedNames;
+	}
+
+	public int getMaxCachedNames() {
+		return maxCachedNames;
+	}
+
 	public void afterPropertiesSet() {
 		if (assembler == null) {
 			MetadataMBeanInfoAssembler assembler = new MetadataMBeanInfoAssembler();
@@ -77,13 +115,15 @@ public class StatisticsMBeanEventPersisterImpl implements BehaviorEventPersister
 		if (server == null)
 			setServer(JmxUtils.locateMBeanServer());
 		
-		stats = new HashMap<ObjectName,StatisticsMBean>();
+		stats = new ConcurrentHashMap<ObjectName,StatisticsMBean>();
+		names = new ConcurrentHashMap<NameKey,NameEntry>();
 	}
 	
 	public void destroy() throws Exception {
-		Set<ObjectName> names = stats.keySet();
+		Set<ObjectName> registered = stats.keySet();
 		stats = null;
-		for (ObjectName name : names) {
+		names = null;
+		for (ObjectName name : registered) {
 			try {
 				server.unregisterMBean(name);
 			} catch (Exception e) {
@@ -112,21 +152,102 @@ public class StatisticsMBeanEventPersisterImpl implements BehaviorEventPersister
 	protected StatisticsMBean getStatistics(BehaviorEvent event) 
 		throws RuntimeOperationsException, InvalidTargetObjectTypeException, JMException 
 	{
-		ObjectName name = namingStrategy.getObjectName(event, null);
-		StatisticsMBean ret = null;
-		synchronized (stats) {
-			ret = stats.get(name);
-			if (ret == null) {
-				ret = new StatisticsMBean();
-				ModelMBeanInfo info = assembler.getMBeanInfo(ret, null);
-				RequiredModelMBean mbean = new RequiredModelMBean(info);
-				mbean.setManagedResource(ret, "ObjectReference");
-				
-				server.registerMBean(mbean, name);
-				stats.put(name, ret);
+		if (!cacheNames)
+			return getStatistics(namingStrategy.getObjectName(event, null));
+		
+		NameEntry entry = getEntry(event);
+		StatisticsMBean ret = entry.stats;
+		if (ret == null)
+			//first event with this name in the cache; check the registry.
+			entry.stats = ret = getStatistics(entry.name);
+		return ret;
+	}
+	
+	/** get or create and register the aggregator with the given name */
+	private StatisticsMBean getStatistics(ObjectName name) 
+		throws RuntimeOperationsException, InvalidTargetObjectTypeException, JMException 
+	{
+		StatisticsMBean ret = stats.get(name);
+		if (ret == null) {
+			synchronized (stats) {
+				ret = stats.get(name);
+				if (ret == null) {
+					ret = new StatisticsMBean();
+					ModelMBeanInfo info = assembler.getMBeanInfo(ret, null);
+					RequiredModelMBean mbean = new RequiredModelMBean(info);
+					mbean.setManagedResource(ret, "ObjectReference");
+					
+					server.registerMBean(mbean, name);
+					stats.put(name, ret);
+				}
 			}
 		}
 		return ret;
 	}
 	
+	/** find the cache entry for the given event, resolving names for it and its parents as necessary */
+	private NameEntry getEntry(BehaviorEvent event) throws MalformedObjectNameException {
+		BehaviorEvent parent = event.getParent();
+		Object scope = parent == null ? key(event.getApplication()) : getEntry(parent).name;
+		NameKey key = new NameKey(scope, key(event.getType()), key(event.getName()));
+		NameEntry entry = names.get(key);
+		if (entry == null) {
+			NameEntry created = new NameEntry(namingStrategy.getObjectName(event, null));
+			//rather than track access order, start over when the cache fills up.
+			if (names.size() >= maxCachedNames)
+				names.clear();
+			entry = names.putIfAbsent(key, created);
+			if (entry == null)
+				entry = created;
+		}
+		return entry;
+	}
+	
+	private static String key(String value) {
+		return value == null ? "" : value;
+	}
+	
+	/**
+	 * Cache key for one combination of event type, name, and application (for root events)
+	 * or parent event ObjectName (for nested events).
+	 */
+	private static class NameKey {
+		
+		private final Object scope;
+		private final String type;
+		private final String name;
+		private final int hash;
+		
+		public NameKey(Object scope, String type, String name) {
+			this.scope = scope;
+			this.type = type;
+			this.name = name;
+			this.hash = (scope.hashCode() * 31 + type.hashCode()) * 31 + name.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof NameKey))
+				return false;
+			NameKey other = (NameKey)obj;
+			return hash == other.hash && name.equals(other.name) && type.equals(other.type) && scope.equals(other.scope);
+		}
+	}
+	
+	/** Cache entry holding a resolved name, and its statistics once the first event with that name is aggregated. */
+	private static class NameEntry {
+		
+		private final ObjectName name;
+		private volatile StatisticsMBean stats;
+		
+		public NameEntry(ObjectName name) {
+			this.name = name;
+		}
+	}
+	
 }
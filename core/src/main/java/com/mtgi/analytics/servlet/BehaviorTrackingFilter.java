@@ -47,6 +47,13 @@ import com.mtgi.analytics.EventDataElement;
  * <p>By default all events generated by this filter will have a type of <code>http-request</code>.
  * An alternate type value can be specified using the filter parameter
  * <code>com.mtgi.analytics.servlet.event</code>.</p>
+ * 
+ * <p>The cost of capturing request data can be reduced with the filter parameters
+ * {@link #PARAM_REMOTE_HOST}, {@link #PARAM_PARAMETERS_DEFER}, {@link #PARAM_PARAMETERS_MAX} and
+ * {@link #PARAM_PARAMETERS_MAX_LENGTH}; see {@link ServletRequestBehaviorTrackingAdapter}.</p>
+ * 
+ * <p>Request URIs containing resource identifiers can be reduced to a bounded set of event names with the
+ * filter parameters {@link #PARAM_URI_NORMALIZE} and {@link #PARAM_URI_TEMPLATES}; see {@link UriNormalizer}.</p>
  */
 public class BehaviorTrackingFilter implements Filter {
 
@@ -60,6 +67,18 @@ public class BehaviorTrackingFilter implements Filter {
 	public static final String PARAM_PARAMETERS_INCLUDE = "com.mtgi.analytics.parameters.include";
 	/** filter parameter specifying a list of parameters to include in the event name; defaults to none if unspecified */
 	public static final String PARAM_PARAMETERS_NAME = "com.mtgi.analytics.parameters.name";
+	/** filter parameter; if "true", request parameters are captured after the request is processed.  defaults to false. */
+	public static final String PARAM_PARAMETERS_DEFER = "com.mtgi.analytics.parameters.defer";
+	/** filter parameter specifying the maximum number of request parameters to include in logging; defaults to no limit */
+	public static final String PARAM_PARAMETERS_MAX = "com.mtgi.analytics.parameters.max";
+	/** filter parameter specifying the maximum length of logged parameter values; defaults to no limit */
+	public static final String PARAM_PARAMETERS_MAX_LENGTH = "com.mtgi.analytics.parameters.maxLength";
+	/** filter parameter; if "false", the remote host name is not looked up for logging.  defaults to true. */
+	public static final String PARAM_REMOTE_HOST = "com.mtgi.analytics.remoteHost";
+	/** filter parameter; if "true", identifier segments of request URIs are collapsed in event names.  defaults to false. */
+	public static final String PARAM_URI_NORMALIZE = "com.mtgi.analytics.uri.normalize";
+	/** filter parameter specifying a list of URI templates used as event names for matching requests; defaults to none */
+	public static final String PARAM_URI_TEMPLATES = "com.mtgi.analytics.uri.templates";
 
 	public static final String ATT_FILTER_REGISTERED = BehaviorTrackingFilter.class.getName() + ".count";
 	
@@ -113,6 +132,18 @@ public class BehaviorTrackingFilter implements Filter {
 		String[] nameParameters = nameParams == null ? null : LIST_SEPARATOR.split(nameParams);
 
 		delegate = new ServletRequestBehaviorTrackingAdapter(eventType, manager, parameters, nameParameters, null);
+		delegate.setDeferParameters("true".equalsIgnoreCase(config.getInitParameter(PARAM_PARAMETERS_DEFER)));
+		delegate.setResolveRemoteHost(!"false".equalsIgnoreCase(config.getInitParameter(PARAM_REMOTE_HOST)));
+		String max = config.getInitParameter(PARAM_PARAMETERS_MAX);
+		if (max != null)
+			delegate.setMaxParameters(Integer.parseInt(max.trim()));
+		String maxLength = config.getInitParameter(PARAM_PARAMETERS_MAX_LENGTH);
+		if (maxLength != null)
+			delegate.setMaxParameterLength(Integer.parseInt(maxLength.trim()));
+		delegate.setNormalizeUris("true".equalsIgnoreCase(config.getInitParameter(PARAM_URI_NORMALIZE)));
+		String templates = config.getInitParameter(PARAM_URI_TEMPLATES);
+		if (templates != null)
+			delegate.setUriTemplates(LIST_SEPARATOR.split(templates.trim()));
 
 		//increment count of tracking filters registered in the servlet context.  the filter
 		//and alternative request listener check this attribute to make sure both are not registered at once.
@@ -141,7 +172,7 @@ public class BehaviorTrackingFilter implements Filter {
 			//log exception messages to event data.
 			handleServerError(event, error);
 		} finally {
-			delegate.stop(event);
+			delegate.stop(request, event);
 		}
 	}
 	
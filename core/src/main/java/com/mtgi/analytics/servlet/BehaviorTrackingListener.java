@@ -84,7 +84,7 @@ public class BehaviorTrackingListener implements ServletRequestListener, Servlet
 				request.removeAttribute(ATT_EVENTS);
 				for (int i = adapters.length - 1; i >= 0; --i)
 					try {
-						adapters[i].stop(events[i]);
+						adapters[i].stop(request, events[i]);
 					} catch (Exception e) {
 						log.error("Error stopping http event", e);
 					}
@@ -32,6 +32,19 @@ import com.mtgi.analytics.EventDataElement;
  * 
  * <p>This class abstracts the details of tracking servlet requests, so that
  * it can be reused by delegation in both listeners and filters.</p>
+ * 
+ * <p>Some request data is expensive to capture.  On many containers {@link ServletRequest#getRemoteHost()}
+ * performs a reverse DNS lookup, which can be disabled with {@link #setResolveRemoteHost(boolean)}.  Reading
+ * any request parameter forces the container to parse a form-encoded request body before the application runs;
+ * with {@link #setDeferParameters(boolean)}, parameters are captured when the request finishes instead.  The amount of
+ * parameter data captured can be limited with {@link #setMaxParameters(int)} and {@link #setMaxParameterLength(int)}.</p>
+ * 
+ * <p>Requests are selected for tracking by a {@link UriMatcher}, built from the constructor's URI patterns
+ * and any {@link #setIncludeUris(String[]) include} or {@link #setExcludeUris(String[]) exclude} rules.</p>
+ * 
+ * <p>By default the request URI is used as the event name.  To keep the number of distinct event names bounded
+ * for URIs containing resource identifiers, enable {@link #setNormalizeUris(boolean)} or configure
+ * {@link #setUriTemplates(String[]) URI templates}; see {@link UriNormalizer}.</p>
  */
 public class ServletRequestBehaviorTrackingAdapter {
 	
@@ -47,6 +60,18 @@ public class ServletRequestBehaviorTrackingAdapter {
 	private String[] parameters;
 	private String[] nameParameters;
 	private Pattern[] uriPatterns;
+	private String[] includeUris;
+	private String[] excludeUris;
+	private Pattern[] excludeUriPatterns;
+	private int uriCacheSize = UriMatcher.DEFAULT_CACHE_SIZE;
+	private UriMatcher uriMatcher;
+	private boolean normalizeUris = false;
+	private String[] uriTemplates;
+	private UriNormalizer uriNormalizer;
+	private boolean resolveRemoteHost = true;
+	private boolean deferParameters = false;
+	private int maxParameters = 0;
+	private int maxParameterLength = 0;
 	
 	public ServletRequestBehaviorTrackingAdapter(String eventType, BehaviorTrackingManager manager, String[] parameters, String[] nameParameters, Pattern[] uriPatterns) {
 		this.eventType = StringUtils.hasText(eventType) ? eventType: DEFAULT_EVENT_TYPE;
@@ -54,6 +79,7 @@ public class ServletRequestBehaviorTrackingAdapter {
 		this.parameters = parameters;
 		this.nameParameters = nameParameters;
 		this.uriPatterns = uriPatterns;
+		compileUriMatcher();
 	}
 
 	public BehaviorEvent start(ServletRequest request) {
@@ -65,44 +91,169 @@ public class ServletRequestBehaviorTrackingAdapter {
 		String eventName = getEventName(req); 
 		BehaviorEvent event = manager.createEvent(eventType, eventName);
 
-		//log relevant request data and parameters to the event.
-		EventDataElement data = event.addData();
-		data.add("uri", req.getRequestURI());
-		data.add("protocol", req.getProtocol());
-		data.add("method", req.getMethod());
-		data.add("remote-address", req.getRemoteAddr());
-		data.add("remote-host", req.getRemoteHost());
-		
-		if (this.parameters != null) {
-			EventDataElement parameters = data.addElement(PARAMETERS_ELEMENT);
-			//include only configured parameters
-			for (String name : this.parameters) {
-				String[] values = request.getParameterValues(name);
-				if (values != null)
-					addParameter(parameters, name, values);
-			}
-		} else {
-			EventDataElement parameters = data.addElement(PARAMETERS_ELEMENT);
-			//include all parameters
-			for (Enumeration<?> params = request.getParameterNames(); params.hasMoreElements(); ) {
-				String name = (String)params.nextElement();
-				String[] values = request.getParameterValues(name);
-				addParameter(parameters, name, values);
-			}
+		//log relevant request data and parameters to the event, unless it would be discarded anyway.
+		if (event.isCapturingData()) {
+			EventDataElement data = event.addData();
+			data.add("uri", req.getRequestURI());
+			data.add("protocol", req.getProtocol());
+			data.add("method", req.getMethod());
+			data.add("remote-address", req.getRemoteAddr());
+			if (resolveRemoteHost)
+				data.add("remote-host", req.getRemoteHost());
+			if (!deferParameters)
+				addParameters(data, request);
 		}
 		
 		manager.start(event);
 		return event;
 	}
 	
+	/**
+	 * Finish the event for a request, without capturing {@link #setDeferParameters(boolean) deferred} parameters.
+	 * @see #stop(ServletRequest, BehaviorEvent)
+	 */
 	public void stop(BehaviorEvent event) {
 		if (event != null) //event may be null if match() returned false at the start of the request.
 			manager.stop(event);
 	}
 	
+	/**
+	 * Finish the event for a request, first capturing request parameters if they are {@link #setDeferParameters(boolean) deferred}.
+	 * @param event the value returned by {@link #start(ServletRequest)} for <code>request</code>
+	 */
+	public void stop(ServletRequest request, BehaviorEvent event) {
+		if (event != null) {
+			if (deferParameters && event.isCapturingData())
+				addParameters(event.addData(), request);
+			manager.stop(event);
+		}
+	}
+	
+	/** 
+	 * If false, the remote host name is not included in event data.  Default is true.
+	 * Many containers perform a reverse DNS lookup for each call to {@link ServletRequest#getRemoteHost()};
+	 * the remote address is always included.
+	 */
+	public void setResolveRemoteHost(boolean resolveRemoteHost) {
+		this.resolveRemoteHost = resolveRemoteHost;
+	}
+
+	public boolean isResolveRemoteHost() {
+		return resolveRemoteHost;
+	}
+
+	/**
+	 * If true, request parameters are captured when the request finishes, in {@link #stop(ServletRequest, BehaviorEvent)},
+	 * rather than when it starts.  This avoids parsing a form-encoded request body before the application has a chance
+	 * to read it as a stream, and avoids parsing it at all for requests that don't match.  Parameters used in
+	 * event names are still read at the start of the request.  Default is false.
+	 */
+	public void setDeferParameters(boolean deferParameters) {
+		this.deferParameters = deferParameters;
+	}
+
+	public boolean isDeferParameters() {
+		return deferParameters;
+	}
+
+	/** Capture at most this many request parameters per request.  Default is 0, meaning no limit. */
+	public void setMaxParameters(int maxParameters) {
+		this.maxParameters = maxParameters;
+	}
+
+	public int getMaxParameters() {
+		return maxParameters;
+	}
+
+	/** Truncate captured parameter values to at most this many characters.  Default is 0, meaning no limit. */
+	public void setMaxParameterLength(int maxParameterLength) {
+		this.maxParameterLength = maxParameterLength;
+	}
+
+	public int getMaxParameterLength() {
+		return maxParameterLength;
+	}
+
+	/**
+	 * Simple URI rules, such as <code>/app/*</code> or <code>*.do</code>, for requests to track in addition to those
+	 * matching the constructor's URI patterns.  If neither is given, all requests are tracked unless excluded.
+	 * @see UriMatcher
+	 */
+	public void setIncludeUris(String[] includeUris) {
+		this.includeUris = includeUris;
+		compileUriMatcher();
+	}
+
+	public String[] getIncludeUris() {
+		return includeUris;
+	}
+
+	/**
+	 * Simple URI rules, such as <code>/static/*</code> or <code>*.css</code>, for requests that are never tracked.
+	 * Exclusions take precedence over includes.
+	 * @see UriMatcher
+	 */
+	public void setExcludeUris(String[] excludeUris) {
+		this.excludeUris = excludeUris;
+		compileUriMatcher();
+	}
+
+	public String[] getExcludeUris() {
+		return excludeUris;
+	}
+
+	/** Regular expressions matching the URIs of requests that are never tracked. */
+	public void setExcludeUriPatterns(Pattern[] excludeUriPatterns) {
+		this.excludeUriPatterns = excludeUriPatterns;
+		compileUriMatcher();
+	}
+
+	public Pattern[] getExcludeUriPatterns() {
+		return excludeUriPatterns;
+	}
+
+	/** The number of distinct URIs for which match decisions are cached.  0 disables caching.  Default is 1024. */
+	public void setUriCacheSize(int uriCacheSize) {
+		this.uriCacheSize = uriCacheSize;
+		compileUriMatcher();
+	}
+
+	public int getUriCacheSize() {
+		return uriCacheSize;
+	}
+
+	/**
+	 * If true, path segments of the request URI that look like identifiers (numbers, UUIDs, long hexadecimal strings)
+	 * are replaced by placeholders in event names, e.g. <code>/orders/{id}</code>.  Default is false.
+	 * @see UriNormalizer
+	 */
+	public void setNormalizeUris(boolean normalizeUris) {
+		this.normalizeUris = normalizeUris;
+		compileUriNormalizer();
+	}
+
+	public boolean isNormalizeUris() {
+		return normalizeUris;
+	}
+
+	/**
+	 * URI templates, such as <code>/users/{user}/profile</code>, used as the event name for matching requests.
+	 * @see UriNormalizer
+	 */
+	public void setUriTemplates(String[] uriTemplates) {
+		this.uriTemplates = uriTemplates;
+		compileUriNormalizer();
+	}
+
+	public String[] getUriTemplates() {
+		return uriTemplates;
+	}
+	
 	protected String getEventName(HttpServletRequest request) {
 		//use the request path as an event name, excluding proto, host, and query string.
 		String eventName = request.getRequestURI();
+		if (uriNormalizer != null)
+			eventName = uriNormalizer.normalize(eventName);
 		//optionally use important parameters as part of the event name
 		if (nameParameters != null) {
 			char sep = '?';
@@ -123,19 +274,60 @@ public class ServletRequestBehaviorTrackingAdapter {
 	}
 	
 	protected boolean match(HttpServletRequest request) {
-		if (uriPatterns == null)
-			return true;
-		for (Pattern p : uriPatterns)
-			if (p.matcher(request.getRequestURI()).matches())
-				return true;
-		return false;
+		return uriMatcher == null || uriMatcher.matches(request.getRequestURI());
+	}
+	
+	private void compileUriMatcher() {
+		if (isEmpty(uriPatterns) && isEmpty(includeUris) && isEmpty(excludeUris) && isEmpty(excludeUriPatterns))
+			uriMatcher = null;
+		else
+			uriMatcher = new UriMatcher(uriPatterns, includeUris, excludeUriPatterns, excludeUris, uriCacheSize);
+	}
+	
+	private void compileUriNormalizer() {
+		if (normalizeUris || !isEmpty(uriTemplates))
+			uriNormalizer = new UriNormalizer(normalizeUris, uriTemplates, UriNormalizer.DEFAULT_CACHE_SIZE);
+		else
+			uriNormalizer = null;
 	}
 	
-	private static final void addParameter(EventDataElement parameters, String name, String[] values) {
+	private static boolean isEmpty(Object[] array) {
+		return array == null || array.length == 0;
+	}
+	
+	private void addParameters(EventDataElement data, ServletRequest request) {
+		EventDataElement parameters = data.addElement(PARAMETERS_ELEMENT);
+		int count = 0;
+		if (this.parameters != null) {
+			//include only configured parameters
+			for (String name : this.parameters) {
+				String[] values = request.getParameterValues(name);
+				if (values != null) {
+					if (maxParameters > 0 && count++ >= maxParameters)
+						break;
+					addParameter(parameters, name, values);
+				}
+			}
+		} else {
+			//include all parameters
+			for (Enumeration<?> params = request.getParameterNames(); params.hasMoreElements(); ) {
+				if (maxParameters > 0 && count++ >= maxParameters)
+					break;
+				String name = (String)params.nextElement();
+				String[] values = request.getParameterValues(name);
+				addParameter(parameters, name, values);
+			}
+		}
+	}
+	
+	private void addParameter(EventDataElement parameters, String name, String[] values) {
 		EventDataElement param = parameters.addElement(PARAM_ELEMENT);
 		param.add(NAME_ATTRIBUTE, name);
-		for (String v : values)
+		for (String v : values) {
+			if (maxParameterLength > 0 && v != null && v.length() > maxParameterLength)
+				v = v.substring(0, maxParameterLength);
 			param.addElement(VALUE_ELEMENT).setText(v);
+		}
 	}
 	
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.servlet;
+
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Decides which request URIs are tracked, according to include and exclude rules.  A URI is tracked if it
+ * matches no exclude rule, and either there are no include rules or it matches at least one of them.</p>
+ *
+ * <p>Rules are either regular expressions, which must match the whole URI, or simple URI rules:
+ * <code>/static/*</code> matches URIs beginning with <code>/static/</code>, <code>*.css</code> matches URIs
+ * ending with <code>.css</code>, <code>*</code> matches everything, and anything else must match the URI exactly.
+ * Simple rules are compiled into prefix and suffix tries, so each is checked in a single pass over the URI
+ * regardless of the number of rules; regular expressions are combined into a single pattern.  Simple rules should
+ * be preferred, for example to exclude static resources.</p>
+ *
+ * <p>Decisions are cached per URI, up to a configurable number of URIs, beyond which the cache is cleared.
+ * Instances are immutable and thread safe.</p>
+ */
+public class UriMatcher {
+
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+	/** longer URIs are not cached, since they are unlikely to repeat */
+	private static final int MAX_CACHED_LENGTH = 256;
+
+	private final Rules include;
+	private final Rules exclude;
+	private final int cacheSize;
+	private final ConcurrentHashMap<String,Boolean> cache;
+
+	/**
+	 * @param includePatterns regular expressions matching URIs to track, or null
+	 * @param includeUris simple rules matching URIs to track, or null
+	 * @param excludePatterns regular expressions matching URIs not to track, or null
+	 * @param excludeUris simple rules matching URIs not to track, or null
+	 * @param cacheSize maximum number of decisions to cache, or 0 to disable caching
+	 */
+	public UriMatcher(Pattern[] includePatterns, String[] includeUris, Pattern[] excludePatterns, String[] excludeUris, int cacheSize) {
+		include = Rules.compile(includePatterns, includeUris);
+		exclude = Rules.compile(excludePatterns, excludeUris);
+		this.cacheSize = cacheSize;
+		this.cache = cacheSize > 0 ? new ConcurrentHashMap<String,Boolean>() : null;
+	}
+
+	/** @return true if requests for the given URI should be tracked */
+	public boolean matches(String uri) {
+		if (cache == null || uri.length() > MAX_CACHED_LENGTH)
+			return decide(uri);
+
+		Boolean cached = cache.get(uri);
+		if (cached == null) {
+			cached = decide(uri);
+			//rather than track access order, start over when the cache fills up.
+			if (cache.size() >= cacheSize)
+				cache.clear();
+			cache.put(uri, cached);
+		}
+		return cached;
+	}
+
+	private boolean decide(String uri) {
+		if (exclude != null && exclude.matches(uri))
+			return false;
+		return include == null || include.matches(uri);
+	}
+
+	/** a set of regular expressions and simple rules, any one of which may match */
+	private static class Rules {
+
+		private boolean all;
+		private HashSet<String> exact = new HashSet<String>();
+		private Trie prefixes;
+		private Trie suffixes;
+		//regular expressions, combined into one pattern where possible.
+		private Pattern[] patterns;
+
+		/** @return compiled rules, or null if there are none */
+		static Rules compile(Pattern[] patterns, String[] uris) {
+			boolean hasPatterns = patterns != null && patterns.length > 0;
+			boolean hasUris = uris != null && uris.length > 0;
+			if (!hasPatterns && !hasUris)
+				return null;
+
+			Rules ret = new Rules();
+			if (hasUris)
+				for (String uri : uris) {
+					uri = uri.trim();
+					if (uri.equals("*")) {
+						ret.all = true;
+					} else if (uri.endsWith("*")) {
+						if (ret.prefixes == null)
+							ret.prefixes = new Trie();
+						ret.prefixes.add(uri.substring(0, uri.length() - 1), false);
+					} else if (uri.startsWith("*")) {
+						if (ret.suffixes == null)
+							ret.suffixes = new Trie();
+						ret.suffixes.add(uri.substring(1), true);
+					} else if (uri.length() > 0) {
+						ret.exact.add(uri);
+					}
+				}
+			if (hasPatterns)
+				ret.patterns = combine(patterns);
+			return ret;
+		}
+
+		/**
+		 * combine the given patterns into a single alternation, unless any of them depend on group numbering.
+		 * Patterns with different flags are not combined.
+		 */
+		private static Pattern[] combine(Pattern[] patterns) {
+			if (patterns.length == 1)
+				return patterns;
+			int flags = patterns[0].flags();
+			StringBuilder buf = new StringBuilder();
+			for (Pattern p : patterns) {
+				String regex = p.pattern();
+				if (p.flags() != flags || BACKREFERENCE.matcher(regex).find())
+					return patterns;
+				if (buf.length() > 0)
+					buf.append('|');
+				buf.append("(?:").append(regex).append(')');
+			}
+			return new Pattern[] { Pattern.compile(buf.toString(), flags) };
+		}
+
+		boolean matches(String uri) {
+			if (all || exact.contains(uri))
+				return true;
+			if (prefixes != null && prefixes.matches(uri, false))
+				return true;
+			if (suffixes != null && suffixes.matches(uri, true))
+				return true;
+			if (patterns != null)
+				for (Pattern p : patterns)
+					if (p.matcher(uri).matches())
+						return true;
+			return false;
+		}
+
+		private static final Pattern BACKREFERENCE = Pattern.compile("\\\\[1-9]|\\\\k<");
+	}
+
+	/**
+	 * a character trie of URI prefixes, or of suffixes when walked from the end of the URI.  Each node keeps its
+	 * children in parallel sorted arrays, which are small for typical URI rules.
+	 */
+	private static class Trie {
+
+		private char[] keys = new char[0];
+		private Trie[] children = new Trie[0];
+		private boolean terminal;
+
+		void add(String rule, boolean reverse) {
+			Trie node = this;
+			for (int i = 0, len = rule.length(); i < len; ++i)
+				node = node.child(rule.charAt(reverse ? len - 1 - i : i));
+			node.terminal = true;
+		}
+
+		/** @return true if any rule is a prefix of <code>uri</code>, or a suffix if <code>reverse</code> is true */
+		boolean matches(String uri, boolean reverse) {
+			Trie node = this;
+			for (int i = 0, len = uri.length(); ; ++i) {
+				if (node.terminal)
+					return true;
+				if (i == len)
+					return false;
+				node = node.find(uri.charAt(reverse ? len - 1 - i : i));
+				if (node == null)
+					return false;
+			}
+		}
+
+		private Trie find(char c) {
+			int index = java.util.Arrays.binarySearch(keys, c);
+			return index < 0 ? null : children[index];
+		}
+
+		private Trie child(char c) {
+			int index = java.util.Arrays.binarySearch(keys, c);
+			if (index >= 0)
+				return children[index];
+
+			index = -index - 1;
+			char[] newKeys = new char[keys.length + 1];
+			Trie[] newChildren = new Trie[keys.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+			System.arraycopy(children, index, newChildren, index + 1, keys.length - index);
+			newKeys[index] = c;
+			newChildren[index] = new Trie();
+			keys = newKeys;
+			children = newChildren;
+			return newChildren[index];
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.servlet;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Reduces request URIs to a bounded set of event names, so that a REST path such as <code>/orders/8812/items/3</code>
+ * does not produce a distinct event name (and, for example, a distinct statistics MBean) for every resource.</p>
+ *
+ * <p>Path segments that look like generated identifiers can be collapsed automatically: segments made up only of digits
+ * become <code>{id}</code>, UUIDs become <code>{uuid}</code>, and hexadecimal strings of at least 16 characters containing
+ * a digit become <code>{hex}</code>.  <code>/orders/8812/items/3</code> is thus normalized to <code>/orders/{id}/items/{id}</code>.</p>
+ *
+ * <p>Templates such as <code>/users/{user}/profile</code> can also be configured.  A template segment of the form
+ * <code>{name}</code> matches any single path segment; other segments must match exactly.  A URI matching a template
+ * is replaced by the template text.  Templates are tried in the order given, before automatic collapsing.</p>
+ *
+ * <p>Identifier segments are found in a single pass over the URI.  Template matching is then performed once per distinct
+ * path shape (the URI with identifiers collapsed) and cached, up to a configurable number of shapes, beyond which the cache is
+ * cleared.  Instances are immutable and thread safe.</p>
+ */
+public class UriNormalizer {
+
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+
+	public static final String ID = "{id}";
+	public static final String UUID = "{uuid}";
+	public static final String HEX = "{hex}";
+
+	private static final int MIN_HEX_LENGTH = 16;
+	/** cached in place of a template, when a shape matches no template */
+	private static final String NO_TEMPLATE = new String();
+
+	private final boolean collapseIds;
+	private final Template[] templates;
+	private final int cacheSize;
+	private final ConcurrentHashMap<String,String> cache;
+
+	/**
+	 * @param collapseIds if true, identifier segments of URIs matching no template are collapsed
+	 * @param templates URI templates, or null
+	 * @param cacheSize maximum number of path shapes for which template matches are cached, or 0 to disable caching
+	 */
+	public UriNormalizer(boolean collapseIds, String[] templates, int cacheSize) {
+		this.collapseIds = collapseIds;
+		if (templates == null) {
+			this.templates = new Template[0];
+		} else {
+			this.templates = new Template[templates.length];
+			for (int i = 0; i < templates.length; ++i)
+				this.templates[i] = new Template(templates[i].trim());
+		}
+		this.cacheSize = cacheSize;
+		this.cache = cacheSize > 0 && this.templates.length > 0 ? new ConcurrentHashMap<String,String>() : null;
+	}
+
+	/** @return the event name for <code>uri</code> */
+	public String normalize(String uri) {
+		String shape = collapse(uri);
+		if (templates.length == 0)
+			return collapseIds ? shape : uri;
+
+		String template = null;
+		if (cache != null)
+			template = cache.get(shape);
+		if (template == null) {
+			template = findTemplate(shape);
+			if (cache != null) {
+				//rather than track access order, start over when the cache fills up.
+				if (cache.size() >= cacheSize)
+					cache.clear();
+				cache.put(shape, template);
+			}
+		}
+
+		if (template != NO_TEMPLATE)
+			return template;
+		return collapseIds ? shape : uri;
+	}
+
+	private String findTemplate(String shape) {
+		String[] segments = split(shape);
+		for (Template t : templates)
+			if (t.matches(segments))
+				return t.text;
+		return NO_TEMPLATE;
+	}
+
+	/** @return <code>uri</code> with identifier segments replaced by placeholders, or <code>uri</code> itself if there are none */
+	static String collapse(String uri) {
+		StringBuilder buf = null;
+		int len = uri.length();
+		int copied = 0;
+		for (int start = 0; start < len; ) {
+			int end = uri.indexOf('/', start);
+			if (end < 0)
+				end = len;
+			String placeholder = classify(uri, start, end);
+			if (placeholder != null) {
+				if (buf == null)
+					buf = new StringBuilder(len);
+				buf.append(uri, copied, start).append(placeholder);
+				copied = end;
+			}
+			start = end + 1;
+		}
+		if (buf == null)
+			return uri;
+		return buf.append(uri, copied, len).toString();
+	}
+
+	/** @return the placeholder for the segment <code>uri[start,end)</code>, or null if it isn't an identifier */
+	private static String classify(String uri, int start, int end) {
+		int len = end - start;
+		if (len == 0)
+			return null;
+
+		boolean digits = true, hex = true, hasDigit = false;
+		for (int i = start; i < end && hex; ++i) {
+			char c = uri.charAt(i);
+			if (c >= '0' && c <= '9') {
+				hasDigit = true;
+			} else {
+				digits = false;
+				hex = (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+			}
+		}
+		if (digits)
+			return ID;
+		if (hex && hasDigit && len >= MIN_HEX_LENGTH)
+			return HEX;
+		if (len == 36 && isUUID(uri, start))
+			return UUID;
+		return null;
+	}
+
+	private static boolean isUUID(String uri, int start) {
+		for (int i = 0; i < 36; ++i) {
+			char c = uri.charAt(start + i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-')
+					return false;
+			} else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String[] split(String path) {
+		ArrayList<String> segments = new ArrayList<String>();
+		int start = 0;
+		for (int end; (end = path.indexOf('/', start)) >= 0; start = end + 1)
+			segments.add(path.substring(start, end));
+		segments.add(path.substring(start));
+		return segments.toArray(new String[segments.size()]);
+	}
+
+	private static class Template {
+
+		final String text;
+		//literal segments, collapsed as URIs are so that they can be compared to path shapes; null for variables.
+		final String[] segments;
+
+		Template(String text) {
+			this.text = text;
+			this.segments = split(text);
+			for (int i = 0; i < segments.length; ++i) {
+				String s = segments[i];
+				if (s.length() > 1 && s.charAt(0) == '{' && s.charAt(s.length() - 1) == '}')
+					segments[i] = null;
+				else
+					segments[i] = collapse(s);
+			}
+		}
+
+		boolean matches(String[] path) {
+			if (path.length != segments.length)
+				return false;
+			for (int i = 0; i < path.length; ++i)
+				if (segments[i] != null && !segments[i].equals(path[i]))
+					return false;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.sql;
+
+/**
+ * How statements added to a JDBC batch are recorded in the batch event data.
+ * @see BehaviorTrackingDataSource#setBatchCapture(BatchCapture)
+ */
+public enum BatchCapture {
+	/**
+	 * the SQL or parameter values of each row are recorded, up to the
+	 * {@link BehaviorTrackingDataSource#setMaxBatchRows(int) maximum number of rows}.
+	 */
+	ROWS,
+	/** only the number of rows in the batch is recorded */
+	COUNT,
+	/** the number of rows is recorded, along with the number of parameters of each type set on prepared statements */
+	TYPES
+}
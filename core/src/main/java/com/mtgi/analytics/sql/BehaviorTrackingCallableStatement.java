@@ -0,0 +1,579 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.sql;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLType;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * Behavior tracking logic for callable statements, which adds parameter logging
+ * for parameters set by name.
+ */
+class BehaviorTrackingCallableStatement extends BehaviorTrackingPreparedStatement implements CallableStatement {
+
+	private final CallableStatement target;
+	
+	public BehaviorTrackingCallableStatement(BehaviorTrackingConnection connection, CallableStatement target, String sql) {
+		super(connection, target, sql);
+		this.target = target;
+	}
+
+	public void registerOutParameter(int parameterIndex, int sqlType) throws SQLException {
+		target.registerOutParameter(parameterIndex, sqlType);
+	}
+
+	public void registerOutParameter(int parameterIndex, int sqlType, int scale) throws SQLException {
+		target.registerOutParameter(parameterIndex, sqlType, scale);
+	}
+
+	public boolean wasNull() throws SQLException {
+		return target.wasNull();
+	}
+
+	public String getString(int parameterIndex) throws SQLException {
+		return target.getString(parameterIndex);
+	}
+
+	public boolean getBoolean(int parameterIndex) throws SQLException {
+		return target.getBoolean(parameterIndex);
+	}
+
+	public byte getByte(int parameterIndex) throws SQLException {
+		return target.getByte(parameterIndex);
+	}
+
+	public short getShort(int parameterIndex) throws SQLException {
+		return target.getShort(parameterIndex);
+	}
+
+	public int getInt(int parameterIndex) throws SQLException {
+		return target.getInt(parameterIndex);
+	}
+
+	public long getLong(int parameterIndex) throws SQLException {
+		return target.getLong(parameterIndex);
+	}
+
+	public float getFloat(int parameterIndex) throws SQLException {
+		return target.getFloat(parameterIndex);
+	}
+
+	public double getDouble(int parameterIndex) throws SQLException {
+		return target.getDouble(parameterIndex);
+	}
+
+	@Deprecated
+	public BigDecimal getBigDecimal(int parameterIndex, int scale) throws SQLException {
+		return target.getBigDecimal(parameterIndex, scale);
+	}
+
+	public byte[] getBytes(int parameterIndex) throws SQLException {
+		return target.getBytes(parameterIndex);
+	}
+
+	public Date getDate(int parameterIndex) throws SQLException {
+		return target.getDate(parameterIndex);
+	}
+
+	public Time getTime(int parameterIndex) throws SQLException {
+		return target.getTime(parameterIndex);
+	}
+
+	public Timestamp getTimestamp(int parameterIndex) throws SQLException {
+		return target.getTimestamp(parameterIndex);
+	}
+
+	public Object getObject(int parameterIndex) throws SQLException {
+		return target.getObject(parameterIndex);
+	}
+
+	public BigDecimal getBigDecimal(int parameterIndex) throws SQLException {
+		return target.getBigDecimal(parameterIndex);
+	}
+
+	public Object getObject(int parameterIndex, Map<String, Class<?>> map) throws SQLException {
+		return target.getObject(parameterIndex, map);
+	}
+
+	public Ref getRef(int parameterIndex) throws SQLException {
+		return target.getRef(parameterIndex);
+	}
+
+	public Blob getBlob(int parameterIndex) throws SQLException {
+		return target.getBlob(parameterIndex);
+	}
+
+	public Clob getClob(int parameterIndex) throws SQLException {
+		return target.getClob(parameterIndex);
+	}
+
+	public Array getArray(int parameterIndex) throws SQLException {
+		return target.getArray(parameterIndex);
+	}
+
+	public Date getDate(int parameterIndex, Calendar cal) throws SQLException {
+		return target.getDate(parameterIndex, cal);
+	}
+
+	public Time getTime(int parameterIndex, Calendar cal) throws SQLException {
+		return target.getTime(parameterIndex, cal);
+	}
+
+	public Timestamp getTimestamp(int parameterIndex, Calendar cal) throws SQLException {
+		return target.getTimestamp(parameterIndex, cal);
+	}
+
+	public void registerOutParameter(int parameterIndex, int sqlType, String typeName) throws SQLException {
+		target.registerOutParameter(parameterIndex, sqlType, typeName);
+	}
+
+	public void registerOutParameter(String parameterName, int sqlType) throws SQLException {
+		target.registerOutParameter(parameterName, sqlType);
+	}
+
+	public void registerOutParameter(String parameterName, int sqlType, int scale) throws SQLException {
+		target.registerOutParameter(parameterName, sqlType, scale);
+	}
+
+	public void registerOutParameter(String parameterName, int sqlType, String typeName) throws SQLException {
+		target.registerOutParameter(parameterName, sqlType, typeName);
+	}
+
+	public URL getURL(int parameterIndex) throws SQLException {
+		return target.getURL(parameterIndex);
+	}
+
+	public void setURL(String parameterName, URL x) throws SQLException {
+		if (isCaptured("URL"))
+			addParameter(x == null ? null : x.toString());
+		target.setURL(parameterName, x);
+	}
+
+	public void setNull(String parameterName, int sqlType) throws SQLException {
+		if (isCaptured("Null"))
+			addParameter(null);
+		target.setNull(parameterName, sqlType);
+	}
+
+	public void setBoolean(String parameterName, boolean x) throws SQLException {
+		if (isCaptured("Boolean"))
+			addParameter(String.valueOf(x));
+		target.setBoolean(parameterName, x);
+	}
+
+	public void setByte(String parameterName, byte x) throws SQLException {
+		if (isCaptured("Byte"))
+			addParameter(String.valueOf(x));
+		target.setByte(parameterName, x);
+	}
+
+	public void setShort(String parameterName, short x) throws SQLException {
+		if (isCaptured("Short"))
+			addParameter(String.valueOf(x));
+		target.setShort(parameterName, x);
+	}
+
+	public void setInt(String parameterName, int x) throws SQLException {
+		if (isCaptured("Int"))
+			addParameter(String.valueOf(x));
+		target.setInt(parameterName, x);
+	}
+
+	public void setLong(String parameterName, long x) throws SQLException {
+		if (isCaptured("Long"))
+			addParameter(String.valueOf(x));
+		target.setLong(parameterName, x);
+	}
+
+	public void setFloat(String parameterName, float x) throws SQLException {
+		if (isCaptured("Float"))
+			addParameter(String.valueOf(x));
+		target.setFloat(parameterName, x);
+	}
+
+	public void setDouble(String parameterName, double x) throws SQLException {
+		if (isCaptured("Double"))
+			addParameter(String.valueOf(x));
+		target.setDouble(parameterName, x);
+	}
+
+	public void setBigDecimal(String parameterName, BigDecimal x) throws SQLException {
+		if (isCaptured("BigDecimal"))
+			addParameter(x == null ? null : x.toString());
+		target.setBigDecimal(parameterName, x);
+	}
+
+	public void setString(String parameterName, String x) throws SQLException {
+		if (isCaptured("String"))
+			addParameter(x);
+		target.setString(parameterName, x);
+	}
+
+	public void setBytes(String parameterName, byte[] x) throws SQLException {
+		if (isCaptured("Bytes"))
+			addParameter(x == null ? null : x.toString());
+		target.setBytes(parameterName, x);
+	}
+
+	public void setDate(String parameterName, Date x) throws SQLException {
+		if (isCaptured("Date"))
+			addParameter(x == null ? null : x.toString());
+		target.setDate(parameterName, x);
+	}
+
+	public void setTime(String parameterName, Time x) throws SQLException {
+		if (isCaptured("Time"))
+			addParameter(x == null ? null : x.toString());
+		target.setTime(parameterName, x);
+	}
+
+	public void setTimestamp(String parameterName, Timestamp x) throws SQLException {
+		if (isCaptured("Timestamp"))
+			addParameter(x == null ? null : x.toString());
+		target.setTimestamp(parameterName, x);
+	}
+
+	public void setAsciiStream(String parameterName, InputStream x, int length) throws SQLException {
+		target.setAsciiStream(parameterName, x, length);
+	}
+
+	public void setBinaryStream(String parameterName, InputStream x, int length) throws SQLException {
+		target.setBinaryStream(parameterName, x, length);
+	}
+
+	public void setObject(String parameterName, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+		target.setObject(parameterName, x, targetSqlType, scaleOrLength);
+	}
+
+	public void setObject(String parameterName, Object x, int targetSqlType) throws SQLException {
+		if (isCaptured("Object"))
+			addParameter(x == null ? null : x.toString());
+		target.setObject(parameterName, x, targetSqlType);
+	}
+
+	public void setObject(String parameterName, Object x) throws SQLException {
+		if (isCaptured("Object"))
+			addParameter(x == null ? null : x.toString());
+		target.setObject(parameterName, x);
+	}
+
+	public void setCharacterStream(String parameterName, Reader reader, int length) throws SQLException {
+		target.setCharacterStream(parameterName, reader, length);
+	}
+
+	public void setDate(String parameterName, Date x, Calendar cal) throws SQLException {
+		if (isCaptured("Date"))
+			addParameter(x == null ? null : x.toString());
+		target.setDate(parameterName, x, cal);
+	}
+
+	public void setTime(String parameterName, Time x, Calendar cal) throws SQLException {
+		target.setTime(parameterName, x, cal);
+	}
+
+	public void setTimestamp(String parameterName, Timestamp x, Calendar cal) throws SQLException {
+		target.setTimestamp(parameterName, x, cal);
+	}
+
+	public void setNull(String parameterName, int sqlType, String typeName) throws SQLException {
+		if (isCaptured("Null"))
+			addParameter(null);
+		target.setNull(parameterName, sqlType, typeName);
+	}
+
+	public String getString(String parameterName) throws SQLException {
+		return target.getString(parameterName);
+	}
+
+	public boolean getBoolean(String parameterName) throws SQLException {
+		return target.getBoolean(parameterName);
+	}
+
+	public byte getByte(String parameterName) throws SQLException {
+		return target.getByte(parameterName);
+	}
+
+	public short getShort(String parameterName) throws SQLException {
+		return target.getShort(parameterName);
+	}
+
+	public int getInt(String parameterName) throws SQLException {
+		return target.getInt(parameterName);
+	}
+
+	public long getLong(String parameterName) throws SQLException {
+		return target.getLong(parameterName);
+	}
+
+	public float getFloat(String parameterName) throws SQLException {
+		return target.getFloat(parameterName);
+	}
+
+	public double getDouble(String parameterName) throws SQLException {
+		return target.getDouble(parameterName);
+	}
+
+	public byte[] getBytes(String parameterName) throws SQLException {
+		return target.getBytes(parameterName);
+	}
+
+	public Date getDate(String parameterName) throws SQLException {
+		return target.getDate(parameterName);
+	}
+
+	public Time getTime(String parameterName) throws SQLException {
+		return target.getTime(parameterName);
+	}
+
+	public Timestamp getTimestamp(String parameterName) throws SQLException {
+		return target.getTimestamp(parameterName);
+	}
+
+	public Object getObject(String parameterName) throws SQLException {
+		return target.getObject(parameterName);
+	}
+
+	public BigDecimal getBigDecimal(String parameterName) throws SQLException {
+		return target.getBigDecimal(parameterName);
+	}
+
+	public Object getObject(String parameterName, Map<String, Class<?>> map) throws SQLException {
+		return target.getObject(parameterName, map);
+	}
+
+	public Ref getRef(String parameterName) throws SQLException {
+		return target.getRef(parameterName);
+	}
+
+	public Blob getBlob(String parameterName) throws SQLException {
+		return target.getBlob(parameterName);
+	}
+
+	public Clob getClob(String parameterName) throws SQLException {
+		return target.getClob(parameterName);
+	}
+
+	public Array getArray(String parameterName) throws SQLException {
+		return target.getArray(parameterName);
+	}
+
+	public Date getDate(String parameterName, Calendar cal) throws SQLException {
+		return target.getDate(parameterName, cal);
+	}
+
+	public Time getTime(String parameterName, Calendar cal) throws SQLException {
+		return target.getTime(parameterName, cal);
+	}
+
+	public Timestamp getTimestamp(String parameterName, Calendar cal) throws SQLException {
+		return target.getTimestamp(parameterName, cal);
+	}
+
+	public URL getURL(String parameterName) throws SQLException {
+		return target.getURL(parameterName);
+	}
+
+	public RowId getRowId(int parameterIndex) throws SQLException {
+		return target.getRowId(parameterIndex);
+	}
+
+	public RowId getRowId(String parameterName) throws SQLException {
+		return target.getRowId(parameterName);
+	}
+
+	public void setRowId(String parameterName, RowId x) throws SQLException {
+		if (isCaptured("RowId"))
+			addParameter(x == null ? null : x.toString());
+		target.setRowId(parameterName, x);
+	}
+
+	public void setNString(String parameterName, String x) throws SQLException {
+		if (isCaptured("NString"))
+			addParameter(x);
+		target.setNString(parameterName, x);
+	}
+
+	public void setNCharacterStream(String parameterName, Reader reader, long length) throws SQLException {
+		target.setNCharacterStream(parameterName, reader, length);
+	}
+
+	public void setNClob(String parameterName, NClob x) throws SQLException {
+		target.setNClob(parameterName, x);
+	}
+
+	public void setClob(String parameterName, Reader reader, long length) throws SQLException {
+		target.setClob(parameterName, reader, length);
+	}
+
+	public void setBlob(String parameterName, InputStream x, long length) throws SQLException {
+		target.setBlob(parameterName, x, length);
+	}
+
+	public void setNClob(String parameterName, Reader reader, long length) throws SQLException {
+		target.setNClob(parameterName, reader, length);
+	}
+
+	public NClob getNClob(int parameterIndex) throws SQLException {
+		return target.getNClob(parameterIndex);
+	}
+
+	public NClob getNClob(String parameterName) throws SQLException {
+		return target.getNClob(parameterName);
+	}
+
+	public void setSQLXML(String parameterName, SQLXML x) throws SQLException {
+		if (isCaptured("SQLXML"))
+			addParameter(x == null ? null : x.toString());
+		target.setSQLXML(parameterName, x);
+	}
+
+	public SQLXML getSQLXML(int parameterIndex) throws SQLException {
+		return target.getSQLXML(parameterIndex);
+	}
+
+	public SQLXML getSQLXML(String parameterName) throws SQLException {
+		return target.getSQLXML(parameterName);
+	}
+
+	public String getNString(int parameterIndex) throws SQLException {
+		return target.getNString(parameterIndex);
+	}
+
+	public String getNString(String parameterName) throws SQLException {
+		return target.getNString(parameterName);
+	}
+
+	public Reader getNCharacterStream(int parameterIndex) throws SQLException {
+		return target.getNCharacterStream(parameterIndex);
+	}
+
+	public Reader getNCharacterStream(String parameterName) throws SQLException {
+		return target.getNCharacterStream(parameterName);
+	}
+
+	public Reader getCharacterStream(int parameterIndex) throws SQLException {
+		return target.getCharacterStream(parameterIndex);
+	}
+
+	public Reader getCharacterStream(String parameterName) throws SQLException {
+		return target.getCharacterStream(parameterName);
+	}
+
+	public void setBlob(String parameterName, Blob x) throws SQLException {
+		target.setBlob(parameterName, x);
+	}
+
+	public void setClob(String parameterName, Clob x) throws SQLException {
+		target.setClob(parameterName, x);
+	}
+
+	public void setAsciiStream(String parameterName, InputStream x, long length) throws SQLException {
+		target.setAsciiStream(parameterName, x, length);
+	}
+
+	public void setBinaryStream(String parameterName, InputStream x, long length) throws SQLException {
+		target.setBinaryStream(parameterName, x, length);
+	}
+
+	public void setCharacterStream(String parameterName, Reader reader, long length) throws SQLException {
+		target.setCharacterStream(parameterName, reader, length);
+	}
+
+	public void setAsciiStream(String parameterName, InputStream x) throws SQLException {
+		target.setAsciiStream(parameterName, x);
+	}
+
+	public void setBinaryStream(String parameterName, InputStream x) throws SQLException {
+		target.setBinaryStream(parameterName, x);
+	}
+
+	public void setCharacterStream(String parameterName, Reader reader) throws SQLException {
+		target.setCharacterStream(parameterName, reader);
+	}
+
+	public void setNCharacterStream(String parameterName, Reader reader) throws SQLException {
+		target.setNCharacterStream(parameterName, reader);
+	}
+
+	public void setClob(String parameterName, Reader reader) throws SQLException {
+		target.setClob(parameterName, reader);
+	}
+
+	public void setBlob(String parameterName, InputStream x) throws SQLException {
+		target.setBlob(parameterName, x);
+	}
+
+	public void setNClob(String parameterName, Reader reader) throws SQLException {
+		target.setNClob(parameterName, reader);
+	}
+
+	public <T> T getObject(int parameterIndex, Class<T> type) throws SQLException {
+		return target.getObject(parameterIndex, type);
+	}
+
+	public <T> T getObject(String parameterName, Class<T> type) throws SQLException {
+		return target.getObject(parameterName, type);
+	}
+
+	public void setObject(String parameterName, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+		target.setObject(parameterName, x, targetSqlType, scaleOrLength);
+	}
+
+	public void setObject(String parameterName, Object x, SQLType targetSqlType) throws SQLException {
+		if (isCaptured("Object"))
+			addParameter(x == null ? null : x.toString());
+		target.setObject(parameterName, x, targetSqlType);
+	}
+
+	public void registerOutParameter(int parameterIndex, SQLType sqlType) throws SQLException {
+		target.registerOutParameter(parameterIndex, sqlType);
+	}
+
+	public void registerOutParameter(int parameterIndex, SQLType sqlType, int scale) throws SQLException {
+		target.registerOutParameter(parameterIndex, sqlType, scale);
+	}
+
+	public void registerOutParameter(int parameterIndex, SQLType sqlType, String typeName) throws SQLException {
+		target.registerOutParameter(parameterIndex, sqlType, typeName);
+	}
+
+	public void registerOutParameter(String parameterName, SQLType sqlType) throws SQLException {
+		target.registerOutParameter(parameterName, sqlType);
+	}
+
+	public void registerOutParameter(String parameterName, SQLType sqlType, int scale) throws SQLException {
+		target.registerOutParameter(parameterName, sqlType, scale);
+	}
+
+	public void registerOutParameter(String parameterName, SQLType sqlType, String typeName) throws SQLException {
+		target.registerOutParameter(parameterName, sqlType, typeName);
+	}
+}
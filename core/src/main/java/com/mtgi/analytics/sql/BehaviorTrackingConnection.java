@@ -0,0 +1,334 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.sql;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+import com.mtgi.analytics.BehaviorTrackingManager;
+
+/**
+ * Delegates all method calls to a target connection, wrapping returned Statement instances
+ * with behavior tracking instrumentation.  Instrumentation is implemented with plain delegating
+ * classes rather than dynamic proxies, so that the overhead of a JDBC call is a virtual method
+ * call and a check of the {@link #suspendTracking() suspended} flag.
+ */
+class BehaviorTrackingConnection implements BehaviorTrackingConnectionProxy {
+
+	final BehaviorTrackingManager trackingManager;
+	final String eventType;
+	/** if not null, sql is normalized and fingerprinted using this dictionary */
+	final SqlDictionary sqlDictionary;
+	/** limits on the parameter data recorded for batches and prepared statements */
+	BatchCapture batchCapture = BatchCapture.ROWS;
+	int maxBatchRows = -1;
+	int maxParameterLength = -1;
+	/** if true, result sets returned by queries are instrumented to record fetch statistics */
+	boolean trackResultSets;
+	/** if not null, checkout statistics are updated when this connection is closed or aborted */
+	volatile ConnectionStatistics statistics;
+	/** nanoTime at which this connection was checked out */
+	volatile long checkoutTime;
+	/** set while event generation is suspended, for the benefit of jdbc persister implementations */
+	boolean suspended;
+	
+	private final Connection target;
+	
+	public BehaviorTrackingConnection(BehaviorTrackingManager trackingManager, String eventType, 
+			SqlDictionary sqlDictionary, Connection target) {
+		this.trackingManager = trackingManager;
+		this.eventType = eventType;
+		this.sqlDictionary = sqlDictionary;
+		this.target = target;
+	}
+
+	/**
+	 * Limit the amount of parameter data recorded by statements on this connection.
+	 * @see BehaviorTrackingDataSource#setBatchCapture(BatchCapture)
+	 * @see BehaviorTrackingDataSource#setMaxBatchRows(int)
+	 * @see BehaviorTrackingDataSource#setMaxParameterLength(int)
+	 */
+	void setCaptureLimits(BatchCapture batchCapture, int maxBatchRows, int maxParameterLength) {
+		this.batchCapture = batchCapture;
+		this.maxBatchRows = maxBatchRows;
+		this.maxParameterLength = maxParameterLength;
+	}
+
+	/** @return the normalized form of <code>sql</code>, or null if sql normalization is disabled */
+	SqlDictionary.Entry lookupSql(String sql) {
+		return sqlDictionary == null ? null : sqlDictionary.lookup(sql);
+	}
+
+	public Connection getTargetConnection() {
+		return target;
+	}
+
+	public void suspendTracking() {
+		suspended = true;
+	}
+
+	public void resumeTracking() {
+		suspended = false;
+	}
+
+	public Statement createStatement() throws SQLException {
+		return new BehaviorTrackingStatement(this, target.createStatement());
+	}
+
+	public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+		return new BehaviorTrackingStatement(this, target.createStatement(resultSetType, resultSetConcurrency));
+	}
+
+	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		return new BehaviorTrackingStatement(this, target.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+	}
+
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return new BehaviorTrackingPreparedStatement(this, target.prepareStatement(sql), sql);
+	}
+
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		return new BehaviorTrackingPreparedStatement(this, target.prepareStatement(sql, autoGeneratedKeys), sql);
+	}
+
+	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+		return new BehaviorTrackingPreparedStatement(this, target.prepareStatement(sql, columnIndexes), sql);
+	}
+
+	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+		return new BehaviorTrackingPreparedStatement(this, target.prepareStatement(sql, columnNames), sql);
+	}
+
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+		return new BehaviorTrackingPreparedStatement(this, target.prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
+	}
+
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		return new BehaviorTrackingPreparedStatement(this, target.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
+	}
+
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		return new BehaviorTrackingCallableStatement(this, target.prepareCall(sql), sql);
+	}
+
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+		return new BehaviorTrackingCallableStatement(this, target.prepareCall(sql, resultSetType, resultSetConcurrency), sql);
+	}
+
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		return new BehaviorTrackingCallableStatement(this, target.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
+	}
+
+	//all other calls are delegated to the target connection.
+
+	public String nativeSQL(String sql) throws SQLException {
+		return target.nativeSQL(sql);
+	}
+
+	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		target.setAutoCommit(autoCommit);
+	}
+
+	public boolean getAutoCommit() throws SQLException {
+		return target.getAutoCommit();
+	}
+
+	public void commit() throws SQLException {
+		target.commit();
+	}
+
+	public void rollback() throws SQLException {
+		target.rollback();
+	}
+
+	public void close() throws SQLException {
+		checkIn();
+		target.close();
+	}
+
+	/** 
+	 * update checkout statistics, if any.  close() and abort() may be called more than once, 
+	 * and abort() from another thread, but hold time is counted only once.
+	 */
+	private void checkIn() {
+		ConnectionStatistics checkedOut;
+		synchronized (this) {
+			checkedOut = statistics;
+			statistics = null;
+		}
+		if (checkedOut != null)
+			checkedOut.checkedIn(System.nanoTime() - checkoutTime);
+	}
+
+	public boolean isClosed() throws SQLException {
+		return target.isClosed();
+	}
+
+	public DatabaseMetaData getMetaData() throws SQLException {
+		return target.getMetaData();
+	}
+
+	public void setReadOnly(boolean readOnly) throws SQLException {
+		target.setReadOnly(readOnly);
+	}
+
+	public boolean isReadOnly() throws SQLException {
+		return target.isReadOnly();
+	}
+
+	public void setCatalog(String catalog) throws SQLException {
+		target.setCatalog(catalog);
+	}
+
+	public String getCatalog() throws SQLException {
+		return target.getCatalog();
+	}
+
+	public void setTransactionIsolation(int level) throws SQLException {
+		target.setTransactionIsolation(level);
+	}
+
+	public int getTransactionIsolation() throws SQLException {
+		return target.getTransactionIsolation();
+	}
+
+	public SQLWarning getWarnings() throws SQLException {
+		return target.getWarnings();
+	}
+
+	public void clearWarnings() throws SQLException {
+		target.clearWarnings();
+	}
+
+	public Map<String, Class<?>> getTypeMap() throws SQLException {
+		return target.getTypeMap();
+	}
+
+	public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+		target.setTypeMap(map);
+	}
+
+	public void setHoldability(int holdability) throws SQLException {
+		target.setHoldability(holdability);
+	}
+
+	public int getHoldability() throws SQLException {
+		return target.getHoldability();
+	}
+
+	public Savepoint setSavepoint() throws SQLException {
+		return target.setSavepoint();
+	}
+
+	public Savepoint setSavepoint(String name) throws SQLException {
+		return target.setSavepoint(name);
+	}
+
+	public void rollback(Savepoint savepoint) throws SQLException {
+		target.rollback(savepoint);
+	}
+
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		target.releaseSavepoint(savepoint);
+	}
+
+	public Clob createClob() throws SQLException {
+		return target.createClob();
+	}
+
+	public Blob createBlob() throws SQLException {
+		return target.createBlob();
+	}
+
+	public NClob createNClob() throws SQLException {
+		return target.createNClob();
+	}
+
+	public SQLXML createSQLXML() throws SQLException {
+		return target.createSQLXML();
+	}
+
+	public boolean isValid(int timeout) throws SQLException {
+		return target.isValid(timeout);
+	}
+
+	public void setClientInfo(String name, String value) throws SQLClientInfoException {
+		target.setClientInfo(name, value);
+	}
+
+	public void setClientInfo(Properties properties) throws SQLClientInfoException {
+		target.setClientInfo(properties);
+	}
+
+	public String getClientInfo(String name) throws SQLException {
+		return target.getClientInfo(name);
+	}
+
+	public Properties getClientInfo() throws SQLException {
+		return target.getClientInfo();
+	}
+
+	public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+		return target.createArrayOf(typeName, elements);
+	}
+
+	public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+		return target.createStruct(typeName, attributes);
+	}
+
+	public void setSchema(String schema) throws SQLException {
+		target.setSchema(schema);
+	}
+
+	public String getSchema() throws SQLException {
+		return target.getSchema();
+	}
+
+	public void abort(Executor executor) throws SQLException {
+		checkIn();
+		target.abort(executor);
+	}
+
+	public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+		target.setNetworkTimeout(executor, milliseconds);
+	}
+
+	public int getNetworkTimeout() throws SQLException {
+		return target.getNetworkTimeout();
+	}
+
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return target.unwrap(iface);
+	}
+
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return target.isWrapperFor(iface);
+	}
+}
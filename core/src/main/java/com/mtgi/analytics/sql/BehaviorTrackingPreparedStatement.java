@@ -0,0 +1,482 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.sql;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLType;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mtgi.analytics.BehaviorEvent;
+import com.mtgi.analytics.EventDataElement;
+
+/**
+ * Behavior tracking logic for prepared and callable statements.  Parameter values
+ * are accumulated as they are set, for inclusion in the next execute event or batch entry.
+ */
+class BehaviorTrackingPreparedStatement extends BehaviorTrackingStatement implements PreparedStatement {
+
+	private final PreparedStatement target;
+	private final String sql;
+	private final SqlDictionary.Entry normalized;
+	private EventDataElement parameters = new EventDataElement("parameters");
+	//parameter types set on the current row and accumulated over the current batch, for BatchCapture.TYPES
+	private ArrayList<String> rowTypes;
+	private LinkedHashMap<String, int[]> batchTypes;
+	
+	public BehaviorTrackingPreparedStatement(BehaviorTrackingConnection connection, PreparedStatement target, String sql) {
+		super(connection, target);
+		this.target = target;
+		this.sql = sql;
+		this.normalized = sql == null ? null : connection.lookupSql(sql);
+	}
+
+	/** overridden to append the prepared statement SQL to the newly created event */
+	@Override
+	protected BehaviorEvent createEvent(String name, String sql) {
+		return createEvent(name, this.sql, normalized);
+	}
+
+	/** overridden to add prepared statement parameter data to the batch data element */
+	@Override
+	protected void addBatch(EventDataElement batchData, String sql) {
+		//prepared statement batch.  add any parameters to 
+		//event info and reset for next statement.
+		if (isBatchRowCaptured()) {
+			batchData.addElement(parameters);
+			parameters = new EventDataElement("parameters");
+		} else if (!parameters.isEmpty()) {
+			parameters = new EventDataElement("parameters");
+		}
+		
+		if (rowTypes != null && !rowTypes.isEmpty()) {
+			if (batchTypes == null)
+				batchTypes = new LinkedHashMap<String, int[]>();
+			for (String type : rowTypes) {
+				int[] count = batchTypes.get(type);
+				if (count == null)
+					batchTypes.put(type, count = new int[1]);
+				++count[0];
+			}
+			rowTypes.clear();
+		}
+	}
+
+	/** overridden to add the parameter type histogram for {@link BatchCapture#TYPES} */
+	@Override
+	protected void addBatchSummary(EventDataElement batchData) {
+		if (batchTypes != null && !batchTypes.isEmpty()) {
+			EventDataElement types = batchData.addElement("types");
+			for (Map.Entry<String, int[]> type : batchTypes.entrySet()) {
+				EventDataElement t = types.addElement("type");
+				t.add("name", type.getKey());
+				t.setText(String.valueOf(type.getValue()[0]));
+			}
+			batchTypes.clear();
+		}
+	}
+
+	/** overridden to add prepared statement parameter data to the execute event */
+	@Override
+	protected void addExecuteParameters(BehaviorEvent event, String sql) {
+		if (rowTypes != null)
+			rowTypes.clear();
+		if (!parameters.isEmpty()) {
+			//transfer parameters from buffer into event object.
+			event.addData().addElement(parameters);
+			//clear out the parameter buffer for the next execute event.
+			parameters = new EventDataElement("parameters");
+		}
+	}
+
+	/**
+	 * notification that a parameter of the given type is being set.
+	 * @return true if the parameter value should be recorded with {@link #addParameter(String)}.  values
+	 *         are not recorded while tracking is suspended, or for batch rows that are not captured.
+	 */
+	protected final boolean isCaptured(String type) {
+		if (connection.suspended)
+			return false;
+		if (connection.batchCapture == BatchCapture.TYPES) {
+			if (rowTypes == null)
+				rowTypes = new ArrayList<String>();
+			rowTypes.add(type);
+		}
+		//until a batch is started, parameters might be for a normal execute.
+		return getBatchRows() == 0 || isBatchRowCaptured();
+	}
+
+	/**
+	 * store up a parameter value until we start another execute event or batch statement.
+	 * we have to support multiple execute() calls on the same statement object to support prepared / callable API
+	 */
+	protected final void addParameter(String value) {
+		EventDataElement v = parameters.addElement("param");
+		if (value != null) {
+			int max = connection.maxParameterLength;
+			v.setText(max >= 0 && value.length() > max ? value.substring(0, max) : value);
+		}
+	}
+
+	public ResultSet executeQuery() throws SQLException {
+		if (connection.suspended)
+			return target.executeQuery();
+		BehaviorEvent event = startExecute("executeQuery", sql);
+		try {
+			return track(target.executeQuery());
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public int executeUpdate() throws SQLException {
+		if (connection.suspended)
+			return target.executeUpdate();
+		BehaviorEvent event = startExecute("executeUpdate", sql);
+		try {
+			return target.executeUpdate();
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public boolean execute() throws SQLException {
+		if (connection.suspended)
+			return target.execute();
+		BehaviorEvent event = startExecute("execute", sql);
+		try {
+			return target.execute();
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public long executeLargeUpdate() throws SQLException {
+		if (connection.suspended)
+			return target.executeLargeUpdate();
+		BehaviorEvent event = startExecute("executeLargeUpdate", sql);
+		try {
+			return target.executeLargeUpdate();
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public void addBatch() throws SQLException {
+		batched(null);
+		target.addBatch();
+	}
+
+	//parameter setters record their values (except for streams and LOBs) before delegating to the target statement.
+	//all other calls are delegated without instrumentation.
+
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		if (isCaptured("Null"))
+			addParameter(null);
+		target.setNull(parameterIndex, sqlType);
+	}
+
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		if (isCaptured("Boolean"))
+			addParameter(String.valueOf(x));
+		target.setBoolean(parameterIndex, x);
+	}
+
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		if (isCaptured("Byte"))
+			addParameter(String.valueOf(x));
+		target.setByte(parameterIndex, x);
+	}
+
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		if (isCaptured("Short"))
+			addParameter(String.valueOf(x));
+		target.setShort(parameterIndex, x);
+	}
+
+	public void setInt(int parameterIndex, int x) throws SQLException {
+		if (isCaptured("Int"))
+			addParameter(String.valueOf(x));
+		target.setInt(parameterIndex, x);
+	}
+
+	public void setLong(int parameterIndex, long x) throws SQLException {
+		if (isCaptured("Long"))
+			addParameter(String.valueOf(x));
+		target.setLong(parameterIndex, x);
+	}
+
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		if (isCaptured("Float"))
+			addParameter(String.valueOf(x));
+		target.setFloat(parameterIndex, x);
+	}
+
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		if (isCaptured("Double"))
+			addParameter(String.valueOf(x));
+		target.setDouble(parameterIndex, x);
+	}
+
+	public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+		if (isCaptured("BigDecimal"))
+			addParameter(x == null ? null : x.toString());
+		target.setBigDecimal(parameterIndex, x);
+	}
+
+	public void setString(int parameterIndex, String x) throws SQLException {
+		if (isCaptured("String"))
+			addParameter(x);
+		target.setString(parameterIndex, x);
+	}
+
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		if (isCaptured("Bytes"))
+			addParameter(x == null ? null : x.toString());
+		target.setBytes(parameterIndex, x);
+	}
+
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		if (isCaptured("Date"))
+			addParameter(x == null ? null : x.toString());
+		target.setDate(parameterIndex, x);
+	}
+
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		if (isCaptured("Time"))
+			addParameter(x == null ? null : x.toString());
+		target.setTime(parameterIndex, x);
+	}
+
+	public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+		if (isCaptured("Timestamp"))
+			addParameter(x == null ? null : x.toString());
+		target.setTimestamp(parameterIndex, x);
+	}
+
+	public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		target.setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Deprecated
+	public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		target.setUnicodeStream(parameterIndex, x, length);
+	}
+
+	public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		target.setBinaryStream(parameterIndex, x, length);
+	}
+
+	public void clearParameters() throws SQLException {
+		target.clearParameters();
+	}
+
+	public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+		if (isCaptured("Object"))
+			addParameter(x == null ? null : x.toString());
+		target.setObject(parameterIndex, x, targetSqlType);
+	}
+
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+		if (isCaptured("Object"))
+			addParameter(x == null ? null : x.toString());
+		target.setObject(parameterIndex, x);
+	}
+
+	public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+		target.setCharacterStream(parameterIndex, reader, length);
+	}
+
+	public void setRef(int parameterIndex, Ref x) throws SQLException {
+		if (isCaptured("Ref"))
+			addParameter(x == null ? null : x.toString());
+		target.setRef(parameterIndex, x);
+	}
+
+	public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		target.setBlob(parameterIndex, x);
+	}
+
+	public void setClob(int parameterIndex, Clob x) throws SQLException {
+		target.setClob(parameterIndex, x);
+	}
+
+	public void setArray(int parameterIndex, Array x) throws SQLException {
+		if (isCaptured("Array"))
+			addParameter(x == null ? null : x.toString());
+		target.setArray(parameterIndex, x);
+	}
+
+	public ResultSetMetaData getMetaData() throws SQLException {
+		return target.getMetaData();
+	}
+
+	public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+		if (isCaptured("Date"))
+			addParameter(x == null ? null : x.toString());
+		target.setDate(parameterIndex, x, cal);
+	}
+
+	public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+		target.setTime(parameterIndex, x, cal);
+	}
+
+	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+		target.setTimestamp(parameterIndex, x, cal);
+	}
+
+	public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+		if (isCaptured("Null"))
+			addParameter(null);
+		target.setNull(parameterIndex, sqlType, typeName);
+	}
+
+	public void setURL(int parameterIndex, URL x) throws SQLException {
+		if (isCaptured("URL"))
+			addParameter(x == null ? null : x.toString());
+		target.setURL(parameterIndex, x);
+	}
+
+	public ParameterMetaData getParameterMetaData() throws SQLException {
+		return target.getParameterMetaData();
+	}
+
+	public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		if (isCaptured("RowId"))
+			addParameter(x == null ? null : x.toString());
+		target.setRowId(parameterIndex, x);
+	}
+
+	public void setNString(int parameterIndex, String x) throws SQLException {
+		if (isCaptured("NString"))
+			addParameter(x);
+		target.setNString(parameterIndex, x);
+	}
+
+	public void setNCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+		target.setNCharacterStream(parameterIndex, reader, length);
+	}
+
+	public void setNClob(int parameterIndex, NClob x) throws SQLException {
+		target.setNClob(parameterIndex, x);
+	}
+
+	public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+		target.setClob(parameterIndex, reader, length);
+	}
+
+	public void setBlob(int parameterIndex, InputStream x, long length) throws SQLException {
+		target.setBlob(parameterIndex, x, length);
+	}
+
+	public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+		target.setNClob(parameterIndex, reader, length);
+	}
+
+	public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException {
+		if (isCaptured("SQLXML"))
+			addParameter(x == null ? null : x.toString());
+		target.setSQLXML(parameterIndex, x);
+	}
+
+	public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+		target.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+	}
+
+	public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		target.setAsciiStream(parameterIndex, x, length);
+	}
+
+	public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		target.setBinaryStream(parameterIndex, x, length);
+	}
+
+	public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+		target.setCharacterStream(parameterIndex, reader, length);
+	}
+
+	public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+		target.setAsciiStream(parameterIndex, x);
+	}
+
+	public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+		target.setBinaryStream(parameterIndex, x);
+	}
+
+	public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+		target.setCharacterStream(parameterIndex, reader);
+	}
+
+	public void setNCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+		target.setNCharacterStream(parameterIndex, reader);
+	}
+
+	public void setClob(int parameterIndex, Reader reader) throws SQLException {
+		target.setClob(parameterIndex, reader);
+	}
+
+	public void setBlob(int parameterIndex, InputStream x) throws SQLException {
+		target.setBlob(parameterIndex, x);
+	}
+
+	public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+		target.setNClob(parameterIndex, reader);
+	}
+
+	public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+		target.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+	}
+
+	public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException {
+		if (isCaptured("Object"))
+			addParameter(x == null ? null : x.toString());
+		target.setObject(parameterIndex, x, targetSqlType);
+	}
+}
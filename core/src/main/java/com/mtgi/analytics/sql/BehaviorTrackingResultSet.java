@@ -0,0 +1,871 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.sql;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLType;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * Instruments a query ResultSet to count the rows fetched and measure time spent in {@link #next()},
+ * and the time from the end of query execution until the first row has been fetched.  Statistics are reported to the statement
+ * that produced the results once when the result set is exhausted or closed.  Calls to <code>next()</code>
+ * accumulate primitive counters only, so that instrumentation doesn't allocate per row.
+ */
+class BehaviorTrackingResultSet implements ResultSet {
+
+	private final BehaviorTrackingStatement statement;
+	private final ResultSet target;
+	private final String sql;
+	
+	//nanoTime at which the query returned these results
+	private final long executedTime = System.nanoTime();
+	private int rows;
+	private long fetchNs;
+	private long firstRowNs;
+	private boolean finished;
+
+	/**
+	 * @param sql the statement text that produced the results
+	 */
+	public BehaviorTrackingResultSet(BehaviorTrackingStatement statement, ResultSet target, String sql) {
+		this.statement = statement;
+		this.target = target;
+		this.sql = sql;
+	}
+
+	/** report fetch statistics to the statement, if they haven't been reported already */
+	void finish() {
+		if (!finished) {
+			finished = true;
+			statement.fetched(sql, rows, fetchNs, firstRowNs);
+		}
+	}
+
+	public boolean next() throws SQLException {
+		long start = System.nanoTime();
+		boolean ret = target.next();
+		long end = System.nanoTime();
+		fetchNs += end - start;
+		if (ret) {
+			if (rows++ == 0)
+				firstRowNs = end - executedTime;
+		} else {
+			finish();
+		}
+		return ret;
+	}
+
+	public void close() throws SQLException {
+		finish();
+		target.close();
+	}
+
+	public Statement getStatement() throws SQLException {
+		return statement;
+	}
+
+	//all other calls are delegated to the target result set.
+
+	public boolean wasNull() throws SQLException {
+		return target.wasNull();
+	}
+
+	public String getString(int columnIndex) throws SQLException {
+		return target.getString(columnIndex);
+	}
+
+	public boolean getBoolean(int columnIndex) throws SQLException {
+		return target.getBoolean(columnIndex);
+	}
+
+	public byte getByte(int columnIndex) throws SQLException {
+		return target.getByte(columnIndex);
+	}
+
+	public short getShort(int columnIndex) throws SQLException {
+		return target.getShort(columnIndex);
+	}
+
+	public int getInt(int columnIndex) throws SQLException {
+		return target.getInt(columnIndex);
+	}
+
+	public long getLong(int columnIndex) throws SQLException {
+		return target.getLong(columnIndex);
+	}
+
+	public float getFloat(int columnIndex) throws SQLException {
+		return target.getFloat(columnIndex);
+	}
+
+	public double getDouble(int columnIndex) throws SQLException {
+		return target.getDouble(columnIndex);
+	}
+
+	@Deprecated
+	public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
+		return target.getBigDecimal(columnIndex, scale);
+	}
+
+	public byte[] getBytes(int columnIndex) throws SQLException {
+		return target.getBytes(columnIndex);
+	}
+
+	public Date getDate(int columnIndex) throws SQLException {
+		return target.getDate(columnIndex);
+	}
+
+	public Time getTime(int columnIndex) throws SQLException {
+		return target.getTime(columnIndex);
+	}
+
+	public Timestamp getTimestamp(int columnIndex) throws SQLException {
+		return target.getTimestamp(columnIndex);
+	}
+
+	public InputStream getAsciiStream(int columnIndex) throws SQLException {
+		return target.getAsciiStream(columnIndex);
+	}
+
+	@Deprecated
+	public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+		return target.getUnicodeStream(columnIndex);
+	}
+
+	public InputStream getBinaryStream(int columnIndex) throws SQLException {
+		return target.getBinaryStream(columnIndex);
+	}
+
+	public String getString(String columnLabel) throws SQLException {
+		return target.getString(columnLabel);
+	}
+
+	public boolean getBoolean(String columnLabel) throws SQLException {
+		return target.getBoolean(columnLabel);
+	}
+
+	public byte getByte(String columnLabel) throws SQLException {
+		return target.getByte(columnLabel);
+	}
+
+	public short getShort(String columnLabel) throws SQLException {
+		return target.getShort(columnLabel);
+	}
+
+	public int getInt(String columnLabel) throws SQLException {
+		return target.getInt(columnLabel);
+	}
+
+	public long getLong(String columnLabel) throws SQLException {
+		return target.getLong(columnLabel);
+	}
+
+	public float getFloat(String columnLabel) throws SQLException {
+		return target.getFloat(columnLabel);
+	}
+
+	public double getDouble(String columnLabel) throws SQLException {
+		return target.getDouble(columnLabel);
+	}
+
+	@Deprecated
+	public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
+		return target.getBigDecimal(columnLabel, scale);
+	}
+
+	public byte[] getBytes(String columnLabel) throws SQLException {
+		return target.getBytes(columnLabel);
+	}
+
+	public Date getDate(String columnLabel) throws SQLException {
+		return target.getDate(columnLabel);
+	}
+
+	public Time getTime(String columnLabel) throws SQLException {
+		return target.getTime(columnLabel);
+	}
+
+	public Timestamp getTimestamp(String columnLabel) throws SQLException {
+		return target.getTimestamp(columnLabel);
+	}
+
+	public InputStream getAsciiStream(String columnLabel) throws SQLException {
+		return target.getAsciiStream(columnLabel);
+	}
+
+	@Deprecated
+	public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+		return target.getUnicodeStream(columnLabel);
+	}
+
+	public InputStream getBinaryStream(String columnLabel) throws SQLException {
+		return target.getBinaryStream(columnLabel);
+	}
+
+	public SQLWarning getWarnings() throws SQLException {
+		return target.getWarnings();
+	}
+
+	public void clearWarnings() throws SQLException {
+		target.clearWarnings();
+	}
+
+	public String getCursorName() throws SQLException {
+		return target.getCursorName();
+	}
+
+	public ResultSetMetaData getMetaData() throws SQLException {
+		return target.getMetaData();
+	}
+
+	public Object getObject(int columnIndex) throws SQLException {
+		return target.getObject(columnIndex);
+	}
+
+	public Object getObject(String columnLabel) throws SQLException {
+		return target.getObject(columnLabel);
+	}
+
+	public int findColumn(String columnLabel) throws SQLException {
+		return target.findColumn(columnLabel);
+	}
+
+	public Reader getCharacterStream(int columnIndex) throws SQLException {
+		return target.getCharacterStream(columnIndex);
+	}
+
+	public Reader getCharacterStream(String columnLabel) throws SQLException {
+		return target.getCharacterStream(columnLabel);
+	}
+
+	public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+		return target.getBigDecimal(columnIndex);
+	}
+
+	public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+		return target.getBigDecimal(columnLabel);
+	}
+
+	public boolean isBeforeFirst() throws SQLException {
+		return target.isBeforeFirst();
+	}
+
+	public boolean isAfterLast() throws SQLException {
+		return target.isAfterLast();
+	}
+
+	public boolean isFirst() throws SQLException {
+		return target.isFirst();
+	}
+
+	public boolean isLast() throws SQLException {
+		return target.isLast();
+	}
+
+	public void beforeFirst() throws SQLException {
+		target.beforeFirst();
+	}
+
+	public void afterLast() throws SQLException {
+		target.afterLast();
+	}
+
+	public boolean first() throws SQLException {
+		return target.first();
+	}
+
+	public boolean last() throws SQLException {
+		return target.last();
+	}
+
+	public int getRow() throws SQLException {
+		return target.getRow();
+	}
+
+	public boolean absolute(int row) throws SQLException {
+		return target.absolute(row);
+	}
+
+	public boolean relative(int rows) throws SQLException {
+		return target.relative(rows);
+	}
+
+	public boolean previous() throws SQLException {
+		return target.previous();
+	}
+
+	public void setFetchDirection(int direction) throws SQLException {
+		target.setFetchDirection(direction);
+	}
+
+	public int getFetchDirection() throws SQLException {
+		return target.getFetchDirection();
+	}
+
+	public void setFetchSize(int rows) throws SQLException {
+		target.setFetchSize(rows);
+	}
+
+	public int getFetchSize() throws SQLException {
+		return target.getFetchSize();
+	}
+
+	public int getType() throws SQLException {
+		return target.getType();
+	}
+
+	public int getConcurrency() throws SQLException {
+		return target.getConcurrency();
+	}
+
+	public boolean rowUpdated() throws SQLException {
+		return target.rowUpdated();
+	}
+
+	public boolean rowInserted() throws SQLException {
+		return target.rowInserted();
+	}
+
+	public boolean rowDeleted() throws SQLException {
+		return target.rowDeleted();
+	}
+
+	public void updateNull(int columnIndex) throws SQLException {
+		target.updateNull(columnIndex);
+	}
+
+	public void updateBoolean(int columnIndex, boolean x) throws SQLException {
+		target.updateBoolean(columnIndex, x);
+	}
+
+	public void updateByte(int columnIndex, byte x) throws SQLException {
+		target.updateByte(columnIndex, x);
+	}
+
+	public void updateShort(int columnIndex, short x) throws SQLException {
+		target.updateShort(columnIndex, x);
+	}
+
+	public void updateInt(int columnIndex, int x) throws SQLException {
+		target.updateInt(columnIndex, x);
+	}
+
+	public void updateLong(int columnIndex, long x) throws SQLException {
+		target.updateLong(columnIndex, x);
+	}
+
+	public void updateFloat(int columnIndex, float x) throws SQLException {
+		target.updateFloat(columnIndex, x);
+	}
+
+	public void updateDouble(int columnIndex, double x) throws SQLException {
+		target.updateDouble(columnIndex, x);
+	}
+
+	public void updateBigDecimal(int columnIndex, BigDecimal x) throws SQLException {
+		target.updateBigDecimal(columnIndex, x);
+	}
+
+	public void updateString(int columnIndex, String x) throws SQLException {
+		target.updateString(columnIndex, x);
+	}
+
+	public void updateBytes(int columnIndex, byte[] x) throws SQLException {
+		target.updateBytes(columnIndex, x);
+	}
+
+	public void updateDate(int columnIndex, Date x) throws SQLException {
+		target.updateDate(columnIndex, x);
+	}
+
+	public void updateTime(int columnIndex, Time x) throws SQLException {
+		target.updateTime(columnIndex, x);
+	}
+
+	public void updateTimestamp(int columnIndex, Timestamp x) throws SQLException {
+		target.updateTimestamp(columnIndex, x);
+	}
+
+	public void updateAsciiStream(int columnIndex, InputStream x, int length) throws SQLException {
+		target.updateAsciiStream(columnIndex, x, length);
+	}
+
+	public void updateBinaryStream(int columnIndex, InputStream x, int length) throws SQLException {
+		target.updateBinaryStream(columnIndex, x, length);
+	}
+
+	public void updateCharacterStream(int columnIndex, Reader reader, int length) throws SQLException {
+		target.updateCharacterStream(columnIndex, reader, length);
+	}
+
+	public void updateObject(int columnIndex, Object x, int scaleOrLength) throws SQLException {
+		target.updateObject(columnIndex, x, scaleOrLength);
+	}
+
+	public void updateObject(int columnIndex, Object x) throws SQLException {
+		target.updateObject(columnIndex, x);
+	}
+
+	public void updateNull(String columnLabel) throws SQLException {
+		target.updateNull(columnLabel);
+	}
+
+	public void updateBoolean(String columnLabel, boolean x) throws SQLException {
+		target.updateBoolean(columnLabel, x);
+	}
+
+	public void updateByte(String columnLabel, byte x) throws SQLException {
+		target.updateByte(columnLabel, x);
+	}
+
+	public void updateShort(String columnLabel, short x) throws SQLException {
+		target.updateShort(columnLabel, x);
+	}
+
+	public void updateInt(String columnLabel, int x) throws SQLException {
+		target.updateInt(columnLabel, x);
+	}
+
+	public void updateLong(String columnLabel, long x) throws SQLException {
+		target.updateLong(columnLabel, x);
+	}
+
+	public void updateFloat(String columnLabel, float x) throws SQLException {
+		target.updateFloat(columnLabel, x);
+	}
+
+	public void updateDouble(String columnLabel, double x) throws SQLException {
+		target.updateDouble(columnLabel, x);
+	}
+
+	public void updateBigDecimal(String columnLabel, BigDecimal x) throws SQLException {
+		target.updateBigDecimal(columnLabel, x);
+	}
+
+	public void updateString(String columnLabel, String x) throws SQLException {
+		target.updateString(columnLabel, x);
+	}
+
+	public void updateBytes(String columnLabel, byte[] x) throws SQLException {
+		target.updateBytes(columnLabel, x);
+	}
+
+	public void updateDate(String columnLabel, Date x) throws SQLException {
+		target.updateDate(columnLabel, x);
+	}
+
+	public void updateTime(String columnLabel, Time x) throws SQLException {
+		target.updateTime(columnLabel, x);
+	}
+
+	public void updateTimestamp(String columnLabel, Timestamp x) throws SQLException {
+		target.updateTimestamp(columnLabel, x);
+	}
+
+	public void updateAsciiStream(String columnLabel, InputStream x, int length) throws SQLException {
+		target.updateAsciiStream(columnLabel, x, length);
+	}
+
+	public void updateBinaryStream(String columnLabel, InputStream x, int length) throws SQLException {
+		target.updateBinaryStream(columnLabel, x, length);
+	}
+
+	public void updateCharacterStream(String columnLabel, Reader reader, int length) throws SQLException {
+		target.updateCharacterStream(columnLabel, reader, length);
+	}
+
+	public void updateObject(String columnLabel, Object x, int scaleOrLength) throws SQLException {
+		target.updateObject(columnLabel, x, scaleOrLength);
+	}
+
+	public void updateObject(String columnLabel, Object x) throws SQLException {
+		target.updateObject(columnLabel, x);
+	}
+
+	public void insertRow() throws SQLException {
+		target.insertRow();
+	}
+
+	public void updateRow() throws SQLException {
+		target.updateRow();
+	}
+
+	public void deleteRow() throws SQLException {
+		target.deleteRow();
+	}
+
+	public void refreshRow() throws SQLException {
+		target.refreshRow();
+	}
+
+	public void cancelRowUpdates() throws SQLException {
+		target.cancelRowUpdates();
+	}
+
+	public void moveToInsertRow() throws SQLException {
+		target.moveToInsertRow();
+	}
+
+	public void moveToCurrentRow() throws SQLException {
+		target.moveToCurrentRow();
+	}
+
+	public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
+		return target.getObject(columnIndex, map);
+	}
+
+	public Ref getRef(int columnIndex) throws SQLException {
+		return target.getRef(columnIndex);
+	}
+
+	public Blob getBlob(int columnIndex) throws SQLException {
+		return target.getBlob(columnIndex);
+	}
+
+	public Clob getClob(int columnIndex) throws SQLException {
+		return target.getClob(columnIndex);
+	}
+
+	public Array getArray(int columnIndex) throws SQLException {
+		return target.getArray(columnIndex);
+	}
+
+	public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
+		return target.getObject(columnLabel, map);
+	}
+
+	public Ref getRef(String columnLabel) throws SQLException {
+		return target.getRef(columnLabel);
+	}
+
+	public Blob getBlob(String columnLabel) throws SQLException {
+		return target.getBlob(columnLabel);
+	}
+
+	public Clob getClob(String columnLabel) throws SQLException {
+		return target.getClob(columnLabel);
+	}
+
+	public Array getArray(String columnLabel) throws SQLException {
+		return target.getArray(columnLabel);
+	}
+
+	public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+		return target.getDate(columnIndex, cal);
+	}
+
+	public Date getDate(String columnLabel, Calendar cal) throws SQLException {
+		return target.getDate(columnLabel, cal);
+	}
+
+	public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+		return target.getTime(columnIndex, cal);
+	}
+
+	public Time getTime(String columnLabel, Calendar cal) throws SQLException {
+		return target.getTime(columnLabel, cal);
+	}
+
+	public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+		return target.getTimestamp(columnIndex, cal);
+	}
+
+	public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
+		return target.getTimestamp(columnLabel, cal);
+	}
+
+	public URL getURL(int columnIndex) throws SQLException {
+		return target.getURL(columnIndex);
+	}
+
+	public URL getURL(String columnLabel) throws SQLException {
+		return target.getURL(columnLabel);
+	}
+
+	public void updateRef(int columnIndex, Ref x) throws SQLException {
+		target.updateRef(columnIndex, x);
+	}
+
+	public void updateRef(String columnLabel, Ref x) throws SQLException {
+		target.updateRef(columnLabel, x);
+	}
+
+	public void updateBlob(int columnIndex, Blob x) throws SQLException {
+		target.updateBlob(columnIndex, x);
+	}
+
+	public void updateBlob(String columnLabel, Blob x) throws SQLException {
+		target.updateBlob(columnLabel, x);
+	}
+
+	public void updateClob(int columnIndex, Clob x) throws SQLException {
+		target.updateClob(columnIndex, x);
+	}
+
+	public void updateClob(String columnLabel, Clob x) throws SQLException {
+		target.updateClob(columnLabel, x);
+	}
+
+	public void updateArray(int columnIndex, Array x) throws SQLException {
+		target.updateArray(columnIndex, x);
+	}
+
+	public void updateArray(String columnLabel, Array x) throws SQLException {
+		target.updateArray(columnLabel, x);
+	}
+
+	public RowId getRowId(int columnIndex) throws SQLException {
+		return target.getRowId(columnIndex);
+	}
+
+	public RowId getRowId(String columnLabel) throws SQLException {
+		return target.getRowId(columnLabel);
+	}
+
+	public void updateRowId(int columnIndex, RowId x) throws SQLException {
+		target.updateRowId(columnIndex, x);
+	}
+
+	public void updateRowId(String columnLabel, RowId x) throws SQLException {
+		target.updateRowId(columnLabel, x);
+	}
+
+	public int getHoldability() throws SQLException {
+		return target.getHoldability();
+	}
+
+	public boolean isClosed() throws SQLException {
+		return target.isClosed();
+	}
+
+	public void updateNString(int columnIndex, String x) throws SQLException {
+		target.updateNString(columnIndex, x);
+	}
+
+	public void updateNString(String columnLabel, String x) throws SQLException {
+		target.updateNString(columnLabel, x);
+	}
+
+	public void updateNClob(int columnIndex, NClob x) throws SQLException {
+		target.updateNClob(columnIndex, x);
+	}
+
+	public void updateNClob(String columnLabel, NClob x) throws SQLException {
+		target.updateNClob(columnLabel, x);
+	}
+
+	public NClob getNClob(int columnIndex) throws SQLException {
+		return target.getNClob(columnIndex);
+	}
+
+	public NClob getNClob(String columnLabel) throws SQLException {
+		return target.getNClob(columnLabel);
+	}
+
+	public SQLXML getSQLXML(int columnIndex) throws SQLException {
+		return target.getSQLXML(columnIndex);
+	}
+
+	public SQLXML getSQLXML(String columnLabel) throws SQLException {
+		return target.getSQLXML(columnLabel);
+	}
+
+	public void updateSQLXML(int columnIndex, SQLXML x) throws SQLException {
+		target.updateSQLXML(columnIndex, x);
+	}
+
+	public void updateSQLXML(String columnLabel, SQLXML x) throws SQLException {
+		target.updateSQLXML(columnLabel, x);
+	}
+
+	public String getNString(int columnIndex) throws SQLException {
+		return target.getNString(columnIndex);
+	}
+
+	public String getNString(String columnLabel) throws SQLException {
+		return target.getNString(columnLabel);
+	}
+
+	public Reader getNCharacterStream(int columnIndex) throws SQLException {
+		return target.getNCharacterStream(columnIndex);
+	}
+
+	public Reader getNCharacterStream(String columnLabel) throws SQLException {
+		return target.getNCharacterStream(columnLabel);
+	}
+
+	public void updateNCharacterStream(int columnIndex, Reader reader, long length) throws SQLException {
+		target.updateNCharacterStream(columnIndex, reader, length);
+	}
+
+	public void updateNCharacterStream(String columnLabel, Reader reader, long length) throws SQLException {
+		target.updateNCharacterStream(columnLabel, reader, length);
+	}
+
+	public void updateAsciiStream(int columnIndex, InputStream x, long length) throws SQLException {
+		target.updateAsciiStream(columnIndex, x, length);
+	}
+
+	public void updateBinaryStream(int columnIndex, InputStream x, long length) throws SQLException {
+		target.updateBinaryStream(columnIndex, x, length);
+	}
+
+	public void updateCharacterStream(int columnIndex, Reader reader, long length) throws SQLException {
+		target.updateCharacterStream(columnIndex, reader, length);
+	}
+
+	public void updateAsciiStream(String columnLabel, InputStream x, long length) throws SQLException {
+		target.updateAsciiStream(columnLabel, x, length);
+	}
+
+	public void updateBinaryStream(String columnLabel, InputStream x, long length) throws SQLException {
+		target.updateBinaryStream(columnLabel, x, length);
+	}
+
+	public void updateCharacterStream(String columnLabel, Reader reader, long length) throws SQLException {
+		target.updateCharacterStream(columnLabel, reader, length);
+	}
+
+	public void updateBlob(int columnIndex, InputStream x, long length) throws SQLException {
+		target.updateBlob(columnIndex, x, length);
+	}
+
+	public void updateBlob(String columnLabel, InputStream x, long length) throws SQLException {
+		target.updateBlob(columnLabel, x, length);
+	}
+
+	public void updateClob(int columnIndex, Reader reader, long length) throws SQLException {
+		target.updateClob(columnIndex, reader, length);
+	}
+
+	public void updateClob(String columnLabel, Reader reader, long length) throws SQLException {
+		target.updateClob(columnLabel, reader, length);
+	}
+
+	public void updateNClob(int columnIndex, Reader reader, long length) throws SQLException {
+		target.updateNClob(columnIndex, reader, length);
+	}
+
+	public void updateNClob(String columnLabel, Reader reader, long length) throws SQLException {
+		target.updateNClob(columnLabel, reader, length);
+	}
+
+	public void updateNCharacterStream(int columnIndex, Reader reader) throws SQLException {
+		target.updateNCharacterStream(columnIndex, reader);
+	}
+
+	public void updateNCharacterStream(String columnLabel, Reader reader) throws SQLException {
+		target.updateNCharacterStream(columnLabel, reader);
+	}
+
+	public void updateAsciiStream(int columnIndex, InputStream x) throws SQLException {
+		target.updateAsciiStream(columnIndex, x);
+	}
+
+	public void updateBinaryStream(int columnIndex, InputStream x) throws SQLException {
+		target.updateBinaryStream(columnIndex, x);
+	}
+
+	public void updateCharacterStream(int columnIndex, Reader reader) throws SQLException {
+		target.updateCharacterStream(columnIndex, reader);
+	}
+
+	public void updateAsciiStream(String columnLabel, InputStream x) throws SQLException {
+		target.updateAsciiStream(columnLabel, x);
+	}
+
+	public void updateBinaryStream(String columnLabel, InputStream x) throws SQLException {
+		target.updateBinaryStream(columnLabel, x);
+	}
+
+	public void updateCharacterStream(String columnLabel, Reader reader) throws SQLException {
+		target.updateCharacterStream(columnLabel, reader);
+	}
+
+	public void updateBlob(int columnIndex, InputStream x) throws SQLException {
+		target.updateBlob(columnIndex, x);
+	}
+
+	public void updateBlob(String columnLabel, InputStream x) throws SQLException {
+		target.updateBlob(columnLabel, x);
+	}
+
+	public void updateClob(int columnIndex, Reader reader) throws SQLException {
+		target.updateClob(columnIndex, reader);
+	}
+
+	public void updateClob(String columnLabel, Reader reader) throws SQLException {
+		target.updateClob(columnLabel, reader);
+	}
+
+	public void updateNClob(int columnIndex, Reader reader) throws SQLException {
+		target.updateNClob(columnIndex, reader);
+	}
+
+	public void updateNClob(String columnLabel, Reader reader) throws SQLException {
+		target.updateNClob(columnLabel, reader);
+	}
+
+	public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+		return target.getObject(columnIndex, type);
+	}
+
+	public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+		return target.getObject(columnLabel, type);
+	}
+
+	public void updateObject(int columnIndex, Object x, SQLType sqlType, int scaleOrLength) throws SQLException {
+		target.updateObject(columnIndex, x, sqlType, scaleOrLength);
+	}
+
+	public void updateObject(String columnLabel, Object x, SQLType sqlType, int scaleOrLength) throws SQLException {
+		target.updateObject(columnLabel, x, sqlType, scaleOrLength);
+	}
+
+	public void updateObject(int columnIndex, Object x, SQLType sqlType) throws SQLException {
+		target.updateObject(columnIndex, x, sqlType);
+	}
+
+	public void updateObject(String columnLabel, Object x, SQLType sqlType) throws SQLException {
+		target.updateObject(columnLabel, x, sqlType);
+	}
+
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return target.unwrap(iface);
+	}
+
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return target.isWrapperFor(iface);
+	}
+}
@@ -0,0 +1,642 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.sql;
+
+import java.io.ObjectStreamException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+import com.mtgi.analytics.BehaviorEvent;
+import com.mtgi.analytics.BehaviorTrackingManager;
+import com.mtgi.analytics.EventDataElement;
+import com.mtgi.analytics.LogScope;
+
+/**
+ * Instruments a Statement with behavior tracking events.  An event is recorded for each
+ * statement execution, including any event data gathered from preceding calls to
+ * {@link #addBatch(String)}.  Subclasses add data for prepared and callable statements.
+ */
+class BehaviorTrackingStatement implements Statement {
+
+	/** appended to the connection event type to form the type of fetch events */
+	static final String FETCH_SUFFIX = "-fetch";
+
+	protected final BehaviorTrackingConnection connection;
+	private final Statement target;
+	private EventDataElement batch;
+	private int batchRows;
+	//the sql of the last statement executed, and the instrumented results of the last query
+	private String executedSql;
+	private BehaviorTrackingResultSet results;
+	
+	public BehaviorTrackingStatement(BehaviorTrackingConnection connection, Statement target) {
+		this.connection = connection;
+		this.target = target;
+	}
+
+	/**
+	 * Create, but do not start, a new behavior tracking event for the given execute method name.
+	 * The event data includes <code>sql</code> if it is not null, i.e. for anything but a batch
+	 * of static statements.
+	 */
+	protected BehaviorEvent createEvent(String name, String sql) {
+		return createEvent(name, sql, sql == null ? null : connection.lookupSql(sql));
+	}
+
+	/**
+	 * Create an event with the given statement sql.  If <code>normalized</code> is not null, the event is named
+	 * for the statement fingerprint instead of the execute method, and the full statement text is included only
+	 * if it has not yet been recorded in the current log.
+	 */
+	protected final BehaviorEvent createEvent(String name, String sql, SqlDictionary.Entry normalized) {
+		return createEvent(connection.eventType, name, sql, normalized);
+	}
+	
+	private BehaviorEvent createEvent(String type, String name, String sql, SqlDictionary.Entry normalized) {
+		BehaviorTrackingManager manager = connection.trackingManager;
+		if (normalized == null) {
+			BehaviorEvent event = manager.createEvent(type, name);
+			if (sql != null)
+				event.addData().addElement("sql").setText(sql);
+			return event;
+		}
+		
+		BehaviorEvent event = manager.createEvent(type, normalized.getFingerprint());
+		EventDataElement data = event.addData();
+		data.add("operation", name);
+		data.addElement(new NormalizedSqlElement(normalized));
+		return event;
+	}
+	
+	/**
+	 * notification that a non-batch statement is being executed.  The static sql is already
+	 * included in the event by {@link #createEvent(String, String)}, so default behavior does nothing.
+	 */
+	protected void addExecuteParameters(BehaviorEvent event, String sql) {
+	}
+
+	/**
+	 * notification that a statement has been added to the current batch.  Default behavior
+	 * adds the static sql to <code>batchData</code> if {@link #isBatchRowCaptured()}.
+	 */
+	protected void addBatch(EventDataElement batchData, String sql) {
+		if (!isBatchRowCaptured())
+			return;
+		SqlDictionary.Entry normalized = connection.lookupSql(sql);
+		if (normalized == null)
+			batchData.addElement("sql").setText(sql);
+		else
+			batchData.addElement(new NormalizedSqlElement(normalized));
+	}
+	
+	/**
+	 * hook for subclasses to add summary data to a batch before it is executed.
+	 * Default behavior does nothing.
+	 */
+	protected void addBatchSummary(EventDataElement batchData) {
+	}
+	
+	/** roll a statement up into the current batch, unless tracking is suspended */
+	protected final void batched(String sql) {
+		if (!connection.suspended) {
+			if (batch == null)
+				batch = new EventDataElement("batch");
+			addBatch(batch, sql);
+			++batchRows;
+		}
+	}
+	
+	/** @return true if data for the next row added to the current batch should be recorded */
+	protected final boolean isBatchRowCaptured() {
+		int max = connection.maxBatchRows;
+		return connection.batchCapture == BatchCapture.ROWS && (max < 0 || batchRows < max);
+	}
+	
+	/** @return the number of rows added to the current batch */
+	protected final int getBatchRows() {
+		return batchRows;
+	}
+
+	/** create and start an event for a non-batch statement execution */
+	protected final BehaviorEvent startExecute(String name, String sql) {
+		finishResults();
+		executedSql = sql;
+		BehaviorEvent event = createEvent(name, sql);
+		addExecuteParameters(event, sql);
+		connection.trackingManager.start(event);
+		return event;
+	}
+
+	/** create and start an event for a batch execution, consolidating accumulated batch data into the event */
+	protected final BehaviorEvent startBatch(String name) {
+		finishResults();
+		BehaviorEvent event = createEvent(name, null);
+		if (batch != null) {
+			//record the row count if any rows were left out of the batch data.
+			int max = connection.maxBatchRows;
+			if (connection.batchCapture != BatchCapture.ROWS || (max >= 0 && batchRows > max))
+				batch.add("rows", batchRows);
+			addBatchSummary(batch);
+			event.addData().addElement(batch);
+			batch = null;
+			batchRows = 0;
+		}
+		connection.trackingManager.start(event);
+		return event;
+	}
+	
+	/** record <code>error</code> on <code>event</code>, and return it for rethrow */
+	protected final <T extends Throwable> T failed(BehaviorEvent event, T error) {
+		event.setError(error);
+		return error;
+	}
+	
+	protected final void stop(BehaviorEvent event) {
+		connection.trackingManager.stop(event);
+	}
+	
+	/** wrap <code>results</code> of the last statement executed to record fetch statistics, if result set tracking is enabled */
+	protected final ResultSet track(ResultSet results) {
+		if (results == null || !connection.trackResultSets)
+			return results;
+		return this.results = new BehaviorTrackingResultSet(this, results, executedSql);
+	}
+	
+	/** log fetch statistics for the last query, if they have not been logged already */
+	private void finishResults() {
+		if (results != null) {
+			results.finish();
+			results = null;
+		}
+	}
+
+	/**
+	 * Record a <code>fetch</code> event for a result set that has been exhausted or closed.  The event
+	 * is logged after the query event has completed, so it is a sibling of the query event rather than a child.
+	 * It has a type of its own (<code>jdbc-fetch</code> for the default event type), so that its statistics are
+	 * not aggregated with those of the query, and its duration is the total fetch time.
+	 */
+	final void fetched(String sql, int rows, long fetchNs, long firstRowNs) {
+		if (connection.suspended)
+			return;
+		BehaviorEvent event = createEvent(connection.eventType + FETCH_SUFFIX, "fetch", sql, sql == null ? null : connection.lookupSql(sql));
+		EventDataElement data = event.addData();
+		data.add("rows", rows);
+		data.add("fetch-ns", fetchNs);
+		if (rows > 0)
+			data.add("first-row-ns", firstRowNs);
+		event.setDurationNs(fetchNs);
+		connection.trackingManager.start(event);
+		stop(event);
+	}
+
+	public boolean execute(String sql) throws SQLException {
+		if (connection.suspended)
+			return target.execute(sql);
+		BehaviorEvent event = startExecute("execute", sql);
+		try {
+			return target.execute(sql);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		if (connection.suspended)
+			return target.execute(sql, autoGeneratedKeys);
+		BehaviorEvent event = startExecute("execute", sql);
+		try {
+			return target.execute(sql, autoGeneratedKeys);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		if (connection.suspended)
+			return target.execute(sql, columnIndexes);
+		BehaviorEvent event = startExecute("execute", sql);
+		try {
+			return target.execute(sql, columnIndexes);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		if (connection.suspended)
+			return target.execute(sql, columnNames);
+		BehaviorEvent event = startExecute("execute", sql);
+		try {
+			return target.execute(sql, columnNames);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public ResultSet executeQuery(String sql) throws SQLException {
+		if (connection.suspended)
+			return target.executeQuery(sql);
+		BehaviorEvent event = startExecute("executeQuery", sql);
+		try {
+			return track(target.executeQuery(sql));
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public int executeUpdate(String sql) throws SQLException {
+		if (connection.suspended)
+			return target.executeUpdate(sql);
+		BehaviorEvent event = startExecute("executeUpdate", sql);
+		try {
+			return target.executeUpdate(sql);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		if (connection.suspended)
+			return target.executeUpdate(sql, autoGeneratedKeys);
+		BehaviorEvent event = startExecute("executeUpdate", sql);
+		try {
+			return target.executeUpdate(sql, autoGeneratedKeys);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		if (connection.suspended)
+			return target.executeUpdate(sql, columnIndexes);
+		BehaviorEvent event = startExecute("executeUpdate", sql);
+		try {
+			return target.executeUpdate(sql, columnIndexes);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		if (connection.suspended)
+			return target.executeUpdate(sql, columnNames);
+		BehaviorEvent event = startExecute("executeUpdate", sql);
+		try {
+			return target.executeUpdate(sql, columnNames);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public long executeLargeUpdate(String sql) throws SQLException {
+		if (connection.suspended)
+			return target.executeLargeUpdate(sql);
+		BehaviorEvent event = startExecute("executeLargeUpdate", sql);
+		try {
+			return target.executeLargeUpdate(sql);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		if (connection.suspended)
+			return target.executeLargeUpdate(sql, autoGeneratedKeys);
+		BehaviorEvent event = startExecute("executeLargeUpdate", sql);
+		try {
+			return target.executeLargeUpdate(sql, autoGeneratedKeys);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		if (connection.suspended)
+			return target.executeLargeUpdate(sql, columnIndexes);
+		BehaviorEvent event = startExecute("executeLargeUpdate", sql);
+		try {
+			return target.executeLargeUpdate(sql, columnIndexes);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+		if (connection.suspended)
+			return target.executeLargeUpdate(sql, columnNames);
+		BehaviorEvent event = startExecute("executeLargeUpdate", sql);
+		try {
+			return target.executeLargeUpdate(sql, columnNames);
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public int[] executeBatch() throws SQLException {
+		if (connection.suspended)
+			return target.executeBatch();
+		BehaviorEvent event = startBatch("executeBatch");
+		try {
+			return target.executeBatch();
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public long[] executeLargeBatch() throws SQLException {
+		if (connection.suspended)
+			return target.executeLargeBatch();
+		BehaviorEvent event = startBatch("executeLargeBatch");
+		try {
+			return target.executeLargeBatch();
+		} catch (SQLException e) {
+			throw failed(event, e);
+		} catch (RuntimeException e) {
+			throw failed(event, e);
+		} finally {
+			stop(event);
+		}
+	}
+
+	public void addBatch(String sql) throws SQLException {
+		batched(sql);
+		target.addBatch(sql);
+	}
+
+	//all other calls are delegated to the target statement.
+
+	public void close() throws SQLException {
+		finishResults();
+		target.close();
+	}
+
+	public int getMaxFieldSize() throws SQLException {
+		return target.getMaxFieldSize();
+	}
+
+	public void setMaxFieldSize(int max) throws SQLException {
+		target.setMaxFieldSize(max);
+	}
+
+	public int getMaxRows() throws SQLException {
+		return target.getMaxRows();
+	}
+
+	public void setMaxRows(int max) throws SQLException {
+		target.setMaxRows(max);
+	}
+
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		target.setEscapeProcessing(enable);
+	}
+
+	public int getQueryTimeout() throws SQLException {
+		return target.getQueryTimeout();
+	}
+
+	public void setQueryTimeout(int seconds) throws SQLException {
+		target.setQueryTimeout(seconds);
+	}
+
+	public void cancel() throws SQLException {
+		target.cancel();
+	}
+
+	public SQLWarning getWarnings() throws SQLException {
+		return target.getWarnings();
+	}
+
+	public void clearWarnings() throws SQLException {
+		target.clearWarnings();
+	}
+
+	public void setCursorName(String name) throws SQLException {
+		target.setCursorName(name);
+	}
+
+	public ResultSet getResultSet() throws SQLException {
+		//the current results are the same until the next execute or getMoreResults call.
+		if (results != null)
+			return results;
+		ResultSet ret = target.getResultSet();
+		return connection.suspended ? ret : track(ret);
+	}
+
+	public int getUpdateCount() throws SQLException {
+		return target.getUpdateCount();
+	}
+
+	public boolean getMoreResults() throws SQLException {
+		finishResults();
+		return target.getMoreResults();
+	}
+
+	public void setFetchDirection(int direction) throws SQLException {
+		target.setFetchDirection(direction);
+	}
+
+	public int getFetchDirection() throws SQLException {
+		return target.getFetchDirection();
+	}
+
+	public void setFetchSize(int rows) throws SQLException {
+		target.setFetchSize(rows);
+	}
+
+	public int getFetchSize() throws SQLException {
+		return target.getFetchSize();
+	}
+
+	public int getResultSetConcurrency() throws SQLException {
+		return target.getResultSetConcurrency();
+	}
+
+	public int getResultSetType() throws SQLException {
+		return target.getResultSetType();
+	}
+
+	public void clearBatch() throws SQLException {
+		target.clearBatch();
+	}
+
+	public Connection getConnection() throws SQLException {
+		return target.getConnection();
+	}
+
+	public boolean getMoreResults(int current) throws SQLException {
+		//results kept open will log fetch statistics when they are closed.
+		if (current == KEEP_CURRENT_RESULT)
+			results = null;
+		else
+			finishResults();
+		return target.getMoreResults(current);
+	}
+
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return target.getGeneratedKeys();
+	}
+
+	public int getResultSetHoldability() throws SQLException {
+		return target.getResultSetHoldability();
+	}
+
+	public boolean isClosed() throws SQLException {
+		return target.isClosed();
+	}
+
+	public void setPoolable(boolean poolable) throws SQLException {
+		target.setPoolable(poolable);
+	}
+
+	public boolean isPoolable() throws SQLException {
+		return target.isPoolable();
+	}
+
+	public void closeOnCompletion() throws SQLException {
+		target.closeOnCompletion();
+	}
+
+	public boolean isCloseOnCompletion() throws SQLException {
+		return target.isCloseOnCompletion();
+	}
+
+	public long getLargeUpdateCount() throws SQLException {
+		return target.getLargeUpdateCount();
+	}
+
+	public void setLargeMaxRows(long max) throws SQLException {
+		target.setLargeMaxRows(max);
+	}
+
+	public long getLargeMaxRows() throws SQLException {
+		return target.getLargeMaxRows();
+	}
+
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return target.unwrap(iface);
+	}
+
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return target.isWrapperFor(iface);
+	}
+
+	/**
+	 * An element for a normalized statement, containing the statement text if this is its first appearance in the
+	 * log.  That is decided when the element is read in each {@link LogScope log scope}, normally as the event is
+	 * persisted, so that the text is not marked as recorded for events that are dropped or discarded by sampling
+	 * before reaching the log, and so that an event written to several logs includes the text where each log needs it.
+	 */
+	private static class NormalizedSqlElement extends EventDataElement {
+
+		private static final long serialVersionUID = 4217096335815170622L;
+
+		private transient SqlDictionary.Entry entry;
+		//the scope in which the text was last resolved, or this element if it was resolved outside of any scope.
+		private transient Object resolvedIn;
+
+		public NormalizedSqlElement(SqlDictionary.Entry entry) {
+			super("sql");
+			this.entry = entry;
+			add("fingerprint", entry.getFingerprint());
+		}
+
+		private synchronized void resolve() {
+			if (entry != null) {
+				LogScope scope = LogScope.current();
+				Object resolving = scope == null ? this : scope;
+				if (resolving != resolvedIn) {
+					resolvedIn = resolving;
+					super.setText(entry.record() ? entry.getSql() : null);
+				}
+			}
+		}
+
+		@Override
+		public String getText() {
+			resolve();
+			return super.getText();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			resolve();
+			return super.isEmpty();
+		}
+
+		protected Object writeReplace() throws ObjectStreamException {
+			resolve();
+			return this;
+		}
+	}
+}
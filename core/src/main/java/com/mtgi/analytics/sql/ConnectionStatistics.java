@@ -0,0 +1,161 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.sql;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.mtgi.analytics.jmx.StatisticsMBean;
+
+/**
+ * Aggregate statistics for connections checked out of a {@link BehaviorTrackingDataSource}: the time spent
+ * waiting for the target data source (usually a connection pool) to supply a connection, the time each connection
+ * is held before it is closed, and the number of connections checked out concurrently.  Wait and hold times are
+ * counted in {@link StatisticsMBean} histograms, so percentiles are available for sizing pools.
+ * 
+ * <p>Statistics are updated with atomic counters only; no behavior tracking events are logged.  To expose
+ * statistics over JMX, register an instance with a Spring <code>MBeanExporter</code> configured with a
+ * <code>MetadataMBeanInfoAssembler</code>.  The individual wait and hold time histograms can also be registered
+ * separately, via {@link #getWaitTime()} and {@link #getHoldTime()}.</p>
+ * 
+ * @see BehaviorTrackingDataSource#setConnectionStatistics(ConnectionStatistics)
+ */
+@ManagedResource(description="Connection checkout statistics for a behavior tracking data source")
+public class ConnectionStatistics {
+
+	private StatisticsMBean waitTime = new StatisticsMBean();
+	private StatisticsMBean holdTime = new StatisticsMBean();
+	private AtomicInteger active = new AtomicInteger();
+	private AtomicInteger peakActive = new AtomicInteger();
+	private AtomicLong failures = new AtomicLong();
+
+	/** @return histogram of the time taken by the target data source to return a connection */
+	public StatisticsMBean getWaitTime() {
+		return waitTime;
+	}
+
+	/** @return histogram of the time between connection checkout and close */
+	public StatisticsMBean getHoldTime() {
+		return holdTime;
+	}
+
+	@ManagedAttribute(description="The unit of measure for time attributes; supported units are seconds, milliseconds, and nanoseconds")
+	public String getUnits() {
+		return waitTime.getUnits();
+	}
+
+	public void setUnits(String units) {
+		waitTime.setUnits(units);
+		holdTime.setUnits(units);
+	}
+
+	@ManagedAttribute(description="The number of connections checked out")
+	public long getCheckoutCount() {
+		return waitTime.getCount();
+	}
+
+	@ManagedAttribute(description="The number of failed attempts to check out a connection")
+	public long getCheckoutFailures() {
+		return failures.get();
+	}
+
+	@ManagedAttribute(description="The number of connections currently checked out")
+	public int getActiveConnections() {
+		return active.get();
+	}
+
+	@ManagedAttribute(description="The largest number of connections checked out at once")
+	public int getPeakActiveConnections() {
+		return peakActive.get();
+	}
+
+	@ManagedAttribute(description="The average time spent waiting for a connection")
+	public double getAverageWaitTime() {
+		return waitTime.getAverageTime();
+	}
+
+	@ManagedAttribute(description="The maximum time spent waiting for a connection")
+	public double getMaxWaitTime() {
+		return waitTime.getMaxTime();
+	}
+
+	@ManagedAttribute(description="The 99th percentile time spent waiting for a connection")
+	public double getWaitTimePercentile99() {
+		return waitTime.getPercentile99();
+	}
+
+	@ManagedAttribute(description="The average time a connection is held before it is closed")
+	public double getAverageHoldTime() {
+		return holdTime.getAverageTime();
+	}
+
+	@ManagedAttribute(description="The maximum time a connection is held before it is closed")
+	public double getMaxHoldTime() {
+		return holdTime.getMaxTime();
+	}
+
+	@ManagedAttribute(description="The 99th percentile time a connection is held before it is closed")
+	public double getHoldTimePercentile99() {
+		return holdTime.getPercentile99();
+	}
+
+	@ManagedOperation(description="Estimate the wait time below which the given percentage of connection checkouts fall")
+	@ManagedOperationParameters(@ManagedOperationParameter(name="percent", description="A percentage between 0 and 100"))
+	public double getWaitTimePercentile(double percent) {
+		return waitTime.getPercentile(percent);
+	}
+
+	@ManagedOperation(description="Estimate the hold time below which the given percentage of connections fall")
+	@ManagedOperationParameters(@ManagedOperationParameter(name="percent", description="A percentage between 0 and 100"))
+	public double getHoldTimePercentile(double percent) {
+		return holdTime.getPercentile(percent);
+	}
+
+	/**
+	 * Reset accumulated statistics.  The count of active connections is not affected, and the peak
+	 * is reset to the current number of active connections.
+	 */
+	@ManagedOperation(description="Reset wait time, hold time, failure, and peak connection statistics")
+	public void reset() {
+		waitTime.reset();
+		holdTime.reset();
+		failures.set(0);
+		peakActive.set(active.get());
+	}
+
+	/** record a successful checkout, which waited <code>waitNs</code> for the target data source */
+	void checkedOut(long waitNs) {
+		waitTime.add(waitNs);
+		int current = active.incrementAndGet();
+		for (int peak = peakActive.get(); current > peak && !peakActive.compareAndSet(peak, current); peak = peakActive.get())
+			;
+	}
+
+	/** record a failed attempt to check out a connection */
+	void failed() {
+		failures.incrementAndGet();
+	}
+
+	/** record the close of a connection held for <code>holdNs</code> */
+	void checkedIn(long holdNs) {
+		active.decrementAndGet();
+		holdTime.add(holdNs);
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.sql;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.mtgi.analytics.LogScope;
+
+/**
+ * Maps SQL statement text to its {@link SqlNormalizer normalized} form and fingerprint, and
+ * fingerprints back to normalized SQL.  Lookups by statement text are cached, so that
+ * repeated executions of the same statement are normalized only once.  Both the cache
+ * and the dictionary are bounded; when either grows beyond its maximum size, its oldest
+ * entries are evicted.
+ * 
+ * <p>The full text of a normalized statement is recorded once per event log, as tracked by the
+ * {@link LogScope} of the log being written, so that every log is self-contained.</p>
+ */
+public class SqlDictionary {
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	private int maxSize;
+	private ConcurrentHashMap<String, Entry> statements = new ConcurrentHashMap<String, Entry>();
+	private ConcurrentHashMap<String, Entry> fingerprints = new ConcurrentHashMap<String, Entry>();
+	//keys of the maps above, in insertion order, for eviction.
+	private ConcurrentLinkedQueue<String> statementOrder = new ConcurrentLinkedQueue<String>();
+	private ConcurrentLinkedQueue<String> fingerprintOrder = new ConcurrentLinkedQueue<String>();
+
+	public SqlDictionary() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/** @param maxSize the maximum number of statement texts and fingerprints retained */
+	public SqlDictionary(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/** @return the normalized SQL and fingerprint of <code>sql</code> */
+	public Entry lookup(String sql) {
+		Entry ret = statements.get(sql);
+		if (ret == null) {
+			String normalized = SqlNormalizer.normalize(sql);
+			String fingerprint = SqlNormalizer.fingerprint(normalized);
+			ret = fingerprints.get(fingerprint);
+			if (ret == null) {
+				Entry entry = new Entry(fingerprint, normalized);
+				ret = fingerprints.putIfAbsent(fingerprint, entry);
+				if (ret == null) {
+					ret = entry;
+					fingerprintOrder.add(fingerprint);
+					evict(fingerprints, fingerprintOrder);
+				}
+			}
+			//no harm if two threads race to cache the same statement.
+			if (statements.put(sql, ret) == null) {
+				statementOrder.add(sql);
+				evict(statements, statementOrder);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Remove the oldest entries until <code>map</code> is within the maximum size.  Unlike clearing the map,
+	 * this keeps frequently used statements cached when many distinct statements are seen, for example with
+	 * dynamic SQL.
+	 */
+	private void evict(ConcurrentHashMap<String, Entry> map, ConcurrentLinkedQueue<String> order) {
+		while (map.size() > maxSize) {
+			String oldest = order.poll();
+			if (oldest == null)
+				break;
+			map.remove(oldest);
+		}
+	}
+
+	/** @return the normalized SQL for the given fingerprint, or null if it is not in the dictionary */
+	public String getSql(String fingerprint) {
+		Entry entry = fingerprints.get(fingerprint);
+		return entry == null ? null : entry.getSql();
+	}
+
+	/** @return the number of distinct fingerprints in the dictionary */
+	public int getSize() {
+		return fingerprints.size();
+	}
+
+	/** A normalized statement and its fingerprint. */
+	public static class Entry {
+
+		private final String fingerprint;
+		private final String sql;
+		//whether the statement text has been recorded outside of any log scope.
+		private final AtomicBoolean recorded = new AtomicBoolean();
+
+		private Entry(String fingerprint, String sql) {
+			this.fingerprint = fingerprint;
+			this.sql = sql;
+		}
+
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * Mark the full text of this statement as recorded in the {@link LogScope#current() current} event log, or
+		 * if no log is being written (for example by a database persister), as recorded once and for all.  This should
+		 * only be called as the text is persisted, so that it is not marked for events that are discarded.
+		 * @return true if the text has not yet been recorded in the current log
+		 */
+		public boolean record() {
+			LogScope scope = LogScope.current();
+			if (scope != null)
+				return scope.record(fingerprint);
+			return !recorded.get() && recorded.compareAndSet(false, true);
+		}
+	}
+}
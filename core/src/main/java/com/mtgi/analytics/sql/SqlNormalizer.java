@@ -0,0 +1,120 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.sql;
+
+import java.util.regex.Pattern;
+
+/**
+ * Reduces SQL statements to a canonical form, so that statements differing only in literal values
+ * can be grouped together.  String and numeric literals are replaced with <code>?</code>, comments are
+ * removed, whitespace is collapsed, and <code>IN</code> lists of any length are reduced to
+ * <code>IN (?)</code>.  Quoted identifiers and the case of keywords and identifiers are preserved.
+ *
+ * @see SqlDictionary
+ */
+public class SqlNormalizer {
+
+	private static final Pattern IN_LIST = Pattern.compile("(?i)\\b(IN) ?\\( ?\\?(?: ?, ?\\?)* ?\\)");
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/** @return the normalized form of <code>sql</code> */
+	public static String normalize(String sql) {
+		int len = sql.length();
+		StringBuffer ret = new StringBuffer(len);
+		boolean space = false;
+
+		for (int i = 0; i < len; ) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = true;
+				++i;
+			} else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+				//line comment
+				while (i < len && sql.charAt(i) != '\n')
+					++i;
+				space = true;
+			} else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+				//block comment
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? len : end + 2;
+				space = true;
+			} else {
+				if (space && ret.length() > 0)
+					ret.append(' ');
+				space = false;
+
+				if (c == '\'') {
+					//string literal, with '' as an escaped quote.
+					for (++i; i < len; ++i) {
+						if (sql.charAt(i) == '\'') {
+							if (i + 1 < len && sql.charAt(i + 1) == '\'')
+								++i;
+							else
+								break;
+						}
+					}
+					++i;
+					ret.append('?');
+				} else if (c == '"') {
+					//quoted identifier, copied verbatim.
+					int end = sql.indexOf('"', i + 1);
+					end = end < 0 ? len : end + 1;
+					ret.append(sql, i, end);
+					i = end;
+				} else if (Character.isDigit(c) && !isIdentifierPart(ret)) {
+					//numeric literal, including decimals, exponents and hex.
+					for (++i; i < len; ++i) {
+						char n = sql.charAt(i);
+						if (Character.isLetterOrDigit(n) || n == '.')
+							continue;
+						if ((n == '+' || n == '-') && (sql.charAt(i - 1) == 'e' || sql.charAt(i - 1) == 'E'))
+							continue;
+						break;
+					}
+					ret.append('?');
+				} else {
+					ret.append(c);
+					++i;
+				}
+			}
+		}
+
+		return IN_LIST.matcher(ret).replaceAll("$1 (?)");
+	}
+
+	/**
+	 * @return a stable, 16 character hexadecimal hash of <code>normalizedSql</code>, suitable for use
+	 *         as an event name.
+	 */
+	public static String fingerprint(String normalizedSql) {
+		long hash = FNV_OFFSET;
+		for (int i = 0, len = normalizedSql.length(); i < len; ++i) {
+			hash ^= normalizedSql.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		String hex = Long.toHexString(hash);
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	/** @return true if the last character written to <code>buf</code> is part of an identifier */
+	private static boolean isIdentifierPart(StringBuffer buf) {
+		int len = buf.length();
+		if (len == 0)
+			return false;
+		char c = buf.charAt(len - 1);
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+}
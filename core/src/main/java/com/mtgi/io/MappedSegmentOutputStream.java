@@ -0,0 +1,234 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>An OutputStream that writes to a preallocated, memory-mapped file segment.  The segment
+ * is created at a fixed size up front, so that writes are plain memory copies with no file system
+ * metadata updates; if a write does not fit, the segment is extended by another increment of
+ * the same size.  {@link #close()} truncates the file to the length actually written.</p>
+ *
+ * <p>The last {@link #FOOTER_SIZE} bytes of the preallocated region hold a footer recording
+ * the length of data at the most recent {@link #commit()}.  If the process dies before the
+ * stream is closed, {@link #recover(File, byte[])} uses the footer to discard any partially
+ * written data following the last commit.</p>
+ *
+ * <p>Mappings are released explicitly when the segment grows or is closed, rather than
+ * waiting for garbage collection, since a file can't be truncated while it is mapped on
+ * some platforms.  The stream is not thread safe, except that {@link #getPosition()} may be
+ * called from any thread.</p>
+ */
+public class MappedSegmentOutputStream extends OutputStream {
+
+	/** size in bytes of the commit footer at the end of an unclosed segment */
+	public static final int FOOTER_SIZE = 16;
+	//identifies a valid commit footer; ASCII "beetSeg!"
+	private static final long FOOTER_MAGIC = 0x6265657453656721L;
+
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	//volatile so that getPosition() can be called from threads other than the writer.
+	private volatile MappedByteBuffer buffer;
+	//offset of the commit footer in the mapped buffer; writes may not go past this point.
+	private int footer;
+	private long increment;
+
+	/**
+	 * Create a new segment, preallocating <code>segmentSize</code> bytes.  Any existing
+	 * file at the given location is overwritten.
+	 */
+	public MappedSegmentOutputStream(File file, long segmentSize) throws IOException {
+		if (segmentSize <= FOOTER_SIZE || segmentSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+		this.file = file;
+		this.increment = segmentSize;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		raf.setLength(0);
+		raf.setLength(segmentSize);
+		map(0, segmentSize);
+		commit();
+	}
+
+	/** get the number of bytes written to this segment, or the length of the segment file if the stream is closed */
+	public long getPosition() {
+		MappedByteBuffer mapped = buffer;
+		return mapped == null ? file.length() : mapped.position();
+	}
+
+	/** get the number of bytes that can be written before this segment must be extended */
+	public long getRemaining() {
+		return footer - buffer.position();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureCapacity(1);
+		buffer.put((byte)b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureCapacity(len);
+		buffer.put(b, off, len);
+	}
+
+	/**
+	 * Record the current position in the segment footer, marking all data written so far as complete
+	 * for the purposes of {@link #recover(File, byte[])}.
+	 */
+	public void commit() throws IOException {
+		checkOpen();
+		buffer.putLong(footer, buffer.position());
+		buffer.putLong(footer + 8, FOOTER_MAGIC);
+	}
+
+	/** force all written data to the storage device. */
+	public void sync() throws IOException {
+		checkOpen();
+		buffer.force();
+	}
+
+	/**
+	 * Release the mapping and truncate the segment file to the length of data written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffer != null) {
+			MappedByteBuffer mapped = buffer;
+			long length = mapped.position();
+			mapped.force();
+			buffer = null;
+			try {
+				unmap(mapped);
+				raf.setLength(length);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * Repair a segment file left behind by a process that did not close its
+	 * {@link MappedSegmentOutputStream}.  Anything written after the last
+	 * commit is discarded, the given trailer bytes are appended (for example to
+	 * close an open document element), and the file is truncated to the resulting length.
+	 * @return true if the file was an unclosed segment and has been repaired, false if no repair was necessary
+	 */
+	public static boolean recover(File file, byte[] trailer) throws IOException {
+		if (!file.isFile() || file.length() < FOOTER_SIZE)
+			return false;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long length = raf.length();
+			raf.seek(length - FOOTER_SIZE);
+			long committed = raf.readLong();
+			if (raf.readLong() != FOOTER_MAGIC || committed < 0 || committed > length - FOOTER_SIZE)
+				return false;
+			raf.seek(committed);
+			raf.write(trailer);
+			raf.setLength(committed + trailer.length);
+			return true;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void ensureCapacity(int len) throws IOException {
+		checkOpen();
+		if (footer - buffer.position() < len) {
+			//extend the segment by enough increments to hold the write, preserving the current commit footer.
+			int position = buffer.position();
+			long committed = buffer.getLong(footer);
+			long size = buffer.capacity();
+			do {
+				size += increment;
+			} while (size - FOOTER_SIZE - position < len);
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Segment " + file.getAbsolutePath() + " cannot grow beyond 2GB");
+			map(position, size);
+			buffer.putLong(footer, committed);
+			buffer.putLong(footer + 8, FOOTER_MAGIC);
+		}
+	}
+
+	/** map the first <code>size</code> bytes of the segment file, positioned at <code>position</code> */
+	private void map(int position, long size) throws IOException {
+		MappedByteBuffer previous = buffer;
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		//cast so that code compiled on newer JDKs still links against Buffer.position(int) on Java 8
+		((Buffer)mapped).position(position);
+		buffer = mapped;
+		footer = (int)size - FOOTER_SIZE;
+		if (previous != null)
+			unmap(previous);
+	}
+
+	/**
+	 * Release a mapping immediately.  There is no public API for this, so we use the JDK internals when
+	 * they are available; otherwise the mapping is released when the buffer is garbage collected.
+	 * The buffer must not be accessed afterwards.
+	 * @return true if the mapping was released
+	 */
+	static boolean unmap(MappedByteBuffer mapped) {
+		try {
+			//java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), mapped);
+			return true;
+		} catch (NoSuchMethodException notJava9) {
+			try {
+				//java 8 and earlier
+				Method cleanerMethod = mapped.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(mapped);
+				if (cleaner == null)
+					return false;
+				Method clean = cleaner.getClass().getMethod("clean");
+				clean.setAccessible(true);
+				clean.invoke(cleaner);
+				return true;
+			} catch (Exception e) {
+				return false;
+			}
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (buffer == null)
+			throw new IOException("Segment " + file.getAbsolutePath() + " is closed");
+	}
+
+	@Override
+	public String toString() {
+		return file.getAbsolutePath();
+	}
+}
@@ -0,0 +1,60 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.jmx.export.naming;
+
+import java.util.Hashtable;
+import java.util.regex.Pattern;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.springframework.jmx.export.metadata.JmxAttributeSource;
+import org.springframework.jmx.export.metadata.ManagedResource;
+import org.springframework.jmx.export.naming.MetadataNamingStrategy;
+import org.springframework.jmx.support.JmxUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * <p>A {@link MetadataNamingStrategy} that does not require an object name in the
+ * <code>ManagedResource</code> metadata.  Classes that may have several instances
+ * in one application omit the object name, and are named after their package,
+ * class, and bean key instead; for example
+ * <code>com.mtgi.analytics:type=ChainingEventPersisterImpl,name=myChain</code>.</p>
+ */
+public class DefaultingMetadataNamingStrategy extends MetadataNamingStrategy {
+
+	private static final Pattern INVALID = Pattern.compile("[\\\\*?\n\",:=]");
+	
+	private JmxAttributeSource attributeSource;
+
+	@Override
+	public void setAttributeSource(JmxAttributeSource attributeSource) {
+		super.setAttributeSource(attributeSource);
+		this.attributeSource = attributeSource;
+	}
+
+	@Override
+	public ObjectName getObjectName(Object managedBean, String beanKey) throws MalformedObjectNameException {
+		Class<?> managedClass = JmxUtils.getClassToExpose(managedBean);
+		ManagedResource mr = attributeSource.getManagedResource(managedClass);
+		if (mr == null || StringUtils.hasText(mr.getObjectName()))
+			return super.getObjectName(managedBean, beanKey);
+
+		Hashtable<String,String> properties = new Hashtable<String,String>();
+		properties.put("type", ClassUtils.getShortName(managedClass));
+		properties.put("name", INVALID.matcher(beanKey).replaceAll("_"));
+		return ObjectName.getInstance(ClassUtils.getPackageName(managedClass), properties);
+	}
+}
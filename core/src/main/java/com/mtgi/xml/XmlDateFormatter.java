@@ -0,0 +1,133 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.xml;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Produces the same output as {@link XmlDateFormat}, without going through {@link java.text.SimpleDateFormat}
+ * for every call.  The date, hour and time zone text are computed once per hour of local time; minutes,
+ * seconds and milliseconds are filled in arithmetically.  Event start times are close together, so nearly
+ * every call hits the cached hour.  Instances are not thread safe.
+ */
+public class XmlDateFormatter {
+
+	private static final int HOUR = 3600000;
+	/** length of "yyyy-MM-dd'T'HH:mm:ss.SSS(+|-)hh:mm" */
+	private static final int LENGTH = 29;
+	/** offset of the minute field in the output */
+	private static final int MINUTE = 14;
+
+	private final TimeZone zone;
+	private final Calendar calendar;
+	private XmlDateFormat slowFormat;
+
+	private final char[] text = new char[LENGTH];
+	//the hour of local time currently rendered into text, as [hourStart, hourStart + HOUR).
+	private long hourStart = 1;
+	private long hourEnd = 0;
+
+	public XmlDateFormatter() {
+		this(TimeZone.getDefault());
+	}
+
+	public XmlDateFormatter(TimeZone zone) {
+		this.zone = zone;
+		this.calendar = new GregorianCalendar(zone);
+		text[4] = text[7] = '-';
+		text[10] = 'T';
+		text[13] = text[16] = ':';
+		text[19] = '.';
+		text[26] = ':';
+	}
+
+	public String format(Date date) {
+		return format(date.getTime());
+	}
+
+	public String format(long time) {
+		if (time < hourStart || time >= hourEnd) {
+			if (!setHour(time)) {
+				//time zone transition in the middle of the hour, or a year that is not four digits.
+				if (slowFormat == null) {
+					slowFormat = new XmlDateFormat();
+					slowFormat.setTimeZone(zone);
+				}
+				return slowFormat.format(new Date(time));
+			}
+		}
+
+		int millis = (int)(time - hourStart);
+		int minute = millis / 60000;
+		millis -= minute * 60000;
+		int second = millis / 1000;
+		millis -= second * 1000;
+
+		twoDigits(MINUTE, minute);
+		twoDigits(MINUTE + 3, second);
+		text[20] = (char)('0' + millis / 100);
+		twoDigits(21, millis % 100);
+		return new String(text);
+	}
+
+	/**
+	 * render the date, hour and zone of <code>time</code> into the text buffer.
+	 * @return false if the hour containing <code>time</code> can't be cached
+	 */
+	private boolean setHour(long time) {
+		hourStart = 1;
+		hourEnd = 0;
+
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (calendar.get(Calendar.ERA) != GregorianCalendar.AD || year > 9999)
+			return false;
+
+		long start = time - calendar.get(Calendar.MINUTE) * 60000L
+						  - calendar.get(Calendar.SECOND) * 1000L
+						  - calendar.get(Calendar.MILLISECOND);
+		int offset = zone.getOffset(time);
+		if (zone.getOffset(start) != offset || zone.getOffset(start + HOUR - 1) != offset)
+			return false;
+
+		twoDigits(0, year / 100);
+		twoDigits(2, year % 100);
+		twoDigits(5, calendar.get(Calendar.MONTH) + 1);
+		twoDigits(8, calendar.get(Calendar.DAY_OF_MONTH));
+		twoDigits(11, calendar.get(Calendar.HOUR_OF_DAY));
+
+		//time zone as (+|-)hh:mm, truncated to minutes like XmlDateFormat.
+		int minutes = offset / 60000;
+		if (minutes < 0) {
+			text[23] = '-';
+			minutes = -minutes;
+		} else {
+			text[23] = '+';
+		}
+		twoDigits(24, minutes / 60);
+		twoDigits(27, minutes % 60);
+
+		hourStart = start;
+		hourEnd = start + HOUR;
+		return true;
+	}
+
+	private void twoDigits(int pos, int value) {
+		text[pos] = (char)('0' + value / 10);
+		text[pos + 1] = (char)('0' + value % 10);
+	}
+}
@@ -56,6 +56,20 @@ public class BehaviorEventTest {
 		assertNull(event.getDurationNs());
 	}
 	
+	@Test
+	public void testFixedDuration() {
+		BehaviorEvent event = new BehaviorEvent(null, "jdbc-fetch", "fetch", "test", "me", "1");
+		event.setDurationNs(12345L);
+		event.start();
+		event.stop();
+		assertEquals("fixed duration reported instead of elapsed time", 12345L, event.getDurationNs().longValue());
+		try {
+			event.setDurationNs(1L);
+			fail("duration cannot change once the event has ended");
+		} catch (IllegalStateException expected) {
+		}
+	}
+	
 	@SuppressWarnings("deprecation")
 	@Test
 	public void testStop() throws InterruptedException {
@@ -112,7 +126,7 @@ public class BehaviorEventTest {
 		assertTrue(event.isEnded());
 		assertSame(date, event.getStart());
 		assertEquals(duration, event.getDuration());
-		assertSame(durationNs, event.getDurationNs());
+		assertEquals(durationNs, event.getDurationNs());
 
 		try {
 			event.start();
@@ -125,7 +139,7 @@ public class BehaviorEventTest {
 		assertTrue(event.isEnded());
 		assertSame(date, event.getStart());
 		assertEquals(duration, event.getDuration());
-		assertSame(durationNs, event.getDurationNs());
+		assertEquals(durationNs, event.getDurationNs());
 	}
 	
 	@Test
@@ -242,4 +256,69 @@ public class BehaviorEventTest {
 				 "error=\"boom\"", 
 				 child.toString());
 	}
+
+	@Test
+	public void testRecycle() {
+		EventPool pool = new EventPool(4);
+		BehaviorEvent parent = pool.obtain(null, "request", "/foo", "test", "me", "1");
+		parent.start();
+		BehaviorEvent child = pool.obtain(parent, "method", "foo", "test", "me", "1");
+		child.start();
+		EventDataElement data = child.addData();
+		data.add("key", "value");
+		EventDataElement param = data.addElement("param");
+		param.setText("text");
+		param.add("type", "java.lang.String");
+		child.setError("boom");
+		child.stop();
+		Date childStart = child.getStart();
+		
+		//releasing the parent first leaves both events in use, since the child still refers to it.
+		parent.stop();
+		parent.setId(1L);
+		pool.release(parent);
+		assertEquals("parent in use by child", 0, pool.getIdle());
+		assertEquals("/foo", parent.getName());
+		assertEquals(1L, parent.getId());
+		
+		pool.release(child);
+		assertEquals("both events returned to pool", 2, pool.getIdle());
+		assertEquals(2, pool.getCreated());
+		assertEquals(0, pool.getReused());
+		
+		//recycled events are indistinguishable from new ones.
+		BehaviorEvent reused = pool.obtain(null, "request", "/bar", "test", "you", "2");
+		assertEquals(1, pool.getReused());
+		assertTrue(reused == parent || reused == child);
+		assertNull(reused.getParent());
+		assertNull(reused.getId());
+		assertNull(reused.getError());
+		assertNull(reused.getStart());
+		assertNull(reused.getDurationNs());
+		assertFalse(reused.isStarted());
+		assertFalse(reused.isEnded());
+		assertEquals("/bar", reused.getName());
+		assertEquals("you", reused.getUserId());
+		assertTrue(reused.getData().isNull());
+		
+		reused = reused == child ? reused : pool.obtain(null, "request", "/bar", "test", "you", "2");
+		assertSame(child, reused);
+		EventDataElement newData = reused.addData();
+		assertSame("data element reused", data, newData);
+		assertTrue("recycled data is empty", newData.isEmpty());
+		assertFalse(newData.iterateChildren().hasNext());
+		assertFalse(newData.iterateProperties().hasNext());
+		
+		//child elements and properties are recycled too.
+		EventDataElement newParam = newData.addElement("result");
+		assertSame("child element reused", param, newParam);
+		assertEquals("result", newParam.getName());
+		assertNull(newParam.getText());
+		assertTrue(newParam.isEmpty());
+		newParam.add("type", "int");
+		assertEquals("int", newParam.iterateProperties().next().getValue());
+		
+		reused.start();
+		assertSame("start date reused", childStart, reused.getStart());
+	}
 }
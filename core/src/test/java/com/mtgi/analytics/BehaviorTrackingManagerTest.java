@@ -15,9 +15,14 @@ package com.mtgi.analytics;
 
 import static org.junit.Assert.*;
 
+import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Queue;
 import java.util.concurrent.Semaphore;
 
 import org.junit.After;
@@ -479,6 +484,471 @@ public class BehaviorTrackingManagerTest extends JdbcEventTestCase {
 		impl.stop(root);
 	}
 	
+	@Test
+	public void testOverflowDropNewest() throws Exception {
+		CollectingPersister collector = new CollectingPersister();
+		BehaviorTrackingManagerImpl impl = newBoundedManager(collector, "drop-newest");
+		
+		for (int i = 0; i < 5; ++i)
+			logEvent(impl, "event" + i);
+		
+		assertEquals("buffer capped at capacity", 3, impl.getEventsPendingFlush());
+		assertEquals("overflow counted", 2, impl.getEventsDropped());
+		assertEquals("high water mark recorded", 3, impl.getPendingHighWaterMark());
+		
+		assertEquals(3, impl.flush());
+		assertEquals("oldest events retained", "[event0, event1, event2]", collector.names.toString());
+		
+		impl.resetOverflowStatistics();
+		assertEquals(0, impl.getEventsDropped());
+		assertEquals(0, impl.getPendingHighWaterMark());
+	}
+
+	@Test
+	public void testOverflowDropOldest() throws Exception {
+		CollectingPersister collector = new CollectingPersister();
+		BehaviorTrackingManagerImpl impl = newBoundedManager(collector, "dropOldest");
+		assertEquals("dropOldest", impl.getOverflowPolicy());
+		
+		for (int i = 0; i < 5; ++i)
+			logEvent(impl, "event" + i);
+		
+		assertEquals("buffer capped at capacity", 3, impl.getEventsPendingFlush());
+		assertEquals("overflow counted", 2, impl.getEventsDropped());
+		
+		assertEquals(3, impl.flush());
+		assertEquals("newest events retained", "[event2, event3, event4]", collector.names.toString());
+	}
+
+	@Test
+	public void testOverflowSample() throws Exception {
+		CollectingPersister collector = new CollectingPersister();
+		BehaviorTrackingManagerImpl impl = newBoundedManager(collector, "sample");
+		impl.setMaxPendingEvents(20);
+		
+		for (int i = 0; i < 100; ++i)
+			logEvent(impl, "event" + i);
+
+		int pending = impl.getEventsPendingFlush();
+		assertTrue("buffer capped at capacity", pending <= 20);
+		assertTrue("buffer fills past sampling threshold", pending > 10);
+		assertEquals("all overflow counted", 100 - pending, impl.getEventsDropped());
+		assertEquals(pending, impl.flush());
+		for (int i = 0; i < 10; ++i)
+			assertEquals("events below sampling threshold always retained", "event" + i, collector.names.get(i));
+	}
+
+	@Test
+	public void testOverflowBlock() throws Exception {
+		CollectingPersister collector = new CollectingPersister();
+		BehaviorTrackingManagerImpl impl = newBoundedManager(collector, "block");
+		final ArrayList<Runnable> requested = new ArrayList<Runnable>();
+		impl.setExecutor(new TaskExecutor() {
+			public void execute(Runnable task) {
+				requested.add(task);
+			}
+		});
+		impl.setOverflowTimeout(50);
+		
+		for (int i = 0; i < 3; ++i)
+			logEvent(impl, "event" + i);
+		assertEquals("flush requested at threshold", 1, requested.size());
+		
+		//the flush never runs, so the next event should wait out the timeout and be discarded.
+		long start = System.currentTimeMillis();
+		logEvent(impl, "blocked");
+		assertTrue("caller waited for capacity", System.currentTimeMillis() - start >= 45);
+		assertEquals(1, impl.getEventsDropped());
+		assertEquals(3, impl.getEventsPendingFlush());
+		
+		//run the requested flush in the background; the blocked caller should be admitted once it completes.
+		impl.setOverflowTimeout(60000);
+		final Runnable flush = requested.get(0);
+		Thread flusher = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {}
+				flush.run();
+			}
+		};
+		flusher.start();
+		logEvent(impl, "admitted");
+		flusher.join();
+		
+		assertEquals(1, impl.getEventsDropped());
+		assertEquals("[event0, event1, event2]", collector.names.toString());
+		assertEquals(1, impl.flush());
+		assertEquals("admitted", collector.names.get(3));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadOverflowPolicy() {
+		new BehaviorTrackingManagerImpl().setOverflowPolicy("drop-everything");
+	}
+	
+	/** create a manager with capacity of 3 events whose automatic flushes never run */
+	@Test
+	public void testIdGenerator() throws Exception {
+		BehaviorTrackingManagerImpl impl = new BehaviorTrackingManagerImpl();
+		impl.setExecutor(new SyncTaskExecutor());
+		impl.setApplication(manager.getApplication());
+		impl.setSessionContext(sessionContext);
+		impl.setPersister(persister);
+		impl.setIdGenerator(new TimeOrderedIdGenerator());
+		impl.afterPropertiesSet();
+
+		//IDs are available as soon as events are created.
+		BehaviorEvent parent = impl.createEvent("test", "parent");
+		assertNotNull("id assigned on creation", parent.getId());
+		impl.start(parent);
+		BehaviorEvent child = impl.createEvent("test", "child");
+		assertTrue("ids increase", (Long)child.getId() > (Long)parent.getId());
+		impl.start(child);
+		impl.stop(child);
+		
+		//persist the child before the parent has finished; the persister uses the generated parent id.
+		assertEquals(1, impl.flush());
+		impl.stop(parent);
+		assertEquals(1, impl.flush());
+		
+		ResultSet rs = stmt.executeQuery("select EVENT_ID, PARENT_EVENT_ID from BEHAVIOR_TRACKING_EVENT where EVENT_TYPE = 'test' order by EVENT_ID");
+		assertTrue(rs.next());
+		assertEquals(parent.getId(), rs.getLong(1));
+		assertTrue(rs.next());
+		assertEquals(child.getId(), rs.getLong(1));
+		assertEquals(parent.getId(), rs.getLong(2));
+		assertFalse(rs.next());
+		rs.close();
+		
+		//sequence-assigned ids would be far smaller than time-ordered ids.
+		rs = stmt.executeQuery("select count(*) from BEHAVIOR_TRACKING_EVENT where EVENT_TYPE = 'behavior-tracking' and EVENT_ID > " + child.getId());
+		assertTrue(rs.next());
+		assertEquals("flush events assigned generated ids", 2, rs.getInt(1));
+		rs.close();
+	}
+	
+	@Test
+	public void testEventPooling() throws Exception {
+		BehaviorTrackingManagerImpl impl = new BehaviorTrackingManagerImpl();
+		impl.setExecutor(new SyncTaskExecutor());
+		impl.setApplication(manager.getApplication());
+		impl.setSessionContext(sessionContext);
+		impl.setPersister(persister);
+		impl.setEventPoolSize(10);
+		impl.afterPropertiesSet();
+		assertEquals(10, impl.getEventPoolSize());
+		
+		BehaviorEvent parent = impl.createEvent("test", "parent");
+		impl.start(parent);
+		BehaviorEvent child = impl.createEvent("test", "child");
+		child.addData().add("foo", "bar");
+		impl.start(child);
+		impl.stop(child);
+		
+		//the parent has not finished, so it is not recycled even though its child has been persisted.
+		assertEquals(1, impl.flush());
+		assertEquals("parent", parent.getName());
+		assertNotNull("parent id assigned during persist", parent.getId());
+		impl.stop(parent);
+		assertEquals(1, impl.flush());
+		assertEquals(0, impl.getEventsReused());
+		
+		//both events are available for reuse.
+		for (int i = 0; i < 2; ++i) {
+			BehaviorEvent next = impl.createEvent("test", "next" + i);
+			assertTrue("pooled instance reused", next == parent || next == child);
+			assertNull(next.getId());
+			assertNull(next.getParent());
+			assertEquals("next" + i, next.getName());
+			impl.start(next);
+			impl.stop(next);
+		}
+		assertEquals(2, impl.getEventsReused());
+		assertEquals(2, impl.flush());
+		
+		//events discarded while suspended go straight back to the pool.
+		impl.suspend();
+		logEvent(impl, "suspended");
+		assertEquals(3, impl.getEventsReused());
+		logEvent(impl, "suspended");
+		assertEquals(4, impl.getEventsReused());
+		impl.resume();
+		
+		assertEquals("all events persisted", 4, countEventsOfType("test"));
+		ResultSet rs = stmt.executeQuery("select count(*) from BEHAVIOR_TRACKING_EVENT where EVENT_NAME = 'child' and PARENT_EVENT_ID = " + 
+										 "(select EVENT_ID from BEHAVIOR_TRACKING_EVENT where EVENT_NAME = 'parent')");
+		assertTrue(rs.next());
+		assertEquals("child persisted with parent id", 1, rs.getInt(1));
+		rs.close();
+	}
+	
+	@Test
+	public void testEventPoolingRequiresNonRetainingPersister() throws Exception {
+		XmlBehaviorEventPersisterImpl xml = new XmlBehaviorEventPersisterImpl();
+		xml.setAsynchronous(true);
+		ChainingEventPersisterImpl chain = new ChainingEventPersisterImpl();
+		chain.setDelegates(Collections.<BehaviorEventPersister>singletonList(xml));
+
+		BehaviorTrackingManagerImpl impl = new BehaviorTrackingManagerImpl();
+		impl.setApplication(manager.getApplication());
+		impl.setSessionContext(sessionContext);
+		impl.setPersister(chain);
+		impl.setEventPoolSize(10);
+		try {
+			impl.afterPropertiesSet();
+			fail("pooling rejected with an asynchronous delegate");
+		} catch (IllegalStateException expected) {
+		}
+
+		xml.setAsynchronous(false);
+		impl.afterPropertiesSet();
+
+		chain.setParallel(true);
+		try {
+			impl.afterPropertiesSet();
+			fail("pooling rejected with a parallel chain");
+		} catch (IllegalStateException expected) {
+		}
+
+		impl.setEventPoolSize(0);
+		impl.afterPropertiesSet();
+	}
+	
+	@Test
+	public void testHeadSampling() throws Exception {
+		CollectingPersister persister = new CollectingPersister();
+		BehaviorTrackingManagerImpl impl = newSamplingManager(persister);
+		impl.setSampleRate(0.5);
+		HashMap<String, Double> rates = new HashMap<String, Double>();
+		rates.put("test:never", 0.0);
+		rates.put("other", 1.0);
+		impl.setSampleRates(rates);
+		impl.afterPropertiesSet();
+		
+		for (int i = 0; i < 10; ++i) {
+			BehaviorEvent root = impl.createEvent("test", "root" + i);
+			impl.start(root);
+			BehaviorEvent child = impl.createEvent("test", "child" + i);
+			assertEquals("child shares sampling decision of root", root.isSampled(), child.isSampled());
+			EventDataElement data = child.addData();
+			data.addElement("param").add("foo", "bar");
+			assertEquals("unsampled event discards data", !child.isSampled(), data.isNull());
+			impl.start(child);
+			impl.stop(child);
+			impl.stop(root);
+			
+			logEvent(impl, "never");
+			BehaviorEvent other = impl.createEvent("other", "always");
+			assertTrue("type-specific rate applied", other.isSampled());
+		}
+		impl.flush();
+		
+		assertEquals("every second tree recorded", 10, persister.names.size());
+		for (int i = 1; i < 10; i += 2) {
+			assertTrue(persister.names.contains("root" + i));
+			assertTrue(persister.names.contains("child" + i));
+		}
+		assertEquals(15, impl.getUnsampledTrees());
+		assertEquals(0, impl.getTailSampledTrees());
+	}
+	
+	@Test
+	public void testTailSampling() throws Exception {
+		CollectingPersister persister = new CollectingPersister();
+		BehaviorTrackingManagerImpl impl = newSamplingManager(persister);
+		impl.setSampleRate(0);
+		impl.setTailSampleErrors(true);
+		impl.setTailLatencyThreshold(50);
+		impl.setIdGenerator(new TimeOrderedIdGenerator());
+		impl.afterPropertiesSet();
+		
+		//fast and successful, discarded.
+		BehaviorEvent root = impl.createEvent("test", "fast");
+		assertFalse(root.isSampled());
+		impl.start(root);
+		logEvent(impl, "fastChild");
+		impl.stop(root);
+		
+		//error in a child event, recorded.
+		root = impl.createEvent("test", "error");
+		impl.start(root);
+		BehaviorEvent child = impl.createEvent("test", "errorChild");
+		assertTrue("unsampled event captures data for tail sampling", child.isCapturingData());
+		EventDataElement data = child.addData();
+		data.add("foo", "bar");
+		assertFalse(data.isNull());
+		impl.start(child);
+		logEvent(impl, "errorGrandChild");
+		child.setError("boom");
+		impl.stop(child);
+		impl.stop(root);
+		
+		//slow, recorded.
+		root = impl.createEvent("test", "slow");
+		impl.start(root);
+		logEvent(impl, "slowChild");
+		Thread.sleep(60);
+		impl.stop(root);
+		
+		assertEquals(5, impl.flush());
+		assertEquals(5, persister.names.size());
+		for (String name : new String[] { "error", "errorChild", "errorGrandChild", "slow", "slowChild" })
+			assertTrue(name + " recorded", persister.names.contains(name));
+		for (Serializable id : persister.ids)
+			assertTrue("kept events and their parents have generated ids: " + id, id instanceof Long);
+		assertEquals(1, impl.getUnsampledTrees());
+		assertEquals(2, impl.getTailSampledTrees());
+		assertEquals(0, impl.getTailOverflowEvents());
+	}
+	
+	@Test
+	public void testTailSamplingOverflow() throws Exception {
+		CollectingPersister persister = new CollectingPersister();
+		BehaviorTrackingManagerImpl impl = newSamplingManager(persister);
+		impl.setSampleRate(0);
+		impl.setTailSampleErrors(true);
+		impl.setTailMaxHeldEvents(3);
+		impl.afterPropertiesSet();
+		
+		BehaviorEvent root = impl.createEvent("test", "root");
+		impl.start(root);
+		for (int i = 0; i < 5; ++i)
+			logEvent(impl, "child" + i);
+		//the error is noted even though the event is not held.
+		BehaviorEvent child = impl.createEvent("test", "failed");
+		impl.start(child);
+		child.setError("boom");
+		impl.stop(child);
+		impl.stop(root);
+		
+		assertEquals("root and held children recorded", 4, impl.flush());
+		for (String name : new String[] { "root", "child0", "child1", "child2" })
+			assertTrue(name + " recorded", persister.names.contains(name));
+		assertEquals(3, impl.getTailOverflowEvents());
+		assertEquals(1, impl.getTailSampledTrees());
+	}
+	
+	@Test
+	public void testInheritSessionContext() throws Exception {
+		BehaviorTrackingManagerImpl impl = newSamplingManager(new CollectingPersister());
+		impl.setInheritSessionContext(true);
+		impl.afterPropertiesSet();
+		
+		sessionContext.setContextUserId("before");
+		sessionContext.setContextSessionId("session1");
+		BehaviorEvent root = impl.createEvent("test", "login");
+		impl.start(root);
+		
+		//context changes while the root event is running are not seen by its children.
+		sessionContext.setContextUserId("after");
+		sessionContext.setContextSessionId("session2");
+		BehaviorEvent child = impl.createEvent("test", "child");
+		impl.start(child);
+		BehaviorEvent grandChild = impl.createEvent("test", "grandChild");
+		assertEquals("before", grandChild.getUserId());
+		assertEquals("session1", grandChild.getSessionId());
+		impl.stop(child);
+		impl.stop(root);
+		
+		//the next root event sees the new context.
+		root = impl.createEvent("test", "next");
+		assertEquals("after", root.getUserId());
+		assertEquals("session2", root.getSessionId());
+		
+		//by default every event consults the context.
+		impl.setInheritSessionContext(false);
+		impl.start(root);
+		sessionContext.setContextUserId("changed");
+		child = impl.createEvent("test", "child");
+		assertEquals("changed", child.getUserId());
+		assertEquals("session2", child.getSessionId());
+		impl.stop(root);
+	}
+	
+	@Test
+	public void testLeakDetection() throws Exception {
+		final BehaviorTrackingManagerImpl impl = newSamplingManager(new CollectingPersister());
+		impl.setLeakDetectionInterval(1);
+		impl.afterPropertiesSet();
+		
+		//stopped events are not leaks.
+		for (int i = 0; i < 3; ++i)
+			logEvent(impl, "stopped");
+		
+		//abandon an event on a thread that then dies.
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				BehaviorEvent root = impl.createEvent("test", "abandoned");
+				impl.start(root);
+				logEvent(impl, "abandonedChild");
+			}
+		};
+		thread.start();
+		thread.join();
+		thread = null;
+		//completed children refer to their parents until flushed.
+		impl.flush();
+		
+		for (int i = 0; i < 100 && impl.getEventsLeaked() == 0; ++i) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertEquals("abandoned event detected", 1, impl.getEventsLeaked());
+		
+		impl.setLeakDetectionInterval(0);
+		impl.afterPropertiesSet();
+		assertEquals("leak detection disabled", 0, impl.getEventsLeaked());
+	}
+	
+	private BehaviorTrackingManagerImpl newSamplingManager(BehaviorEventPersister persister) {
+		BehaviorTrackingManagerImpl impl = new BehaviorTrackingManagerImpl();
+		impl.setExecutor(new TaskExecutor() {
+			public void execute(Runnable task) {}
+		});
+		impl.setApplication(manager.getApplication());
+		impl.setSessionContext(sessionContext);
+		impl.setPersister(persister);
+		return impl;
+	}
+	
+	private BehaviorTrackingManagerImpl newBoundedManager(BehaviorEventPersister persister, String policy) throws Exception {
+		BehaviorTrackingManagerImpl impl = new BehaviorTrackingManagerImpl();
+		impl.setExecutor(new TaskExecutor() {
+			public void execute(Runnable task) {}
+		});
+		impl.setApplication(manager.getApplication());
+		impl.setPersister(persister);
+		impl.setFlushThreshold(2);
+		impl.setMaxPendingEvents(3);
+		impl.setOverflowPolicy(policy);
+		impl.afterPropertiesSet();
+		return impl;
+	}
+	
+	private static void logEvent(BehaviorTrackingManager impl, String name) {
+		BehaviorEvent event = impl.createEvent("test", name);
+		impl.start(event);
+		impl.stop(event);
+	}
+	
+	/** records the names of persisted application events, ignoring flush events */
+	private static class CollectingPersister implements BehaviorEventPersister {
+		private ArrayList<String> names = new ArrayList<String>();
+		private ArrayList<Serializable> ids = new ArrayList<Serializable>();
+		public void persist(Queue<BehaviorEvent> events) {
+			for (BehaviorEvent event : events)
+				if ("test".equals(event.getType())) {
+					names.add(event.getName());
+					ids.add(event.getId());
+					if (event.getParent() != null)
+						ids.add(event.getParent().getId());
+				}
+		}
+	}
+	
 	private int countEventsOfType(String type) throws SQLException {
 		ResultSet rs = stmt.executeQuery("select count(event_id) from BEHAVIOR_TRACKING_EVENT where event_type = '" + type + "'");
 		assertTrue(rs.next());
@@ -5,6 +5,12 @@ import static org.easymock.EasyMock.*;
 
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.mtgi.analytics.ChainingEventPersisterImpl.DelegateStatistics;
 
 import org.easymock.IAnswer;
 import org.junit.After;
@@ -31,7 +37,8 @@ public class ChainingEventPersisterTest {
 	}
 	
 	@After
-	public void tearDown() {
+	public void tearDown() throws InterruptedException {
+		inst.destroy();
 		delegates = null;
 		inst = null;
 		events = null;
@@ -113,4 +120,142 @@ public class ChainingEventPersisterTest {
 		
 		verify(mock, second);
 	}
+
+	@Test
+	public void testStatistics() {
+		BehaviorEventPersister second = createMock(BehaviorEventPersister.class);
+		delegates.add(second);
+		inst.setDelegates(delegates);
+		
+		mock.persist(same(events));
+		expectLastCall().andThrow(new RuntimeException("boom")).once();
+		mock.persist(same(events));
+		expectLastCall().once();
+		second.persist(same(events));
+		expectLastCall().times(2);
+		replay(mock, second);
+		
+		inst.persist(events);
+		inst.persist(events);
+		verify(mock, second);
+		
+		List<DelegateStatistics> stats = inst.getStatistics();
+		assertEquals(2, stats.size());
+		assertSame(mock, stats.get(0).getPersister());
+		assertEquals(2, stats.get(0).getInvocations());
+		assertEquals(1, stats.get(0).getFailures());
+		assertEquals(2, stats.get(1).getInvocations());
+		assertEquals(0, stats.get(1).getFailures());
+		assertEquals("statistics available over JMX", 2, inst.getDelegateStatistics().length);
+	}
+	
+	@Test
+	public void testParallel() throws Exception {
+		//the first delegate blocks until released.  the second should not have to wait for it.
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch secondDone = new CountDownLatch(1);
+		final Thread caller = Thread.currentThread();
+		final Thread[] workers = new Thread[2];
+		
+		delegates.clear();
+		delegates.add(new BehaviorEventPersister() {
+			public void persist(Queue<BehaviorEvent> events) {
+				workers[0] = Thread.currentThread();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		delegates.add(new BehaviorEventPersister() {
+			public void persist(Queue<BehaviorEvent> events) {
+				workers[1] = Thread.currentThread();
+				secondDone.countDown();
+			}
+		});
+		inst.setDelegates(delegates);
+		inst.setParallel(true);
+		inst.setTimeout(100);
+		inst.afterPropertiesSet();
+		
+		long start = System.currentTimeMillis();
+		inst.persist(events);
+		long elapsed = System.currentTimeMillis() - start;
+		
+		assertTrue("second delegate finished while first was blocked", secondDone.await(0, TimeUnit.SECONDS));
+		assertTrue("persist waited for timeout", elapsed >= 90);
+		assertTrue("persist did not wait for blocked delegate", elapsed < 5000);
+		
+		List<DelegateStatistics> stats = inst.getStatistics();
+		assertEquals("timeout recorded for slow delegate", 1, stats.get(0).getTimeouts());
+		assertEquals("no timeout for fast delegate", 0, stats.get(1).getTimeouts());
+		assertEquals(1, stats.get(1).getInvocations());
+
+		release.countDown();
+		inst.destroy();
+		assertEquals("slow delegate finished in background", 1, stats.get(0).getInvocations());
+		
+		assertNotNull(workers[0]);
+		assertNotNull(workers[1]);
+		assertNotSame("delegates invoked on dedicated threads", caller, workers[0]);
+		assertNotSame("delegates invoked on separate threads", workers[0], workers[1]);
+	}
+	
+	@Test
+	public void testParallelErrorHandling() throws Exception {
+		BehaviorEventPersister second = createMock(BehaviorEventPersister.class);
+		delegates.add(second);
+		inst.setDelegates(delegates);
+		inst.setParallel(true);
+		inst.afterPropertiesSet();
+
+		//the first persister will raise an error on invocation, which should not affect the second.
+		mock.persist(eq(events));
+		expectLastCall().andThrow(new RuntimeException("boom")).once();
+		second.persist(eq(events));
+		expectLastCall().once();
+		replay(mock, second);
+		
+		inst.persist(events);
+		
+		verify(mock, second);
+		assertEquals(1, inst.getStatistics().get(0).getFailures());
+		assertEquals(0, inst.getStatistics().get(1).getFailures());
+	}
+	
+	@Test
+	public void testParallelIsolation() throws Exception {
+		//the first delegate discards its batch, as XmlBehaviorEventPersisterImpl does on error.
+		final ArrayList<BehaviorEvent> received = new ArrayList<BehaviorEvent>();
+		delegates.clear();
+		delegates.add(new BehaviorEventPersister() {
+			public void persist(Queue<BehaviorEvent> events) {
+				events.clear();
+			}
+		});
+		delegates.add(new BehaviorEventPersister() {
+			public void persist(Queue<BehaviorEvent> events) {
+				for (BehaviorEvent event : events) {
+					assertNotNull("id assigned before dispatch", event.getId());
+					assertNotNull("parent id assigned before dispatch", event.getParent().getId());
+					received.add(event);
+				}
+			}
+		});
+		inst.setDelegates(delegates);
+		inst.setParallel(true);
+		inst.setIdGenerator(new TimeOrderedIdGenerator());
+		inst.afterPropertiesSet();
+		
+		BehaviorEvent parent = new BehaviorEvent(null, "test", "parent", "testApp", null, null) {};
+		for (int i = 0; i < 100; ++i)
+			events.add(new BehaviorEvent(parent, "test", "child" + i, "testApp", null, null) {});
+		inst.persist(events);
+		inst.destroy();
+		
+		assertEquals("second delegate unaffected by first", 100, received.size());
+		assertEquals("caller's queue unmodified", 100, events.size());
+		assertTrue("ids from generator", parent.getId() instanceof Long);
+	}
 }
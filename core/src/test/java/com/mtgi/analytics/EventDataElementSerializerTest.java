@@ -127,4 +127,21 @@ public class EventDataElementSerializerTest {
 		assertXMLIdentical(new Diff("<?xml version='1.0'?><event-data/>", serializer.serialize(element, true)), true);
 	}
 	
+	@Test
+	public void testReuse() {
+		//output from a reused serializer should not depend on what it serialized before.
+		EventDataElement first = new EventDataElement("first");
+		first.add("foo", "bar");
+		first.addElement("child").setText("text");
+		EventDataElement second = new EventDataElement("second");
+		second.addElement("empty");
+		
+		String expectedFirst = new EventDataElementSerializer(XMLOutputFactory.newInstance()).serialize(first, true);
+		String expectedSecond = new EventDataElementSerializer(XMLOutputFactory.newInstance()).serialize(second, false);
+		for (int i = 0; i < 3; ++i) {
+			assertEquals("document with prolog", expectedFirst, serializer.serialize(first, true));
+			assertEquals("document without prolog", expectedSecond, serializer.serialize(second, false));
+		}
+	}
+	
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.springframework.core.task.TaskExecutor;
+
+/**
+ * Multi-threaded throughput benchmark for the completed event queue in {@link BehaviorTrackingManagerImpl},
+ * compared against the monitor-guarded LinkedList the manager used to use.  Ignored by default like the other
+ * performance tests; run it by hand on a machine with plenty of cores to see a meaningful difference.
+ */
+public class EventQueuePerformanceTest {
+
+	private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+	private static final int EVENTS_PER_THREAD = 200000;
+	private static final int FLUSH_THRESHOLD = 100;
+
+	private ExecutorService pool;
+	private TaskExecutor executor;
+	private CountingPersister persister;
+
+	@Before
+	public void setUp() {
+		pool = Executors.newSingleThreadExecutor();
+		executor = new TaskExecutor() {
+			public void execute(Runnable task) {
+				pool.execute(task);
+			}
+		};
+		persister = new CountingPersister();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		pool.shutdown();
+		pool.awaitTermination(60, TimeUnit.SECONDS);
+	}
+
+	@Test
+	@Ignore
+	public void testThroughput() throws Exception {
+		BehaviorTrackingManagerImpl lockFree = new BehaviorTrackingManagerImpl();
+		lockFree.setApplication("perfTest");
+		lockFree.setExecutor(executor);
+		lockFree.setPersister(persister);
+		lockFree.setSessionContext(new MockSessionContext());
+		lockFree.setFlushThreshold(FLUSH_THRESHOLD);
+		lockFree.afterPropertiesSet();
+
+		SynchronizedManager basis = new SynchronizedManager();
+
+		//warm up both paths before measuring.
+		run(basis);
+		run(lockFree);
+
+		double basisRate = run(basis);
+		double testRate = run(lockFree);
+		System.out.println("synchronized queue: " + (long)basisRate + " events/sec");
+		System.out.println("lock-free queue:    " + (long)testRate + " events/sec");
+		System.out.println("speedup:            " + (testRate / basisRate));
+	}
+
+	/** generate events on {@link #THREADS} concurrent threads, returning the measured throughput in events per second */
+	private double run(final BehaviorTrackingManager manager) throws Exception {
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; ++t) {
+			threads[t] = new Thread("producer[" + t + "]") {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < EVENTS_PER_THREAD; ++i) {
+							BehaviorEvent evt = manager.createEvent("perf", "event");
+							manager.start(evt);
+							manager.stop(evt);
+						}
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		persister.reset();
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		//wait for trailing flushes and pick up stragglers, then make sure nothing was lost.
+		FinalFlush drain = new FinalFlush(manager);
+		pool.submit(drain).get();
+		assertEquals("all events persisted", THREADS * EVENTS_PER_THREAD, persister.count.get());
+
+		return (double)THREADS * EVENTS_PER_THREAD * 1e9 / elapsed;
+	}
+
+	/** final flush, executed on the flush thread so that it runs after any pending autoflush jobs */
+	private static class FinalFlush implements Runnable {
+		private BehaviorTrackingManager manager;
+		FinalFlush(BehaviorTrackingManager manager) {
+			this.manager = manager;
+		}
+		public void run() {
+			if (manager instanceof BehaviorTrackingManagerImpl)
+				((BehaviorTrackingManagerImpl)manager).flush();
+			else
+				((SynchronizedManager)manager).flush();
+		}
+	}
+
+	private static class CountingPersister implements BehaviorEventPersister {
+		AtomicInteger count = new AtomicInteger();
+		void reset() {
+			count.set(0);
+		}
+		public void persist(Queue<BehaviorEvent> events) {
+			for (BehaviorEvent e : events)
+				if (!"behavior-tracking".equals(e.getType()))
+					count.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Reproduction of the original synchronized event queue in BehaviorTrackingManagerImpl, which serialized
+	 * all application threads on a single monitor twice per completed event.  Used as the benchmark basis.
+	 */
+	private class SynchronizedManager implements BehaviorTrackingManager {
+
+		private ThreadLocal<BehaviorEvent> event = new ThreadLocal<BehaviorEvent>();
+		private LinkedList<BehaviorEvent> writeBuffer = new LinkedList<BehaviorEvent>();
+		private Object bufferSync = new Object();
+		private volatile int pendingFlush = 0;
+		private volatile boolean flushRequested = false;
+
+		private Runnable flushJob = new Runnable() {
+			public void run() {
+				flush();
+			}
+		};
+
+		public BehaviorEvent createEvent(String type, String name) {
+			return new BehaviorEvent(event.get(), type, name, "perfTest", null, null);
+		}
+
+		public void start(BehaviorEvent evt) {
+			evt.start();
+			event.set(evt);
+		}
+
+		public void stop(BehaviorEvent evt) {
+			try {
+				evt.stop();
+			} finally {
+				event.set(evt.getParent());
+			}
+			synchronized (bufferSync) {
+				++pendingFlush;
+				writeBuffer.add(evt);
+			}
+			boolean requestFlush = false;
+			synchronized (bufferSync) {
+				if (flushRequested)
+					return;
+				if (!writeBuffer.isEmpty() && pendingFlush >= FLUSH_THRESHOLD)
+					requestFlush = flushRequested = true;
+			}
+			if (requestFlush)
+				executor.execute(flushJob);
+		}
+
+		public int flush() {
+			LinkedList<BehaviorEvent> oldList = null;
+			synchronized(bufferSync) {
+				oldList = writeBuffer;
+				pendingFlush -= oldList.size();
+				writeBuffer = new LinkedList<BehaviorEvent>();
+				flushRequested = false;
+			}
+			if (!oldList.isEmpty())
+				persister.persist(oldList);
+			return oldList.size();
+		}
+	}
+}
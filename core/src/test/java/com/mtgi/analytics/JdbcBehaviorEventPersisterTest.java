@@ -13,15 +13,20 @@
  
 package com.mtgi.analytics;
 
+import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
 import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
+import javax.sql.DataSource;
+
 import org.junit.Test;
 import org.unitils.spring.annotation.SpringBeanByType;
 
@@ -69,6 +74,159 @@ public class JdbcBehaviorEventPersisterTest extends JdbcEventTestCase {
 			verifyEvent(e);
 	}
 
+	@Test
+	public void testIdPrefetch() throws Exception {
+		//use a private persister instance, since ID allocation state is not reset between tests.
+		JdbcBehaviorEventPersisterImpl prefetch = newPersister();
+		prefetch.setIdPrefetch(2);
+		prefetch.afterPropertiesSet();
+		try {
+			ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+			int[] counter = { 0 };
+			for (int i = 0; i < 3; ++i)
+				createEvent(null, 1, 3, 3, counter, events);
+			prefetch.persist(new LinkedList<BehaviorEvent>(events));
+
+			//blocks are consumed in sequence order, so we get the same IDs as fetching on demand.
+			assertEventDataMatches("JdbcBehaviorEventPersisterTest.testNestedEvents-result.xml");
+			for (BehaviorEvent e : events)
+				verifyEvent(e);
+		} finally {
+			prefetch.destroy();
+		}
+	}
+
+	@Test
+	public void testAdaptiveBatchSize() throws Exception {
+		JdbcBehaviorEventPersisterImpl adaptive = newPersister();
+		adaptive.setBatchSize(2);
+		adaptive.setAdaptiveBatchSize(true);
+		adaptive.setMaxBatchSize(20);
+		adaptive.setTargetBatchTime(60000);
+		adaptive.afterPropertiesSet();
+		assertEquals("starts at configured batch size", 2, adaptive.getCurrentBatchSize());
+		
+		ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+		int[] counter = { 0 };
+		for (int i = 0; i < 3; ++i)
+			createEvent(null, 1, 3, 3, counter, events);
+		adaptive.persist(new LinkedList<BehaviorEvent>(events));
+
+		//fast batches of 2, 4, 8, 16 double the batch size up to the limit.
+		assertEquals("batch size grows for fast batches", 20, adaptive.getCurrentBatchSize());
+		assertEventDataMatches("JdbcBehaviorEventPersisterTest.testNestedEvents-result.xml");
+
+		//any batch is slower than the target, so the batch size shrinks.
+		adaptive.setTargetBatchTime(0);
+		events.clear();
+		for (int i = 0; i < 3; ++i)
+			createEvent(null, 1, 3, 3, counter, events);
+		adaptive.persist(new LinkedList<BehaviorEvent>(events));
+		assertEquals("batch size shrinks for slow batches", 1, adaptive.getCurrentBatchSize());
+
+		ResultSet rs = stmt.executeQuery("select count(*) from BEHAVIOR_TRACKING_EVENT");
+		assertTrue(rs.next());
+		assertEquals("all events persisted", 78, rs.getInt(1));
+		rs.close();
+	}
+
+	@Test
+	public void testMultiRowSql() {
+		String sql = "insert into T (A, B) VALUES (?, ?)";
+		assertEquals(sql, JdbcBehaviorEventPersisterImpl.toMultiRowSql(sql, 1));
+		assertEquals("insert into T (A, B) VALUES (?, ?), (?, ?), (?, ?)", JdbcBehaviorEventPersisterImpl.toMultiRowSql(sql, 3));
+		assertEquals("nested values list is repeated whole", 
+					 "insert into T (A, B) values (?, coalesce(?, 0)), (?, coalesce(?, 0))", 
+					 JdbcBehaviorEventPersisterImpl.toMultiRowSql("insert into T (A, B) values (?, coalesce(?, 0))\n", 2));
+		try {
+			JdbcBehaviorEventPersisterImpl.toMultiRowSql("insert into T select * from U", 2);
+			fail("insert without values list should be rejected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void testMultiRowInsert() throws Exception {
+		//HSQLDB does not support multi-row values lists, so we verify the generated statements against mock JDBC objects.
+		String sql = "insert into BEHAVIOR_TRACKING_EVENT values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+		DataSource mockDS = createMock(DataSource.class);
+		Connection con = createNiceMock(Connection.class);
+		PreparedStatement full = createNiceMock(PreparedStatement.class);
+		PreparedStatement partial = createNiceMock(PreparedStatement.class);
+
+		expect(mockDS.getConnection()).andReturn(con);
+		expect(con.prepareStatement(JdbcBehaviorEventPersisterImpl.toMultiRowSql(sql, 10))).andReturn(full).once();
+		expect(con.prepareStatement(JdbcBehaviorEventPersisterImpl.toMultiRowSql(sql, 9))).andReturn(partial).once();
+		//first and last row of the first full batch
+		full.setLong(1, 0L);
+		full.setLong(100, 9L);
+		expect(full.executeUpdate()).andReturn(10).times(3);
+		//last row of the remainder
+		partial.setLong(89, 38L);
+		expect(partial.executeUpdate()).andReturn(9).once();
+		replay(mockDS, con, full, partial);
+
+		JdbcBehaviorEventPersisterImpl multiRow = new JdbcBehaviorEventPersisterImpl();
+		multiRow.setDataSource(mockDS);
+		multiRow.setInsertSql(sql);
+		multiRow.setBatchSize(10);
+		multiRow.setMultiRowInsert(true);
+		multiRow.afterPropertiesSet();
+
+		ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+		int[] counter = { 0 };
+		for (int i = 0; i < 3; ++i)
+			createEvent(null, 1, 3, 3, counter, events);
+		for (int i = 0; i < events.size(); ++i)
+			events.get(i).setId((long)i);
+		multiRow.persist(new LinkedList<BehaviorEvent>(events));
+		
+		verify(mockDS, con, full, partial);
+	}
+
+	@Test
+	public void testMultiRowParameterLimit() throws Exception {
+		String sql = "insert into BEHAVIOR_TRACKING_EVENT values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+		DataSource mockDS = createMock(DataSource.class);
+		Connection con = createNiceMock(Connection.class);
+		PreparedStatement full = createNiceMock(PreparedStatement.class);
+		PreparedStatement partial = createNiceMock(PreparedStatement.class);
+
+		//50 parameters allow at most 4 rows per statement, though the batch size is 10.
+		expect(mockDS.getConnection()).andReturn(con);
+		expect(con.prepareStatement(JdbcBehaviorEventPersisterImpl.toMultiRowSql(sql, 4))).andReturn(full).once();
+		expect(con.prepareStatement(JdbcBehaviorEventPersisterImpl.toMultiRowSql(sql, 3))).andReturn(partial).once();
+		expect(full.executeUpdate()).andReturn(4).times(9);
+		expect(partial.executeUpdate()).andReturn(3).once();
+		replay(mockDS, con, full, partial);
+
+		JdbcBehaviorEventPersisterImpl multiRow = new JdbcBehaviorEventPersisterImpl();
+		multiRow.setDataSource(mockDS);
+		multiRow.setInsertSql(sql);
+		multiRow.setBatchSize(10);
+		multiRow.setMultiRowInsert(true);
+		multiRow.setMaxStatementParameters(50);
+		multiRow.afterPropertiesSet();
+
+		ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+		int[] counter = { 0 };
+		for (int i = 0; i < 3; ++i)
+			createEvent(null, 1, 3, 3, counter, events);
+		for (int i = 0; i < events.size(); ++i)
+			events.get(i).setId((long)i);
+		multiRow.persist(new LinkedList<BehaviorEvent>(events));
+		
+		verify(mockDS, con, full, partial);
+	}
+
+	private JdbcBehaviorEventPersisterImpl newPersister() {
+		JdbcBehaviorEventPersisterImpl ret = new JdbcBehaviorEventPersisterImpl();
+		ret.setDataSource(ds);
+		ret.setIdSql("call next value for SEQ_BEHAVIOR_TRACKING_EVENT");
+		ret.setIdIncrement(25);
+		return ret;
+	}
+
 	/**
 	 * Recursively verify that correct values for the given behavior event can be found
 	 * in the database.
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.mtgi.xml.XmlDateFormat;
+import com.mtgi.xml.XmlDateFormatter;
+
+/**
+ * Single-threaded throughput benchmark for event serialization: XML log output, event data serialization
+ * for the JDBC persister, and start date formatting, each compared with a copy of the allocation pattern
+ * the persisters used to follow.  Ignored by default like the other performance tests; run it by hand.
+ */
+public class SerializationPerformanceTest {
+
+	private static final int EVENTS = 20000;
+	private static final int ROUNDS = 10;
+	private static final int BATCH = 25;
+
+	private static final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {}
+		@Override
+		public void write(byte[] b, int off, int len) {}
+	};
+
+	@Test
+	@Ignore
+	public void testThroughput() throws Exception {
+		BehaviorEvent[] events = createEvents();
+
+		compare("xml log", events, 
+				new Benchmark() {
+					//new serializer, and so a new date format, per batch.
+					public void run(BehaviorEvent[] events) throws XMLStreamException {
+						XMLStreamWriter writer = factory.createXMLStreamWriter(NULL_OUTPUT);
+						for (int i = 0; i < events.length; i += BATCH) {
+							BehaviorEventSerializer serializer = new BehaviorEventSerializer();
+							for (int j = i; j < Math.min(events.length, i + BATCH); ++j)
+								serializer.serialize(writer, events[j]);
+						}
+						writer.close();
+					}
+				},
+				new Benchmark() {
+					BehaviorEventSerializer serializer = new BehaviorEventSerializer();
+					public void run(BehaviorEvent[] events) throws XMLStreamException {
+						XMLStreamWriter writer = factory.createXMLStreamWriter(NULL_OUTPUT);
+						for (BehaviorEvent event : events)
+							serializer.serialize(writer, event);
+						writer.close();
+					}
+				});
+
+		compare("jdbc event data", events,
+				new Benchmark() {
+					//new serializer per batch, and a new writer per event.
+					public void run(BehaviorEvent[] events) {
+						for (int i = 0; i < events.length; i += BATCH) {
+							for (int j = i; j < Math.min(events.length, i + BATCH); ++j) {
+								EventDataElementSerializer serializer = new EventDataElementSerializer(factory);
+								serializer.serialize(events[j].getData(), true);
+							}
+						}
+					}
+				},
+				new Benchmark() {
+					EventDataElementSerializer serializer = new EventDataElementSerializer(factory);
+					public void run(BehaviorEvent[] events) {
+						for (BehaviorEvent event : events)
+							serializer.serialize(event.getData(), true);
+					}
+				});
+
+		compare("start date", events,
+				new Benchmark() {
+					public void run(BehaviorEvent[] events) {
+						for (int i = 0; i < events.length; i += BATCH) {
+							XmlDateFormat format = new XmlDateFormat();
+							for (int j = i; j < Math.min(events.length, i + BATCH); ++j)
+								format.format(events[j].getStart());
+						}
+					}
+				},
+				new Benchmark() {
+					XmlDateFormatter format = new XmlDateFormatter();
+					public void run(BehaviorEvent[] events) {
+						for (BehaviorEvent event : events)
+							format.format(event.getStart());
+					}
+				});
+	}
+
+	private static BehaviorEvent[] createEvents() {
+		BehaviorEvent[] events = new BehaviorEvent[EVENTS];
+		for (int i = 0; i < EVENTS; ++i) {
+			BehaviorEvent event = new BehaviorEvent(null, "method", "com.example.Service.call", "perfTest", 
+													"user" + (i % 50), "session" + (i % 200));
+			event.setId(Integer.toString(i));
+			event.start();
+			EventDataElement data = event.addData();
+			data.add("result", Integer.valueOf(i));
+			EventDataElement parameters = data.addElement("parameters");
+			parameters.addElement("param").setText("value " + i);
+			parameters.addElement("param").setText("com.example.Type");
+			event.stop();
+			events[i] = event;
+		}
+		return events;
+	}
+
+	private static void compare(String name, BehaviorEvent[] events, Benchmark basis, Benchmark test) throws Exception {
+		//warm up both paths before measuring.
+		run(basis, events);
+		run(test, events);
+
+		double basisRate = run(basis, events);
+		double testRate = run(test, events);
+		System.out.println(name + ", before: " + (long)basisRate + " events/sec");
+		System.out.println(name + ", after:  " + (long)testRate + " events/sec");
+		System.out.println(name + ", speedup: " + (testRate / basisRate));
+	}
+
+	/** @return the measured throughput in events per second */
+	private static double run(Benchmark benchmark, BehaviorEvent[] events) throws Exception {
+		long begin = System.nanoTime();
+		for (int r = 0; r < ROUNDS; ++r)
+			benchmark.run(events);
+		long elapsed = System.nanoTime() - begin;
+		return (double)ROUNDS * events.length * 1e9 / elapsed;
+	}
+
+	private static interface Benchmark {
+		public void run(BehaviorEvent[] events) throws Exception;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+public class TimeOrderedIdGeneratorTest {
+
+	@Test
+	public void testOrdering() {
+		TimeOrderedIdGenerator gen = new TimeOrderedIdGenerator();
+		long before = System.currentTimeMillis();
+		long last = gen.nextId();
+		//more than one millisecond's worth of sequence numbers.
+		for (int i = 0; i < 10000; ++i) {
+			long next = gen.nextId();
+			assertTrue("ids strictly increasing", next > last);
+			last = next;
+		}
+		long ts = gen.getTimestamp(last);
+		assertTrue("timestamp embedded in id", ts >= before);
+		assertTrue("timestamp does not run far ahead of clock", ts < System.currentTimeMillis() + 5000);
+	}
+
+	@Test
+	public void testNodeId() {
+		TimeOrderedIdGenerator a = new TimeOrderedIdGenerator();
+		a.setNodeId(1);
+		TimeOrderedIdGenerator b = new TimeOrderedIdGenerator();
+		b.setNodeId(TimeOrderedIdGenerator.MAX_NODE_ID);
+
+		Set<Long> ids = new HashSet<Long>();
+		for (int i = 0; i < 5000; ++i) {
+			assertTrue("no collisions across nodes", ids.add(a.nextId()));
+			assertTrue("no collisions across nodes", ids.add(b.nextId()));
+		}
+		assertEquals(1, (a.nextId() >>> 12) & TimeOrderedIdGenerator.MAX_NODE_ID);
+		assertEquals(TimeOrderedIdGenerator.MAX_NODE_ID, (b.nextId() >>> 12) & TimeOrderedIdGenerator.MAX_NODE_ID);
+	}
+
+	@Test
+	public void testDefaultNodeId() {
+		int node = new TimeOrderedIdGenerator().getNodeId();
+		assertTrue("default node in range", node >= 0 && node <= TimeOrderedIdGenerator.MAX_NODE_ID);
+		assertEquals("default node derived from process", TimeOrderedIdGenerator.defaultNodeId(), node);
+		assertEquals(node, (new TimeOrderedIdGenerator().nextId() >>> 12) & TimeOrderedIdGenerator.MAX_NODE_ID);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadNodeId() {
+		new TimeOrderedIdGenerator().setNodeId(TimeOrderedIdGenerator.MAX_NODE_ID + 1);
+	}
+
+	@Test
+	public void testThreadSafety() throws InterruptedException {
+		final TimeOrderedIdGenerator gen = new TimeOrderedIdGenerator();
+		final ConcurrentHashMap<Long, Long> ids = new ConcurrentHashMap<Long, Long>();
+		final int perThread = 20000;
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; ++i) {
+						Long id = gen.nextId();
+						ids.put(id, id);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+
+		assertEquals("all ids unique", threads.length * perThread, ids.size());
+	}
+}
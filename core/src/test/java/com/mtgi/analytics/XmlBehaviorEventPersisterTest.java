@@ -17,6 +17,7 @@ import static org.apache.commons.io.IOUtils.readLines;
 import static org.custommonkey.xmlunit.XMLUnit.buildTestDocument;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -25,6 +26,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -48,6 +50,7 @@ import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import com.mtgi.analytics.sql.SqlDictionary;
 import com.mtgi.io.RelocatableFile;
 import com.sun.xml.fastinfoset.tools.FI_SAX_XML;
 
@@ -89,6 +92,72 @@ public class XmlBehaviorEventPersisterTest {
 		assertFalse("persister defaults to plain text format", persister.isBinary());
 	}
 	
+	@Test
+	public void testTextRecordedOncePerLog() throws Exception {
+		SqlDictionary.Entry entry = new SqlDictionary().lookup("select NAME from T where ID = 1");
+		persister.persist(createSqlEvents(entry, 2));
+		File archive = new File(persister.rotateLog());
+		try {
+			assertEquals("text recorded once per log", 1, countMatches(FileUtils.readFileToString(archive), entry.getSql()));
+			
+			persister.persist(createSqlEvents(entry, 2));
+			persister.flushLog();
+			assertEquals("text recorded again after rotation", 1, countMatches(FileUtils.readFileToString(file), entry.getSql()));
+		} finally {
+			archive.delete();
+		}
+		
+		//other logs are not affected by this one.
+		File otherFile = File.createTempFile("other", ".xml");
+		otherFile.delete();
+		XmlBehaviorEventPersisterImpl other = new XmlBehaviorEventPersisterImpl();
+		other.setFile(otherFile.getAbsolutePath());
+		other.afterPropertiesSet();
+		otherFile = new File(other.getFile());
+		try {
+			other.persist(createSqlEvents(entry, 2));
+			other.flushLog();
+			assertEquals("text recorded in other logs", 1, countMatches(FileUtils.readFileToString(otherFile), entry.getSql()));
+		} finally {
+			other.destroy();
+			otherFile.delete();
+		}
+	}
+	
+	/** create events with sql data whose text is included only the first time the statement is recorded */
+	private static LinkedList<BehaviorEvent> createSqlEvents(final SqlDictionary.Entry entry, int count) {
+		LinkedList<BehaviorEvent> events = new LinkedList<BehaviorEvent>();
+		for (int i = 0; i < count; ++i) {
+			BehaviorEvent event = new BehaviorEvent(null, "jdbc", entry.getFingerprint(), "test", null, null);
+			EventDataElement sql = new EventDataElement("sql") {
+				private static final long serialVersionUID = 1L;
+				private String text;
+				private boolean resolved;
+				@Override
+				public String getText() {
+					if (!resolved) {
+						resolved = true;
+						text = entry.record() ? entry.getSql() : null;
+					}
+					return text;
+				}
+			};
+			sql.add("fingerprint", entry.getFingerprint());
+			event.addData().addElement(sql);
+			event.start();
+			event.stop();
+			events.add(event);
+		}
+		return events;
+	}
+	
+	private static int countMatches(String text, String match) {
+		int count = 0;
+		for (int index = text.indexOf(match); index >= 0; index = text.indexOf(match, index + 1))
+			++count;
+		return count;
+	}
+
 	@Test
 	public void testNestedEvents() throws InterruptedException, IOException, XMLStreamException, SAXException {
 		//we reuse the test event creation code from jdbc persister test to get ourselves an interesting dataset.
@@ -167,6 +236,193 @@ public class XmlBehaviorEventPersisterTest {
 			fail(diff.appendMessage(new StringBuffer()).toString());
 	}
 	
+	@Test
+	public void testAsynchronous() throws Exception {
+		persister.destroy();
+		file.delete();
+		persister = new XmlBehaviorEventPersisterImpl();
+		persister.setFile(file.getAbsolutePath());
+		persister.setAsynchronous(true);
+		persister.setCommitSize(10);
+		persister.setCommitInterval(60000);
+		persister.setFsyncPolicy("batch");
+		persister.afterPropertiesSet();
+		assertTrue(persister.isAsynchronous());
+		assertEquals("batch", persister.getFsyncPolicy());
+		
+		//queue up several batches from multiple threads.
+		final ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+		int[] counter = { 0 };
+		for (int i = 0; i < 3; ++i)
+			JdbcBehaviorEventPersisterTest.createEvent(null, 1, 3, 3, counter, events);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					persister.persist(new LinkedList<BehaviorEvent>(events));
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		for (BehaviorEvent event : events)
+			assertNotNull("ids assigned on calling thread", event.getId());
+
+		persister.flushLog();
+		assertEquals("all batches written", 0, persister.getPendingBatches());
+		assertEquals("all events committed", 4 * events.size(), countEvents(FileUtils.readFileToString(file)));
+		
+		//events queued before shutdown are written to the log.
+		persister.persist(new LinkedList<BehaviorEvent>(events));
+		persister.destroy();
+		Document doc = buildTestDocument(FileUtils.readFileToString(file));
+		assertEquals("log completed on shutdown", 5 * events.size(), doc.getDocumentElement().getElementsByTagName("event").getLength());
+	}
+	
+	@Test
+	public void testStalledWriter() throws Exception {
+		persister.destroy();
+		file.delete();
+		persister = new XmlBehaviorEventPersisterImpl();
+		persister.setFile(file.getAbsolutePath());
+		persister.setAsynchronous(true);
+		persister.setBatchQueueSize(1);
+		persister.setWriterTimeout(100);
+		persister.afterPropertiesSet();
+		
+		final ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+		JdbcBehaviorEventPersisterTest.createEvent(null, 1, 1, 1, new int[] { 0 }, events);
+		
+		//the writer thread can't write while we hold the persister's monitor, so the queue fills up.
+		long start = System.currentTimeMillis();
+		synchronized (persister) {
+			for (int i = 0; i < 3; ++i)
+				persister.persist(new LinkedList<BehaviorEvent>(events));
+			persister.flushLog();
+		}
+		assertTrue("callers did not block indefinitely", System.currentTimeMillis() - start < 5000);
+		long dropped = persister.getDroppedEvents();
+		assertTrue("overflow batches counted", dropped > 0);
+		assertEquals("whole batches dropped", 0, dropped % events.size());
+		
+		//once the writer recovers, batches are accepted again.
+		persister.persist(new LinkedList<BehaviorEvent>(events));
+		persister.flushLog();
+		assertEquals(dropped, persister.getDroppedEvents());
+	}
+	
+	@Test
+	public void testFsyncPolicy() throws Exception {
+		persister.setFsyncPolicy("interval");
+		assertEquals("interval", persister.getFsyncPolicy());
+		
+		ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+		int[] counter = { 0 };
+		JdbcBehaviorEventPersisterTest.createEvent(null, 1, 3, 3, counter, events);
+		persister.persist(new LinkedList<BehaviorEvent>(events));
+		assertEquals("events written synchronously", events.size(), countEvents(FileUtils.readFileToString(file)));
+		
+		try {
+			persister.setFsyncPolicy("sometimes");
+			fail("invalid policy rejected");
+		} catch (IllegalArgumentException expected) {}
+	}
+	
+	@Test
+	public void testSegmentRollover() throws Exception {
+		persister.setSegmentSize(1 << 16);
+		persister.setCompress(true);
+		persister.rotateLog();
+		file = new File(persister.getFile());
+		assertTrue("compression not used for segments", file.getName().endsWith(".xml"));
+		assertTrue("segment preallocated", file.length() >= 1 << 16);
+		
+		ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+		int[] counter = { 0 };
+		JdbcBehaviorEventPersisterTest.createEvent(null, 1, 3, 3, counter, events);
+		
+		//write enough batches to fill several segments.
+		Pattern archivePattern = Pattern.compile(Pattern.quote(file.getName()) + "\\.\\d+(?:_\\d+)?");
+		for (int i = 0; i < 40; ++i)
+			persister.persist(new LinkedList<BehaviorEvent>(events));
+		assertTrue("current segment not full", persister.getFileSize() < 1 << 16);
+		persister.destroy();
+		
+		File[] archives = file.getParentFile().listFiles();
+		int total = countEvents(FileUtils.readFileToString(file));
+		int segments = 0;
+		for (File archive : archives) {
+			if (archivePattern.matcher(archive.getName()).matches()) {
+				Document doc = buildTestDocument(FileUtils.readFileToString(archive));
+				total += doc.getDocumentElement().getElementsByTagName("event").getLength();
+				++segments;
+				archive.delete();
+			}
+		}
+		assertTrue("log rolled to new segments", segments > 1);
+		assertEquals("all events logged", 40 * events.size(), total);
+	}
+	
+	@Test
+	public void testSegmentRecovery() throws Exception {
+		for (boolean binary : new boolean[] { false, true }) {
+			persister.destroy();
+			file.delete();
+			
+			XmlBehaviorEventPersisterImpl crashed = new XmlBehaviorEventPersisterImpl();
+			crashed.setFile(file.getAbsolutePath());
+			crashed.setBinary(binary);
+			crashed.setSegmentSize(1 << 16);
+			crashed.afterPropertiesSet();
+			
+			ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+			int[] counter = { 0 };
+			JdbcBehaviorEventPersisterTest.createEvent(null, 1, 3, 3, counter, events);
+			crashed.persist(new LinkedList<BehaviorEvent>(events));
+			
+			//start up a new persister over the same log without shutting down the first one.
+			File[] before = file.getParentFile().listFiles();
+			persister = new XmlBehaviorEventPersisterImpl();
+			persister.setFile(file.getAbsolutePath());
+			persister.setBinary(binary);
+			persister.setSegmentSize(1 << 16);
+			persister.afterPropertiesSet();
+			file = new File(persister.getFile());
+			
+			File archive = null;
+			for (File f : file.getParentFile().listFiles())
+				if (f.getName().startsWith(file.getName() + ".") && !Arrays.asList(before).contains(f))
+					archive = f;
+			assertNotNull("crashed segment archived", archive);
+			
+			String xml;
+			if (binary) {
+				ByteArrayOutputStream converted = new ByteArrayOutputStream();
+				FileInputStream fis = new FileInputStream(archive);
+				try {
+					new FI_SAX_XML().parse(fis, converted);
+				} finally {
+					fis.close();
+				}
+				xml = converted.toString("UTF-8");
+			} else {
+				xml = FileUtils.readFileToString(archive);
+			}
+			Document doc = buildTestDocument(xml);
+			assertEquals("committed events recovered", events.size(), doc.getDocumentElement().getElementsByTagName("event").getLength());
+			archive.delete();
+		}
+	}
+	
+	private static int countEvents(String xml) {
+		int count = 0;
+		for (int i = xml.indexOf("<event "); i >= 0; i = xml.indexOf("<event ", i + 1))
+			++count;
+		return count;
+	}
+	
 	@Test @SuppressWarnings("unchecked")
 	public void testCompress() throws Exception {
 		persister.setBinary(true);
@@ -325,6 +581,86 @@ public class XmlBehaviorEventPersisterTest {
 		}
 	}
 	
+	@Test
+	public void testRecords() throws Exception {
+		ArrayList<BehaviorEvent> events = new ArrayList<BehaviorEvent>();
+		int[] counter = { 0 };
+		for (int i = 0; i < 3; ++i)
+			JdbcBehaviorEventPersisterTest.createEvent(null, 1, 3, 3, counter, events);
+		
+		//log the events as text xml for size comparison.
+		persister.persist(new LinkedList<BehaviorEvent>(events));
+		File xml = new File(persister.rotateLog());
+		xml.deleteOnExit();
+
+		persister.setRecords(true);
+		persister.rotateLog();
+		file = new File(persister.getFile());
+		assertTrue("record log extension", file.getName().endsWith(".bevt"));
+		
+		persister.persist(new LinkedList<BehaviorEvent>(events));
+		assertEquals("persister reports correct file size", file.length(), persister.getFileSize());
+		File source = new File(persister.rotateLog());
+		source.deleteOnExit();
+		
+		byte[] data = FileUtils.readFileToByteArray(source);
+		assertTrue("records are much smaller than xml: " + data.length + " vs " + xml.length(), data.length * 3 < xml.length());
+		assertEquals("every event was written, including log close", events.size(), countRecords(data));
+		
+		//a crashed segment is closed on recovery.
+		persister.destroy();
+		file.delete();
+		XmlBehaviorEventPersisterImpl crashed = new XmlBehaviorEventPersisterImpl();
+		crashed.setFile(file.getAbsolutePath());
+		crashed.setRecords(true);
+		crashed.setSegmentSize(1 << 16);
+		crashed.afterPropertiesSet();
+		crashed.persist(new LinkedList<BehaviorEvent>(events));
+		
+		persister = new XmlBehaviorEventPersisterImpl();
+		persister.setFile(file.getAbsolutePath());
+		persister.setRecords(true);
+		persister.setSegmentSize(1 << 16);
+		File[] before = file.getParentFile().listFiles();
+		persister.afterPropertiesSet();
+		for (File f : file.getParentFile().listFiles())
+			if (f.getName().startsWith(file.getName() + ".") && !Arrays.asList(before).contains(f)) {
+				assertEquals("committed events recovered", events.size(), countRecords(FileUtils.readFileToByteArray(f)));
+				f.delete();
+			}
+	}
+	
+	/** 
+	 * walk the records in a log written by EventRecordWriter, verifying that it is well formed.
+	 * @return the number of event records
+	 */
+	private static int countRecords(byte[] data) {
+		for (int i = 0; i < EventRecordWriter.HEADER.length; ++i)
+			assertEquals("header[" + i + "]", EventRecordWriter.HEADER[i], data[i]);
+		int events = 0;
+		for (int pos = EventRecordWriter.HEADER.length; pos < data.length; ) {
+			int length = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = data[pos++];
+				length |= (b & 0x7F) << shift;
+				if (b >= 0)
+					break;
+			}
+			int type = data[pos];
+			pos += length;
+			if (type == EventRecordWriter.RECORD_EVENT) {
+				++events;
+			} else if (type == EventRecordWriter.RECORD_END) {
+				assertEquals("log ends after end record", data.length, pos);
+				return events;
+			} else {
+				assertTrue("valid record type " + type, type == EventRecordWriter.RECORD_STRING || type == EventRecordWriter.RECORD_RESET);
+			}
+		}
+		fail("log end record not found");
+		return events;
+	}
+	
 	/** 
 	 * if the persister was not shut down cleanly, we might have an old log file without a timestamp laying around.
 	 * make sure log rotation doesn't clobber it.
@@ -38,6 +38,9 @@ public class BehaviorAdviceTest extends JdbcEventTestCase {
 	@SpringBeanByType
 	private MockSessionContext sessionContext;
 	
+	@SpringBeanByType
+	private BehaviorTrackingAdvice advice;
+	
 	@Before
 	public void setUpTestSession() {
 		sessionContext.setContextUserId("testUser");
@@ -71,6 +74,26 @@ public class BehaviorAdviceTest extends JdbcEventTestCase {
 		assertEventDataMatches("BehaviorAdviceTest.testComplexParameters-result.xml");
 	}
 	
+	/** test that deferred rendering of parameters and results produces the same data as eager capture */
+	@Test
+	public void testDeferredCapture() throws Exception {
+		assertFalse("eager capture by default", advice.isDeferredCapture());
+		advice.setDeferredCapture(true);
+		try {
+			ServiceB arg = new SubServiceB();
+			assertSame("argument value is returned unmodified", arg, service.getWeirdParametersTracked(this, arg, Param.Value_1, "hello", "world"));
+			assertNull("null values allowed", service.getWeirdParametersTracked(null, null, null));
+			
+			arg = new ServiceB();
+			assertSame("argument value is returned unmodified", arg, service.getWeirdParametersTracked(this, arg, Param.Value_2, null, "value"));
+			
+			manager.flush();
+			assertEventDataMatches("BehaviorAdviceTest.testComplexParameters-result.xml");
+		} finally {
+			advice.setDeferredCapture(false);
+		}
+	}
+	
 	/** test that event tracking responds graceful to application exceptions */
 	@Test
 	public void testExceptionHandling() throws Exception {
@@ -107,6 +130,15 @@ public class BehaviorAdviceTest extends JdbcEventTestCase {
 		assertEventDataMatches("BehaviorAdviceTest.testPrimitiveTypes-result.xml");
 	}
 	
+	/** test customization of event names and data with {@link Tracked} and {@link TrackedParam} */
+	@Test
+	public void testAnnotations() throws Exception {
+		StringBuilder buf = new StringBuilder("abcdefgh");
+		assertEquals("serviceA:annotated", service.getAnnotatedTracked("secret", new SubServiceB(), buf, "hello"));
+		manager.flush();
+		assertEventDataMatches("BehaviorAdviceTest.testAnnotations-result.xml");
+	}
+	
 	/**
 	 * Spring bean class that depends on another spring bean (ServiceB).
 	 * Some method calls in this class are tracked, some aren't.
@@ -166,6 +198,17 @@ public class BehaviorAdviceTest extends JdbcEventTestCase {
 		public void throwExceptionTracked(long ignored) {
 			throw ERROR;
 		}
+		
+		/**
+		 * Tests annotation overrides of event name and parameter capture.
+		 */
+		@Tracked(name="annotated", result=Capture.VALUE, resultMaxLength=4)
+		public String getAnnotatedTracked(@TrackedParam(capture=Capture.NONE) String password, 
+										  @TrackedParam(capture=Capture.TYPE) ServiceB service,
+										  @TrackedParam(capture=Capture.VALUE, maxLength=5) Object value,
+										  @TrackedParam(maxLength=3) String text) {
+			return "serviceA:annotated";
+		}
 	}
 	
 	public static enum Param {
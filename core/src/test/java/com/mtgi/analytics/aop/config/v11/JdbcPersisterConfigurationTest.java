@@ -36,6 +36,7 @@ import com.mtgi.analytics.BehaviorTrackingManagerImpl;
 import com.mtgi.analytics.JAASSessionContext;
 import com.mtgi.analytics.JdbcBehaviorEventPersisterImpl;
 import com.mtgi.analytics.SessionContext;
+import com.mtgi.analytics.TimeOrderedIdGenerator;
 
 @SpringApplicationContext("com/mtgi/analytics/aop/config/v11/JdbcPersisterConfigurationTest-applicationContext.xml")
 @RunWith(UnitilsJUnit4TestClassRunner.class)
@@ -46,6 +47,9 @@ public class JdbcPersisterConfigurationTest {
 
 	@SpringBeanByName
 	private DataSource unitilsDS;
+
+	@SpringBeanByName
+	private TimeOrderedIdGenerator idGenerator;
 	
 	@Test
 	public void testConfiguration() throws Exception {
@@ -57,6 +61,15 @@ public class JdbcPersisterConfigurationTest {
 		JdbcBehaviorEventPersisterImpl persister = (JdbcBehaviorEventPersisterImpl)defaultTrackingManager.getPersister();
 		assertSame("correct datasource injected into persister", unitilsDS, persister.getDataSource());
 		assertEquals("custom id sql injected into persister", "select next value for SEQ_BEHAVIOR_TRACKING_EVENT from INFORMATION_SCHEMA.SYSTEM_SEQUENCES", persister.getIdSql());
+		assertEquals("id prefetch configured", 2, persister.getIdPrefetch());
+		assertTrue("adaptive batch size configured", persister.isAdaptiveBatchSize());
+		assertFalse("multi-row insert disabled by default", persister.isMultiRowInsert());
+		assertEquals("batch size configured", 50, persister.getBatchSize());
+		assertEquals("adaptive sizing starts at configured batch size", 50, persister.getCurrentBatchSize());
+		
+		//verify the id generator reference
+		assertSame("id generator injected into manager", idGenerator, defaultTrackingManager.getIdGenerator());
+		assertEquals(7, idGenerator.getNodeId());
 		
 		//verify proper configuration of log flush and rotation using private task executor and scheduler instances
 		TaskExecutor executor = defaultTrackingManager.getExecutor();
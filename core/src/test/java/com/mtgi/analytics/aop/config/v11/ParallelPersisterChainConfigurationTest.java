@@ -0,0 +1,73 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.aop.config.v11;
+
+import static org.junit.Assert.*;
+
+import java.sql.ResultSet;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.unitils.spring.annotation.SpringApplicationContext;
+import org.unitils.spring.annotation.SpringBeanByName;
+
+import com.mtgi.analytics.BehaviorEvent;
+import com.mtgi.analytics.BehaviorEventPersister;
+import com.mtgi.analytics.BehaviorTrackingManagerImpl;
+import com.mtgi.analytics.ChainingEventPersisterImpl;
+import com.mtgi.analytics.JdbcBehaviorEventPersisterImpl;
+import com.mtgi.analytics.JdbcEventTestCase;
+import com.mtgi.analytics.XmlBehaviorEventPersisterImpl;
+
+@SpringApplicationContext("com/mtgi/analytics/aop/config/v11/ParallelPersisterChainConfigurationTest-applicationContext.xml")
+public class ParallelPersisterChainConfigurationTest extends JdbcEventTestCase {
+
+	@SpringBeanByName
+	private BehaviorTrackingManagerImpl parallelTracking;
+
+	@SpringApplicationContext
+	private ConfigurableApplicationContext spring;
+	
+	@After
+	public void cleanup() {
+		spring.close();
+	}
+	
+	@Test
+	public void testParallelConfiguration() throws Exception {
+		ChainingEventPersisterImpl persister = (ChainingEventPersisterImpl)parallelTracking.getPersister();
+		BehaviorEventPersister[] delegates = persister.getDelegates().toArray(new BehaviorEventPersister[0]);
+		assertEquals("all delegates registered", 2, delegates.length);
+		assertEquals("first delegate has correct type", XmlBehaviorEventPersisterImpl.class, delegates[0].getClass());
+		assertEquals("second delegate has correct type", JdbcBehaviorEventPersisterImpl.class, delegates[1].getClass());
+		assertTrue("parallel mode enabled", persister.isParallel());
+		assertEquals("timeout set", 5000, persister.getTimeout());
+		assertNull("no id generator configured", persister.getIdGenerator());
+		
+		//the jdbc delegate needs numeric ids, which the chain assigns since the manager doesn't.
+		BehaviorEvent event = parallelTracking.createEvent("parallel", "testParallel");
+		parallelTracking.start(event);
+		parallelTracking.stop(event);
+		parallelTracking.flush();
+		assertTrue("numeric id assigned", event.getId() instanceof Long);
+		assertTrue("id from a time ordered generator rather than the database sequence", (Long)event.getId() > Integer.MAX_VALUE);
+		
+		ResultSet rs = stmt.executeQuery("select EVENT_ID from BEHAVIOR_TRACKING_EVENT where EVENT_TYPE = 'parallel'");
+		assertTrue("event persisted by jdbc delegate", rs.next());
+		assertEquals(event.getId(), rs.getLong(1));
+		assertFalse(rs.next());
+		rs.close();
+	}
+}
@@ -66,6 +66,7 @@ public class PersisterChainConfigurationTest {
 		assertEquals("first delegate has correct type", XmlBehaviorEventPersisterImpl.class, delegates[0].getClass());
 		assertEquals("second delegate has correct type", StatisticsMBeanEventPersisterImpl.class, delegates[1].getClass());
 		assertSame("third delegate is reference to top-level bean", customPersister, delegates[2]);
+		assertFalse("delegates invoked sequentially by default", persister.isParallel());
 		
 		//verify that MBeans have been registered
         MBeanServer server = JmxUtils.locateMBeanServer();
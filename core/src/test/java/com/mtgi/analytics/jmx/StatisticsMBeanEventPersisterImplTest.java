@@ -0,0 +1,136 @@
+package com.mtgi.analytics.jmx;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jmx.export.naming.ObjectNamingStrategy;
+
+import com.mtgi.analytics.BehaviorEvent;
+
+public class StatisticsMBeanEventPersisterImplTest {
+
+	private MBeanServer server;
+	private CountingNamingStrategy naming;
+	private StatisticsMBeanEventPersisterImpl inst;
+
+	@Before
+	public void setUp() {
+		server = MBeanServerFactory.newMBeanServer();
+		naming = new CountingNamingStrategy();
+		inst = new StatisticsMBeanEventPersisterImpl();
+		inst.setServer(server);
+		inst.setNamingStrategy(naming);
+		inst.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		inst.destroy();
+		inst = null;
+		server = null;
+	}
+
+	@Test
+	public void testNameCache() throws Exception {
+		assertTrue("caching enabled by default", inst.isCacheNames());
+
+		Queue<BehaviorEvent> events = new LinkedList<BehaviorEvent>();
+		for (int i = 0; i < 10; ++i) {
+			TestEvent root = new TestEvent(null, "http-request", "/test.do");
+			events.add(root);
+			events.add(new TestEvent(root, "method", "Type.method"));
+			events.add(new TestEvent(null, "method", "Type.method"));
+		}
+		inst.persist(events);
+
+		assertEquals("naming strategy consulted once per distinct event", 3, naming.calls);
+		assertCount(10, "testApp:type=http-request,name=/test.do");
+		assertCount(10, "testApp:type=http-request,name=/test.do,nested=method_Type.method");
+		assertCount(10, "testApp:type=method,name=Type.method");
+
+		//same path under a different parent is a new entry
+		TestEvent parent = new TestEvent(null, "http-request", "/other.do");
+		events.add(new TestEvent(parent, "method", "Type.method"));
+		inst.persist(events);
+		assertEquals("new names computed for new event and its parent", 5, naming.calls);
+		assertCount(1, "testApp:type=http-request,name=/other.do,nested=method_Type.method");
+	}
+
+	@Test
+	public void testCacheBound() throws Exception {
+		inst.setMaxCachedNames(2);
+
+		Queue<BehaviorEvent> events = new LinkedList<BehaviorEvent>();
+		for (int i = 0; i < 10; ++i)
+			for (int j = 0; j < 3; ++j)
+				events.add(new TestEvent(null, "method", "Type.method" + j));
+		inst.persist(events);
+
+		assertTrue("names recomputed once cache is full", naming.calls > 3);
+		for (int j = 0; j < 3; ++j)
+			assertCount(10, "testApp:type=method,name=Type.method" + j);
+	}
+
+	@Test
+	public void testCacheDisabled() throws Exception {
+		inst.setCacheNames(false);
+
+		Queue<BehaviorEvent> events = new LinkedList<BehaviorEvent>();
+		for (int i = 0; i < 10; ++i)
+			events.add(new TestEvent(null, "method", "Type.method"));
+		inst.persist(events);
+
+		assertEquals("naming strategy consulted for every event", 10, naming.calls);
+		assertCount(10, "testApp:type=method,name=Type.method");
+	}
+
+	private void assertCount(long expected, String name) throws Exception {
+		assertEquals("event count for " + name, expected, server.getAttribute(new ObjectName(name), "Count"));
+	}
+
+	private static class CountingNamingStrategy implements ObjectNamingStrategy {
+
+		private int calls;
+
+		public ObjectName getObjectName(Object managedBean, String beanKey) throws MalformedObjectNameException {
+			++calls;
+			BehaviorEvent event = (BehaviorEvent)managedBean;
+			StringBuffer nested = new StringBuffer();
+			for (; event.getParent() != null; event = event.getParent())
+				nested.insert(0, ",nested=" + event.getType() + "_" + event.getName());
+			return new ObjectName(event.getApplication() + ":type=" + event.getType() + ",name=" + event.getName() + nested);
+		}
+	}
+
+	private static class TestEvent extends BehaviorEvent {
+
+		private static final long serialVersionUID = -1738512045062498170L;
+
+		private Date start = new Date();
+
+		public TestEvent(BehaviorEvent parent, String type, String name) {
+			super(parent, type, name, "testApp", null, null);
+		}
+
+		@Override
+		public Date getStart() {
+			return start;
+		}
+
+		@Override
+		public Long getDurationNs() {
+			return 1000L;
+		}
+	}
+}
@@ -41,6 +41,17 @@ public class StatisticsMBeanTest {
 		}
 	}
 	
+	@Test
+	public void testLargeDurationPrecision() {
+		//a small spread around a large duration must not be lost to rounding.
+		inst.setUnits("nanoseconds");
+		long base = 3600L * 1000000000L;
+		for (long delta : new long[] { 0, 2, 4, 2 })
+			inst.add(base + delta);
+		assertEquals(base + 2, inst.getAverageTime(), 0.0001);
+		assertEquals(Math.sqrt(2), inst.getStandardDeviation(), 0.0001);
+	}
+	
 	@Test
 	public void testReset() {
 		//accumulate a bunch of data
@@ -114,6 +125,104 @@ public class StatisticsMBeanTest {
 		}
 	}
 	
+	@Test
+	public void testPercentiles() {
+		assertEquals("no data", 0.0, inst.getPercentile50(), 0.0);
+
+		//small values are counted exactly
+		Date now = new Date();
+		for (long i = 1; i <= 10; ++i)
+			inst.add(new TestEvent(now, i));
+		assertEquals(5.0, inst.getPercentile50(), 0.0);
+		assertEquals(9.0, inst.getPercentile90(), 0.0);
+		assertEquals(10.0, inst.getPercentile99(), 0.0);
+		assertEquals(1.0, inst.getPercentile(0), 0.0);
+		assertEquals(10.0, inst.getPercentile(100), 0.0);
+		
+		//larger values are estimated within a few percent
+		inst.reset();
+		for (long i = 1; i <= 100000; ++i)
+			inst.add(new TestEvent(now, i * 1000));
+		assertEquals(50000000, inst.getPercentile50(), 50000000 * 0.035);
+		assertEquals(90000000, inst.getPercentile90(), 90000000 * 0.035);
+		assertEquals(99000000, inst.getPercentile99(), 99000000 * 0.035);
+		assertEquals(99900000, inst.getPercentile999(), 99900000 * 0.035);
+		
+		inst.setUnits("millis");
+		assertEquals(99.0, inst.getPercentile99(), 99 * 0.035);
+		
+		try {
+			inst.getPercentile(101);
+			fail("invalid percentile should be rejected");
+		} catch (IllegalArgumentException expected) {}
+	}
+	
+	@Test
+	public void testHistogramBuckets() {
+		//bucket boundaries are contiguous and increasing, and every value falls within its bucket.
+		long[] samples = { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+		for (long v : samples) {
+			int b = StatisticsMBean.bucket(v);
+			assertTrue(v + " above lower bound", StatisticsMBean.bucketLowerBound(b) <= v);
+			assertTrue(v + " below upper bound", v < StatisticsMBean.bucketLowerBound(b + 1) || StatisticsMBean.bucketLowerBound(b + 1) == Long.MAX_VALUE);
+		}
+		for (int b = 1; b < StatisticsMBean.bucket(Long.MAX_VALUE); ++b)
+			assertEquals("bucket " + b, b, StatisticsMBean.bucket(StatisticsMBean.bucketLowerBound(b)));
+	}
+	
+	@Test
+	public void testThroughput() {
+		assertEquals(0.0, inst.getThroughput1Minute(), 0.0);
+
+		long now = System.currentTimeMillis();
+		//120 events in the last minute, 600 more up to 5 minutes ago, 900 more up to 15 minutes ago.
+		for (int i = 0; i < 120; ++i)
+			inst.add(new TestEvent(new Date(now - 100 - i * 250), 1));
+		for (int i = 0; i < 600; ++i)
+			inst.add(new TestEvent(new Date(now - 70000 - i * 300), 1));
+		for (int i = 0; i < 900; ++i)
+			inst.add(new TestEvent(new Date(now - 320000 - i * 500), 1));
+		//too old to count
+		inst.add(new TestEvent(new Date(now - 3600000), 1));
+
+		//allow one 5-second slot of slop at each end of a window.
+		assertEquals(2.0, inst.getThroughput1Minute(), 0.25);
+		assertEquals(720 / 300.0, inst.getThroughput5Minutes(), 0.1);
+		assertEquals(1620 / 900.0, inst.getThroughput15Minutes(), 0.05);
+		assertEquals(1621, inst.getCount());
+		
+		inst.reset();
+		assertEquals(0.0, inst.getThroughput15Minutes(), 0.0);
+	}
+	
+	@Test
+	public void testConcurrentAccumulation() throws InterruptedException {
+		final int perThread = 10000;
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; ++t) {
+			final long offset = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					Date now = new Date();
+					for (int i = 0; i < perThread; ++i)
+						inst.add(new TestEvent(now, offset * perThread + i));
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		
+		//values 0 .. n-1 were each added once.
+		long n = threads.length * perThread;
+		assertEquals(n, inst.getCount());
+		assertEquals(0.0, inst.getMinTime(), 0.0);
+		assertEquals(n - 1, inst.getMaxTime(), 0.0);
+		assertEquals((n - 1) / 2.0, inst.getAverageTime(), 0.000001);
+		assertEquals(Math.sqrt((n * n - 1) / 12.0), inst.getStandardDeviation(), 0.000001);
+	}
+	
 	private static final void assertStats(StatisticsMBean inst, Date last, double average, long count, long errors, long max, Long min, double stddev) {
 		assertEquals(count, inst.getCount());
 		assertEquals(0, inst.getErrorCount());
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.servlet;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Enumeration;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.mtgi.analytics.BehaviorEvent;
+import com.mtgi.analytics.BehaviorTrackingManagerImpl;
+import com.mtgi.analytics.MockSessionContext;
+import com.mtgi.analytics.NullBehaviorEventPersisterImpl;
+
+/**
+ * Single-threaded micro-benchmark of the per-request overhead of {@link ServletRequestBehaviorTrackingAdapter},
+ * using a mock request that simulates the cost of a reverse DNS lookup and of parsing a form-encoded
+ * request body on first access to parameters.  Compares the default capture options with host resolution
+ * disabled and parameter capture limited.  Ignored by default like the other performance tests; run it by hand.
+ */
+public class ServletRequestAdapterPerformanceTest {
+
+	private static final int REQUESTS = 20000;
+	private static final int ROUNDS = 5;
+	/** simulated reverse DNS lookup time, which in practice can be much longer */
+	private static final long DNS_NS = 20000;
+	private static final String FORM_BODY;
+	static {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 40; ++i) {
+			if (i > 0)
+				body.append('&');
+			body.append("field").append(i).append('=');
+			for (int j = 0; j < 10; ++j)
+				body.append("value%20").append(i).append("%2C");
+		}
+		FORM_BODY = body.toString();
+	}
+
+	@Test
+	@Ignore
+	public void testOverhead() throws Exception {
+		BehaviorTrackingManagerImpl manager = new BehaviorTrackingManagerImpl();
+		manager.setApplication("perfTest");
+		manager.setExecutor(new TaskExecutor() {
+			public void execute(Runnable task) {
+				task.run();
+			}
+		});
+		manager.setPersister(new NullBehaviorEventPersisterImpl());
+		manager.setSessionContext(new MockSessionContext());
+		manager.setFlushThreshold(1000);
+		manager.afterPropertiesSet();
+
+		ServletRequestBehaviorTrackingAdapter basis = new ServletRequestBehaviorTrackingAdapter(null, manager, null, null, null);
+		ServletRequestBehaviorTrackingAdapter test = new ServletRequestBehaviorTrackingAdapter(null, manager, null, null, null);
+		test.setResolveRemoteHost(false);
+		test.setMaxParameters(10);
+		test.setMaxParameterLength(32);
+
+		//warm up both paths before measuring.
+		run(basis);
+		run(test);
+
+		double basisNs = run(basis);
+		double testNs = run(test);
+		System.out.println("default options:           " + (long)basisNs + " ns/request");
+		System.out.println("no host lookup, limited:   " + (long)testNs + " ns/request");
+		System.out.println("speedup:                   " + (basisNs / testNs));
+	}
+
+	/** @return average time to start and stop tracking a request, in nanoseconds */
+	private static double run(ServletRequestBehaviorTrackingAdapter adapter) {
+		long elapsed = 0;
+		for (int r = 0; r < ROUNDS; ++r) {
+			for (int i = 0; i < REQUESTS; ++i) {
+				FormRequest request = new FormRequest();
+				long begin = System.nanoTime();
+				BehaviorEvent event = adapter.start(request);
+				adapter.stop(request, event);
+				elapsed += System.nanoTime() - begin;
+			}
+		}
+		return (double)elapsed / (ROUNDS * REQUESTS);
+	}
+
+	/** a request with a form-encoded body, parsed on first access to parameters like a servlet container would */
+	private static class FormRequest extends MockHttpServletRequest {
+
+		private boolean parsed;
+
+		FormRequest() {
+			super("POST", "/app/test/path");
+			setContentType("application/x-www-form-urlencoded");
+		}
+
+		@Override
+		public String getRemoteHost() {
+			LockSupport.parkNanos(DNS_NS);
+			return super.getRemoteHost();
+		}
+
+		@Override
+		public Enumeration<?> getParameterNames() {
+			parse();
+			return super.getParameterNames();
+		}
+
+		@Override
+		public String[] getParameterValues(String name) {
+			parse();
+			return super.getParameterValues(name);
+		}
+
+		private void parse() {
+			if (parsed)
+				return;
+			parsed = true;
+			try {
+				for (String pair : FORM_BODY.split("&")) {
+					int eq = pair.indexOf('=');
+					addParameter(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+				}
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.servlet;
+
+import static org.junit.Assert.*;
+
+import java.util.Enumeration;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLOutputFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.mtgi.analytics.BehaviorEvent;
+import com.mtgi.analytics.BehaviorTrackingManagerImpl;
+import com.mtgi.analytics.EventDataElementSerializer;
+import com.mtgi.analytics.MockSessionContext;
+import com.mtgi.analytics.NullBehaviorEventPersisterImpl;
+
+public class ServletRequestBehaviorTrackingAdapterTest {
+
+	private BehaviorTrackingManagerImpl manager;
+	private ServletRequestBehaviorTrackingAdapter adapter;
+	private CountingRequest request;
+	
+	@Before
+	public void setUp() throws Exception {
+		manager = new BehaviorTrackingManagerImpl();
+		manager.setApplication("testApp");
+		manager.setExecutor(new TaskExecutor() {
+			public void execute(Runnable task) {}
+		});
+		manager.setPersister(new NullBehaviorEventPersisterImpl());
+		manager.setSessionContext(new MockSessionContext());
+		manager.afterPropertiesSet();
+		
+		adapter = new ServletRequestBehaviorTrackingAdapter(null, manager, null, null, null);
+		
+		request = new CountingRequest();
+		request.setRequestURI("/app/test/path");
+		request.addParameter("param1", new String[] { "hello", "world" });
+		request.addParameter("param2", "");
+		request.addParameter("param3", "a long parameter value");
+	}
+	
+	@Test
+	public void testDefaults() {
+		BehaviorEvent event = adapter.start(request);
+		assertEquals("remote host resolved", 1, request.hostLookups);
+		assertTrue("parameters read before the application runs", request.parametersRead);
+		adapter.stop(request, event);
+		
+		String data = serialize(event);
+		assertTrue(data, data.contains("remote-host=\"localhost\""));
+		assertTrue(data, data.contains("<param name=\"param1\"><value>hello</value><value>world</value></param>"));
+		assertTrue(data, data.contains("<value>a long parameter value</value>"));
+	}
+	
+	@Test
+	public void testSkipRemoteHost() {
+		adapter.setResolveRemoteHost(false);
+		BehaviorEvent event = adapter.start(request);
+		adapter.stop(request, event);
+		
+		assertEquals("remote host not resolved", 0, request.hostLookups);
+		String data = serialize(event);
+		assertFalse(data, data.contains("remote-host"));
+		assertTrue(data, data.contains("remote-address=\"127.0.0.1\""));
+	}
+	
+	@Test
+	public void testDeferParameters() {
+		adapter.setDeferParameters(true);
+		BehaviorEvent event = adapter.start(request);
+		assertFalse("parameters not read before the application runs", request.parametersRead);
+		adapter.stop(request, event);
+		
+		assertTrue("parameters read after the application runs", request.parametersRead);
+		String data = serialize(event);
+		assertTrue(data, data.contains("<param name=\"param1\"><value>hello</value><value>world</value></param>"));
+	}
+	
+	@Test
+	public void testParameterLimits() {
+		adapter.setMaxParameters(2);
+		adapter.setMaxParameterLength(6);
+		BehaviorEvent event = adapter.start(request);
+		adapter.stop(request, event);
+		
+		String data = serialize(event);
+		assertEquals(data, 2, data.split("<param ").length - 1);
+		assertFalse("values truncated", data.contains("a long parameter value"));
+		
+		//explicit parameter lists are limited too.
+		adapter = new ServletRequestBehaviorTrackingAdapter(null, manager, new String[] { "missing", "param3", "param1" }, null, null);
+		adapter.setMaxParameters(1);
+		adapter.setMaxParameterLength(6);
+		event = adapter.start(request);
+		adapter.stop(request, event);
+		data = serialize(event);
+		assertTrue(data, data.contains("<param name=\"param3\"><value>a long</value></param>"));
+		assertFalse(data, data.contains("param1"));
+	}
+	
+	@Test
+	public void testUriRules() {
+		adapter = new ServletRequestBehaviorTrackingAdapter(null, manager, null, null, new Pattern[] { Pattern.compile("/app/.*") });
+		adapter.setExcludeUris(new String[] { "/app/static/*", "*.css" });
+		assertNotNull("included", adapter.start(request));
+		
+		request.setRequestURI("/app/static/logo.png");
+		assertNull("excluded by prefix", adapter.start(request));
+		request.setRequestURI("/app/style.css");
+		assertNull("excluded by suffix", adapter.start(request));
+		request.setRequestURI("/other/path");
+		assertNull("not included", adapter.start(request));
+		
+		adapter.setIncludeUris(new String[] { "/other/*" });
+		assertNotNull("included by prefix", adapter.start(request));
+		
+		CountingRequest excluded = new CountingRequest();
+		excluded.setRequestURI("/app/static/logo.png");
+		adapter.start(excluded);
+		assertFalse("parameters not read for excluded requests", excluded.parametersRead);
+	}
+	
+	@Test
+	public void testNormalizeUris() {
+		request.setRequestURI("/app/orders/8812/items/3");
+		request.addParameter("dispatch", "view");
+		assertEquals("raw uri by default", "/app/orders/8812/items/3", adapter.start(request).getName());
+		
+		adapter = new ServletRequestBehaviorTrackingAdapter(null, manager, null, new String[] { "dispatch" }, null);
+		adapter.setNormalizeUris(true);
+		BehaviorEvent event = adapter.start(request);
+		assertEquals("/app/orders/{id}/items/{id}?dispatch=view", event.getName());
+		assertTrue("raw uri in event data", serialize(event).contains("uri=\"/app/orders/8812/items/3\""));
+		
+		adapter.setUriTemplates(new String[] { "/app/orders/{order}/items/{item}" });
+		assertEquals("/app/orders/{order}/items/{item}?dispatch=view", adapter.start(request).getName());
+	}
+	
+	private static String serialize(BehaviorEvent event) {
+		return new EventDataElementSerializer(XMLOutputFactory.newInstance()).serialize(event.getData(), false);
+	}
+	
+	/** records access to expensive request data */
+	private static class CountingRequest extends MockHttpServletRequest {
+		
+		int hostLookups;
+		boolean parametersRead;
+		
+		@Override
+		public String getRemoteHost() {
+			++hostLookups;
+			return super.getRemoteHost();
+		}
+		
+		@Override
+		public Enumeration<?> getParameterNames() {
+			parametersRead = true;
+			return super.getParameterNames();
+		}
+		
+		@Override
+		public String[] getParameterValues(String name) {
+			parametersRead = true;
+			return super.getParameterValues(name);
+		}
+	}
+}
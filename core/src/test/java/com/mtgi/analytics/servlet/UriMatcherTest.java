@@ -0,0 +1,94 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.servlet;
+
+import static org.junit.Assert.*;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class UriMatcherTest {
+
+	@Test
+	public void testNoRules() {
+		UriMatcher matcher = new UriMatcher(null, null, null, null, 0);
+		assertTrue(matcher.matches("/anything"));
+		assertTrue(matcher.matches(""));
+	}
+	
+	@Test
+	public void testSimpleRules() {
+		UriMatcher matcher = new UriMatcher(null, 
+				new String[] { "/app/*", "/ap/*", "*.do", "/index.html" }, 
+				null, 
+				new String[] { "/app/static/*", "*.css", "*.js", "/app/ping" }, 
+				0);
+		
+		assertTrue(matcher.matches("/app/"));
+		assertTrue(matcher.matches("/app/orders/12"));
+		assertTrue(matcher.matches("/ap/x"));
+		assertTrue(matcher.matches("/other/submit.do"));
+		assertTrue(matcher.matches("/index.html"));
+		
+		assertFalse(matcher.matches("/app"));
+		assertFalse(matcher.matches("/a"));
+		assertFalse(matcher.matches("/index.html.bak"));
+		assertFalse(matcher.matches("/other.dox"));
+		
+		assertFalse("exclusion takes precedence", matcher.matches("/app/static/logo.png"));
+		assertFalse("exclusion takes precedence", matcher.matches("/app/style.css"));
+		assertFalse("exclusion takes precedence", matcher.matches("/app/script.js"));
+		assertFalse("exclusion takes precedence", matcher.matches("/app/ping"));
+		assertTrue(matcher.matches("/app/ping/not"));
+		
+		matcher = new UriMatcher(null, null, null, new String[] { "*" }, 0);
+		assertFalse(matcher.matches("/app"));
+	}
+	
+	@Test
+	public void testPatterns() {
+		UriMatcher matcher = new UriMatcher(
+				new Pattern[] { Pattern.compile("/app/.*tracked.*"), Pattern.compile("/app/also\\.traq") },
+				null,
+				new Pattern[] { Pattern.compile(".*/untracked/.*") },
+				null, 0);
+		assertTrue(matcher.matches("/app/tracked"));
+		assertTrue(matcher.matches("/app/x/tracked/y"));
+		assertTrue(matcher.matches("/app/also.traq"));
+		assertFalse("whole uri must match", matcher.matches("/app/also.traqs"));
+		assertFalse(matcher.matches("/app/alsoXtraq"));
+		assertFalse(matcher.matches("/app/tracked/untracked/z"));
+		
+		//patterns with backreferences or different flags are matched individually.
+		matcher = new UriMatcher(
+				new Pattern[] { Pattern.compile("/(\\w+)/\\1"), Pattern.compile("/CASE", Pattern.CASE_INSENSITIVE) },
+				null, null, null, 0);
+		assertTrue(matcher.matches("/a/a"));
+		assertFalse(matcher.matches("/a/b"));
+		assertTrue(matcher.matches("/case"));
+	}
+	
+	@Test
+	public void testCache() {
+		UriMatcher matcher = new UriMatcher(null, new String[] { "/app/*" }, null, new String[] { "*.css" }, 4);
+		for (int pass = 0; pass < 3; ++pass) {
+			for (int i = 0; i < 10; ++i) {
+				assertTrue(matcher.matches("/app/" + i));
+				assertFalse(matcher.matches("/app/" + i + ".css"));
+				assertFalse(matcher.matches("/other/" + i));
+			}
+		}
+	}
+}
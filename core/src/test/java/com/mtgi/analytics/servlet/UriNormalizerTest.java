@@ -0,0 +1,67 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.servlet;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class UriNormalizerTest {
+
+	@Test
+	public void testCollapseIds() {
+		UriNormalizer normalizer = new UriNormalizer(true, null, 0);
+		assertEquals("/orders/{id}/items/{id}", normalizer.normalize("/orders/8812/items/3"));
+		assertEquals("/orders/{id}/", normalizer.normalize("/orders/8812/"));
+		assertEquals("/docs/{uuid}", normalizer.normalize("/docs/3f2504e0-4f89-11d3-9a0c-0305e82c3301"));
+		assertEquals("/blobs/{hex}/raw", normalizer.normalize("/blobs/507f1f77bcf86cd799439011/raw"));
+		
+		String unchanged = "/app/v2/deadbeefdeadbeef/short1a2b/item-42/index.html";
+		assertSame("no identifiers", unchanged, normalizer.normalize(unchanged));
+		assertEquals("", normalizer.normalize(""));
+		assertEquals("/", normalizer.normalize("/"));
+	}
+	
+	@Test
+	public void testTemplates() {
+		UriNormalizer normalizer = new UriNormalizer(false, new String[] { 
+			"/users/{user}/profile", 
+			"/api/1/orders/{order}", 
+			"/users/{user}/{page}" 
+		}, 16);
+		
+		for (int pass = 0; pass < 2; ++pass) {
+			assertEquals("/users/{user}/profile", normalizer.normalize("/users/alice/profile"));
+			assertEquals("/users/{user}/profile", normalizer.normalize("/users/1234/profile"));
+			assertEquals("/users/{user}/{page}", normalizer.normalize("/users/bob/settings"));
+			assertEquals("literal identifiers in templates", "/api/1/orders/{order}", normalizer.normalize("/api/1/orders/77"));
+			assertEquals("/api/1/orders/{order}", normalizer.normalize("/api/2/orders/77"));
+			assertEquals("no match, not collapsed", "/orders/8812", normalizer.normalize("/orders/8812"));
+			assertEquals("/users/bob", normalizer.normalize("/users/bob"));
+		}
+		
+		normalizer = new UriNormalizer(true, new String[] { "/users/{user}/profile" }, 16);
+		assertEquals("/users/{user}/profile", normalizer.normalize("/users/alice/profile"));
+		assertEquals("no match, collapsed", "/orders/{id}", normalizer.normalize("/orders/8812"));
+	}
+	
+	@Test
+	public void testCache() {
+		UriNormalizer normalizer = new UriNormalizer(false, new String[] { "/users/{user}" }, 4);
+		for (int i = 0; i < 100; ++i) {
+			assertEquals("/users/{user}", normalizer.normalize("/users/user" + i));
+			assertEquals("/other/" + i, normalizer.normalize("/other/" + i));
+		}
+	}
+}
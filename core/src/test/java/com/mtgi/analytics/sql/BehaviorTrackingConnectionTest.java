@@ -0,0 +1,51 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.analytics.sql;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class BehaviorTrackingConnectionTest {
+
+	@Test
+	public void testAbortChecksIn() throws Exception {
+		Executor executor = createMock(Executor.class);
+		Connection target = createMock(Connection.class);
+		target.abort(executor);
+		target.close();
+		replay(executor, target);
+		
+		ConnectionStatistics statistics = new ConnectionStatistics();
+		statistics.checkedOut(0);
+		BehaviorTrackingConnection conn = new BehaviorTrackingConnection(null, "jdbc", null, target);
+		conn.statistics = statistics;
+		conn.checkoutTime = System.nanoTime();
+		
+		conn.abort(executor);
+		assertEquals("aborted connection checked in", 0, statistics.getActiveConnections());
+		assertEquals(1, statistics.getHoldTime().getCount());
+		
+		//a later close doesn't count the connection again.
+		conn.close();
+		assertEquals(0, statistics.getActiveConnections());
+		assertEquals(1, statistics.getHoldTime().getCount());
+		
+		verify(executor, target);
+	}
+}
@@ -15,6 +15,7 @@ package com.mtgi.analytics.sql;
 
 import static org.junit.Assert.*;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -41,6 +42,9 @@ public class BehaviorTrackingDataSourceTest extends JdbcEventTestCase {
 	@SpringBeanByType
 	private BehaviorTrackingManagerImpl manager;
 	
+	@SpringBeanByType
+	private BehaviorTrackingDataSource dataSource;
+	
 	@Before
 	public void initTestTable() throws SQLException{
 		sessionContext.setContextUserId("dbUser");
@@ -142,6 +146,226 @@ public class BehaviorTrackingDataSourceTest extends JdbcEventTestCase {
 		assertEventDataMatches("BehaviorTrackingDataSourceTest.testPreparedStatement-result.xml");
 	}
 
+	@Test
+	public void testNormalizedSql() throws Exception {
+		dataSource.setNormalizeSql(true);
+		Connection normalized = dataSource.getConnection();
+		try {
+			//statements differing only in literals share an event name, and statement text is logged once.
+			Statement stmt = normalized.createStatement();
+			assertFalse(stmt.execute("insert into TEST_TRACKING values (1, 'hello', null)"));
+			assertFalse(stmt.execute("insert into TEST_TRACKING values (2, 'goodbye', null)"));
+
+			stmt.addBatch("insert into TEST_TRACKING values (3, 'batch', '1')");
+			stmt.addBatch("insert into TEST_TRACKING values (4, 'batch', '2')");
+			stmt.executeBatch();
+			stmt.close();
+			
+			PreparedStatement query = normalized.prepareStatement("select ID from TEST_TRACKING where ID in (1, 2)");
+			ResultSet rs = query.executeQuery();
+			int count = 0;
+			while (rs.next())
+				++count;
+			rs.close();
+			query.close();
+			assertEquals(2, count);
+		} finally {
+			normalized.close();
+			dataSource.setNormalizeSql(false);
+		}
+		
+		manager.flush();
+		assertEventDataMatches("BehaviorTrackingDataSourceTest.testNormalizedSql-result.xml");
+	}
+
+	@Test
+	public void testBatchCapture() throws Exception {
+		dataSource.setMaxBatchRows(1);
+		dataSource.setMaxParameterLength(3);
+		Connection limited = dataSource.getConnection();
+		try {
+			//only the first row of the batch is logged, with truncated values.
+			PreparedStatement stmt = limited.prepareStatement("insert into TEST_TRACKING values (?, ?, ?)");
+			for (int i = 1; i <= 3; ++i) {
+				stmt.setLong(1, i);
+				stmt.setString(2, "batch" + i);
+				stmt.setObject(3, null, Types.VARCHAR);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+			stmt.close();
+		} finally {
+			limited.close();
+		}
+		
+		dataSource.setBatchCapture(BatchCapture.TYPES);
+		limited = dataSource.getConnection();
+		try {
+			//only row count and parameter types are logged.
+			PreparedStatement stmt = limited.prepareStatement("insert into TEST_TRACKING values (?, ?, ?)");
+			for (int i = 4; i <= 5; ++i) {
+				stmt.setLong(1, i);
+				stmt.setString(2, "batch" + i);
+				stmt.setNull(3, Types.VARCHAR);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+			stmt.close();
+		} finally {
+			limited.close();
+			dataSource.setBatchCapture(BatchCapture.ROWS);
+			dataSource.setMaxBatchRows(-1);
+			dataSource.setMaxParameterLength(-1);
+		}
+		
+		manager.flush();
+		assertEventDataMatches("BehaviorTrackingDataSourceTest.testBatchCapture-result.xml");
+	}
+
+	@Test
+	public void testResultSetTracking() throws Exception {
+		dataSource.setTrackResultSets(true);
+		Connection tracked = dataSource.getConnection();
+		try {
+			Statement insert = tracked.createStatement();
+			insert.executeUpdate("insert into TEST_TRACKING values (1, 'one', null)");
+			insert.executeUpdate("insert into TEST_TRACKING values (2, 'two', null)");
+			insert.close();
+
+			//fetch statistics are logged when the results are exhausted.
+			PreparedStatement query = tracked.prepareStatement("select ID from TEST_TRACKING order by ID");
+			ResultSet rs = query.executeQuery();
+			assertSame(query, rs.getStatement());
+			int count = 0;
+			while (rs.next())
+				++count;
+			assertEquals(2, count);
+			rs.close();
+			query.close();
+			
+			//or when the statement is closed, if the results are not.
+			Statement select = tracked.createStatement();
+			assertTrue(select.execute("select NAME from TEST_TRACKING where ID = 2"));
+			rs = select.getResultSet();
+			assertSame("repeated calls return the same instrumented results", rs, select.getResultSet());
+			assertTrue(rs.next());
+			select.close();
+		} finally {
+			tracked.close();
+			dataSource.setTrackResultSets(false);
+		}
+		
+		manager.flush();
+		
+		//fetch times vary, so verify the event data directly rather than with a dataset.
+		Statement verify = ((ConnectionProxy)conn).getTargetConnection().createStatement();
+		try {
+			ResultSet events = verify.executeQuery("select EVENT_NAME, EVENT_DATA, EVENT_TYPE, DURATION_NS from BEHAVIOR_TRACKING_EVENT order by EVENT_ID");
+			String[] expected = { "executeUpdate", "executeUpdate", "executeQuery", "fetch", "execute", "fetch", "flush" };
+			String[] data = new String[expected.length];
+			for (int i = 0; i < expected.length; ++i) {
+				assertTrue("event " + i + " logged", events.next());
+				assertEquals(expected[i], events.getString(1));
+				data[i] = events.getString(2);
+				if ("fetch".equals(expected[i])) {
+					assertEquals("fetch events have their own type", "jdbc-fetch", events.getString(3));
+					assertTrue("fetch duration is the fetch time", data[i].contains("fetch-ns=\"" + events.getLong(4) + "\""));
+				}
+			}
+			assertFalse(events.next());
+			events.close();
+			
+			assertTrue(data[3], data[3].matches(".*<event-data rows=\"2\" fetch-ns=\"\\d+\" first-row-ns=\"\\d+\"><sql>select ID from TEST_TRACKING order by ID</sql></event-data>.*"));
+			assertTrue(data[5], data[5].matches(".*<event-data rows=\"1\" fetch-ns=\"\\d+\" first-row-ns=\"\\d+\"><sql>select NAME from TEST_TRACKING where ID = 2</sql></event-data>.*"));
+		} finally {
+			verify.close();
+		}
+	}
+
+	@Test
+	public void testNormalizedFetch() throws Exception {
+		dataSource.setTrackResultSets(true);
+		dataSource.setNormalizeSql(true);
+		Connection tracked = dataSource.getConnection();
+		try {
+			Statement insert = tracked.createStatement();
+			insert.executeUpdate("insert into TEST_TRACKING values (1, 'one', null)");
+			insert.close();
+
+			//fetches from prepared statements are named for the prepared statement fingerprint.
+			PreparedStatement query = tracked.prepareStatement("select NAME from TEST_TRACKING where ID = ?");
+			query.setInt(1, 1);
+			ResultSet rs = query.executeQuery();
+			assertTrue(rs.next());
+			assertFalse(rs.next());
+			query.close();
+		} finally {
+			tracked.close();
+			dataSource.setNormalizeSql(false);
+			dataSource.setTrackResultSets(false);
+		}
+		
+		manager.flush();
+		
+		Statement verify = ((ConnectionProxy)conn).getTargetConnection().createStatement();
+		try {
+			ResultSet events = verify.executeQuery("select EVENT_NAME, EVENT_DATA from BEHAVIOR_TRACKING_EVENT where EVENT_TYPE = 'jdbc' order by EVENT_ID");
+			assertTrue(events.next());
+			assertTrue(events.next());
+			String query = events.getString(1);
+			assertFalse("query named for fingerprint", "executeQuery".equals(query));
+			events.close();
+			
+			events = verify.executeQuery("select EVENT_NAME, EVENT_DATA from BEHAVIOR_TRACKING_EVENT where EVENT_TYPE = 'jdbc-fetch'");
+			assertTrue("fetch event logged", events.next());
+			assertEquals("fetch named for query fingerprint", query, events.getString(1));
+			String data = events.getString(2);
+			assertTrue(data, data.contains("operation=\"fetch\""));
+			assertTrue(data, data.matches(".*first-row-ns=\"\\d+\".*"));
+			assertFalse(events.next());
+			events.close();
+		} finally {
+			verify.close();
+		}
+	}
+
+	@Test
+	public void testConnectionStatistics() throws Exception {
+		ConnectionStatistics statistics = new ConnectionStatistics();
+		dataSource.setConnectionStatistics(statistics);
+		try {
+			Connection first = dataSource.getConnection();
+			Connection second = dataSource.getConnection();
+			assertEquals(2, statistics.getActiveConnections());
+			assertEquals(2, statistics.getCheckoutCount());
+			
+			second.close();
+			assertEquals(1, statistics.getActiveConnections());
+			assertEquals(1, statistics.getHoldTime().getCount());
+			first.close();
+			
+			//the test connection pool doesn't support per-user connections.
+			try {
+				dataSource.getConnection("nobody", "invalid");
+				fail("per-user connection should be rejected");
+			} catch (UnsupportedOperationException expected) {
+			}
+		} finally {
+			dataSource.setConnectionStatistics(null);
+		}
+		
+		assertEquals(0, statistics.getActiveConnections());
+		assertEquals(2, statistics.getPeakActiveConnections());
+		assertEquals(2, statistics.getCheckoutCount());
+		assertEquals(2, statistics.getHoldTime().getCount());
+		assertEquals(1, statistics.getCheckoutFailures());
+		assertTrue(statistics.getMaxHoldTime() >= statistics.getHoldTimePercentile(50));
+		
+		statistics.reset();
+		assertEquals(0, statistics.getCheckoutCount());
+		assertEquals(0, statistics.getPeakActiveConnections());
+	}
+
 	@Test
 	public void testExceptionHandling() throws Exception {
 		try {
@@ -13,7 +13,12 @@
  
 package com.mtgi.analytics.sql;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -59,6 +64,72 @@ public class PerformanceTest extends AbstractPerformanceTestCase {
 		testPerformance(basisJob, testJob);
 	}
 	
+	/**
+	 * Compares the per-call cost of the delegating statement wrappers against a
+	 * reflective dynamic proxy, which is how statements were instrumented in earlier releases.
+	 * Tracking is suspended so that only dispatch overhead is measured.
+	 */
+	@Test
+	@Ignore
+	public void testDispatchOverhead() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:dispatchOverhead", "sa", "");
+		try {
+			conn.createStatement().execute("create table DISPATCH_TEST (NUM NUMERIC(16), NAME VARCHAR(16))");
+			String sql = "insert into DISPATCH_TEST (NUM, NAME) values (?, ?)";
+
+			PreparedStatement raw = conn.prepareStatement(sql);
+			BehaviorTrackingConnection wrapper = new BehaviorTrackingConnection(null, "jdbc", null, conn);
+			wrapper.suspendTracking();
+			PreparedStatement wrapped = wrapper.prepareStatement(sql);
+			PreparedStatement proxied = (PreparedStatement)Proxy.newProxyInstance(
+					PerformanceTest.class.getClassLoader(), 
+					new Class[] { PreparedStatement.class }, 
+					new PassThroughHandler(conn.prepareStatement(sql)));
+			
+			for (int i = 0; i < 5; ++i) {
+				System.out.println("iteration " + i);
+				System.out.println("  raw:     " + timeSetters(raw) + "ns / call");
+				System.out.println("  wrapper: " + timeSetters(wrapped) + "ns / call");
+				System.out.println("  proxy:   " + timeSetters(proxied) + "ns / call");
+			}
+		} finally {
+			conn.close();
+		}
+	}
+	
+	private static double timeSetters(PreparedStatement stmt) throws SQLException {
+		final int calls = 1000000;
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i += 2) {
+			stmt.setLong(1, i);
+			stmt.setString(2, "name");
+		}
+		return (System.nanoTime() - start) / (double)calls;
+	}
+	
+	/** reflective dispatch to a target object, equivalent to the proxy handlers formerly used for instrumentation */
+	private static class PassThroughHandler implements InvocationHandler {
+		
+		private Object target;
+		
+		public PassThroughHandler(Object target) {
+			this.target = target;
+		}
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			//simulate the method name tests performed by the old statement handlers.
+			String op = method.getName();
+			if (op.startsWith("execute") || op.equals("addBatch") || op.startsWith("set") && args.length > 3)
+				throw new UnsupportedOperationException(op);
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException ite) {
+				throw ite.getTargetException();
+			}
+		}
+	}
+	
 	public static class TestJob extends AbstractSpringTestCase<DataSource> {
 
 		private static final long serialVersionUID = 930701941418132948L;
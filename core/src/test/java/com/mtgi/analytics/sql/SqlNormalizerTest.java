@@ -0,0 +1,93 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.sql;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.mtgi.analytics.LogScope;
+
+public class SqlNormalizerTest {
+
+	@Test
+	public void testLiterals() {
+		assertEquals("insert into T values (?, ?, null)",
+				SqlNormalizer.normalize("insert into T values (1, 'hello', null)"));
+		assertEquals("escaped quotes and exponents", "select * from T where X = ? and Y=? and Z = -?",
+				SqlNormalizer.normalize("select * from T where X = 'it''s' and Y=1.5e-3 and Z = -0x1F"));
+		assertEquals("identifiers containing digits are unchanged", "select COL1 from T2 where \"Col 3\" = ?",
+				SqlNormalizer.normalize("select COL1 from T2 where \"Col 3\" = 4"));
+	}
+
+	@Test
+	public void testWhitespaceAndComments() {
+		assertEquals("select ID from T where A = ? and B = ?",
+				SqlNormalizer.normalize("  select ID\n\tfrom T -- comment\n where A = 1 /* block\n comment */ and B = 2 "));
+	}
+
+	@Test
+	public void testInLists() {
+		String expected = "select ID from T where ID in (?) order by ID";
+		assertEquals(expected, SqlNormalizer.normalize("select ID from T where ID in (1, 2,3) order by ID"));
+		assertEquals(expected, SqlNormalizer.normalize("select ID from T where ID in ( 'a' ) order by ID"));
+		assertEquals(expected, SqlNormalizer.normalize("select ID from T where ID in (?,?) order by ID"));
+		assertEquals("value lists are not collapsed", "insert into T values (?, ?)",
+				SqlNormalizer.normalize("insert into T values (?, ?)"));
+	}
+
+	@Test
+	public void testFingerprint() {
+		String a = SqlNormalizer.fingerprint(SqlNormalizer.normalize("select ID from T where ID = 1"));
+		String b = SqlNormalizer.fingerprint(SqlNormalizer.normalize("select ID from T where ID = 200"));
+		String c = SqlNormalizer.fingerprint(SqlNormalizer.normalize("select NAME from T where ID = 200"));
+		assertEquals("fingerprint is 16 hex digits", 16, a.length());
+		assertTrue(a.matches("[0-9a-f]+"));
+		assertEquals("fingerprint ignores literal values", a, b);
+		assertFalse("fingerprint depends on statement", a.equals(c));
+		assertEquals("fingerprint is stable", "cbf29ce484222325", SqlNormalizer.fingerprint(""));
+	}
+
+	@Test
+	public void testDictionary() {
+		SqlDictionary dictionary = new SqlDictionary(2);
+		SqlDictionary.Entry a = dictionary.lookup("select ID from T where ID = 1");
+		assertSame("repeated lookups are cached", a, dictionary.lookup("select ID from T where ID = 1"));
+		assertSame("statements with the same fingerprint share an entry", a, dictionary.lookup("select ID from T where ID = 2"));
+		assertEquals("select ID from T where ID = ?", a.getSql());
+		assertEquals(a.getSql(), dictionary.getSql(a.getFingerprint()));
+		assertEquals(1, dictionary.getSize());
+
+		assertTrue("first record", a.record());
+		assertFalse("statement text recorded only once", a.record());
+		for (int i = 0; i < 2; ++i) {
+			LogScope previous = new LogScope().enter();
+			try {
+				assertTrue("statement text recorded again in each log", a.record());
+				assertFalse(a.record());
+			} finally {
+				LogScope.exit(previous);
+			}
+		}
+		assertFalse("log scopes don't affect recording outside of a log", a.record());
+
+		SqlDictionary.Entry name = dictionary.lookup("select NAME from T");
+		assertEquals(2, dictionary.getSize());
+		dictionary.lookup("select DESCRIPTION from T");
+		assertEquals("dictionary is bounded", 2, dictionary.getSize());
+		assertNull("oldest entry evicted", dictionary.getSql(a.getFingerprint()));
+		assertEquals(name.getSql(), dictionary.getSql(name.getFingerprint()));
+		assertSame("newer statements remain cached", name, dictionary.lookup("select NAME from T"));
+	}
+}
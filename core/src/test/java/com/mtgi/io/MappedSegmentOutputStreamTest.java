@@ -0,0 +1,123 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedSegmentOutputStreamTest {
+
+	private File file;
+	private MappedSegmentOutputStream inst;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("segment", ".xml");
+		inst = new MappedSegmentOutputStream(file, 64);
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		inst.close();
+		file.delete();
+	}
+	
+	@Test
+	public void testPreallocate() throws IOException {
+		assertEquals("segment preallocated", 64, file.length());
+		assertEquals(0, inst.getPosition());
+		assertEquals("footer reserved", 64 - MappedSegmentOutputStream.FOOTER_SIZE, inst.getRemaining());
+		
+		inst.write("hello".getBytes("UTF-8"));
+		inst.write('!');
+		assertEquals(6, inst.getPosition());
+		assertEquals("no file system growth on write", 64, file.length());
+		
+		inst.close();
+		assertEquals("segment truncated on close", "hello!", FileUtils.readFileToString(file, "UTF-8"));
+		assertEquals("position still available after close", 6, inst.getPosition());
+		
+		try {
+			inst.write('x');
+			fail("writes to a closed segment are rejected");
+		} catch (IOException expected) {}
+	}
+	
+	@Test
+	public void testGrowth() throws IOException {
+		StringBuffer expected = new StringBuffer();
+		for (int i = 0; i < 20; ++i) {
+			String chunk = "chunk" + i + ";";
+			inst.write(chunk.getBytes("UTF-8"));
+			expected.append(chunk);
+		}
+		assertTrue("segment extended", file.length() > 64);
+		assertEquals("segment extended in whole increments", 0, file.length() % 64);
+		
+		inst.close();
+		assertEquals("all data written", expected.toString(), FileUtils.readFileToString(file, "UTF-8"));
+	}
+	
+	@Test
+	public void testUnmap() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 64);
+			assertTrue("mapping released explicitly", MappedSegmentOutputStream.unmap(mapped));
+		} finally {
+			raf.close();
+		}
+	}
+	
+	@Test
+	public void testRecover() throws IOException {
+		inst.write("<log>committed".getBytes("UTF-8"));
+		inst.commit();
+		inst.write("partial".getBytes("UTF-8"));
+		
+		//simulate a crash by examining the file without closing the stream.
+		assertTrue("unclosed segment recovered", MappedSegmentOutputStream.recover(file, "</log>".getBytes("UTF-8")));
+		assertEquals("uncommitted data discarded", "<log>committed</log>", FileUtils.readFileToString(file, "UTF-8"));
+		assertFalse("recovered segment not recovered twice", MappedSegmentOutputStream.recover(file, "</log>".getBytes("UTF-8")));
+	}
+	
+	@Test
+	public void testRecoverAfterGrowth() throws IOException {
+		inst.write("<log>committed".getBytes("UTF-8"));
+		inst.commit();
+		for (int i = 0; i < 20; ++i)
+			inst.write("partial".getBytes("UTF-8"));
+		
+		assertTrue("unclosed segment recovered", MappedSegmentOutputStream.recover(file, "</log>".getBytes("UTF-8")));
+		assertEquals("uncommitted data discarded", "<log>committed</log>", FileUtils.readFileToString(file, "UTF-8"));
+	}
+	
+	@Test
+	public void testRecoverClosedSegment() throws IOException {
+		inst.write("<log>some text that is long enough to contain a footer</log>".getBytes("UTF-8"));
+		inst.close();
+		assertFalse("closed segment needs no recovery", MappedSegmentOutputStream.recover(file, "</log>".getBytes("UTF-8")));
+		assertEquals("<log>some text that is long enough to contain a footer</log>", FileUtils.readFileToString(file, "UTF-8"));
+	}
+}
@@ -0,0 +1,41 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.jmx.export.naming;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.springframework.jmx.export.annotation.AnnotationJmxAttributeSource;
+
+import com.mtgi.analytics.ChainingEventPersisterImpl;
+import com.mtgi.analytics.XmlBehaviorEventPersisterImpl;
+
+public class DefaultingMetadataNamingStrategyTest {
+
+	@Test
+	public void testNaming() throws MalformedObjectNameException {
+		DefaultingMetadataNamingStrategy strategy = new DefaultingMetadataNamingStrategy();
+		strategy.setAttributeSource(new AnnotationJmxAttributeSource());
+		
+		assertEquals("object name from metadata", ObjectName.getInstance("com.mtgi.analytics:name=BeetLog"), 
+					 strategy.getObjectName(new XmlBehaviorEventPersisterImpl(), "persister"));
+		assertEquals("object name from bean key", ObjectName.getInstance("com.mtgi.analytics:type=ChainingEventPersisterImpl,name=chain1"),
+					 strategy.getObjectName(new ChainingEventPersisterImpl(), "chain1"));
+		assertEquals("invalid characters replaced", ObjectName.getInstance("com.mtgi.analytics:type=ChainingEventPersisterImpl,name=a_b_c"),
+				 	 strategy.getObjectName(new ChainingEventPersisterImpl(), "a:b=c"));
+	}
+}
@@ -0,0 +1,106 @@
+/* 
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+ 
+package com.mtgi.xml;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class XmlDateFormatterTest {
+
+	private static final String[] ZONES = {
+		"UTC", "America/New_York", "Europe/London", "Asia/Kolkata", "America/St_Johns", 
+		"Australia/Lord_Howe", "Pacific/Chatham", "Asia/Kathmandu"
+	};
+	
+	@Test
+	public void testFormat() {
+		XmlDateFormatter formatter = new XmlDateFormatter(TimeZone.getTimeZone("UTC"));
+		assertEquals("2009-03-08T07:05:09.012+00:00", formatter.format(new Date(1236495909012L)));
+		assertEquals("next hour", "2009-03-08T08:00:00.000+00:00", formatter.format(new Date(1236499200000L)));
+		assertEquals("back to the previous hour", "2009-03-08T07:59:59.999+00:00", formatter.format(new Date(1236499199999L)));
+		
+		formatter = new XmlDateFormatter(TimeZone.getTimeZone("America/St_Johns"));
+		assertEquals("negative offset with minutes", "2009-07-01T09:30:00.000-02:30", formatter.format(1246449600000L));
+	}
+	
+	@Test
+	public void testSequentialTimes() {
+		//events arrive close together, mostly in increasing order; walk across several days, including DST changes.
+		long start = 1236340800000L; //2009-03-06, two days ahead of US DST change.
+		for (String id : ZONES) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			XmlDateFormatter formatter = new XmlDateFormatter(zone);
+			XmlDateFormat basis = new XmlDateFormat();
+			basis.setTimeZone(zone);
+			
+			for (long time = start; time < start + 4 * 24 * 3600000L; time += 37003) {
+				Date date = new Date(time);
+				assertEquals(id + " " + time, basis.format(date), formatter.format(date));
+			}
+		}
+	}
+	
+	@Test
+	public void testTransitions() {
+		//sample densely around the actual transitions of each zone, in both directions.
+		Random rand = new Random(42);
+		long[] transitions = {
+			1236495600000L, 1257051600000L, //US 2009
+			1238288400000L, 1256432400000L, //EU 2009
+			1238857200000L, 1254580200000L, //Lord Howe 2009, half-hour DST
+			1238248800000L, 1253368800000L  //Chatham 2009
+		};
+		for (String id : ZONES) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			XmlDateFormatter formatter = new XmlDateFormatter(zone);
+			XmlDateFormat basis = new XmlDateFormat();
+			basis.setTimeZone(zone);
+			
+			for (long transition : transitions) {
+				for (int i = 0; i < 2000; ++i) {
+					long time = transition + rand.nextInt(4 * 3600000) - 2 * 3600000;
+					Date date = new Date(time);
+					assertEquals(id + " " + time, basis.format(date), formatter.format(date));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testUnusualYears() {
+		TimeZone zone = TimeZone.getTimeZone("America/New_York");
+		XmlDateFormatter formatter = new XmlDateFormatter(zone);
+		XmlDateFormat basis = new XmlDateFormat();
+		basis.setTimeZone(zone);
+		
+		long[] times = {
+			0L, -1L, 
+			-30610224000000L, //year 1000
+			-30610224000001L, //year 999
+			-62135769600000L, //year 1
+			-62167392000000L, //before the common era
+			253402300799999L, //end of year 9999
+			253402300800000L  //year 10000
+		};
+		for (long time : times) {
+			Date date = new Date(time);
+			assertEquals(Long.toString(time), basis.format(date), formatter.format(date));
+		}
+	}
+}
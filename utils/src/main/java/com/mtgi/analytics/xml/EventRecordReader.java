@@ -0,0 +1,252 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.xml;
+
+import static com.mtgi.analytics.EventRecordWriter.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.mtgi.analytics.EventRecordWriter;
+import com.mtgi.xml.XmlDateFormatter;
+
+/**
+ * Reads a behavior tracking log written in the binary record format of {@link EventRecordWriter},
+ * converting each event to the same XML written by the XML log persister.  Like {@link BinaryToXml},
+ * the reader tolerates incomplete logs left by a crashed server; reading stops at the last complete record.
+ */
+public class EventRecordReader {
+
+	private final InputStream in;
+	private final XmlDateFormatter dateFormat = new XmlDateFormatter();
+	private final ArrayList<String> dictionary = new ArrayList<String>();
+	private long lastStart;
+
+	//payload of the current record, and the read position within it.
+	private byte[] record = new byte[1024];
+	private int pos;
+	private int limit;
+
+	public EventRecordReader(InputStream in) throws IOException {
+		this.in = new BufferedInputStream(in);
+		for (byte b : HEADER)
+			if (this.in.read() != (b & 0xFF))
+				throw new IOException("Input is not a behavior tracking record log");
+	}
+
+	/**
+	 * Convert the entire log to an XML <code>event-log</code> document, with one event per line.
+	 */
+	public void writeLog(XMLStreamWriter writer) throws IOException, XMLStreamException {
+		writer.writeStartDocument();
+		writer.writeStartElement("event-log");
+		while (writeNextEvent(writer))
+			writer.writeCharacters("\n");
+		writer.writeEndDocument();
+	}
+
+	/**
+	 * Read up to the next event record, and write it to <code>writer</code> as an <code>event</code> element.
+	 * @return false if there are no more events in the log
+	 */
+	public boolean writeNextEvent(XMLStreamWriter writer) throws IOException, XMLStreamException {
+		while (readRecord()) {
+			switch (record[pos++]) {
+			case RECORD_STRING:
+				dictionary.add(readUTF(limit - pos));
+				break;
+			case RECORD_RESET:
+				dictionary.clear();
+				break;
+			case RECORD_EVENT:
+				writeEvent(writer);
+				return true;
+			case RECORD_END:
+				return false;
+			default:
+				throw new IOException("Unrecognized record type " + record[pos - 1]);
+			}
+		}
+		return false;
+	}
+
+	private void writeEvent(XMLStreamWriter writer) throws IOException, XMLStreamException {
+		writer.writeStartElement("event");
+		String id = readId();
+		if (id != null)
+			writer.writeAttribute("id", id);
+		String parentId = readId();
+		if (parentId != null)
+			writer.writeAttribute("parent-id", parentId);
+
+		writeEventAttribute(writer, "type", readRef());
+		writeEventAttribute(writer, "name", readRef());
+		writeEventAttribute(writer, "application", readRef());
+
+		lastStart += unzigzag(readVarint());
+		writeEventAttribute(writer, "start", dateFormat.format(lastStart));
+		long duration = unzigzag(readVarint());
+		if (duration >= 0)
+			writeEventAttribute(writer, "duration-ns", Long.toString(duration));
+
+		writeEventAttribute(writer, "user-id", readRef());
+		writeEventAttribute(writer, "session-id", readRef());
+		writeEventAttribute(writer, "error", readString());
+
+		String data = readRef();
+		if (data != null)
+			writeElement(writer, data);
+
+		writer.writeEndElement();
+	}
+
+	private static void writeEventAttribute(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+		if (value != null) {
+			writer.writeStartElement(name);
+			writer.writeCharacters(value);
+			writer.writeEndElement();
+		}
+	}
+
+	/** write an event data element, the name of which has already been read */
+	private void writeElement(XMLStreamWriter writer, String name) throws IOException, XMLStreamException {
+		ArrayList<String> attributes = new ArrayList<String>();
+		for (String attribute = readRef(); attribute != null; attribute = readRef()) {
+			attributes.add(attribute);
+			int type = record[pos++];
+			attributes.add(type == VALUE_LONG ? Long.toString(unzigzag(readVarint())) : readString());
+		}
+		String text = readString();
+
+		String child = readRef();
+		if (attributes.isEmpty() && text == null && child == null) {
+			writer.writeEmptyElement(name);
+			return;
+		}
+
+		writer.writeStartElement(name);
+		for (int i = 0; i < attributes.size(); i += 2)
+			writer.writeAttribute(attributes.get(i), attributes.get(i + 1));
+		if (text != null)
+			writer.writeCharacters(text);
+		for (; child != null; child = readRef())
+			writeElement(writer, child);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * read the next record payload into the record buffer.
+	 * @return false at the end of input, including a truncated final record or the zero fill of an unrecovered log segment
+	 */
+	private boolean readRecord() throws IOException {
+		long length = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.read();
+			if (b < 0)
+				return false;
+			length |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				break;
+		}
+		if (length == 0)
+			return false;
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Invalid record length " + length);
+
+		if (record.length < length)
+			record = new byte[(int)length];
+		limit = (int)length;
+		for (pos = 0; pos < limit; ) {
+			int read = in.read(record, pos, limit - pos);
+			if (read < 0)
+				return false;
+			pos += read;
+		}
+		pos = 0;
+		return true;
+	}
+
+	private long readVarint() {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = record[pos++];
+			value |= (long)(b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private String readRef() throws IOException {
+		int ref = (int)readVarint();
+		if (ref == 0)
+			return null;
+		if (ref > dictionary.size())
+			throw new IOException("Undefined string reference " + ref);
+		return dictionary.get(ref - 1);
+	}
+
+	private String readString() {
+		int length = (int)readVarint();
+		return length == 0 ? null : readUTF(length - 1);
+	}
+
+	private String readId() {
+		switch (record[pos++]) {
+		case ID_UUID:
+			long msb = readLong();
+			long lsb = readLong();
+			return new UUID(msb, lsb).toString();
+		case ID_LONG:
+			return Long.toString(unzigzag(readVarint()));
+		case ID_STRING:
+			return readString();
+		default:
+			return null;
+		}
+	}
+
+	private long readLong() {
+		long value = 0;
+		for (int i = 0; i < 8; ++i)
+			value = (value << 8) | (record[pos++] & 0xFF);
+		return value;
+	}
+
+	/** decode <code>length</code> bytes of modified UTF-8 */
+	private String readUTF(int length) {
+		StringBuilder buf = new StringBuilder(length);
+		for (int end = pos + length; pos < end; ) {
+			int b = record[pos++] & 0xFF;
+			if (b < 0x80) {
+				buf.append((char)b);
+			} else if (b < 0xE0) {
+				buf.append((char)(((b & 0x1F) << 6) | (record[pos++] & 0x3F)));
+			} else {
+				int c = ((b & 0x0F) << 12) | ((record[pos++] & 0x3F) << 6);
+				buf.append((char)(c | (record[pos++] & 0x3F)));
+			}
+		}
+		return buf.toString();
+	}
+}
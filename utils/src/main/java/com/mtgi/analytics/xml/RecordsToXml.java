@@ -0,0 +1,42 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.xml;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Convert a behavior tracking log in binary record format (see {@link EventRecordReader}) to XML text.
+ */
+public class RecordsToXml extends BinaryXmlProcessor {
+
+	private static final String HELP_TEXT = "Usage: -tool records [input] [output]";
+
+	public RecordsToXml() {
+		super(HELP_TEXT);
+	}
+
+	public void parse(InputStream records, OutputStream xml) throws Exception {
+		XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(xml, "UTF-8");
+		try {
+			new EventRecordReader(records).writeLog(writer);
+		} finally {
+			writer.flush();
+			writer.close();
+		}
+	}
+}
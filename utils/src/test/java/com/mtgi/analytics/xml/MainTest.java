@@ -69,7 +69,7 @@ public class MainTest {
 		assertEquals("Tool returned non-zero status", 1, Main.process(args));
 		System.err.flush();
 		assertEquals("Tool help message displayed", 
-				"Usage: -tool xml|xslt|csv [-help|--help|-?] [tool options]", 
+				"Usage: -tool xml|xslt|csv|records [-help|--help|-?] [tool options]", 
 				new String(err.toByteArray()).trim());
 	}
 	
@@ -79,7 +79,7 @@ public class MainTest {
 		assertEquals("Tool returned non-zero status", 1, Main.process(args));
 		System.err.flush();
 		assertEquals("Default xml tool help message displayed", 
-				"Usage: -tool xml|xslt|csv [-help|--help|-?] [tool options]", 
+				"Usage: -tool xml|xslt|csv|records [-help|--help|-?] [tool options]", 
 				new String(err.toByteArray()).trim());
 	}
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ */
+
+package com.mtgi.analytics.xml;
+
+import static com.mtgi.analytics.xml.BinaryToXSLTTest.getResource;
+import static org.custommonkey.xmlunit.XMLAssert.assertXMLIdentical;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.TimeZone;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.custommonkey.xmlunit.Diff;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordsToXmlTest {
+
+	private TimeZone timeZone;
+	
+	@Before
+	public void setUp() {
+		//expected event start times are in UTC.
+		timeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+	}
+	
+	@After
+	public void tearDown() {
+		TimeZone.setDefault(timeZone);
+	}
+	
+	@Test
+	public void testConversion() throws Exception {
+		
+		File in = getResource(RecordsToXmlTest.class, "RecordsToXmlTest-input.bevt");
+		File expectedData = getResource(RecordsToXmlTest.class, "RecordsToXmlTest-output.xml");
+		File out = File.createTempFile("RecordsToXmlTest", ".xml");
+		out.deleteOnExit();
+		
+		String[] args = { 
+			"-tool", "records", 
+			in.getAbsolutePath(), out.getAbsolutePath() 
+		};
+		assertEquals("process completes successfully", 0, Main.process(args));
+		
+		InputStreamReader expected = new InputStreamReader(new FileInputStream(expectedData), "UTF-8");
+		try {
+			InputStreamReader actual = new InputStreamReader(new FileInputStream(out), "UTF-8");
+			try {
+				assertXMLIdentical(new Diff(expected, actual), true);
+			} finally {
+				actual.close();
+			}
+		} finally {
+			expected.close();
+		}
+		
+		out.delete();
+	}
+	
+	@Test
+	public void testTruncatedLog() throws Exception {
+		//drop the end of the log, as if the server crashed while writing the last event.
+		File in = getResource(RecordsToXmlTest.class, "RecordsToXmlTest-input.bevt");
+		byte[] truncated = new byte[(int)in.length() - 10];
+		DataInputStream data = new DataInputStream(new FileInputStream(in));
+		try {
+			data.readFully(truncated);
+		} finally {
+			data.close();
+		}
+		
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(xml, "UTF-8");
+		EventRecordReader reader = new EventRecordReader(new ByteArrayInputStream(truncated));
+		reader.writeLog(writer);
+		writer.close();
+		
+		String result = xml.toString("UTF-8");
+		assertTrue("complete events converted", result.contains("<name>goodbye</name>"));
+		assertFalse("incomplete event skipped", result.contains("<child>"));
+		assertTrue("document closed", result.endsWith("</event-log>"));
+	}
+	
+	@Test
+	public void testInvalidInput() throws Exception {
+		try {
+			new EventRecordReader(new ByteArrayInputStream("<event-log/>".getBytes("UTF-8")));
+			fail("xml input should be rejected");
+		} catch (java.io.IOException expected) {
+		}
+	}
+}